@@ -0,0 +1,170 @@
+package com.zhisheng.libraries.stateProcessApi;
+
+import com.google.common.hash.Hashing;
+import org.apache.flink.api.common.functions.MapFunction;
+import org.apache.flink.api.common.state.ValueState;
+import org.apache.flink.api.common.state.ValueStateDescriptor;
+import org.apache.flink.api.common.typeinfo.TypeInformation;
+import org.apache.flink.api.common.typeinfo.Types;
+import org.apache.flink.api.common.typeutils.base.BooleanSerializer;
+import org.apache.flink.api.common.typeutils.base.LongSerializer;
+import org.apache.flink.api.java.DataSet;
+import org.apache.flink.api.java.ExecutionEnvironment;
+import org.apache.flink.api.java.functions.KeySelector;
+import org.apache.flink.api.java.tuple.Tuple2;
+import org.apache.flink.api.java.typeutils.TupleTypeInfo;
+import org.apache.flink.api.java.utils.ParameterTool;
+import org.apache.flink.configuration.Configuration;
+import org.apache.flink.contrib.streaming.state.EmbeddedRocksDBStateBackend;
+import org.apache.flink.runtime.state.ttl.TtlStateFactory;
+import org.apache.flink.runtime.state.ttl.TtlValue;
+import org.apache.flink.state.api.BootstrapTransformation;
+import org.apache.flink.state.api.ExistingSavepoint;
+import org.apache.flink.state.api.OperatorTransformation;
+import org.apache.flink.state.api.Savepoint;
+import org.apache.flink.state.api.functions.KeyedStateBootstrapFunction;
+import org.apache.flink.state.api.functions.KeyedStateReaderFunction;
+import org.apache.flink.util.Collector;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Desc: 离线整理去重作业（KeyedStateDeduplication / TuningKeyedStateDeduplication）的 savepoint：
+ * 1、读出带 TTL 的 ValueState，丢掉已经过期、但还没被 RocksDB compaction 清理掉的 id；
+ * 2、--hashKey 时把 String 类型的 id 转成 murmur3_128 的 long（即 TuningKeyedStateDeduplication 的格式），key 从 36 字节变成 8 字节；
+ * 3、按目标的 maxParallelism / parallelism 重新写出这个算子的状态，其他算子（比如 Kafka source 的 offset）原样保留
+ * 写出的状态文件按 parallelism 划分 key group，作业用同样的并行度恢复时每个 subtask 只需要读自己的文件，不需要在恢复时过滤和重新分配
+ * TTL 的时间戳原样保留（按 TtlValue 直接读写），整理之后不会延长 id 的过期时间
+ * 去重作业加 uid 之前的 savepoint 里只有自动生成的算子 id，这里按 uid 找不到：先用新版本的作业从旧 savepoint 恢复
+ * （作业里 setUidHash 固定了旧的算子 id，去重状态和 Kafka offset 都会恢复），再触发一次 savepoint，用新的 savepoint 整理
+ * 参数：--input hdfs:///flink/savepoints/savepoint-xxx --output hdfs:///flink/savepoints/compacted
+ * [--uid keyed-state-deduplication] [--outputUid 默认和 uid 相同，--hashKey 时为 tuning-keyed-state-deduplication]
+ * [--stateName KeyedStateDeduplication] [--keyType string|long] [--hashKey] [--ttl 129600000（36 小时）]
+ * [--maxParallelism 4096] [--parallelism 6]
+ * Created by zhisheng on 2019/11/16 上午10:20
+ * blog：http://www.54tianzhisheng.cn/
+ * 微信公众号：zhisheng
+ */
+public class DeduplicationStateCompactor {
+
+    public static void main(String[] args) throws Exception {
+        ParameterTool params = ParameterTool.fromArgs(args);
+        String input = params.getRequired("input");
+        String output = params.getRequired("output");
+        String uid = params.get("uid", "keyed-state-deduplication");
+        boolean hashKey = params.has("hashKey");
+        String outputUid = params.get("outputUid", hashKey ? "tuning-keyed-state-deduplication" : uid);
+        String stateName = params.get("stateName", "KeyedStateDeduplication");
+        String keyType = params.get("keyType", "string");
+        long ttl = params.getLong("ttl", TimeUnit.HOURS.toMillis(36));
+        int maxParallelism = params.getInt("maxParallelism", 4096);
+        int parallelism = params.getInt("parallelism", 6);
+        // 以开始运行的时间判断是否过期，所有 subtask 使用同一个时间
+        long now = System.currentTimeMillis();
+
+        ExecutionEnvironment bEnv = ExecutionEnvironment.getExecutionEnvironment();
+        // 写状态的并行度就是作业恢复时的并行度，这样每个 subtask 恢复时正好读一个文件
+        bEnv.setParallelism(parallelism);
+        ExistingSavepoint savepoint = Savepoint.load(bEnv, input, new EmbeddedRocksDBStateBackend(true));
+
+        BootstrapTransformation<?> transformation;
+        if ("long".equals(keyType)) {
+            if (hashKey) {
+                throw new IllegalArgumentException("--hashKey only applies to --keyType string");
+            }
+            DataSet<Tuple2<Long, Long>> entries = savepoint.readKeyedState(uid,
+                    new TtlEntryReader<>(stateName, ttl, now), Types.LONG, new TupleTypeInfo<>(Types.LONG, Types.LONG));
+            transformation = bootstrap(entries, stateName, Types.LONG, maxParallelism);
+        } else if ("string".equals(keyType)) {
+            DataSet<Tuple2<String, Long>> entries = savepoint.readKeyedState(uid,
+                    new TtlEntryReader<>(stateName, ttl, now), Types.STRING, new TupleTypeInfo<>(Types.STRING, Types.LONG));
+            if (hashKey) {
+                DataSet<Tuple2<Long, Long>> hashed = entries
+                        .map((MapFunction<Tuple2<String, Long>, Tuple2<Long, Long>>) entry ->
+                                // 和 TuningKeyedStateDeduplication 的 keyBy 保持一致
+                                Tuple2.of(Hashing.murmur3_128(5).hashUnencodedChars(entry.f0).asLong(), entry.f1))
+                        .returns(new TupleTypeInfo<>(Types.LONG, Types.LONG))
+                        // hash 冲突的 id 合并成一条，保留最新的时间戳
+                        .groupBy(0)
+                        .max(1);
+                transformation = bootstrap(hashed, stateName, Types.LONG, maxParallelism);
+            } else {
+                transformation = bootstrap(entries, stateName, Types.STRING, maxParallelism);
+            }
+        } else {
+            throw new IllegalArgumentException("unknown keyType " + keyType);
+        }
+
+        savepoint.removeOperator(uid)
+                .withOperator(outputUid, transformation)
+                .write(output);
+        bEnv.execute("DeduplicationStateCompactor");
+    }
+
+    private static <K> BootstrapTransformation<Tuple2<K, Long>> bootstrap(DataSet<Tuple2<K, Long>> entries, String stateName,
+                                                                         TypeInformation<K> keyType, int maxParallelism) {
+        return OperatorTransformation.bootstrapWith(entries)
+                // 只改这个算子的 maxParallelism，其他算子保持 savepoint 里原来的值
+                .setMaxParallelism(maxParallelism)
+                .keyBy((KeySelector<Tuple2<K, Long>, K>) entry -> entry.f0, keyType)
+                .transform(new TtlEntryWriter<>(stateName));
+    }
+
+    /**
+     * 去重状态原来是 ValueState<Boolean> + State TTL，存储格式是 TtlValue(value, lastAccessTimestamp)，
+     * 这里不开 TTL、直接用 TtlSerializer 读写，才能拿到原来的时间戳
+     */
+    private static ValueStateDescriptor<TtlValue<Boolean>> ttlDescriptor(String stateName) {
+        return new ValueStateDescriptor<>(stateName, new TtlStateFactory.TtlSerializer<>(LongSerializer.INSTANCE, BooleanSerializer.INSTANCE));
+    }
+
+    /**
+     * 输出没有过期的 (key, 最后一次写入的时间)
+     */
+    public static class TtlEntryReader<K> extends KeyedStateReaderFunction<K, Tuple2<K, Long>> {
+        private final String stateName;
+        private final long ttl;
+        private final long now;
+
+        private transient ValueState<TtlValue<Boolean>> state;
+
+        public TtlEntryReader(String stateName, long ttl, long now) {
+            this.stateName = stateName;
+            this.ttl = ttl;
+            this.now = now;
+        }
+
+        @Override
+        public void open(Configuration parameters) {
+            state = getRuntimeContext().getState(ttlDescriptor(stateName));
+        }
+
+        @Override
+        public void readKey(K key, Context ctx, Collector<Tuple2<K, Long>> out) throws Exception {
+            TtlValue<Boolean> value = state.value();
+            if (value != null && value.getLastAccessTimestamp() + ttl > now) {
+                out.collect(Tuple2.of(key, value.getLastAccessTimestamp()));
+            }
+        }
+    }
+
+    public static class TtlEntryWriter<K> extends KeyedStateBootstrapFunction<K, Tuple2<K, Long>> {
+        private final String stateName;
+
+        private transient ValueState<TtlValue<Boolean>> state;
+
+        public TtlEntryWriter(String stateName) {
+            this.stateName = stateName;
+        }
+
+        @Override
+        public void open(Configuration parameters) {
+            state = getRuntimeContext().getState(ttlDescriptor(stateName));
+        }
+
+        @Override
+        public void processElement(Tuple2<K, Long> value, Context ctx) throws Exception {
+            state.update(new TtlValue<>(true, value.f1));
+        }
+    }
+}
@@ -29,6 +29,72 @@ public class PropertiesConstants {
     //es config
     public static final String ELASTICSEARCH_BULK_FLUSH_MAX_ACTIONS = "elasticsearch.bulk.flush.max.actions";
     public static final String ELASTICSEARCH_HOSTS = "elasticsearch.hosts";
+    public static final String ELASTICSEARCH_BULK_FLUSH_MAX_SIZE_MB = "elasticsearch.bulk.flush.max.size.mb";
+    public static final String ELASTICSEARCH_BULK_FLUSH_INTERVAL = "elasticsearch.bulk.flush.interval";
+    public static final String ELASTICSEARCH_BULK_FLUSH_BACKOFF_ENABLE = "elasticsearch.bulk.flush.backoff.enable";
+    public static final String ELASTICSEARCH_BULK_FLUSH_BACKOFF_RETRIES = "elasticsearch.bulk.flush.backoff.retries";
+    public static final String ELASTICSEARCH_BULK_FLUSH_BACKOFF_DELAY = "elasticsearch.bulk.flush.backoff.delay";
+    public static final String ELASTICSEARCH_REJECTED_RECOVER_INTERVAL = "elasticsearch.rejected.recover.interval";
+
+    //log multiline
+    public static final String LOG_MULTILINE_ENABLE = "log.multiline.enable";
+    public static final String LOG_MULTILINE_MAX_LINES = "log.multiline.max.lines";
+    public static final String LOG_MULTILINE_MAX_BYTES = "log.multiline.max.bytes";
+    public static final String LOG_MULTILINE_TIMEOUT = "log.multiline.timeout";
+
+    //log template
+    public static final String LOG_TEMPLATE_ENABLE = "log.template.enable";
+    public static final String LOG_TEMPLATE_SIMILARITY = "log.template.similarity";
+    public static final String LOG_TEMPLATE_MAX_PER_LEAF = "log.template.max.per.leaf";
+    public static final String LOG_TEMPLATE_AGGREGATE_LEVELS = "log.template.aggregate.levels";
+
+    //log alert
+    public static final String LOG_ALERT_PANE_SIZE = "log.alert.pane.size";
+    public static final String LOG_ALERT_WINDOW_PANES = "log.alert.window.panes";
+    public static final String LOG_ALERT_MIN_COUNT = "log.alert.min.count";
+    public static final String LOG_ALERT_BASELINE_FACTOR = "log.alert.baseline.factor";
+    public static final String LOG_ALERT_BASELINE_ALPHA = "log.alert.baseline.alpha";
+    public static final String LOG_ALERT_RECOVER_RATIO = "log.alert.recover.ratio";
+    public static final String LOG_ALERT_BASELINE_TTL = "log.alert.baseline.ttl";
+
+    //alert rule
+    public static final String ALERT_RULE_QUERY_THREADS = "alert.rule.query.threads";
+    public static final String ALERT_RULE_QUERY_QUEUE_SIZE = "alert.rule.query.queue.size";
+    public static final String ALERT_RULE_CACHE_TTL = "alert.rule.cache.ttl";
+    public static final String ALERT_RULE_CACHE_NEGATIVE_TTL = "alert.rule.cache.negative.ttl";
+    public static final String ALERT_RULE_BATCH_SIZE = "alert.rule.batch.size";
+    public static final String ALERT_RULE_BATCH_INTERVAL = "alert.rule.batch.interval";
+    public static final String ALERT_RULE_EXPRESSION_STATE_TTL = "alert.rule.expression.state.ttl";
+
+    //alert dingding notify
+    public static final String ALERT_DINGDING_HOOKS = "alert.dingding.hooks";
+    public static final String ALERT_DINGDING_DIGEST_WINDOW = "alert.dingding.digest.window";
+    public static final String ALERT_DINGDING_DIGEST_MAX_ALERTS = "alert.dingding.digest.max.alerts";
+    public static final String ALERT_DINGDING_MAX_PENDING = "alert.dingding.max.pending";
+    public static final String ALERT_DINGDING_RATE_PER_MINUTE = "alert.dingding.rate.per.minute";
+    public static final String ALERT_DINGDING_MAX_RETRIES = "alert.dingding.max.retries";
+    public static final String ALERT_DINGDING_RETRY_BACKOFF = "alert.dingding.retry.backoff";
+
+    //alert convergence
+    public static final String ALERT_CONVERGENCE_ENABLE = "alert.convergence.enable";
+    public static final String ALERT_CONVERGENCE_SCOPE_TAGS = "alert.convergence.scope.tags";
+    public static final String ALERT_CONVERGENCE_GROUP_TAGS = "alert.convergence.group.tags";
+    public static final String ALERT_CONVERGENCE_SILENCE = "alert.convergence.silence";
+    public static final String ALERT_CONVERGENCE_ESCALATION = "alert.convergence.escalation";
+    public static final String ALERT_CONVERGENCE_EXPIRE = "alert.convergence.expire";
+    public static final String ALERT_CONVERGENCE_INHIBIT = "alert.convergence.inhibit";
+    public static final String ALERT_CONVERGENCE_MAINTENANCE_ENABLE = "alert.convergence.maintenance.enable";
+
+    //alert anomaly detection
+    public static final String ALERT_ANOMALY_MEASUREMENTS = "alert.anomaly.measurements";
+    public static final String ALERT_ANOMALY_THRESHOLD = "alert.anomaly.threshold";
+    public static final String ALERT_ANOMALY_RECOVER_THRESHOLD = "alert.anomaly.recover.threshold";
+    public static final String ALERT_ANOMALY_MIN_CONSECUTIVE = "alert.anomaly.min.consecutive";
+    public static final String ALERT_ANOMALY_WARMUP = "alert.anomaly.warmup";
+    public static final String ALERT_ANOMALY_EWMA_ALPHA = "alert.anomaly.ewma.alpha";
+    public static final String ALERT_ANOMALY_SEASON_SLOTS = "alert.anomaly.season.slots";
+    public static final String ALERT_ANOMALY_SEASON_SLOT_SIZE = "alert.anomaly.season.slot.size";
+    public static final String ALERT_ANOMALY_STATE_TTL = "alert.anomaly.state.ttl";
 
     //mysql
     public static final String MYSQL_DATABASE = "mysql.database";
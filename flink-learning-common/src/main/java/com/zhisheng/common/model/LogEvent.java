@@ -6,6 +6,7 @@ import lombok.Data;
 import lombok.NoArgsConstructor;
 
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -33,4 +34,10 @@ public class LogEvent {
 
     //the tag of log(appId、dockerId、machine hostIp、machine clusterName、...)
     private Map<String, String> tags = new HashMap<>();
+
+    //the template id of log message(mined from similar messages, eg: Removed <*> expired offsets in <*> milliseconds.)
+    private String templateId;
+
+    //the variables of log message, fill the <*> of the template in order
+    private List<String> variables;
 }
\ No newline at end of file
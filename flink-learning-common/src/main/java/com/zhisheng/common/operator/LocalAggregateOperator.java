@@ -0,0 +1,203 @@
+package com.zhisheng.common.operator;
+
+import org.apache.flink.api.common.functions.AggregateFunction;
+import org.apache.flink.api.common.state.ListState;
+import org.apache.flink.api.common.state.ListStateDescriptor;
+import org.apache.flink.api.common.typeinfo.TypeInformation;
+import org.apache.flink.api.java.functions.KeySelector;
+import org.apache.flink.api.java.tuple.Tuple2;
+import org.apache.flink.api.java.typeutils.TupleTypeInfo;
+import org.apache.flink.metrics.Counter;
+import org.apache.flink.metrics.Gauge;
+import org.apache.flink.runtime.state.StateInitializationContext;
+import org.apache.flink.runtime.state.StateSnapshotContext;
+import org.apache.flink.streaming.api.operators.AbstractStreamOperator;
+import org.apache.flink.streaming.api.operators.ChainingStrategy;
+import org.apache.flink.streaming.api.operators.OneInputStreamOperator;
+import org.apache.flink.streaming.runtime.streamrecord.StreamRecord;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Desc: 通用的 LocalKeyBy 预聚合算子，放在 keyBy 之前（和上游 chain 在一起），解决热点 key 的数据倾斜：
+ * 每个 subtask 用 AggregateFunction 在本地按 key 聚合，输出 (key, 部分聚合结果)，下游按 key keyBy 之后再用 AggregateFunction#merge 合并；
+ * 满足以下任意一个条件时把缓存的部分聚合结果全部发往下游：
+ * 1、自上次发送以来收到 maxCount 条数据
+ * 2、估算的缓存大小达到 maxMemorySize（由 SizeEstimator 估算每个 key 的大小，<= 0 表示不限制）
+ * 3、距离上次定时发送超过 flushInterval（ms，<= 0 表示不按时间发送），数据很少时也不会一直缓存在本地
+ * flushOnCheckpoint 为 true 时在 checkpoint barrier 之前发送（prepareSnapshotPreBarrier），状态里什么都不用存；
+ * 为 false 时缓存跨越 checkpoint，只把每个 key 的部分聚合结果（而不是原始数据）存进 operator state，恢复或者改并行度后用 merge 合并
+ * 注意发送到下游的数据不带时间戳，下游不能再用 event time 窗口
+ * Created by zhisheng on 2019/11/20 上午10:15
+ * blog：http://www.54tianzhisheng.cn/
+ * 微信公众号：zhisheng
+ */
+public class LocalAggregateOperator<K, IN, ACC> extends AbstractStreamOperator<Tuple2<K, ACC>>
+        implements OneInputStreamOperator<IN, Tuple2<K, ACC>> {
+
+    private final KeySelector<IN, K> keySelector;
+    private final AggregateFunction<IN, ACC, ?> aggregateFunction;
+    private final TypeInformation<K> keyType;
+    private final TypeInformation<ACC> accumulatorType;
+    private final long maxCount;
+    private final long maxMemorySize;
+    private final SizeEstimator<K, ACC> sizeEstimator;
+    private final long flushInterval;
+    private final boolean flushOnCheckpoint;
+
+    private transient Map<K, Partial<ACC>> buffer;
+    private transient long count;
+    private transient long memorySize;
+    private transient ListState<Tuple2<K, ACC>> partialState;
+    private transient Counter flushes;
+
+    /**
+     * @param maxCount          收到多少条数据之后发送
+     * @param maxMemorySize     缓存的部分聚合结果估算大小（字节）的上限，<= 0 表示不限制
+     * @param sizeEstimator     估算一个 key 的部分聚合结果占用的内存，maxMemorySize > 0 时必须设置
+     * @param flushInterval     定时发送的间隔（ms），<= 0 表示不定时发送
+     * @param flushOnCheckpoint 是否在 checkpoint barrier 之前发送
+     */
+    public LocalAggregateOperator(KeySelector<IN, K> keySelector, AggregateFunction<IN, ACC, ?> aggregateFunction,
+                                  TypeInformation<K> keyType, TypeInformation<ACC> accumulatorType,
+                                  long maxCount, long maxMemorySize, SizeEstimator<K, ACC> sizeEstimator,
+                                  long flushInterval, boolean flushOnCheckpoint) {
+        if (maxCount <= 0) {
+            throw new IllegalArgumentException("maxCount must be positive, but is " + maxCount);
+        }
+        if (maxMemorySize > 0 && sizeEstimator == null) {
+            throw new IllegalArgumentException("sizeEstimator must be set when maxMemorySize is " + maxMemorySize);
+        }
+        this.keySelector = keySelector;
+        this.aggregateFunction = aggregateFunction;
+        this.keyType = keyType;
+        this.accumulatorType = accumulatorType;
+        this.maxCount = maxCount;
+        this.maxMemorySize = maxMemorySize;
+        this.sizeEstimator = sizeEstimator;
+        this.flushInterval = flushInterval;
+        this.flushOnCheckpoint = flushOnCheckpoint;
+        // 和上游 chain 在一起，预聚合之前的数据不经过网络
+        setChainingStrategy(ChainingStrategy.ALWAYS);
+    }
+
+    public LocalAggregateOperator(KeySelector<IN, K> keySelector, AggregateFunction<IN, ACC, ?> aggregateFunction,
+                                  TypeInformation<K> keyType, TypeInformation<ACC> accumulatorType,
+                                  long maxCount, long flushInterval) {
+        this(keySelector, aggregateFunction, keyType, accumulatorType, maxCount, 0, null, flushInterval, true);
+    }
+
+    /**
+     * 输出的类型，transform 时使用
+     */
+    public TypeInformation<Tuple2<K, ACC>> getProducedType() {
+        return new TupleTypeInfo<>(keyType, accumulatorType);
+    }
+
+    @Override
+    public void initializeState(StateInitializationContext context) throws Exception {
+        super.initializeState(context);
+        buffer = new HashMap<>();
+        partialState = context.getOperatorStateStore().getListState(
+                new ListStateDescriptor<>("localAggregatePartials", getProducedType()));
+        // 改变并行度之后，同一个 key 的部分聚合结果可能分到同一个 subtask 上，需要合并
+        for (Tuple2<K, ACC> partial : partialState.get()) {
+            Partial<ACC> current = buffer.get(partial.f0);
+            update(partial.f0, current, current == null ? partial.f1 : aggregateFunction.merge(current.accumulator, partial.f1));
+        }
+    }
+
+    @Override
+    public void open() throws Exception {
+        super.open();
+        flushes = getMetricGroup().counter("localAggregateFlushes");
+        getMetricGroup().gauge("localAggregateKeys", (Gauge<Integer>) () -> buffer.size());
+        getMetricGroup().gauge("localAggregateMemorySize", (Gauge<Long>) () -> memorySize);
+        if (flushInterval > 0) {
+            getProcessingTimeService().registerTimer(getProcessingTimeService().getCurrentProcessingTime() + flushInterval, this::onFlushTimer);
+        }
+    }
+
+    @Override
+    public void processElement(StreamRecord<IN> element) throws Exception {
+        IN value = element.getValue();
+        K key = keySelector.getKey(value);
+        Partial<ACC> current = buffer.get(key);
+        update(key, current, aggregateFunction.add(value, current == null ? aggregateFunction.createAccumulator() : current.accumulator));
+        count++;
+        if (count >= maxCount || (maxMemorySize > 0 && memorySize >= maxMemorySize)) {
+            flush();
+        }
+    }
+
+    private void update(K key, Partial<ACC> current, ACC accumulator) {
+        if (current == null) {
+            current = new Partial<>();
+            buffer.put(key, current);
+        }
+        current.accumulator = accumulator;
+        if (maxMemorySize > 0) {
+            long size = sizeEstimator.estimate(key, accumulator);
+            memorySize += size - current.size;
+            current.size = size;
+        }
+    }
+
+    private void onFlushTimer(long timestamp) {
+        flush();
+        getProcessingTimeService().registerTimer(timestamp + flushInterval, this::onFlushTimer);
+    }
+
+    private void flush() {
+        if (!buffer.isEmpty()) {
+            for (Map.Entry<K, Partial<ACC>> entry : buffer.entrySet()) {
+                output.collect(new StreamRecord<>(Tuple2.of(entry.getKey(), entry.getValue().accumulator)));
+            }
+            buffer.clear();
+            flushes.inc();
+        }
+        count = 0;
+        memorySize = 0;
+    }
+
+    @Override
+    public void prepareSnapshotPreBarrier(long checkpointId) throws Exception {
+        super.prepareSnapshotPreBarrier(checkpointId);
+        if (flushOnCheckpoint) {
+            flush();
+        }
+    }
+
+    @Override
+    public void snapshotState(StateSnapshotContext context) throws Exception {
+        super.snapshotState(context);
+        List<Tuple2<K, ACC>> partials = new ArrayList<>(buffer.size());
+        for (Map.Entry<K, Partial<ACC>> entry : buffer.entrySet()) {
+            partials.add(Tuple2.of(entry.getKey(), entry.getValue().accumulator));
+        }
+        partialState.update(partials);
+    }
+
+    @Override
+    public void finish() throws Exception {
+        // 有界的输入结束时把剩下的发送出去
+        flush();
+        super.finish();
+    }
+
+    /**
+     * 估算一个 key 的部分聚合结果占用的内存（字节）
+     */
+    public interface SizeEstimator<K, ACC> extends Serializable {
+        long estimate(K key, ACC accumulator);
+    }
+
+    private static class Partial<ACC> {
+        private ACC accumulator;
+        private long size;
+    }
+}
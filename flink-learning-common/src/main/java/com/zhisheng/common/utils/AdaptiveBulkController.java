@@ -0,0 +1,88 @@
+package com.zhisheng.common.utils;
+
+import java.io.Serializable;
+
+/**
+ * Desc: es bulk 写入被拒绝时的自适应控制，只做记录和计算，不阻塞任何线程
+ * 每个被拒绝（EsRejectedExecutionException）的 bulk 把建议的 bulk 条数减半（最少 1 条），之后每过一个恢复时长没有新的拒绝就翻倍，直到配置的条数；
+ * 重试前的等待交给 BulkProcessor 自己的指数退避（elasticsearch.bulk.flush.backoff.*），不在失败回调里再 sleep
+ * Created by zhisheng on 2019/10/28 上午10:21
+ * blog：http://www.54tianzhisheng.cn/
+ * 微信公众号：zhisheng
+ */
+public class AdaptiveBulkController implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    //同一个 bulk 里被拒绝的请求会连续回调，间隔小于该值的视为同一个 bulk，只减半一次
+    private static final long SAME_BULK_INTERVAL_MILLIS = 5;
+
+    private final int maxBulkActions;
+
+    private final long recoverMillis;
+
+    private int bulkActions;
+
+    private long lastRejectedTime;
+
+    private long lastRecoverTime;
+
+    private long rejectedCount;
+
+    public AdaptiveBulkController(int maxBulkActions, long recoverMillis) {
+        if (maxBulkActions <= 0 || recoverMillis <= 0) {
+            throw new IllegalArgumentException("invalid bulk controller, max bulk actions: " + maxBulkActions + ", recover millis: " + recoverMillis);
+        }
+        this.maxBulkActions = maxBulkActions;
+        this.recoverMillis = recoverMillis;
+        this.bulkActions = maxBulkActions;
+    }
+
+    /**
+     * 记录一次拒绝，新的 bulk 被拒绝时把建议的 bulk 条数减半
+     *
+     * @param now 当前时间
+     * @return 是否是一个新的被拒绝的 bulk（同一个 bulk 的后续拒绝返回 false）
+     */
+    public synchronized boolean onRejected(long now) {
+        rejectedCount++;
+        boolean sameBulk = lastRejectedTime > 0 && now - lastRejectedTime < SAME_BULK_INTERVAL_MILLIS;
+        if (!sameBulk) {
+            recover(now);
+            bulkActions = Math.max(1, bulkActions / 2);
+        }
+        lastRejectedTime = now;
+        return !sameBulk;
+    }
+
+    /**
+     * 当前建议的 bulk 条数
+     *
+     * @param now 当前时间
+     * @return
+     */
+    public synchronized int getBulkActions(long now) {
+        recover(now);
+        return bulkActions;
+    }
+
+    /**
+     * 距离上一次拒绝（或上一次恢复）每过一个恢复时长，建议的 bulk 条数翻倍一次，不超过配置的条数
+     */
+    private void recover(long now) {
+        if (bulkActions >= maxBulkActions) {
+            return;
+        }
+        long from = Math.max(lastRejectedTime, lastRecoverTime);
+        long periods = (now - from) / recoverMillis;
+        if (periods <= 0) {
+            return;
+        }
+        bulkActions = periods >= Integer.SIZE - 1 ? maxBulkActions : (int) Math.min(maxBulkActions, (long) bulkActions << periods);
+        lastRecoverTime = from + periods * recoverMillis;
+    }
+
+    public synchronized long getRejectedCount() {
+        return rejectedCount;
+    }
+}
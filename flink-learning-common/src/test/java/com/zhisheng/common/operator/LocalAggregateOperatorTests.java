@@ -0,0 +1,162 @@
+package com.zhisheng.common.operator;
+
+import org.apache.flink.api.common.functions.AggregateFunction;
+import org.apache.flink.api.common.typeinfo.Types;
+import org.apache.flink.api.java.functions.KeySelector;
+import org.apache.flink.api.java.tuple.Tuple2;
+import org.apache.flink.runtime.checkpoint.OperatorSubtaskState;
+import org.apache.flink.streaming.runtime.streamrecord.StreamRecord;
+import org.apache.flink.streaming.util.OneInputStreamOperatorTestHarness;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class LocalAggregateOperatorTests {
+
+    @Test
+    public void testFlushOnCount() throws Exception {
+        try (OneInputStreamOperatorTestHarness<String, Tuple2<String, Long>> harness = harness(
+                new LocalAggregateOperator<>(new Identity(), new Count(), Types.STRING, Types.LONG, 5, 0))) {
+            for (String key : new String[]{"a", "b", "a", "a"}) {
+                harness.processElement(new StreamRecord<>(key));
+            }
+            Assert.assertTrue(harness.extractOutputValues().isEmpty());
+
+            harness.processElement(new StreamRecord<>("b"));
+            Map<String, Long> output = sum(harness.extractOutputValues());
+            Assert.assertEquals(2, harness.extractOutputValues().size());
+            Assert.assertEquals(3L, (long) output.get("a"));
+            Assert.assertEquals(2L, (long) output.get("b"));
+        }
+    }
+
+    @Test
+    public void testFlushOnMemorySize() throws Exception {
+        // 每个 key 估算 100 字节，第 3 个 key 到达时超过 250 字节
+        try (OneInputStreamOperatorTestHarness<String, Tuple2<String, Long>> harness = harness(
+                new LocalAggregateOperator<>(new Identity(), new Count(), Types.STRING, Types.LONG,
+                        1000, 250, (key, count) -> 100, 0, true))) {
+            for (String key : new String[]{"a", "a", "b", "b", "a"}) {
+                harness.processElement(new StreamRecord<>(key));
+            }
+            Assert.assertTrue(harness.extractOutputValues().isEmpty());
+
+            harness.processElement(new StreamRecord<>("c"));
+            Assert.assertEquals(3, harness.extractOutputValues().size());
+            Assert.assertEquals(6L, total(harness.extractOutputValues()));
+        }
+    }
+
+    @Test
+    public void testFlushOnProcessingTime() throws Exception {
+        try (OneInputStreamOperatorTestHarness<String, Tuple2<String, Long>> harness = harness(
+                new LocalAggregateOperator<>(new Identity(), new Count(), Types.STRING, Types.LONG, 1000, 200))) {
+            harness.processElement(new StreamRecord<>("a"));
+            harness.setProcessingTime(199);
+            Assert.assertTrue(harness.extractOutputValues().isEmpty());
+
+            harness.setProcessingTime(200);
+            Assert.assertEquals(1, harness.extractOutputValues().size());
+
+            // 定时器会重新注册
+            harness.processElement(new StreamRecord<>("a"));
+            harness.setProcessingTime(400);
+            Assert.assertEquals(2, harness.extractOutputValues().size());
+            Assert.assertEquals(2L, total(harness.extractOutputValues()));
+        }
+    }
+
+    @Test
+    public void testFlushBeforeBarrier() throws Exception {
+        try (OneInputStreamOperatorTestHarness<String, Tuple2<String, Long>> harness = harness(
+                new LocalAggregateOperator<>(new Identity(), new Count(), Types.STRING, Types.LONG, 1000, 0))) {
+            harness.processElement(new StreamRecord<>("a"));
+            harness.processElement(new StreamRecord<>("a"));
+            harness.prepareSnapshotPreBarrier(1);
+            Assert.assertEquals(1, harness.extractOutputValues().size());
+            Assert.assertEquals(2L, total(harness.extractOutputValues()));
+        }
+    }
+
+    @Test
+    public void testRestorePartialAggregates() throws Exception {
+        OperatorSubtaskState snapshot;
+        try (OneInputStreamOperatorTestHarness<String, Tuple2<String, Long>> harness = harness(bufferAcrossCheckpoints())) {
+            for (String key : new String[]{"a", "b", "a"}) {
+                harness.processElement(new StreamRecord<>(key));
+            }
+            snapshot = harness.snapshot(1, 1);
+            Assert.assertTrue(harness.extractOutputValues().isEmpty());
+        }
+
+        try (OneInputStreamOperatorTestHarness<String, Tuple2<String, Long>> harness =
+                     new OneInputStreamOperatorTestHarness<>(bufferAcrossCheckpoints())) {
+            harness.initializeState(snapshot);
+            harness.open();
+            harness.processElement(new StreamRecord<>("a"));
+            harness.processElement(new StreamRecord<>("c"));
+            harness.getOperator().finish();
+            // finish 时把恢复的和新的部分聚合结果一起发送
+            Map<String, Long> output = sum(harness.extractOutputValues());
+            Assert.assertEquals(3, harness.extractOutputValues().size());
+            Assert.assertEquals(3L, (long) output.get("a"));
+            Assert.assertEquals(1L, (long) output.get("b"));
+            Assert.assertEquals(1L, (long) output.get("c"));
+        }
+    }
+
+    private static LocalAggregateOperator<String, String, Long> bufferAcrossCheckpoints() {
+        return new LocalAggregateOperator<>(new Identity(), new Count(), Types.STRING, Types.LONG, 1000, 0, null, 0, false);
+    }
+
+    private static OneInputStreamOperatorTestHarness<String, Tuple2<String, Long>> harness(
+            LocalAggregateOperator<String, String, Long> operator) throws Exception {
+        OneInputStreamOperatorTestHarness<String, Tuple2<String, Long>> harness = new OneInputStreamOperatorTestHarness<>(operator);
+        harness.open();
+        return harness;
+    }
+
+    private static Map<String, Long> sum(List<Tuple2<String, Long>> output) {
+        Map<String, Long> result = new HashMap<>();
+        for (Tuple2<String, Long> partial : output) {
+            result.merge(partial.f0, partial.f1, Long::sum);
+        }
+        return result;
+    }
+
+    private static long total(List<Tuple2<String, Long>> output) {
+        return output.stream().mapToLong(partial -> partial.f1).sum();
+    }
+
+    private static class Identity implements KeySelector<String, String> {
+        @Override
+        public String getKey(String value) {
+            return value;
+        }
+    }
+
+    private static class Count implements AggregateFunction<String, Long, Long> {
+        @Override
+        public Long createAccumulator() {
+            return 0L;
+        }
+
+        @Override
+        public Long add(String value, Long accumulator) {
+            return accumulator + 1;
+        }
+
+        @Override
+        public Long getResult(Long accumulator) {
+            return accumulator;
+        }
+
+        @Override
+        public Long merge(Long a, Long b) {
+            return a + b;
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package com.zhisheng.common.utils;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class AdaptiveBulkControllerTests {
+
+    @Test
+    public void testSameBulkShrinksOnce() {
+        AdaptiveBulkController controller = new AdaptiveBulkController(40, 10000);
+        Assert.assertTrue(controller.onRejected(1000));
+        Assert.assertFalse(controller.onRejected(1001));
+        Assert.assertFalse(controller.onRejected(1003));
+        Assert.assertEquals(20, controller.getBulkActions(1003));
+        Assert.assertEquals(3, controller.getRejectedCount());
+    }
+
+    @Test
+    public void testSteadyRejectionsShrinkToOne() {
+        AdaptiveBulkController controller = new AdaptiveBulkController(40, 10000);
+        long now = 1000;
+        int[] expected = {20, 10, 5, 2, 1, 1};
+        for (int bulkActions : expected) {
+            Assert.assertTrue(controller.onRejected(now));
+            Assert.assertEquals(bulkActions, controller.getBulkActions(now));
+            // 每个 bulk 间隔 1 秒被拒绝一次，还没到恢复时长
+            now += 1000;
+        }
+    }
+
+    @Test
+    public void testRecoverAfterQuietPeriod() {
+        AdaptiveBulkController controller = new AdaptiveBulkController(40, 10000);
+        controller.onRejected(1000);
+        controller.onRejected(2000);
+        controller.onRejected(3000);
+        Assert.assertEquals(5, controller.getBulkActions(3000));
+
+        // 不到一个恢复时长保持不变，之后每个恢复时长翻倍一次
+        Assert.assertEquals(5, controller.getBulkActions(3000 + 9999));
+        Assert.assertEquals(10, controller.getBulkActions(3000 + 10000));
+        Assert.assertEquals(20, controller.getBulkActions(3000 + 25000));
+        // 恢复过程中再次被拒绝，在恢复后的值上减半
+        Assert.assertTrue(controller.onRejected(3000 + 25000));
+        Assert.assertEquals(10, controller.getBulkActions(3000 + 25000));
+        // 长时间没有拒绝之后恢复到配置的条数
+        Assert.assertEquals(40, controller.getBulkActions(3000 + 25000 + 3600000));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidArguments() {
+        new AdaptiveBulkController(0, 10000);
+    }
+}
@@ -1,5 +1,6 @@
 package com.zhisheng.connectors.es6.utils;
 
+import com.zhisheng.common.utils.AdaptiveBulkController;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.flink.streaming.connectors.elasticsearch.ActionRequestFailureHandler;
 import org.apache.flink.streaming.connectors.elasticsearch.RequestIndexer;
@@ -20,12 +21,25 @@ import java.util.Optional;
 @Slf4j
 public class RetryRequestFailureHandler implements ActionRequestFailureHandler {
 
+    private final AdaptiveBulkController controller;
+
     public RetryRequestFailureHandler() {
+        this(new AdaptiveBulkController(1000, 30000));
+    }
+
+    public RetryRequestFailureHandler(AdaptiveBulkController controller) {
+        this.controller = controller;
     }
 
     @Override
     public void onFailure(ActionRequest actionRequest, Throwable throwable, int i, RequestIndexer requestIndexer) throws Throwable {
         if (ExceptionUtils.findThrowable(throwable, EsRejectedExecutionException.class).isPresent()) {
+            //es 繁忙，BulkProcessor 的指数退避重试完还是被拒绝，直接重新加入，不在回调里 sleep（会卡住 flush 和 checkpoint）
+            long now = System.currentTimeMillis();
+            if (controller.onRejected(now)) {
+                log.warn("es rejected bulk request after backoff retries, rejected count {}, suggested bulk actions {}",
+                        controller.getRejectedCount(), controller.getBulkActions(now));
+            }
             requestIndexer.add(new ActionRequest[]{actionRequest});
         } else {
             if (ExceptionUtils.findThrowable(throwable, SocketTimeoutException.class).isPresent()) {
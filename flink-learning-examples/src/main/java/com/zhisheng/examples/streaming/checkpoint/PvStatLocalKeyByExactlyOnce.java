@@ -1,38 +1,29 @@
 package com.zhisheng.examples.streaming.checkpoint;
 
 
+import com.zhisheng.common.operator.LocalAggregateOperator;
 import com.zhisheng.examples.streaming.checkpoint.util.PvStatExactlyOnceKafkaUtil;
 import lombok.extern.slf4j.Slf4j;
-import org.apache.flink.api.common.functions.RichFlatMapFunction;
+import org.apache.flink.api.common.functions.AggregateFunction;
 import org.apache.flink.api.common.functions.RichMapFunction;
 import org.apache.flink.api.common.serialization.SimpleStringSchema;
-import org.apache.flink.api.common.state.ListState;
-import org.apache.flink.api.common.state.ListStateDescriptor;
 import org.apache.flink.api.common.state.ValueState;
 import org.apache.flink.api.common.state.ValueStateDescriptor;
 import org.apache.flink.api.common.typeinfo.TypeHint;
 import org.apache.flink.api.common.typeinfo.TypeInformation;
+import org.apache.flink.api.common.typeinfo.Types;
 import org.apache.flink.api.java.functions.KeySelector;
 import org.apache.flink.api.java.tuple.Tuple2;
 import org.apache.flink.configuration.Configuration;
-import org.apache.flink.runtime.state.FunctionInitializationContext;
-import org.apache.flink.runtime.state.FunctionSnapshotContext;
 import org.apache.flink.streaming.api.CheckpointingMode;
-import org.apache.flink.streaming.api.checkpoint.CheckpointedFunction;
 import org.apache.flink.streaming.api.environment.CheckpointConfig;
 import org.apache.flink.streaming.api.environment.StreamExecutionEnvironment;
 import org.apache.flink.streaming.connectors.kafka.FlinkKafkaConsumer;
 import org.apache.flink.streaming.connectors.kafka.FlinkKafkaConsumerBase;
-import org.apache.flink.util.Collector;
 import org.apache.kafka.clients.consumer.ConsumerConfig;
 
-import java.util.HashMap;
-import java.util.Map;
 import java.util.Properties;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicInteger;
-
-import static org.apache.flink.util.Preconditions.checkArgument;
 
 /**
  * @author fanrui
@@ -44,7 +35,9 @@ import static org.apache.flink.util.Preconditions.checkArgument;
  * 或者热门 app 占整个数据量的 99%，就算计算pv 的 task 设置的并行度为 10，
  * 但是这个 app 的数据只能被分到同一个 subtask 上去处理，
  * 问题就出现了，1个 subtask 要处理 99%的数据，其余 9 个 subtask 处理 1%的数据，
- * 发生了严重的数据倾斜，怎么处理呢？ 本案例使用 LocalKeyBy 的思想来处理数据倾斜
+ * 发生了严重的数据倾斜，怎么处理呢？ 本案例使用 LocalKeyBy 的思想来处理数据倾斜：
+ * 在 shuffle 的上游用 LocalAggregateOperator 按 appId 预聚合，按数据量、时间定时发送，checkpoint barrier 之前也会发送，
+ * 所以状态里不需要保存缓存的数据，热点 app 发往下游的数据量大大降低
  */
 @Slf4j
 public class PvStatLocalKeyByExactlyOnce {
@@ -70,8 +63,13 @@ public class PvStatLocalKeyByExactlyOnce {
                 PvStatExactlyOnceKafkaUtil.topic, new SimpleStringSchema(), props).setStartFromLatest();
 
 
+        LocalAggregateOperator<String, String, Long> pvAggregate = new LocalAggregateOperator<>(
+                (KeySelector<String, String>) appId -> appId, new PvAggregate(), Types.STRING, Types.LONG,
+                10000, 200);
+
         env.addSource(appKafkaConsumer)
-                .flatMap(new LocalKeyByFlatMap(10))
+                // 本地按 appId 预聚合，每 10000 条数据、每 200ms 或者 checkpoint barrier 之前发往下游一次
+                .transform("LocalKeyBy", pvAggregate.getProducedType(), pvAggregate)
                 // 按照 appId 进行 keyBy
                 .keyBy((KeySelector<Tuple2<String, Long>, String>) appIdPv -> appIdPv.f0)
                 .map(new RichMapFunction<Tuple2<String, Long>, Tuple2<String, Long>>() {
@@ -108,105 +106,27 @@ public class PvStatLocalKeyByExactlyOnce {
 
         env.execute("Flink pv stat LocalKeyBy");
     }
-}
-
-
-/**
- * LocalKeyByFlatMap 中实现了在 shuffle 的上游端对数据进行预聚合，
- * 从而减少发送到下游的数据量，使得热点数据量大大降低。
- * 注：本案例中积攒批次使用数据量来积攒，当长时间数据量较少时，由于数据量积攒不够，
- * 可能导致上游buffer中数据不往下游发送，可以加定时策略，
- * 例如：如果数据量少但是时间超过了 200ms，也会强制将数据发送到下游
- */
-@Slf4j
-class LocalKeyByFlatMap extends RichFlatMapFunction<String, Tuple2<String, Long>> implements CheckpointedFunction {
-
-    /**
-     * 由于加了 buffer，所以 Checkpoint 的时候，
-     * 可能还有 Checkpoint 之前的数据缓存在 buffer 中没有发送到下游被处理
-     * 把这部分数据放到 localPvStatListState 中，当 Checkpoint 恢复时，
-     * 把这部分数据从状态中恢复到 buffer 中
-     */
-    private ListState<Tuple2<String, Long>> localPvStatListState;
-
-    /**
-     * 本地 buffer，存放 local 端缓存的 app 的 pv 信息
-     */
-    private HashMap<String, Long> localPvStat;
-
-    /**
-     * 缓存的数据量大小，即：缓存多少数据再向下游发送
-     */
-    private int batchSize;
-
-    /**
-     * 计数器，获取当前批次接收的数据量
-     */
-    private AtomicInteger currentSize;
-
-    private int subtaskIndex;
-
-
-    LocalKeyByFlatMap(int batchSize) {
-        checkArgument(batchSize >= 0,
-                "Cannot define a negative value for the batchSize.");
-        this.batchSize = batchSize;
-    }
 
-
-    @Override
-    public void flatMap(String appId, Collector<Tuple2<String, Long>> collector) throws Exception {
-        //  将新来的数据添加到 buffer 中
-        Long pv = localPvStat.getOrDefault(appId, 0L);
-        localPvStat.put(appId, pv + 1);
-        log.info("invoke   subtask: {}  appId: {}   pv: {}", subtaskIndex, appId, localPvStat.get(appId));
-
-        // 如果到达设定的批次，则将 buffer 中的数据发送到下游
-        if (currentSize.incrementAndGet() >= batchSize) {
-            for (Map.Entry<String, Long> appIdPv : localPvStat.entrySet()) {
-                collector.collect(Tuple2.of(appIdPv.getKey(), appIdPv.getValue()));
-                log.info("batchSend   subtask: {}   appId: {}   PV: {}", subtaskIndex, appIdPv.getKey(), appIdPv.getValue());
-            }
-            localPvStat.clear();
-            currentSize.set(0);
+    // 每个 app 的 pv 计数，下游直接把各 subtask 发来的部分 pv 相加
+    public static class PvAggregate implements AggregateFunction<String, Long, Long> {
+        @Override
+        public Long createAccumulator() {
+            return 0L;
         }
-    }
 
-
-    @Override
-    public void snapshotState(FunctionSnapshotContext functionSnapshotContext) throws Exception {
-        // 将 buffer 中的数据保存到状态中，来保证 Exactly Once
-        localPvStatListState.clear();
-        for (Map.Entry<String, Long> appIdPv : localPvStat.entrySet()) {
-            localPvStatListState.add(Tuple2.of(appIdPv.getKey(), appIdPv.getValue()));
-            log.info("snapshot   subtask: {}    appId: {}   pv: {}", subtaskIndex, appIdPv.getKey(), appIdPv.getValue());
+        @Override
+        public Long add(String appId, Long accumulator) {
+            return accumulator + 1;
         }
-    }
 
+        @Override
+        public Long getResult(Long accumulator) {
+            return accumulator;
+        }
 
-    @Override
-    public void initializeState(FunctionInitializationContext context) throws Exception {
-        subtaskIndex = getRuntimeContext().getIndexOfThisSubtask();
-        // 从状态中恢复 buffer 中的数据
-        localPvStatListState = context.getOperatorStateStore().getListState(
-                new ListStateDescriptor<>("localPvStat",
-                        TypeInformation.of(new TypeHint<Tuple2<String, Long>>() {
-                        })));
-        localPvStat = new HashMap<>();
-        if (context.isRestored()) {
-            // 从状态中恢复 buffer 中的数据
-            for (Tuple2<String, Long> appIdPv : localPvStatListState.get()) {
-                long pv = localPvStat.getOrDefault(appIdPv.f0, 0L);
-                // 如果出现 pv != 0,说明改变了并行度，
-                // ListState 中的数据会被均匀分发到新的 subtask中
-                // 所以单个 subtask 恢复的状态中可能包含两个相同的 app 的数据
-                localPvStat.put(appIdPv.f0, pv + appIdPv.f1);
-                log.info("init   subtask: {}    appId: {}   pv:{}", subtaskIndex, appIdPv.f0, appIdPv.f1);
-            }
-            //  从状态恢复时，默认认为 buffer 中数据量达到了 batchSize，需要向下游发送数据了
-            currentSize = new AtomicInteger(batchSize);
-        } else {
-            currentSize = new AtomicInteger(0);
+        @Override
+        public Long merge(Long a, Long b) {
+            return a + b;
         }
     }
 }
@@ -0,0 +1,105 @@
+package com.zhisheng.alert.alert;
+
+import com.zhisheng.alert.function.AlertConvergenceFunction;
+import com.zhisheng.alert.function.GetMaintenanceWindowSourceFunction;
+import com.zhisheng.alert.function.IdleSourceFunction;
+import com.zhisheng.alert.model.AlertEvent;
+import com.zhisheng.alert.model.MaintenanceWindow;
+import org.apache.flink.api.common.typeinfo.TypeHint;
+import org.apache.flink.api.common.typeinfo.TypeInformation;
+import org.apache.flink.api.java.utils.ParameterTool;
+import org.apache.flink.streaming.api.datastream.DataStream;
+import org.apache.flink.streaming.api.environment.StreamExecutionEnvironment;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static com.zhisheng.common.constant.PropertiesConstants.*;
+
+/**
+ * Desc: 告警收敛，在告警发送通知之前使用，如：
+ * DataStream<AlertEvent> converged = AlertConvergence.converge(env, alertEvents, parameterTool);
+ * Created by zhisheng on 2019/11/06 下午4:05
+ * blog：http://www.54tianzhisheng.cn/
+ * 微信公众号：zhisheng
+ */
+public class AlertConvergence {
+
+    private static final String SCOPE_SEPARATOR = "|";
+
+    public static DataStream<AlertEvent> converge(StreamExecutionEnvironment env, DataStream<AlertEvent> alertEvents, ParameterTool parameterTool) {
+        if (!parameterTool.getBoolean(ALERT_CONVERGENCE_ENABLE, true)) {
+            return alertEvents;
+        }
+        List<String> scopeTags = split(parameterTool.get(ALERT_CONVERGENCE_SCOPE_TAGS, "cluster_name,host_ip"), ",");
+        List<String> groupTags = split(parameterTool.get(ALERT_CONVERGENCE_GROUP_TAGS, ""), ",");
+        long[] escalationSteps = split(parameterTool.get(ALERT_CONVERGENCE_ESCALATION, ""), ",").stream()
+                .mapToLong(Long::parseLong).sorted().toArray();
+
+        DataStream<List<MaintenanceWindow>> maintenanceWindows;
+        if (parameterTool.getBoolean(ALERT_CONVERGENCE_MAINTENANCE_ENABLE, false)) {
+            //定时从数据库中查出维护窗口
+            maintenanceWindows = env.addSource(new GetMaintenanceWindowSourceFunction()).setParallelism(1);
+        } else {
+            //不能用 fromCollection(Collections.emptyList())，有界的 source 结束之后作业就不能 checkpoint 了
+            maintenanceWindows = env.addSource(new IdleSourceFunction<>(), "idle maintenance window",
+                    TypeInformation.of(new TypeHint<List<MaintenanceWindow>>() {
+                    })).setParallelism(1);
+        }
+
+        return alertEvents
+                .keyBy(alertEvent -> scopeKey(alertEvent, scopeTags))
+                .connect(maintenanceWindows.broadcast(AlertConvergenceFunction.MAINTENANCE_WINDOW))
+                .process(new AlertConvergenceFunction(groupTags,
+                        parameterTool.getLong(ALERT_CONVERGENCE_SILENCE, 5 * 60 * 1000L),
+                        escalationSteps,
+                        parameterTool.getLong(ALERT_CONVERGENCE_EXPIRE, 60 * 60 * 1000L),
+                        parseInhibitRules(parameterTool.get(ALERT_CONVERGENCE_INHIBIT, ""))))
+                .name("alert convergence");
+    }
+
+    private static String scopeKey(AlertEvent alertEvent, List<String> scopeTags) {
+        Map<String, String> tags = alertEvent.getMetricEvent() == null ? null : alertEvent.getMetricEvent().getTags();
+        StringBuilder key = new StringBuilder();
+        for (String tag : scopeTags) {
+            if (key.length() > 0) {
+                key.append(SCOPE_SEPARATOR);
+            }
+            key.append(tags == null ? null : tags.get(tag));
+        }
+        return key.toString();
+    }
+
+    /**
+     * 抑制规则，格式：源类型:目标类型1|目标类型2;源类型2:*
+     */
+    static Map<String, Set<String>> parseInhibitRules(String value) {
+        Map<String, Set<String>> rules = new HashMap<>();
+        for (String rule : split(value, ";")) {
+            String[] parts = rule.split(":");
+            if (parts.length != 2) {
+                throw new IllegalArgumentException("invalid alert inhibit rule: " + rule);
+            }
+            rules.computeIfAbsent(parts[0].trim(), type -> new HashSet<>()).addAll(split(parts[1], "\\|"));
+        }
+        return rules;
+    }
+
+    private static List<String> split(String value, String separator) {
+        List<String> result = new ArrayList<>();
+        if (value == null) {
+            return result;
+        }
+        for (String item : Arrays.asList(value.split(separator))) {
+            if (!item.trim().isEmpty()) {
+                result.add(item.trim());
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,92 @@
+package com.zhisheng.alert.alert;
+
+import com.zhisheng.alert.function.AlertRuleBroadcastProcessFunction;
+import com.zhisheng.alert.function.AnomalyDetectionFunction;
+import com.zhisheng.alert.model.AlertEvent;
+import com.zhisheng.alert.sink.DingDingNotifySink;
+import com.zhisheng.alert.utils.AnomalyDetector;
+import com.zhisheng.common.model.MetricEvent;
+import com.zhisheng.common.schemas.MetricSchema;
+import com.zhisheng.common.utils.ExecutionEnvUtil;
+import com.zhisheng.common.utils.KafkaConfigUtil;
+import com.zhisheng.common.watermarks.MetricWatermark;
+import org.apache.flink.api.java.utils.ParameterTool;
+import org.apache.flink.streaming.api.datastream.DataStream;
+import org.apache.flink.streaming.api.datastream.SingleOutputStreamOperator;
+import org.apache.flink.streaming.api.environment.StreamExecutionEnvironment;
+import org.apache.flink.streaming.connectors.kafka.FlinkKafkaConsumer;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import static com.zhisheng.common.constant.PropertiesConstants.*;
+
+/**
+ * Desc: 机器指标异常检测告警，不需要为每台机器配置静态阈值
+ * Created by zhisheng on 2019/11/08 下午4:40
+ * blog：http://www.54tianzhisheng.cn/
+ * 微信公众号：zhisheng
+ */
+public class AnomalyAlert {
+    public static void main(String[] args) throws Exception {
+        final ParameterTool parameterTool = ExecutionEnvUtil.createParameterTool(args);
+        StreamExecutionEnvironment env = ExecutionEnvUtil.prepare(parameterTool);
+
+        Properties properties = KafkaConfigUtil.buildKafkaProps(parameterTool);
+        FlinkKafkaConsumer<MetricEvent> consumer = new FlinkKafkaConsumer<>(
+                parameterTool.get("metrics.topic"),
+                new MetricSchema(),
+                properties);
+
+        double threshold = parameterTool.getDouble(ALERT_ANOMALY_THRESHOLD, 6);
+        AnomalyDetector detector = new AnomalyDetector(
+                parameterTool.getDouble(ALERT_ANOMALY_EWMA_ALPHA, 0.05),
+                parameterTool.getInt(ALERT_ANOMALY_SEASON_SLOTS, 24),
+                parameterTool.getLong(ALERT_ANOMALY_SEASON_SLOT_SIZE, 60 * 60 * 1000L),
+                parameterTool.getInt(ALERT_ANOMALY_WARMUP, 30),
+                threshold);
+
+        SingleOutputStreamOperator<AlertEvent> alertEvents = env.addSource(consumer)
+                .assignTimestampsAndWatermarks(new MetricWatermark())
+                .keyBy(AlertRuleBroadcastProcessFunction::seriesKey)
+                .process(new AnomalyDetectionFunction(
+                        parseMeasurements(parameterTool.get(ALERT_ANOMALY_MEASUREMENTS, "cpu:usedPercent,load:load5")),
+                        detector,
+                        threshold,
+                        parameterTool.getDouble(ALERT_ANOMALY_RECOVER_THRESHOLD, 3),
+                        parameterTool.getInt(ALERT_ANOMALY_MIN_CONSECUTIVE, 3),
+                        parameterTool.getLong(ALERT_ANOMALY_STATE_TTL, 24 * 60 * 60 * 1000L)))
+                .name("anomaly detection");
+        //每个数据点的异常分数：alertEvents.getSideOutput(AnomalyDetectionFunction.ANOMALY_SCORE)
+
+        DataStream<AlertEvent> converged = AlertConvergence.converge(env, alertEvents, parameterTool);
+        if (parameterTool.get(ALERT_DINGDING_HOOKS, "").trim().isEmpty()) {
+            converged.print();
+        } else {
+            converged.addSink(new DingDingNotifySink()).setParallelism(1).name("dingding notify");
+        }
+
+        env.execute("machine metric anomaly alert");
+    }
+
+    /**
+     * 需要检测的指标，格式：metric name:field,metric name:field，如 cpu:usedPercent,load:load5
+     */
+    static Map<String, List<String>> parseMeasurements(String value) {
+        Map<String, List<String>> measurements = new HashMap<>();
+        for (String item : value.split(",")) {
+            if (item.trim().isEmpty()) {
+                continue;
+            }
+            String[] parts = item.split(":");
+            if (parts.length != 2 || parts[0].trim().isEmpty() || parts[1].trim().isEmpty()) {
+                throw new IllegalArgumentException("invalid anomaly measurement: " + item);
+            }
+            measurements.computeIfAbsent(parts[0].trim(), name -> new ArrayList<>()).add(parts[1].trim());
+        }
+        return measurements;
+    }
+}
@@ -37,7 +37,7 @@ public class AsyncIOAlert {
         SingleOutputStreamOperator<MetricEvent> machineData = env.addSource(consumer)
                 .assignTimestampsAndWatermarks(new MetricWatermark());
 
-        AsyncDataStream.unorderedWait(machineData, new AlertRuleAsyncIOFunction(), 10000, TimeUnit.MICROSECONDS, 100)
+        SingleOutputStreamOperator<AlertEvent> alertEvents = AsyncDataStream.unorderedWait(machineData, new AlertRuleAsyncIOFunction(), 10000, TimeUnit.MILLISECONDS, 100)
                 .map(metricEvent -> {
                     List<String> ma = (List<String>) metricEvent.getFields().get("xx");
                     AlertEvent alertEvent = new AlertEvent();
@@ -51,8 +51,9 @@ public class AsyncIOAlert {
                         alertEvent.setRecover(false);
                     }
                     return alertEvent;
-                })
-                .print();
+                });
+
+        AlertConvergence.converge(env, alertEvents, parameterTool).print();
 
         env.execute("Async IO get MySQL data");
     }
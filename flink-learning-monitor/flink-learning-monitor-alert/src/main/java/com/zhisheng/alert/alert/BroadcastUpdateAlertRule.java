@@ -1,29 +1,28 @@
 package com.zhisheng.alert.alert;
 
+import com.zhisheng.alert.function.AlertRuleBatchOperator;
+import com.zhisheng.alert.function.AlertRuleBroadcastProcessFunction;
 import com.zhisheng.alert.function.GetAlertRuleSourceFunction;
-import com.zhisheng.alert.model.AlertRule;
+import com.zhisheng.alert.model.AlertRuleUpdate;
 import com.zhisheng.common.model.MetricEvent;
 import com.zhisheng.common.schemas.MetricSchema;
 import com.zhisheng.common.utils.ExecutionEnvUtil;
 import com.zhisheng.common.utils.KafkaConfigUtil;
 import com.zhisheng.common.watermarks.MetricWatermark;
 import lombok.extern.slf4j.Slf4j;
-import org.apache.flink.api.common.state.BroadcastState;
-import org.apache.flink.api.common.state.MapStateDescriptor;
-import org.apache.flink.api.common.state.ReadOnlyBroadcastState;
-import org.apache.flink.api.common.typeinfo.BasicTypeInfo;
 import org.apache.flink.api.common.typeinfo.TypeInformation;
 import org.apache.flink.api.java.utils.ParameterTool;
 import org.apache.flink.streaming.api.datastream.DataStreamSource;
 import org.apache.flink.streaming.api.datastream.SingleOutputStreamOperator;
 import org.apache.flink.streaming.api.environment.StreamExecutionEnvironment;
-import org.apache.flink.streaming.api.functions.co.BroadcastProcessFunction;
 import org.apache.flink.streaming.connectors.kafka.FlinkKafkaConsumer;
-import org.apache.flink.util.Collector;
 
-import java.util.List;
 import java.util.Properties;
 
+import static com.zhisheng.common.constant.PropertiesConstants.ALERT_RULE_BATCH_INTERVAL;
+import static com.zhisheng.common.constant.PropertiesConstants.ALERT_RULE_BATCH_SIZE;
+import static com.zhisheng.common.constant.PropertiesConstants.ALERT_RULE_EXPRESSION_STATE_TTL;
+
 /**
  * Desc: 利用广播变量动态更新告警规则中的数据
  * Created by zhisheng on 2019/10/17 下午4:28
@@ -32,11 +31,6 @@ import java.util.Properties;
  */
 @Slf4j
 public class BroadcastUpdateAlertRule {
-    private final static MapStateDescriptor<String, AlertRule> ALERT_RULE = new MapStateDescriptor<>(
-            "alert_rule",
-            BasicTypeInfo.STRING_TYPE_INFO,
-            TypeInformation.of(AlertRule.class));
-
     public static void main(String[] args) throws Exception {
         final ParameterTool parameterTool = ExecutionEnvUtil.createParameterTool(args);
         StreamExecutionEnvironment env = ExecutionEnvUtil.prepare(parameterTool);
@@ -49,33 +43,20 @@ public class BroadcastUpdateAlertRule {
         SingleOutputStreamOperator<MetricEvent> machineData = env.addSource(consumer)
                 .assignTimestampsAndWatermarks(new MetricWatermark());
 
-        DataStreamSource<List<AlertRule>> alarmDataStream = env.addSource(new GetAlertRuleSourceFunction()).setParallelism(1);//定时从数据库中查出告警规则数据
-        machineData.connect(alarmDataStream.broadcast(ALERT_RULE))
-                .process(new BroadcastProcessFunction<MetricEvent, List<AlertRule>, MetricEvent>() {
-                    @Override
-                    public void processElement(MetricEvent value, ReadOnlyContext ctx, Collector<MetricEvent> out) throws Exception {
-                        ReadOnlyBroadcastState<String, AlertRule> broadcastState = ctx.getBroadcastState(ALERT_RULE);
-                        if (broadcastState.contains(value.getName())) {
-                            AlertRule alertRule = broadcastState.get(value.getName());
-                            double used = (double) value.getFields().get(alertRule.getMeasurement());
-                            if (used > Double.parseDouble(alertRule.getThresholds())) {
-                                log.info("AlertRule = {}, MetricEvent = {}", alertRule, value);
-                                out.collect(value);
-                            }
-                        }
-                    }
-
-                    @Override
-                    public void processBroadcastElement(List<AlertRule> value, Context ctx, Collector<MetricEvent> out) throws Exception {
-                        if (value == null || value.size() == 0) {
-                            return;
-                        }
-                        BroadcastState<String, AlertRule> alertRuleBroadcastState = ctx.getBroadcastState(ALERT_RULE);
-                        for (AlertRule aValue : value) {
-                            alertRuleBroadcastState.put(aValue.getName(), aValue);
-                        }
-                    }
-                }).print();
+        DataStreamSource<AlertRuleUpdate> alarmDataStream = env.addSource(new GetAlertRuleSourceFunction()).setParallelism(1);//定时从数据库中查出变化的告警规则数据
+        int batchSize = parameterTool.getInt(ALERT_RULE_BATCH_SIZE, 0);
+        if (batchSize > 0) {
+            //微批列式计算，不支持带窗口聚合的表达式规则
+            machineData.connect(alarmDataStream.broadcast())
+                    .transform("alert rule batch", TypeInformation.of(MetricEvent.class),
+                            new AlertRuleBatchOperator(batchSize, parameterTool.getLong(ALERT_RULE_BATCH_INTERVAL, 100)))
+                    .print();
+        } else {
+            machineData.keyBy(AlertRuleBroadcastProcessFunction::seriesKey)
+                    .connect(alarmDataStream.broadcast(AlertRuleBroadcastProcessFunction.ALERT_RULE))
+                    .process(new AlertRuleBroadcastProcessFunction(parameterTool.getLong(ALERT_RULE_EXPRESSION_STATE_TTL, 24 * 60 * 60 * 1000L)))
+                    .print();
+        }
 
         env.execute();
     }
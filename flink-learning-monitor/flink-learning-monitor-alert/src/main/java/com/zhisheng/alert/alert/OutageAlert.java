@@ -4,6 +4,7 @@ import com.google.common.collect.Maps;
 import com.zhisheng.alert.function.OutageProcessFunction;
 import com.zhisheng.alert.model.AlertEvent;
 import com.zhisheng.alert.model.OutageMetricEvent;
+import com.zhisheng.alert.sink.DingDingNotifySink;
 import com.zhisheng.alert.watermark.OutageMetricWaterMark;
 import com.zhisheng.common.model.MetricEvent;
 import com.zhisheng.common.schemas.MetricSchema;
@@ -13,6 +14,8 @@ import com.zhisheng.common.watermarks.MetricWatermark;
 import org.apache.flink.api.common.functions.FlatMapFunction;
 import org.apache.flink.api.common.functions.MapFunction;
 import org.apache.flink.api.java.utils.ParameterTool;
+import org.apache.flink.streaming.api.datastream.DataStream;
+import org.apache.flink.streaming.api.datastream.SingleOutputStreamOperator;
 import org.apache.flink.streaming.api.environment.StreamExecutionEnvironment;
 import org.apache.flink.streaming.connectors.kafka.FlinkKafkaConsumer;
 import org.apache.flink.util.Collector;
@@ -22,6 +25,7 @@ import java.util.Map;
 import java.util.Properties;
 
 import static com.zhisheng.common.constant.MachineConstant.*;
+import static com.zhisheng.common.constant.PropertiesConstants.ALERT_DINGDING_HOOKS;
 
 /**
  * Desc: machine outage alert
@@ -39,7 +43,7 @@ public class OutageAlert {
                 parameterTool.get("metrics.topic"),
                 new MetricSchema(),
                 properties);
-        env.addSource(consumer)
+        SingleOutputStreamOperator<AlertEvent> alertEvents = env.addSource(consumer)
                 .assignTimestampsAndWatermarks(new MetricWatermark())
                 .flatMap(new FlatMapFunction<MetricEvent, OutageMetricEvent>() {
                     @Override
@@ -94,8 +98,14 @@ public class OutageAlert {
 
                         return alertEvent;
                     }
-                })
-                .print();
+                });
+
+        DataStream<AlertEvent> converged = AlertConvergence.converge(env, alertEvents, parameterTool);
+        if (parameterTool.get(ALERT_DINGDING_HOOKS, "").trim().isEmpty()) {
+            converged.print();
+        } else {
+            converged.addSink(new DingDingNotifySink()).setParallelism(1).name("dingding notify");
+        }
 
         env.execute("machine outage alert");
     }
@@ -0,0 +1,193 @@
+package com.zhisheng.alert.expression;
+
+import com.zhisheng.alert.model.ExpressionState;
+
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Desc: 编译后的告警表达式，由 ExpressionCompiler 生成
+ * 表达式用到的字段在编译时分配好下标，每条数据只按下标把字段取成 double 一次，之后的计算都是基本类型；
+ * 窗口聚合按 pane 增量维护，计算一次聚合的代价和窗口内的数据量无关
+ * 非线程安全，每个 subtask 使用自己编译出来的实例
+ * Created by zhisheng on 2019/11/07 上午10:40
+ * blog：http://www.54tianzhisheng.cn/
+ * 微信公众号：zhisheng
+ */
+public class CompiledExpression {
+
+    //每个窗口切成的 pane 个数
+    static final int PANES = 10;
+
+    //每个 pane 保存的值：sum、count、min、max
+    private static final int SUM = 0;
+    private static final int COUNT = 1;
+    private static final int MIN = 2;
+    private static final int MAX = 3;
+    private static final int PANE_VALUES = 4;
+
+    private final String expression;
+    private final String[] fields;
+    private final PaneSet[] paneSets;
+    private final Aggregate[] aggregates;
+    private final ExpressionCompiler.BoolNode root;
+    private final int totalPanes;
+
+    private final EvalContext context;
+
+    CompiledExpression(String expression, String[] fields, PaneSet[] paneSets, Aggregate[] aggregates, ExpressionCompiler.BoolNode root) {
+        this.expression = expression;
+        this.fields = fields;
+        this.paneSets = paneSets;
+        this.aggregates = aggregates;
+        this.root = root;
+        this.totalPanes = paneSets.length * PANES;
+        this.context = new EvalContext(fields.length, aggregates.length);
+    }
+
+    /**
+     * 是否有窗口聚合，没有的话不需要状态
+     */
+    public boolean isStateful() {
+        return paneSets.length > 0;
+    }
+
+    public ExpressionState newState(long version) {
+        long[] paneIds = new long[totalPanes];
+        Arrays.fill(paneIds, Long.MIN_VALUE);
+        return new ExpressionState(version, paneIds, new double[totalPanes * PANE_VALUES]);
+    }
+
+    /**
+     * 用一条数据更新窗口聚合并计算表达式
+     *
+     * @param values    metric 的 fields
+     * @param timestamp metric 的时间，用于窗口聚合
+     * @param state     窗口聚合的状态，没有窗口聚合时可以为 null
+     * @return 表达式是否成立，用到的字段缺失（NaN）时比较结果为 false
+     */
+    public boolean evaluate(Map<String, Object> values, long timestamp, ExpressionState state) {
+        double[] slots = context.slots;
+        for (int i = 0; i < fields.length; i++) {
+            Object value = values == null ? null : values.get(fields[i]);
+            slots[i] = value instanceof Number ? ((Number) value).doubleValue() : Double.NaN;
+        }
+        for (PaneSet paneSet : paneSets) {
+            double value = slots[paneSet.fieldSlot];
+            if (!Double.isNaN(value)) {
+                paneSet.add(state, timestamp, value);
+            }
+        }
+        for (int i = 0; i < aggregates.length; i++) {
+            context.aggregates[i] = aggregates[i].compute(state, timestamp);
+        }
+        return root.eval(context);
+    }
+
+    public String getExpression() {
+        return expression;
+    }
+
+    @Override
+    public String toString() {
+        return expression;
+    }
+
+    static final class EvalContext {
+        final double[] slots;
+        final double[] aggregates;
+
+        private EvalContext(int fields, int aggregates) {
+            this.slots = new double[fields];
+            this.aggregates = new double[aggregates];
+        }
+    }
+
+    /**
+     * 同一个字段、同一个窗口大小的聚合共用一组 pane
+     */
+    static final class PaneSet {
+        private final int fieldSlot;
+        private final long paneSize;
+        //在 ExpressionState.paneIds 中的起始下标
+        private final int offset;
+
+        PaneSet(int fieldSlot, long window, int index) {
+            this.fieldSlot = fieldSlot;
+            this.paneSize = Math.max(1, (window + PANES - 1) / PANES);
+            this.offset = index * PANES;
+        }
+
+        private void add(ExpressionState state, long timestamp, double value) {
+            long paneId = Math.floorDiv(timestamp, paneSize);
+            int pane = offset + (int) Math.floorMod(paneId, (long) PANES);
+            long[] paneIds = state.getPaneIds();
+            double[] values = state.getValues();
+            int base = pane * PANE_VALUES;
+            if (paneIds[pane] > paneId) {
+                //比 pane 里现有数据还早一整个窗口的迟到数据，直接丢弃
+                return;
+            }
+            if (paneIds[pane] < paneId) {
+                paneIds[pane] = paneId;
+                values[base + SUM] = 0;
+                values[base + COUNT] = 0;
+                values[base + MIN] = Double.POSITIVE_INFINITY;
+                values[base + MAX] = Double.NEGATIVE_INFINITY;
+            }
+            values[base + SUM] += value;
+            values[base + COUNT] += 1;
+            values[base + MIN] = Math.min(values[base + MIN], value);
+            values[base + MAX] = Math.max(values[base + MAX], value);
+        }
+    }
+
+    enum Function {
+        AVG, SUM, COUNT, MIN, MAX
+    }
+
+    static final class Aggregate {
+        private final PaneSet paneSet;
+        private final Function function;
+
+        Aggregate(PaneSet paneSet, Function function) {
+            this.paneSet = paneSet;
+            this.function = function;
+        }
+
+        private double compute(ExpressionState state, long timestamp) {
+            long currentPane = Math.floorDiv(timestamp, paneSet.paneSize);
+            long[] paneIds = state.getPaneIds();
+            double[] values = state.getValues();
+            double sum = 0;
+            double count = 0;
+            double min = Double.POSITIVE_INFINITY;
+            double max = Double.NEGATIVE_INFINITY;
+            for (int pane = paneSet.offset; pane < paneSet.offset + PANES; pane++) {
+                long paneId = paneIds[pane];
+                if (paneId > currentPane || paneId <= currentPane - PANES) {
+                    continue;
+                }
+                int base = pane * PANE_VALUES;
+                sum += values[base + SUM];
+                count += values[base + COUNT];
+                min = Math.min(min, values[base + MIN]);
+                max = Math.max(max, values[base + MAX]);
+            }
+            switch (function) {
+                case AVG:
+                    return count == 0 ? Double.NaN : sum / count;
+                case SUM:
+                    return sum;
+                case COUNT:
+                    return count;
+                case MIN:
+                    return count == 0 ? Double.NaN : min;
+                case MAX:
+                    return count == 0 ? Double.NaN : max;
+                default:
+                    throw new IllegalStateException("unknown aggregate function " + function);
+            }
+        }
+    }
+}
@@ -0,0 +1,461 @@
+package com.zhisheng.alert.expression;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Desc: 告警表达式编译器，表达式只解析一次，编译成基于下标访问 double 数组的 lambda 树
+ * 支持：
+ * 1、数字、metric 字段（如 load5、usedPercent）；
+ * 2、算术运算 + - * / %，比较运算 > >= < <= == !=，逻辑运算 && || !，括号；
+ * 3、窗口聚合 avg/sum/count/min/max(字段, 窗口)，窗口支持 ms/s/m/h/d 单位，如 avg(usedPercent, 5m)；
+ * 4、abs(表达式)
+ * 如：avg(usedPercent, 5m) > 90 && load5 > cores * 2
+ * Created by zhisheng on 2019/11/07 上午11:15
+ * blog：http://www.54tianzhisheng.cn/
+ * 微信公众号：zhisheng
+ */
+public class ExpressionCompiler {
+
+    interface DoubleNode {
+        double eval(CompiledExpression.EvalContext ctx);
+    }
+
+    interface BoolNode {
+        boolean eval(CompiledExpression.EvalContext ctx);
+    }
+
+    /**
+     * 编译表达式
+     *
+     * @param expression 表达式
+     * @return
+     * @throws IllegalArgumentException 表达式不合法
+     */
+    public static CompiledExpression compile(String expression) {
+        if (expression == null || expression.trim().isEmpty()) {
+            throw new IllegalArgumentException("expression is empty");
+        }
+        Node ast = new Parser(expression).parse();
+        try {
+            return new ExpressionCompiler().compile(expression, ast);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("invalid expression '" + expression + "': " + e.getMessage(), e);
+        }
+    }
+
+    //字段名 -> 下标
+    private final Map<String, Integer> fields = new LinkedHashMap<>();
+    //字段下标 + 窗口 -> pane
+    private final Map<String, CompiledExpression.PaneSet> paneSets = new LinkedHashMap<>();
+    private final List<CompiledExpression.Aggregate> aggregates = new ArrayList<>();
+
+    private ExpressionCompiler() {
+    }
+
+    private CompiledExpression compile(String expression, Node ast) {
+        BoolNode root = compileBool(ast);
+        return new CompiledExpression(expression,
+                fields.keySet().toArray(new String[0]),
+                paneSets.values().toArray(new CompiledExpression.PaneSet[0]),
+                aggregates.toArray(new CompiledExpression.Aggregate[0]),
+                root);
+    }
+
+    private BoolNode compileBool(Node node) {
+        if (node instanceof Unary && ((Unary) node).op.equals("!")) {
+            BoolNode operand = compileBool(((Unary) node).operand);
+            return ctx -> !operand.eval(ctx);
+        }
+        if (!(node instanceof Binary)) {
+            throw new IllegalArgumentException("expect a boolean expression at position " + node.position);
+        }
+        Binary binary = (Binary) node;
+        switch (binary.op) {
+            case "&&": {
+                BoolNode left = compileBool(binary.left);
+                BoolNode right = compileBool(binary.right);
+                return ctx -> left.eval(ctx) && right.eval(ctx);
+            }
+            case "||": {
+                BoolNode left = compileBool(binary.left);
+                BoolNode right = compileBool(binary.right);
+                return ctx -> left.eval(ctx) || right.eval(ctx);
+            }
+            case ">": {
+                DoubleNode left = compileDouble(binary.left);
+                DoubleNode right = compileDouble(binary.right);
+                return ctx -> left.eval(ctx) > right.eval(ctx);
+            }
+            case ">=": {
+                DoubleNode left = compileDouble(binary.left);
+                DoubleNode right = compileDouble(binary.right);
+                return ctx -> left.eval(ctx) >= right.eval(ctx);
+            }
+            case "<": {
+                DoubleNode left = compileDouble(binary.left);
+                DoubleNode right = compileDouble(binary.right);
+                return ctx -> left.eval(ctx) < right.eval(ctx);
+            }
+            case "<=": {
+                DoubleNode left = compileDouble(binary.left);
+                DoubleNode right = compileDouble(binary.right);
+                return ctx -> left.eval(ctx) <= right.eval(ctx);
+            }
+            case "==": {
+                DoubleNode left = compileDouble(binary.left);
+                DoubleNode right = compileDouble(binary.right);
+                return ctx -> left.eval(ctx) == right.eval(ctx);
+            }
+            case "!=": {
+                DoubleNode left = compileDouble(binary.left);
+                DoubleNode right = compileDouble(binary.right);
+                //字段缺失（NaN）时也不成立
+                return ctx -> {
+                    double l = left.eval(ctx);
+                    double r = right.eval(ctx);
+                    return !Double.isNaN(l) && !Double.isNaN(r) && l != r;
+                };
+            }
+            default:
+                throw new IllegalArgumentException("expect a boolean expression at position " + node.position);
+        }
+    }
+
+    private DoubleNode compileDouble(Node node) {
+        if (node instanceof Constant) {
+            double value = ((Constant) node).value;
+            return ctx -> value;
+        }
+        if (node instanceof Field) {
+            int slot = fieldSlot(((Field) node).name);
+            return ctx -> ctx.slots[slot];
+        }
+        if (node instanceof Call) {
+            return compileCall((Call) node);
+        }
+        if (node instanceof Unary && ((Unary) node).op.equals("-")) {
+            DoubleNode operand = compileDouble(((Unary) node).operand);
+            return ctx -> -operand.eval(ctx);
+        }
+        if (node instanceof Binary) {
+            Binary binary = (Binary) node;
+            switch (binary.op) {
+                case "+": {
+                    DoubleNode left = compileDouble(binary.left);
+                    DoubleNode right = compileDouble(binary.right);
+                    return ctx -> left.eval(ctx) + right.eval(ctx);
+                }
+                case "-": {
+                    DoubleNode left = compileDouble(binary.left);
+                    DoubleNode right = compileDouble(binary.right);
+                    return ctx -> left.eval(ctx) - right.eval(ctx);
+                }
+                case "*": {
+                    DoubleNode left = compileDouble(binary.left);
+                    DoubleNode right = compileDouble(binary.right);
+                    return ctx -> left.eval(ctx) * right.eval(ctx);
+                }
+                case "/": {
+                    DoubleNode left = compileDouble(binary.left);
+                    DoubleNode right = compileDouble(binary.right);
+                    return ctx -> left.eval(ctx) / right.eval(ctx);
+                }
+                case "%": {
+                    DoubleNode left = compileDouble(binary.left);
+                    DoubleNode right = compileDouble(binary.right);
+                    return ctx -> left.eval(ctx) % right.eval(ctx);
+                }
+                default:
+                    break;
+            }
+        }
+        throw new IllegalArgumentException("expect a numeric expression at position " + node.position);
+    }
+
+    private DoubleNode compileCall(Call call) {
+        if (call.name.equals("abs")) {
+            if (call.args.size() != 1) {
+                throw new IllegalArgumentException("abs expects 1 argument at position " + call.position);
+            }
+            DoubleNode operand = compileDouble(call.args.get(0));
+            return ctx -> Math.abs(operand.eval(ctx));
+        }
+        CompiledExpression.Function function;
+        try {
+            function = CompiledExpression.Function.valueOf(call.name.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("unknown function " + call.name + " at position " + call.position);
+        }
+        if (call.args.size() != 2 || !(call.args.get(0) instanceof Field) || !(call.args.get(1) instanceof Constant)) {
+            throw new IllegalArgumentException(call.name + " expects (field, window) at position " + call.position);
+        }
+        int slot = fieldSlot(((Field) call.args.get(0)).name);
+        Constant window = (Constant) call.args.get(1);
+        if (!window.duration || window.value <= 0) {
+            throw new IllegalArgumentException("invalid window at position " + window.position + ", e.g. 30s, 5m, 1h");
+        }
+        long windowMillis = (long) window.value;
+        CompiledExpression.PaneSet paneSet = paneSets.computeIfAbsent(slot + "/" + windowMillis,
+                key -> new CompiledExpression.PaneSet(slot, windowMillis, paneSets.size()));
+        int index = aggregates.size();
+        aggregates.add(new CompiledExpression.Aggregate(paneSet, function));
+        return ctx -> ctx.aggregates[index];
+    }
+
+    private int fieldSlot(String name) {
+        return fields.computeIfAbsent(name, key -> fields.size());
+    }
+
+    //------------------------------------------ AST ------------------------------------------
+
+    private abstract static class Node {
+        final int position;
+
+        Node(int position) {
+            this.position = position;
+        }
+    }
+
+    private static class Constant extends Node {
+        final double value;
+        //带单位的时间（已经换算成 ms）
+        final boolean duration;
+
+        Constant(int position, double value, boolean duration) {
+            super(position);
+            this.value = value;
+            this.duration = duration;
+        }
+    }
+
+    private static class Field extends Node {
+        final String name;
+
+        Field(int position, String name) {
+            super(position);
+            this.name = name;
+        }
+    }
+
+    private static class Call extends Node {
+        final String name;
+        final List<Node> args;
+
+        Call(int position, String name, List<Node> args) {
+            super(position);
+            this.name = name;
+            this.args = args;
+        }
+    }
+
+    private static class Unary extends Node {
+        final String op;
+        final Node operand;
+
+        Unary(int position, String op, Node operand) {
+            super(position);
+            this.op = op;
+            this.operand = operand;
+        }
+    }
+
+    private static class Binary extends Node {
+        final String op;
+        final Node left;
+        final Node right;
+
+        Binary(int position, String op, Node left, Node right) {
+            super(position);
+            this.op = op;
+            this.left = left;
+            this.right = right;
+        }
+    }
+
+    //------------------------------------------ Parser ------------------------------------------
+
+    /**
+     * 递归下降解析，优先级从低到高：|| && 比较 +- 乘除模 一元运算
+     */
+    private static class Parser {
+        private static final String[][] LEVELS = {
+                {"||"},
+                {"&&"},
+                {">=", "<=", "==", "!=", ">", "<"},
+                {"+", "-"},
+                {"*", "/", "%"}
+        };
+
+        private final String text;
+        private int pos;
+
+        Parser(String text) {
+            this.text = text;
+        }
+
+        Node parse() {
+            Node node = parseLevel(0);
+            skipWhitespace();
+            if (pos < text.length()) {
+                throw error("unexpected '" + text.charAt(pos) + "'");
+            }
+            return node;
+        }
+
+        private Node parseLevel(int level) {
+            if (level == LEVELS.length) {
+                return parseUnary();
+            }
+            Node left = parseLevel(level + 1);
+            while (true) {
+                skipWhitespace();
+                int start = pos;
+                String op = matchOperator(LEVELS[level]);
+                if (op == null) {
+                    return left;
+                }
+                Node right = parseLevel(level + 1);
+                left = new Binary(start, op, left, right);
+                //比较运算不能连写，如 a > b > c
+                if (level == 2) {
+                    return left;
+                }
+            }
+        }
+
+        private Node parseUnary() {
+            skipWhitespace();
+            int start = pos;
+            if (peek() == '!' && peek(1) != '=') {
+                pos++;
+                return new Unary(start, "!", parseUnary());
+            }
+            if (peek() == '-') {
+                pos++;
+                return new Unary(start, "-", parseUnary());
+            }
+            return parsePrimary();
+        }
+
+        private Node parsePrimary() {
+            skipWhitespace();
+            int start = pos;
+            char c = peek();
+            if (c == '(') {
+                pos++;
+                Node node = parseLevel(0);
+                expect(')');
+                return node;
+            }
+            if (Character.isDigit(c) || c == '.') {
+                return parseNumber();
+            }
+            if (Character.isLetter(c) || c == '_') {
+                String name = parseIdentifier();
+                skipWhitespace();
+                if (peek() != '(') {
+                    return new Field(start, name);
+                }
+                pos++;
+                List<Node> args = new ArrayList<>();
+                skipWhitespace();
+                while (peek() != ')') {
+                    args.add(parseLevel(0));
+                    skipWhitespace();
+                    if (peek() != ',') {
+                        break;
+                    }
+                    pos++;
+                }
+                expect(')');
+                return new Call(start, name, args);
+            }
+            throw error(c == 0 ? "unexpected end of expression" : "unexpected '" + c + "'");
+        }
+
+        private Node parseNumber() {
+            int start = pos;
+            while (Character.isDigit(peek()) || peek() == '.') {
+                pos++;
+            }
+            double value;
+            try {
+                value = Double.parseDouble(text.substring(start, pos));
+            } catch (NumberFormatException e) {
+                throw error("invalid number '" + text.substring(start, pos) + "'");
+            }
+            int unitStart = pos;
+            while (Character.isLetter(peek())) {
+                pos++;
+            }
+            String unit = text.substring(unitStart, pos);
+            if (unit.isEmpty()) {
+                return new Constant(start, value, false);
+            }
+            switch (unit) {
+                case "ms":
+                    return new Constant(start, value, true);
+                case "s":
+                    return new Constant(start, value * 1000, true);
+                case "m":
+                    return new Constant(start, value * 60 * 1000, true);
+                case "h":
+                    return new Constant(start, value * 60 * 60 * 1000, true);
+                case "d":
+                    return new Constant(start, value * 24 * 60 * 60 * 1000, true);
+                default:
+                    pos = unitStart;
+                    throw error("unknown time unit '" + unit + "'");
+            }
+        }
+
+        private String parseIdentifier() {
+            int start = pos;
+            while (Character.isLetterOrDigit(peek()) || peek() == '_' || peek() == '.') {
+                pos++;
+            }
+            return text.substring(start, pos);
+        }
+
+        private String matchOperator(String[] ops) {
+            //ops 里长的运算符排在前面，避免把 >= 匹配成 >
+            for (String op : ops) {
+                if (text.startsWith(op, pos)) {
+                    pos += op.length();
+                    return op;
+                }
+            }
+            return null;
+        }
+
+        private void expect(char expected) {
+            skipWhitespace();
+            if (peek() != expected) {
+                throw error("expect '" + expected + "'");
+            }
+            pos++;
+        }
+
+        private void skipWhitespace() {
+            while (pos < text.length() && Character.isWhitespace(text.charAt(pos))) {
+                pos++;
+            }
+        }
+
+        private char peek() {
+            return peek(0);
+        }
+
+        private char peek(int offset) {
+            return pos + offset < text.length() ? text.charAt(pos + offset) : 0;
+        }
+
+        private IllegalArgumentException error(String msg) {
+            return new IllegalArgumentException("invalid expression '" + text + "': " + msg + " at position " + pos);
+        }
+    }
+}
@@ -0,0 +1,236 @@
+package com.zhisheng.alert.function;
+
+import com.zhisheng.alert.model.AlertEvent;
+import com.zhisheng.alert.model.AlertGroupState;
+import com.zhisheng.alert.model.MaintenanceWindow;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.flink.api.common.state.BroadcastState;
+import org.apache.flink.api.common.state.MapState;
+import org.apache.flink.api.common.state.MapStateDescriptor;
+import org.apache.flink.api.common.state.ValueState;
+import org.apache.flink.api.common.state.ValueStateDescriptor;
+import org.apache.flink.api.common.typeinfo.BasicTypeInfo;
+import org.apache.flink.api.common.typeinfo.TypeInformation;
+import org.apache.flink.api.common.typeinfo.Types;
+import org.apache.flink.configuration.Configuration;
+import org.apache.flink.metrics.Counter;
+import org.apache.flink.streaming.api.functions.co.KeyedBroadcastProcessFunction;
+import org.apache.flink.util.Collector;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Desc: 告警收敛，key 是告警的影响范围（如 cluster_name + host_ip），同一个范围内：
+ * 1、按告警类型 + groupTags 分组，silenceWindow 内同组的重复告警只计数不通知；
+ * 2、告警持续时间超过 escalationSteps 的每一级时立即升级通知；
+ * 3、抑制规则：源类型的告警（如 outage）在告警中时，抑制同一范围内目标类型的告警；
+ * 4、广播的维护窗口内匹配的告警直接静默
+ * 每个分组只保存基本类型的状态，长时间没有收到告警的分组由 timer 清理
+ * Created by zhisheng on 2019/11/06 下午2:10
+ * blog：http://www.54tianzhisheng.cn/
+ * 微信公众号：zhisheng
+ */
+@Slf4j
+public class AlertConvergenceFunction extends KeyedBroadcastProcessFunction<String, AlertEvent, List<MaintenanceWindow>, AlertEvent> {
+
+    public static final MapStateDescriptor<String, MaintenanceWindow> MAINTENANCE_WINDOW = new MapStateDescriptor<>(
+            "maintenance_window",
+            BasicTypeInfo.STRING_TYPE_INFO,
+            TypeInformation.of(MaintenanceWindow.class));
+
+    //抑制规则里表示所有类型
+    public static final String ALL_TYPES = "*";
+
+    private static final String GROUP_SEPARATOR = "|";
+
+    //清理 timer 的时间粒度
+    private static final long CLEANUP_BUCKET = 60 * 1000;
+
+    private final List<String> groupTags;
+    private final long silenceWindow;
+    private final long[] escalationSteps;
+    private final long expireAfter;
+    //源告警类型 -> 被抑制的告警类型
+    private final Map<String, Set<String>> inhibitRules;
+
+    //分组 -> 状态
+    private transient MapState<String, AlertGroupState> groups;
+    //正在告警的抑制源类型 -> 最近一次收到的时间
+    private transient MapState<String, Long> inhibitors;
+    private transient ValueState<Long> cleanupTimer;
+
+    private transient Counter notified;
+    private transient Counter deduplicated;
+    private transient Counter inhibited;
+    private transient Counter muted;
+
+    public AlertConvergenceFunction(List<String> groupTags, long silenceWindow, long[] escalationSteps,
+                                    long expireAfter, Map<String, Set<String>> inhibitRules) {
+        this.groupTags = groupTags;
+        this.silenceWindow = silenceWindow;
+        this.escalationSteps = escalationSteps;
+        this.expireAfter = expireAfter;
+        this.inhibitRules = inhibitRules;
+    }
+
+    @Override
+    public void open(Configuration parameters) throws Exception {
+        groups = getRuntimeContext().getMapState(new MapStateDescriptor<>("alert_groups", Types.STRING, TypeInformation.of(AlertGroupState.class)));
+        inhibitors = getRuntimeContext().getMapState(new MapStateDescriptor<>("alert_inhibitors", Types.STRING, Types.LONG));
+        cleanupTimer = getRuntimeContext().getState(new ValueStateDescriptor<>("alert_cleanup_timer", Types.LONG));
+        notified = getRuntimeContext().getMetricGroup().counter("alertNotified");
+        deduplicated = getRuntimeContext().getMetricGroup().counter("alertDeduplicated");
+        inhibited = getRuntimeContext().getMetricGroup().counter("alertInhibited");
+        muted = getRuntimeContext().getMetricGroup().counter("alertMuted");
+    }
+
+    @Override
+    public void processElement(AlertEvent alert, ReadOnlyContext ctx, Collector<AlertEvent> out) throws Exception {
+        long now = ctx.timerService().currentProcessingTime();
+        for (Map.Entry<String, MaintenanceWindow> window : ctx.getBroadcastState(MAINTENANCE_WINDOW).immutableEntries()) {
+            if (window.getValue().isActive(now) && window.getValue().matches(alert)) {
+                muted.inc();
+                return;
+            }
+        }
+
+        if (inhibitRules.containsKey(alert.getType())) {
+            if (alert.isRecover()) {
+                inhibitors.remove(alert.getType());
+            } else {
+                inhibitors.put(alert.getType(), now);
+            }
+        }
+        if (isInhibited(alert.getType(), now)) {
+            inhibited.inc();
+            return;
+        }
+
+        String groupKey = groupKey(alert);
+        AlertGroupState state = groups.get(groupKey);
+        if (alert.isRecover()) {
+            //只有通知过的告警才需要发恢复通知
+            if (state != null) {
+                groups.remove(groupKey);
+                alert.setLevel(state.getLevel());
+                alert.setSuppressed(state.getSuppressed());
+                notified.inc();
+                out.collect(alert);
+            }
+            return;
+        }
+
+        if (state == null) {
+            state = new AlertGroupState();
+            state.setFirstFiringTime(now);
+            state.setLastNotifyTime(now);
+            state.setLastSeenTime(now);
+            state.setLevel(level(0));
+            alert.setLevel(state.getLevel());
+            notified.inc();
+            out.collect(alert);
+        } else {
+            state.setLastSeenTime(now);
+            int level = level(now - state.getFirstFiringTime());
+            if (level > state.getLevel() || now - state.getLastNotifyTime() >= silenceWindow) {
+                alert.setLevel(level);
+                alert.setSuppressed(state.getSuppressed());
+                notified.inc();
+                out.collect(alert);
+                state.setLevel(level);
+                state.setSuppressed(0);
+                state.setLastNotifyTime(now);
+            } else {
+                state.setSuppressed(state.getSuppressed() + 1);
+                deduplicated.inc();
+            }
+        }
+        groups.put(groupKey, state);
+
+        if (cleanupTimer.value() == null) {
+            long timer = bucket(now + expireAfter);
+            ctx.timerService().registerProcessingTimeTimer(timer);
+            cleanupTimer.update(timer);
+        }
+    }
+
+    @Override
+    public void processBroadcastElement(List<MaintenanceWindow> windows, Context ctx, Collector<AlertEvent> out) throws Exception {
+        BroadcastState<String, MaintenanceWindow> state = ctx.getBroadcastState(MAINTENANCE_WINDOW);
+        state.clear();
+        long now = ctx.currentProcessingTime();
+        for (MaintenanceWindow window : windows) {
+            if (window.getEndTime() > now) {
+                state.put(String.valueOf(window.getId()), window);
+            }
+        }
+    }
+
+    @Override
+    public void onTimer(long timestamp, OnTimerContext ctx, Collector<AlertEvent> out) throws Exception {
+        //长时间没有再收到告警（也没有收到恢复）的分组和抑制源直接清理
+        boolean empty = true;
+        Iterator<Map.Entry<String, AlertGroupState>> groupIterator = groups.iterator();
+        while (groupIterator.hasNext()) {
+            if (timestamp - groupIterator.next().getValue().getLastSeenTime() >= expireAfter) {
+                groupIterator.remove();
+            } else {
+                empty = false;
+            }
+        }
+        Iterator<Map.Entry<String, Long>> inhibitorIterator = inhibitors.iterator();
+        while (inhibitorIterator.hasNext()) {
+            if (timestamp - inhibitorIterator.next().getValue() >= expireAfter) {
+                inhibitorIterator.remove();
+            } else {
+                empty = false;
+            }
+        }
+        if (empty) {
+            cleanupTimer.clear();
+        } else {
+            long timer = bucket(timestamp + expireAfter);
+            ctx.timerService().registerProcessingTimeTimer(timer);
+            cleanupTimer.update(timer);
+        }
+    }
+
+    private boolean isInhibited(String type, long now) throws Exception {
+        for (Map.Entry<String, Long> inhibitor : inhibitors.entries()) {
+            if (inhibitor.getKey().equals(type) || now - inhibitor.getValue() >= expireAfter) {
+                continue;
+            }
+            Set<String> targets = inhibitRules.get(inhibitor.getKey());
+            if (targets != null && (targets.contains(ALL_TYPES) || targets.contains(type))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private String groupKey(AlertEvent alert) {
+        StringBuilder key = new StringBuilder(String.valueOf(alert.getType()));
+        Map<String, String> tags = alert.getMetricEvent() == null ? null : alert.getMetricEvent().getTags();
+        for (String tag : groupTags) {
+            key.append(GROUP_SEPARATOR).append(tags == null ? null : tags.get(tag));
+        }
+        return key.toString();
+    }
+
+    private int level(long firingDuration) {
+        int level = 0;
+        for (long step : escalationSteps) {
+            if (firingDuration >= step) {
+                level++;
+            }
+        }
+        return level;
+    }
+
+    private static long bucket(long time) {
+        return (time + CLEANUP_BUCKET - 1) / CLEANUP_BUCKET * CLEANUP_BUCKET;
+    }
+}
@@ -1,5 +1,8 @@
 package com.zhisheng.alert.function;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.zhisheng.alert.model.AlertRule;
+import com.zhisheng.alert.utils.AlertRuleCache;
 import com.zhisheng.common.model.MetricEvent;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.flink.api.java.utils.ParameterTool;
@@ -11,13 +14,20 @@ import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
+import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static com.zhisheng.common.constant.PropertiesConstants.*;
 
 /**
- * Desc:
+ * Desc: 异步获取告警规则并判断是否告警
+ * 规则查询在独立的有界线程池中执行（每个线程一个 mysql 连接），结果缓存在本地，不阻塞算子线程
  * Created by zhisheng on 2019/10/16 下午5:24
  * blog：http://www.54tianzhisheng.cn/
  * 微信公众号：zhisheng
@@ -25,39 +35,106 @@ import java.util.Map;
 @Slf4j
 public class AlertRuleAsyncIOFunction extends RichAsyncFunction<MetricEvent, MetricEvent> {
 
-    PreparedStatement ps;
-    private Connection connection;
+    private static final String SQL = "select id, name, measurement, thresholds from alert_rule where name = ?;";
+
+    private transient ThreadPoolExecutor executor;
+
+    private transient AlertRuleCache alertRuleCache;
+
+    //每个查询线程一个连接
+    private transient ThreadLocal<PreparedStatement> statements;
+
+    private transient List<Connection> connections;
 
     private ParameterTool parameterTool;
 
     @Override
     public void open(Configuration parameters) throws Exception {
         parameterTool = (ParameterTool) getRuntimeContext().getExecutionConfig().getGlobalJobParameters();
-        connection = getConnection();
-        String sql = "select * from alert_rule where name = ?;";
-        if (connection != null) {
-            ps = this.connection.prepareStatement(sql);
+        int threads = parameterTool.getInt(ALERT_RULE_QUERY_THREADS, 4);
+        executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(parameterTool.getInt(ALERT_RULE_QUERY_QUEUE_SIZE, 1000)),
+                new ThreadFactoryBuilder().setNameFormat("alert-rule-query-%d").setDaemon(true).build());
+        connections = Collections.synchronizedList(new ArrayList<>());
+        statements = new ThreadLocal<>();
+        alertRuleCache = new AlertRuleCache(executor, this::queryAlertRule,
+                parameterTool.getLong(ALERT_RULE_CACHE_TTL, 60 * 1000L),
+                parameterTool.getLong(ALERT_RULE_CACHE_NEGATIVE_TTL, 10 * 1000L));
+    }
+
+    @Override
+    public void close() throws Exception {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+        if (connections != null) {
+            for (Connection connection : connections) {
+                try {
+                    connection.close();
+                } catch (SQLException e) {
+                    log.error("close mysql connection has exception", e);
+                }
+            }
         }
+        super.close();
     }
 
     @Override
     public void timeout(MetricEvent metricEvent, ResultFuture<MetricEvent> resultFuture) throws Exception {
         log.info("=================timeout======{} ", metricEvent);
+        resultFuture.complete(Collections.emptyList());
     }
 
     @Override
     public void asyncInvoke(MetricEvent metricEvent, ResultFuture<MetricEvent> resultFuture) throws Exception {
-        ps.setString(1, metricEvent.getName());
-        ResultSet resultSet = ps.executeQuery();
-        Map<String, Object> fields = metricEvent.getFields();
-        if (resultSet.next()) {
-            String thresholds = resultSet.getString("thresholds");
-            String measurement = resultSet.getString("measurement");
-            if (fields.get(measurement) != null && (double) fields.get(measurement) > Double.valueOf(thresholds)) {
-                List<MetricEvent> list = new ArrayList<>();
-                list.add(metricEvent);
+        alertRuleCache.get(metricEvent.getName()).whenComplete((alertRule, throwable) -> {
+            if (throwable != null) {
+                log.error("get alert rule has exception, metric = {}", metricEvent.getName(), throwable);
+                resultFuture.complete(Collections.emptyList());
+                return;
+            }
+            if (alertRule != null && isAlert(alertRule, metricEvent.getFields())) {
                 resultFuture.complete(Collections.singletonList(metricEvent));
+            } else {
+                resultFuture.complete(Collections.emptyList());
+            }
+        });
+    }
+
+    private static boolean isAlert(AlertRule alertRule, Map<String, Object> fields) {
+        //表达式规则需要按 metric 序列保存窗口状态，只在 BroadcastUpdateAlertRule 里支持
+        if (alertRule.getMeasurement() == null || alertRule.getThresholds() == null) {
+            return false;
+        }
+        Object value = fields == null ? null : fields.get(alertRule.getMeasurement());
+        return value instanceof Number && ((Number) value).doubleValue() > Double.parseDouble(alertRule.getThresholds());
+    }
+
+    /**
+     * 在查询线程中执行
+     */
+    private AlertRule queryAlertRule(String name) throws Exception {
+        PreparedStatement ps = statements.get();
+        if (ps == null) {
+            Connection connection = getConnection();
+            if (connection == null) {
+                throw new SQLException("mysql get connection failed");
+            }
+            connections.add(connection);
+            ps = connection.prepareStatement(SQL);
+            statements.set(ps);
+        }
+        ps.setString(1, name);
+        try (ResultSet resultSet = ps.executeQuery()) {
+            if (!resultSet.next()) {
+                return null;
             }
+            return AlertRule.builder()
+                    .id(resultSet.getInt("id"))
+                    .name(resultSet.getString("name"))
+                    .measurement(resultSet.getString("measurement"))
+                    .thresholds(resultSet.getString("thresholds"))
+                    .build();
         }
     }
 
@@ -0,0 +1,145 @@
+package com.zhisheng.alert.function;
+
+import com.zhisheng.alert.model.AlertRule;
+import com.zhisheng.alert.model.AlertRuleUpdate;
+import com.zhisheng.alert.utils.MetricBatchEvaluator;
+import com.zhisheng.common.model.MetricEvent;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.flink.api.common.state.BroadcastState;
+import org.apache.flink.metrics.Counter;
+import org.apache.flink.runtime.state.StateInitializationContext;
+import org.apache.flink.streaming.api.operators.AbstractStreamOperator;
+import org.apache.flink.streaming.api.operators.ChainingStrategy;
+import org.apache.flink.streaming.api.operators.TwoInputStreamOperator;
+import org.apache.flink.streaming.api.watermark.Watermark;
+import org.apache.flink.streaming.runtime.streamrecord.StreamRecord;
+
+import java.util.Map;
+
+/**
+ * Desc: 告警规则的微批计算模式，和 AlertRuleBroadcastProcessFunction 的逐条计算相对：
+ * 每个 subtask 把 metric 攒成列式的批次（MetricBatchEvaluator），攒满 batchSize 条或者距离第一条超过 batchInterval 时一次性计算所有规则；
+ * watermark、checkpoint barrier 和规则更新之前都会先 flush，所以不需要把批次存进状态，也不会让 watermark 越过还没输出的数据
+ * 规则和 AlertRuleBroadcastProcessFunction 一样保存在 broadcast state 里，输入的规则流使用 broadcast() 分发：
+ * metrics.connect(rules.broadcast()).transform("alert rule batch", TypeInformation.of(MetricEvent.class), new AlertRuleBatchOperator(4096, 100))
+ * Created by zhisheng on 2019/11/10 下午2:40
+ * blog：http://www.54tianzhisheng.cn/
+ * 微信公众号：zhisheng
+ */
+@Slf4j
+public class AlertRuleBatchOperator extends AbstractStreamOperator<MetricEvent>
+        implements TwoInputStreamOperator<MetricEvent, AlertRuleUpdate, MetricEvent> {
+
+    private final int batchSize;
+    private final long batchInterval;
+
+    private transient BroadcastState<String, AlertRule> ruleState;
+    private transient MetricBatchEvaluator evaluator;
+    private transient MetricBatchEvaluator.MatchedCollector collector;
+    private transient StreamRecord<MetricEvent> reuse;
+    private transient boolean timerRegistered;
+
+    private transient Counter batches;
+    private transient Counter matched;
+
+    public AlertRuleBatchOperator(int batchSize, long batchInterval) {
+        if (batchSize <= 0 || batchInterval <= 0) {
+            throw new IllegalArgumentException("batchSize and batchInterval must be positive, but are " + batchSize + ", " + batchInterval);
+        }
+        this.batchSize = batchSize;
+        this.batchInterval = batchInterval;
+        this.chainingStrategy = ChainingStrategy.ALWAYS;
+    }
+
+    @Override
+    public void initializeState(StateInitializationContext context) throws Exception {
+        super.initializeState(context);
+        ruleState = context.getOperatorStateStore().getBroadcastState(AlertRuleBroadcastProcessFunction.ALERT_RULE);
+        evaluator = new MetricBatchEvaluator(batchSize);
+        for (Map.Entry<String, AlertRule> entry : ruleState.entries()) {
+            evaluator.upsert(entry.getValue());
+        }
+        log.info("build alert rule batch evaluator, size = {}", evaluator.size());
+    }
+
+    @Override
+    public void open() throws Exception {
+        super.open();
+        reuse = new StreamRecord<>(null);
+        collector = (event, timestamp) -> {
+            if (timestamp == MetricBatchEvaluator.NO_TIMESTAMP) {
+                reuse.eraseTimestamp();
+                output.collect(reuse.replace(event));
+            } else {
+                output.collect(reuse.replace(event, timestamp));
+            }
+        };
+        batches = getMetricGroup().counter("alertRuleBatches");
+        matched = getMetricGroup().counter("alertRuleMatched");
+    }
+
+    @Override
+    public void processElement1(StreamRecord<MetricEvent> element) throws Exception {
+        if (!evaluator.add(element.getValue(), element.hasTimestamp() ? element.getTimestamp() : MetricBatchEvaluator.NO_TIMESTAMP)) {
+            return;
+        }
+        if (evaluator.buffered() >= batchSize) {
+            flush();
+        } else if (!timerRegistered) {
+            timerRegistered = true;
+            long now = getProcessingTimeService().getCurrentProcessingTime();
+            getProcessingTimeService().registerTimer(now + batchInterval, timestamp -> {
+                timerRegistered = false;
+                flush();
+            });
+        }
+    }
+
+    @Override
+    public void processElement2(StreamRecord<AlertRuleUpdate> element) throws Exception {
+        if (element.getValue() == null) {
+            return;
+        }
+        //规则变化会改变列的布局，先把按旧规则攒的批次算完
+        flush();
+        AlertRuleBroadcastProcessFunction.applyUpdate(ruleState, element.getValue(), new AlertRuleBroadcastProcessFunction.RuleChangeListener() {
+            @Override
+            public void upsert(AlertRule rule) {
+                if (!evaluator.upsert(rule)) {
+                    log.warn("alert rule {} is invalid or not supported in batch mode, ignored", rule);
+                }
+            }
+
+            @Override
+            public void remove(AlertRule rule) {
+                evaluator.remove(rule.getId());
+            }
+        });
+    }
+
+    @Override
+    public void processWatermark(Watermark mark) throws Exception {
+        flush();
+        super.processWatermark(mark);
+    }
+
+    @Override
+    public void prepareSnapshotPreBarrier(long checkpointId) throws Exception {
+        flush();
+        super.prepareSnapshotPreBarrier(checkpointId);
+    }
+
+    @Override
+    public void finish() throws Exception {
+        flush();
+        super.finish();
+    }
+
+    private void flush() {
+        if (evaluator.buffered() == 0) {
+            return;
+        }
+        batches.inc();
+        matched.inc(evaluator.flush(collector));
+    }
+}
@@ -0,0 +1,188 @@
+package com.zhisheng.alert.function;
+
+import com.zhisheng.alert.model.AlertRule;
+import com.zhisheng.alert.model.AlertRuleUpdate;
+import com.zhisheng.alert.model.ExpressionState;
+import com.zhisheng.alert.utils.AlertRuleIndex;
+import com.zhisheng.common.model.MetricEvent;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.flink.api.common.state.BroadcastState;
+import org.apache.flink.api.common.state.MapState;
+import org.apache.flink.api.common.state.MapStateDescriptor;
+import org.apache.flink.api.common.state.StateTtlConfig;
+import org.apache.flink.api.common.time.Time;
+import org.apache.flink.api.common.typeinfo.BasicTypeInfo;
+import org.apache.flink.api.common.typeinfo.TypeInformation;
+import org.apache.flink.api.common.typeinfo.Types;
+import org.apache.flink.configuration.Configuration;
+import org.apache.flink.streaming.api.functions.co.KeyedBroadcastProcessFunction;
+import org.apache.flink.util.Collector;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Desc: 根据广播的告警规则增量更新判断 metric 是否需要告警
+ * broadcast state 里按规则 id 保存原始规则（用于 checkpoint 和恢复），
+ * 每个 subtask 另外维护一份编译后的 AlertRuleIndex，只按变化的规则增量更新；
+ * 按 metric 序列（name + tags）keyBy，表达式规则的窗口聚合状态保存在 keyed state 里，长时间不再上报的序列由 state TTL 清理
+ * Created by zhisheng on 2019/11/02 下午3:18
+ * blog：http://www.54tianzhisheng.cn/
+ * 微信公众号：zhisheng
+ */
+@Slf4j
+public class AlertRuleBroadcastProcessFunction extends KeyedBroadcastProcessFunction<String, MetricEvent, AlertRuleUpdate, MetricEvent> {
+
+    public static final MapStateDescriptor<String, AlertRule> ALERT_RULE = new MapStateDescriptor<>(
+            "alert_rule",
+            BasicTypeInfo.STRING_TYPE_INFO,
+            TypeInformation.of(AlertRule.class));
+
+    //规则 id -> 该序列上表达式规则的窗口聚合，open 和删除规则时清理状态必须用同一个（带 TTL 配置的）descriptor
+    private final MapStateDescriptor<Integer, ExpressionState> expressionStateDescriptor;
+
+    private transient AlertRuleIndex index;
+
+    private transient AlertRuleIndex.ExpressionStates expressionStates;
+
+    /**
+     * @param stateTtl 表达式规则窗口聚合状态的 TTL（ms），需要大于最长的表达式窗口，<= 0 表示不过期
+     */
+    public AlertRuleBroadcastProcessFunction(long stateTtl) {
+        expressionStateDescriptor = new MapStateDescriptor<>("alert_rule_expression_state",
+                Types.INT, TypeInformation.of(ExpressionState.class));
+        if (stateTtl > 0) {
+            expressionStateDescriptor.enableTimeToLive(StateTtlConfig
+                    .newBuilder(Time.milliseconds(stateTtl))
+                    .setUpdateType(StateTtlConfig.UpdateType.OnCreateAndWrite)
+                    .setStateVisibility(StateTtlConfig.StateVisibility.NeverReturnExpired)
+                    .build());
+        }
+    }
+
+    @Override
+    public void open(Configuration parameters) throws Exception {
+        MapState<Integer, ExpressionState> state = getRuntimeContext().getMapState(expressionStateDescriptor);
+        expressionStates = new AlertRuleIndex.ExpressionStates() {
+            @Override
+            public ExpressionState get(AlertRule rule) throws Exception {
+                return state.get(rule.getId());
+            }
+
+            @Override
+            public void put(AlertRule rule, ExpressionState value) throws Exception {
+                state.put(rule.getId(), value);
+            }
+        };
+    }
+
+    /**
+     * metric 序列的 key，作为 keyBy 的 KeySelector 使用
+     */
+    public static String seriesKey(MetricEvent event) {
+        return event.getName() + (event.getTags() == null ? "{}" : new TreeMap<>(event.getTags()).toString());
+    }
+
+    @Override
+    public void processElement(MetricEvent value, ReadOnlyContext ctx, Collector<MetricEvent> out) throws Exception {
+        if (index == null) {
+            //作业从 checkpoint 恢复后 broadcast state 里已经有规则，但还没收到新的更新
+            buildIndex(ctx.getBroadcastState(ALERT_RULE).immutableEntries());
+        }
+        List<AlertRule> matched = index.match(value, expressionStates);
+        if (!matched.isEmpty()) {
+            log.info("AlertRule = {}, MetricEvent = {}", matched, value);
+            out.collect(value);
+        }
+    }
+
+    @Override
+    public void processBroadcastElement(AlertRuleUpdate value, Context ctx, Collector<MetricEvent> out) throws Exception {
+        if (value == null) {
+            return;
+        }
+        BroadcastState<String, AlertRule> alertRuleBroadcastState = ctx.getBroadcastState(ALERT_RULE);
+        if (index == null) {
+            buildIndex(alertRuleBroadcastState.entries());
+        }
+        applyUpdate(alertRuleBroadcastState, value, new RuleChangeListener() {
+            @Override
+            public void upsert(AlertRule rule) {
+                if (!index.upsert(rule)) {
+                    log.warn("invalid alert rule {}, ignored", rule);
+                }
+            }
+
+            @Override
+            public void remove(AlertRule rule) throws Exception {
+                index.remove(rule.getId());
+                clearExpressionState(ctx, rule.getId());
+            }
+        });
+    }
+
+    /**
+     * 按版本号把规则的增量更新应用到 broadcast state，实际生效的变化通知给 listener（用于更新各自编译后的规则）
+     */
+    public static void applyUpdate(BroadcastState<String, AlertRule> state, AlertRuleUpdate value, RuleChangeListener listener) throws Exception {
+        Set<String> upsertIds = new HashSet<>();
+        if (value.getUpserts() != null) {
+            for (AlertRule rule : value.getUpserts()) {
+                String id = String.valueOf(rule.getId());
+                upsertIds.add(id);
+                AlertRule current = state.get(id);
+                if (current != null && current.getVersion() > rule.getVersion()) {
+                    continue;
+                }
+                state.put(id, rule);
+                listener.upsert(rule);
+            }
+        }
+        if (value.getDeletes() != null) {
+            for (Integer id : value.getDeletes()) {
+                AlertRule current = state.get(String.valueOf(id));
+                if (current == null || current.getVersion() > value.getVersion()) {
+                    continue;
+                }
+                state.remove(String.valueOf(id));
+                listener.remove(current);
+            }
+        }
+        if (value.isFull()) {
+            //全量更新时删除不在本次规则里的旧规则
+            Iterator<Map.Entry<String, AlertRule>> iterator = state.iterator();
+            while (iterator.hasNext()) {
+                Map.Entry<String, AlertRule> entry = iterator.next();
+                if (!upsertIds.contains(entry.getKey()) && entry.getValue().getVersion() < value.getVersion()) {
+                    iterator.remove();
+                    listener.remove(entry.getValue());
+                }
+            }
+        }
+    }
+
+    public interface RuleChangeListener {
+        void upsert(AlertRule rule) throws Exception;
+
+        void remove(AlertRule rule) throws Exception;
+    }
+
+    /**
+     * 删除规则时清理所有序列上该规则的窗口聚合（规则修改时按版本号在下一条数据到来时重置）
+     */
+    private void clearExpressionState(Context ctx, Integer id) throws Exception {
+        ctx.applyToKeyedState(expressionStateDescriptor, (key, state) -> state.remove(id));
+    }
+
+    private void buildIndex(Iterable<Map.Entry<String, AlertRule>> rules) {
+        index = new AlertRuleIndex();
+        for (Map.Entry<String, AlertRule> entry : rules) {
+            index.upsert(entry.getValue());
+        }
+        log.info("build alert rule index, size = {}", index.size());
+    }
+}
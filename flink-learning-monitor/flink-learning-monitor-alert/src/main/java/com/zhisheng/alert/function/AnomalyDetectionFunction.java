@@ -0,0 +1,153 @@
+package com.zhisheng.alert.function;
+
+import com.zhisheng.alert.model.AlertEvent;
+import com.zhisheng.alert.model.AnomalyScore;
+import com.zhisheng.alert.model.AnomalyState;
+import com.zhisheng.alert.utils.AnomalyDetector;
+import com.zhisheng.common.model.MetricEvent;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.flink.api.common.state.MapState;
+import org.apache.flink.api.common.state.MapStateDescriptor;
+import org.apache.flink.api.common.state.StateTtlConfig;
+import org.apache.flink.api.common.time.Time;
+import org.apache.flink.api.common.typeinfo.TypeInformation;
+import org.apache.flink.api.common.typeinfo.Types;
+import org.apache.flink.configuration.Configuration;
+import org.apache.flink.metrics.Counter;
+import org.apache.flink.streaming.api.functions.KeyedProcessFunction;
+import org.apache.flink.util.Collector;
+import org.apache.flink.util.OutputTag;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Desc: 机器指标的异常检测，按 metric 序列（name + tags）keyBy，
+ * 对配置的每个 field 用 AnomalyDetector 维护固定大小的基线状态，每个数据点 O(1) 更新和打分：
+ * 综合分数连续 minConsecutive 个点超过 threshold 时发出 anomaly 告警，回落到 recoverThreshold 以下时发出恢复，
+ * 每个点的分数输出到侧输出 ANOMALY_SCORE；长时间不再上报的序列由 state TTL 清理
+ * Created by zhisheng on 2019/11/08 下午2:15
+ * blog：http://www.54tianzhisheng.cn/
+ * 微信公众号：zhisheng
+ */
+@Slf4j
+public class AnomalyDetectionFunction extends KeyedProcessFunction<String, MetricEvent, AlertEvent> {
+
+    public static final String ANOMALY = "anomaly";
+
+    public static final OutputTag<AnomalyScore> ANOMALY_SCORE = new OutputTag<AnomalyScore>("anomaly_score") {
+    };
+
+    //告警事件 metric 里的 tag，标明是哪个 field 异常
+    public static final String MEASUREMENT_TAG = "measurement";
+
+    //metric name -> 需要检测的 fields
+    private final Map<String, List<String>> measurements;
+    private final AnomalyDetector detector;
+    private final double threshold;
+    private final double recoverThreshold;
+    private final int minConsecutive;
+    private final long stateTtl;
+
+    //field -> 基线状态
+    private transient MapState<String, AnomalyState> anomalyState;
+    private transient double[] scores;
+
+    private transient Counter anomalies;
+    private transient Counter recovers;
+
+    public AnomalyDetectionFunction(Map<String, List<String>> measurements, AnomalyDetector detector, double threshold,
+                                    double recoverThreshold, int minConsecutive, long stateTtl) {
+        if (recoverThreshold > threshold) {
+            throw new IllegalArgumentException("recoverThreshold " + recoverThreshold + " is greater than threshold " + threshold);
+        }
+        this.measurements = measurements;
+        this.detector = detector;
+        this.threshold = threshold;
+        this.recoverThreshold = recoverThreshold;
+        this.minConsecutive = Math.max(1, minConsecutive);
+        this.stateTtl = stateTtl;
+    }
+
+    @Override
+    public void open(Configuration parameters) throws Exception {
+        MapStateDescriptor<String, AnomalyState> descriptor = new MapStateDescriptor<>("anomaly_state",
+                Types.STRING, TypeInformation.of(AnomalyState.class));
+        if (stateTtl > 0) {
+            descriptor.enableTimeToLive(StateTtlConfig
+                    .newBuilder(Time.milliseconds(stateTtl))
+                    .setUpdateType(StateTtlConfig.UpdateType.OnCreateAndWrite)
+                    .setStateVisibility(StateTtlConfig.StateVisibility.NeverReturnExpired)
+                    .build());
+        }
+        anomalyState = getRuntimeContext().getMapState(descriptor);
+        scores = new double[AnomalyDetector.SCORES];
+        anomalies = getRuntimeContext().getMetricGroup().counter("anomalyAlerts");
+        recovers = getRuntimeContext().getMetricGroup().counter("anomalyRecovers");
+    }
+
+    @Override
+    public void processElement(MetricEvent event, Context ctx, Collector<AlertEvent> out) throws Exception {
+        List<String> fields = measurements.get(event.getName());
+        if (fields == null || event.getFields() == null) {
+            return;
+        }
+        long timestamp = event.getTimestamp() == null ? ctx.timerService().currentProcessingTime() : event.getTimestamp();
+        for (String field : fields) {
+            Object value = event.getFields().get(field);
+            if (!(value instanceof Number)) {
+                continue;
+            }
+            double doubleValue = ((Number) value).doubleValue();
+            if (Double.isNaN(doubleValue) || Double.isInfinite(doubleValue)) {
+                continue;
+            }
+            AnomalyState state = anomalyState.get(field);
+            if (state == null) {
+                state = detector.newState();
+            }
+            double score = detector.update(state, doubleValue, timestamp, scores);
+            ctx.output(ANOMALY_SCORE, new AnomalyScore(event.getName(), field, event.getTags(), timestamp, doubleValue,
+                    scores[AnomalyDetector.EXPECTED], scores[AnomalyDetector.EWMA], scores[AnomalyDetector.SEASONAL],
+                    scores[AnomalyDetector.MAD], score));
+
+            if (!state.isAlerting()) {
+                state.setAnomalous(score > threshold ? state.getAnomalous() + 1 : 0);
+                if (state.getAnomalous() >= minConsecutive) {
+                    state.setAlerting(true);
+                    state.setAlertTime(timestamp);
+                    anomalies.inc();
+                    out.collect(toAlert(event, field, doubleValue, score, state, false, timestamp));
+                }
+            } else if (score < recoverThreshold) {
+                state.setAlerting(false);
+                state.setAnomalous(0);
+                recovers.inc();
+                out.collect(toAlert(event, field, doubleValue, score, state, true, timestamp));
+            }
+            anomalyState.put(field, state);
+        }
+    }
+
+    private AlertEvent toAlert(MetricEvent event, String field, double value, double score, AnomalyState state,
+                               boolean recover, long timestamp) {
+        Map<String, Object> fields = new HashMap<>();
+        fields.put(field, value);
+        fields.put("score", score);
+        fields.put("expected", scores[AnomalyDetector.EXPECTED]);
+        Map<String, String> tags = event.getTags() == null ? new HashMap<>() : new HashMap<>(event.getTags());
+        tags.put(MEASUREMENT_TAG, field);
+
+        AlertEvent alertEvent = new AlertEvent();
+        alertEvent.setType(ANOMALY);
+        alertEvent.setMetricEvent(new MetricEvent(event.getName(), timestamp, fields, tags));
+        alertEvent.setRecover(recover);
+        alertEvent.setTrigerTime(state.getAlertTime());
+        if (recover) {
+            alertEvent.setRecoverTime(timestamp);
+        }
+        log.info("anomaly {}: {}", recover ? "recover" : "alert", alertEvent);
+        return alertEvent;
+    }
+}
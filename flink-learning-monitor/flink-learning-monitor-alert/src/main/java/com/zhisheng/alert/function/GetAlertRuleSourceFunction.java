@@ -1,6 +1,7 @@
 package com.zhisheng.alert.function;
 
 import com.zhisheng.alert.model.AlertRule;
+import com.zhisheng.alert.model.AlertRuleUpdate;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.flink.api.java.utils.ParameterTool;
 import org.apache.flink.configuration.Configuration;
@@ -10,17 +11,22 @@ import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /**
- * Desc:
+ * Desc: 定时查询告警规则，只下发和上一次相比发生变化（新增/修改/删除）的规则，启动后第一次下发全量
  * Created by zhisheng on 2019/10/17 下午4:47
  * blog：http://www.54tianzhisheng.cn/
  * 微信公众号：zhisheng
  */
 @Slf4j
-public class GetAlertRuleSourceFunction extends RichSourceFunction<List<AlertRule>> {
+public class GetAlertRuleSourceFunction extends RichSourceFunction<AlertRuleUpdate> {
 
     private PreparedStatement ps;
     private Connection connection;
@@ -39,27 +45,69 @@ public class GetAlertRuleSourceFunction extends RichSourceFunction<List<AlertRul
     }
 
     @Override
-    public void run(SourceContext<List<AlertRule>> ctx) throws Exception {
-        List<AlertRule> list = new ArrayList<>();
+    public void run(SourceContext<AlertRuleUpdate> ctx) throws Exception {
+        //上一次查询到的规则，id -> rule
+        Map<Integer, AlertRule> lastRules = null;
         while (isRunning) {
-            ResultSet resultSet = ps.executeQuery();
-            while (resultSet.next()) {
-                AlertRule alertRule = new AlertRule().builder()
-                        .id(resultSet.getInt("id"))
-                        .name(resultSet.getString("name"))
-                        .measurement(resultSet.getString("measurement"))
-                        .thresholds(resultSet.getString("thresholds"))
-                        .build();
-                list.add(alertRule);
+            Map<Integer, AlertRule> rules = new HashMap<>();
+            try (ResultSet resultSet = ps.executeQuery()) {
+                Set<String> columns = columns(resultSet.getMetaData());
+                while (resultSet.next()) {
+                    AlertRule alertRule = new AlertRule().builder()
+                            .id(resultSet.getInt("id"))
+                            .name(resultSet.getString("name"))
+                            .measurement(resultSet.getString("measurement"))
+                            .thresholds(resultSet.getString("thresholds"))
+                            .expression(columns.contains("expression") ? resultSet.getString("expression") : null)
+                            .tagKey(columns.contains("tag_key") ? resultSet.getString("tag_key") : null)
+                            .tagValue(columns.contains("tag_value") ? resultSet.getString("tag_value") : null)
+                            .build();
+                    rules.put(alertRule.getId(), alertRule);
+                }
             }
-            log.info("=======select alarm notify from mysql, size = {}, map = {}", list.size(), list);
 
-            ctx.collect(list);
-            list.clear();
+            long version = System.currentTimeMillis();
+            List<AlertRule> upserts = new ArrayList<>();
+            List<Integer> deletes = new ArrayList<>();
+            for (AlertRule rule : rules.values()) {
+                AlertRule lastRule = lastRules == null ? null : lastRules.get(rule.getId());
+                if (lastRule != null) {
+                    //除了版本号其余字段都一样，说明没有变化，沿用旧版本号
+                    rule.setVersion(lastRule.getVersion());
+                    if (rule.equals(lastRule)) {
+                        continue;
+                    }
+                }
+                rule.setVersion(version);
+                upserts.add(rule);
+            }
+            if (lastRules != null) {
+                for (Integer id : lastRules.keySet()) {
+                    if (!rules.containsKey(id)) {
+                        deletes.add(id);
+                    }
+                }
+            }
+            boolean full = lastRules == null;
+            log.info("=======select alarm notify from mysql, size = {}, upserts = {}, deletes = {}", rules.size(), upserts, deletes);
+            if (full || !upserts.isEmpty() || !deletes.isEmpty()) {
+                synchronized (ctx.getCheckpointLock()) {
+                    ctx.collect(new AlertRuleUpdate(version, full, upserts, deletes));
+                }
+            }
+            lastRules = rules;
             Thread.sleep(1000 * 60);
         }
     }
 
+    private static Set<String> columns(ResultSetMetaData metaData) throws Exception {
+        Set<String> columns = new HashSet<>();
+        for (int i = 1; i <= metaData.getColumnCount(); i++) {
+            columns.add(metaData.getColumnLabel(i).toLowerCase());
+        }
+        return columns;
+    }
+
     @Override
     public void cancel() {
         try {
@@ -0,0 +1,93 @@
+package com.zhisheng.alert.function;
+
+import com.google.gson.reflect.TypeToken;
+import com.zhisheng.alert.model.MaintenanceWindow;
+import com.zhisheng.common.utils.GsonUtil;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.flink.configuration.Configuration;
+import org.apache.flink.streaming.api.functions.source.RichSourceFunction;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Desc: 定时查询还没有结束的维护窗口，每次下发全量（维护窗口的数量很少）
+ * Created by zhisheng on 2019/11/06 上午11:10
+ * blog：http://www.54tianzhisheng.cn/
+ * 微信公众号：zhisheng
+ */
+@Slf4j
+public class GetMaintenanceWindowSourceFunction extends RichSourceFunction<List<MaintenanceWindow>> {
+
+    private PreparedStatement ps;
+    private Connection connection;
+    private volatile boolean isRunning = true;
+
+    @Override
+    public void open(Configuration parameters) throws Exception {
+        connection = getConnection();
+        String sql = "select id, type, tags, start_time, end_time from maintenance_window where end_time > now();";
+        if (connection != null) {
+            ps = this.connection.prepareStatement(sql);
+        }
+    }
+
+    @Override
+    public void run(SourceContext<List<MaintenanceWindow>> ctx) throws Exception {
+        while (isRunning) {
+            List<MaintenanceWindow> windows = new ArrayList<>();
+            try (ResultSet resultSet = ps.executeQuery()) {
+                while (resultSet.next()) {
+                    String tags = resultSet.getString("tags");
+                    windows.add(MaintenanceWindow.builder()
+                            .id(resultSet.getInt("id"))
+                            .type(resultSet.getString("type"))
+                            .tags(tags == null || tags.trim().isEmpty() ? null
+                                    : GsonUtil.fromJson(tags, new TypeToken<Map<String, String>>() {
+                            }.getType()))
+                            .startTime(resultSet.getTimestamp("start_time").getTime())
+                            .endTime(resultSet.getTimestamp("end_time").getTime())
+                            .build());
+                }
+            }
+            log.info("=======select maintenance window from mysql, size = {}", windows.size());
+            synchronized (ctx.getCheckpointLock()) {
+                ctx.collect(windows);
+            }
+            Thread.sleep(1000 * 60);
+        }
+    }
+
+    @Override
+    public void cancel() {
+        try {
+            super.close();
+            if (connection != null) {
+                connection.close();
+            }
+            if (ps != null) {
+                ps.close();
+            }
+        } catch (Exception e) {
+            log.error("runException:{}", e);
+        }
+        isRunning = false;
+    }
+
+    private static Connection getConnection() {
+        Connection con = null;
+        try {
+            Class.forName("com.mysql.jdbc.Driver");
+            //注意，替换成自己本地的 mysql 数据库地址和用户名、密码
+            con = DriverManager.getConnection("jdbc:mysql://localhost:3306/test?useUnicode=true&characterEncoding=UTF-8", "root", "root123456");
+        } catch (Exception e) {
+            log.error("-----------mysql get connection has exception , msg = {}", e.getMessage());
+        }
+        return con;
+    }
+}
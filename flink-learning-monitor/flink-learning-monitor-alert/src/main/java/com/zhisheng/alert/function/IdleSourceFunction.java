@@ -0,0 +1,29 @@
+package com.zhisheng.alert.function;
+
+import org.apache.flink.streaming.api.functions.source.SourceFunction;
+
+/**
+ * Desc: 不产生任何数据、一直运行到作业取消的 source，作为可选的广播流的占位：
+ * fromCollection(Collections.emptyList()) 这种有界的 source 启动后马上结束，结束之后作业的 checkpoint 都会被拒绝；
+ * 启动时标记为 idle，不会拖住下游的 watermark
+ * Created by zhisheng on 2019/11/22 上午10:40
+ * blog：http://www.54tianzhisheng.cn/
+ * 微信公众号：zhisheng
+ */
+public class IdleSourceFunction<T> implements SourceFunction<T> {
+
+    private volatile boolean isRunning = true;
+
+    @Override
+    public void run(SourceContext<T> ctx) throws Exception {
+        ctx.markAsTemporarilyIdle();
+        while (isRunning) {
+            Thread.sleep(1000);
+        }
+    }
+
+    @Override
+    public void cancel() {
+        isRunning = false;
+    }
+}
@@ -1,17 +1,18 @@
 package com.zhisheng.alert.function;
 
 import com.zhisheng.alert.model.OutageMetricEvent;
+import com.zhisheng.alert.model.OutageState;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.flink.api.common.state.ValueState;
 import org.apache.flink.api.common.state.ValueStateDescriptor;
-import org.apache.flink.api.common.typeinfo.TypeHint;
-import org.apache.flink.api.common.typeinfo.TypeInformation;
 import org.apache.flink.configuration.Configuration;
 import org.apache.flink.streaming.api.functions.KeyedProcessFunction;
 import org.apache.flink.util.Collector;
 
 /**
- * Desc:
+ * Desc: 机器宕机检测，超过 delay 没有收到数据就发出宕机告警，重新收到数据后发出恢复事件
+ * 每台机器只保存一份基本类型的状态，且同时最多只有一个 timer：收到数据时只更新时间，
+ * timer 触发时如果期间有新数据再按最新的时间重新注册（timer 时间向上取整到 timerBucket）
  * Created by zhisheng on 2019/10/15 上午12:07
  * blog：http://www.54tianzhisheng.cn/
  * 微信公众号：zhisheng
@@ -19,82 +20,128 @@ import org.apache.flink.util.Collector;
 @Slf4j
 public class OutageProcessFunction extends KeyedProcessFunction<String, OutageMetricEvent, OutageMetricEvent> {
 
-    private ValueState<OutageMetricEvent> outageMetricState;
-    private ValueState<Boolean> recover;
+    private ValueState<OutageState> outageState;
 
     private int delay;
     private int alertCountLimit;
+    private long timerBucket;
 
     public OutageProcessFunction(int delay, int alertCountLimit) {
+        this(delay, alertCountLimit, 1000);
+    }
+
+    public OutageProcessFunction(int delay, int alertCountLimit, long timerBucket) {
+        if (timerBucket <= 0) {
+            throw new IllegalArgumentException("timerBucket must be positive, but is " + timerBucket);
+        }
         this.delay = delay;
         this.alertCountLimit = alertCountLimit;
+        this.timerBucket = timerBucket;
     }
 
     @Override
     public void open(Configuration parameters) throws Exception {
-        TypeInformation<OutageMetricEvent> outageInfo = TypeInformation.of(new TypeHint<OutageMetricEvent>() {
-        });
-        TypeInformation<Boolean> recoverInfo = TypeInformation.of(new TypeHint<Boolean>() {
-        });
-        outageMetricState = getRuntimeContext().getState(new ValueStateDescriptor<>("outage_zhisheng", outageInfo));
-        recover = getRuntimeContext().getState(new ValueStateDescriptor<>("recover_zhisheng", recoverInfo));
+        outageState = getRuntimeContext().getState(new ValueStateDescriptor<>("outage_state_zhisheng", OutageState.class));
     }
 
     @Override
     public void processElement(OutageMetricEvent outageMetricEvent, Context ctx, Collector<OutageMetricEvent> collector) throws Exception {
-        OutageMetricEvent current = outageMetricState.value();
+        OutageState current = outageState.value();
         if (current == null) {
-            current = new OutageMetricEvent(outageMetricEvent.getClusterName(), outageMetricEvent.getHostIp(),
-                    outageMetricEvent.getTimestamp(), outageMetricEvent.getRecover(), System.currentTimeMillis());
-        } else {
-            if (outageMetricEvent.getLoad5() != null) {
-                current.setLoad5(outageMetricEvent.getLoad5());
-            }
-            if (outageMetricEvent.getCpuUsePercent() != null) {
-                current.setCpuUsePercent(outageMetricEvent.getCpuUsePercent());
-            }
-            if (outageMetricEvent.getMemUsedPercent() != null) {
-                current.setMemUsedPercent(outageMetricEvent.getMemUsedPercent());
-            }
-            if (outageMetricEvent.getSwapUsedPercent() != null) {
-                current.setSwapUsedPercent(outageMetricEvent.getSwapUsedPercent());
-            }
-            current.setSystemTimestamp(System.currentTimeMillis());
+            current = new OutageState();
+            current.setClusterName(outageMetricEvent.getClusterName());
+            current.setHostIp(outageMetricEvent.getHostIp());
+            current.setLastEventTime(outageMetricEvent.getTimestamp());
+        }
+        if (outageMetricEvent.getLoad5() != null) {
+            current.setLoad5(outageMetricEvent.getLoad5());
+        }
+        if (outageMetricEvent.getCpuUsePercent() != null) {
+            current.setCpuUsePercent(outageMetricEvent.getCpuUsePercent());
         }
+        if (outageMetricEvent.getMemUsedPercent() != null) {
+            current.setMemUsedPercent(outageMetricEvent.getMemUsedPercent());
+        }
+        if (outageMetricEvent.getSwapUsedPercent() != null) {
+            current.setSwapUsedPercent(outageMetricEvent.getSwapUsedPercent());
+        }
+        long now = System.currentTimeMillis();
+        current.setLastSystemTime(now);
 
-        if (recover.value() != null && !recover.value() && outageMetricEvent.getTimestamp() > current.getTimestamp()) {
-            OutageMetricEvent recoverEvent = new OutageMetricEvent(outageMetricEvent.getClusterName(), outageMetricEvent.getHostIp(),
-                    current.getTimestamp(), true, System.currentTimeMillis());
+        if (current.getCounter() > 0 && outageMetricEvent.getTimestamp() > current.getLastEventTime()) {
+            OutageMetricEvent recoverEvent = new OutageMetricEvent(current.getClusterName(), current.getHostIp(),
+                    current.getLastEventTime(), true, now);
             recoverEvent.setRecoverTime(ctx.timestamp());
             log.info("触发宕机恢复事件:{}", recoverEvent);
             collector.collect(recoverEvent);
             current.setCounter(0);
-            outageMetricState.update(current);
-            recover.update(true);
         }
 
-        current.setTimestamp(outageMetricEvent.getTimestamp());
-        outageMetricState.update(current);
-        ctx.timerService().registerEventTimeTimer(current.getSystemTimestamp() + delay);
+        current.setLastEventTime(Math.max(current.getLastEventTime(), outageMetricEvent.getTimestamp()));
+        if (current.getTimer() == 0) {
+            //已经有 timer 时不再注册，等它触发时再按最新的时间顺延
+            current.setTimer(bucket(now + delay));
+            ctx.timerService().registerEventTimeTimer(current.getTimer());
+        }
+        outageState.update(current);
     }
 
     @Override
     public void onTimer(long timestamp, OnTimerContext ctx, Collector<OutageMetricEvent> out) throws Exception {
-        OutageMetricEvent result = outageMetricState.value();
+        OutageState current = outageState.value();
+        if (current == null || timestamp != current.getTimer()) {
+            return;
+        }
+        current.setTimer(0);
 
-        if (result != null && timestamp >= result.getSystemTimestamp() + delay && System.currentTimeMillis() - result.getTimestamp() >= delay) {
-            if (result.getCounter() > alertCountLimit) {
-                log.info("宕机告警次数大于:{} :{}", alertCountLimit, result);
-                return;
-            }
-            log.info("触发宕机告警事件:timestamp = {}, result = {}", System.currentTimeMillis(), result);
-            result.setRecover(false);
-            out.collect(result);
-            ctx.timerService().registerEventTimeTimer(timestamp + delay);
-            result.setCounter(result.getCounter() + 1);
-            result.setSystemTimestamp(timestamp);
-            outageMetricState.update(result);
-            recover.update(false);
+        long deadline = current.getLastSystemTime() + delay;
+        if (timestamp < deadline || System.currentTimeMillis() - current.getLastEventTime() < delay) {
+            //timer 注册之后又收到了数据，顺延
+            current.setTimer(bucket(Math.max(deadline, timestamp + 1)));
+            ctx.timerService().registerEventTimeTimer(current.getTimer());
+            outageState.update(current);
+            return;
+        }
+
+        if (current.getCounter() > alertCountLimit) {
+            //不再注册 timer，直到重新收到数据
+            log.info("宕机告警次数大于:{} :{}", alertCountLimit, current);
+            outageState.update(current);
+            return;
+        }
+        OutageMetricEvent result = toEvent(current, timestamp);
+        log.info("触发宕机告警事件:timestamp = {}, result = {}", System.currentTimeMillis(), result);
+        out.collect(result);
+        current.setCounter(current.getCounter() + 1);
+        current.setLastSystemTime(timestamp);
+        current.setTimer(bucket(timestamp + delay));
+        ctx.timerService().registerEventTimeTimer(current.getTimer());
+        outageState.update(current);
+    }
+
+    /**
+     * 向上取整到 timerBucket
+     */
+    private long bucket(long time) {
+        return (time + timerBucket - 1) / timerBucket * timerBucket;
+    }
+
+    private static OutageMetricEvent toEvent(OutageState state, long systemTimestamp) {
+        OutageMetricEvent event = new OutageMetricEvent(state.getClusterName(), state.getHostIp(),
+                state.getLastEventTime(), false, systemTimestamp);
+        if (!Double.isNaN(state.getCpuUsePercent())) {
+            event.setCpuUsePercent(state.getCpuUsePercent());
+        }
+        if (!Double.isNaN(state.getMemUsedPercent())) {
+            event.setMemUsedPercent(state.getMemUsedPercent());
+        }
+        if (!Double.isNaN(state.getSwapUsedPercent())) {
+            event.setSwapUsedPercent(state.getSwapUsedPercent());
+        }
+        if (!Double.isNaN(state.getLoad5())) {
+            event.setLoad5(state.getLoad5());
         }
+        event.setCounter(state.getCounter());
+        return event;
     }
 }
@@ -1,10 +1,12 @@
 package com.zhisheng.alert.model;
 
+import com.zhisheng.alert.serializer.AlertEventSerializer;
 import com.zhisheng.common.model.MetricEvent;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Data;
 import lombok.NoArgsConstructor;
+import org.apache.flink.api.common.typeinfo.TypeInfo;
 
 /**
  * Desc: alert event
@@ -13,6 +15,7 @@ import lombok.NoArgsConstructor;
  * 微信公众号：zhisheng
  */
 @Data
+@TypeInfo(AlertEventSerializer.AlertEventTypeInfoFactory.class)
 @NoArgsConstructor
 @AllArgsConstructor
 @Builder
@@ -27,4 +30,10 @@ public class AlertEvent {
     private Long trigerTime;
 
     private Long recoverTime;
-}
\ No newline at end of file
+
+    //告警收敛后的升级级别，从 0 开始
+    private int level;
+
+    //本次通知之前被收敛（去重）掉的同组告警条数
+    private int suppressed;
+}
@@ -0,0 +1,25 @@
+package com.zhisheng.alert.model;
+
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Desc: 告警收敛中一个告警分组的状态，只保存基本类型
+ * Created by zhisheng on 2019/11/06 上午10:30
+ * blog：http://www.54tianzhisheng.cn/
+ * 微信公众号：zhisheng
+ */
+@Data
+@NoArgsConstructor
+public class AlertGroupState {
+    //第一次告警的时间
+    private long firstFiringTime;
+    //最近一次发出通知的时间
+    private long lastNotifyTime;
+    //最近一次收到告警的时间
+    private long lastSeenTime;
+    //上次通知之后被去重掉的告警条数
+    private int suppressed;
+    //当前的升级级别
+    private int level;
+}
@@ -17,7 +17,16 @@ import lombok.NoArgsConstructor;
 @Builder
 public class AlertRule {
     private Integer id;
+    //metric name
     private String name;
+    //metric field
     private String measurement;
     private String thresholds;
-}
\ No newline at end of file
+    //告警表达式，如 avg(usedPercent, 5m) > 90 && load5 > cores * 2，配置后忽略 measurement 和 thresholds
+    private String expression;
+    //只对带有该 tag 的 metric 生效，为空则对该 metric name 的所有数据生效
+    private String tagKey;
+    private String tagValue;
+    //规则版本，广播更新时旧版本不会覆盖新版本
+    private long version;
+}
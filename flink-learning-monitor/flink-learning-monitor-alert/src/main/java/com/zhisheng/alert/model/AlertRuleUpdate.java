@@ -0,0 +1,30 @@
+package com.zhisheng.alert.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * Desc: 告警规则的增量更新，只包含发生变化的规则
+ * Created by zhisheng on 2019/11/02 上午11:20
+ * blog：http://www.54tianzhisheng.cn/
+ * 微信公众号：zhisheng
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class AlertRuleUpdate {
+
+    private long version;
+
+    //为 true 时 upserts 是全量规则，不在其中的规则都要删除（source 启动后的第一次更新）
+    private boolean full;
+
+    //新增或者修改的规则
+    private List<AlertRule> upserts;
+
+    //删除的规则 id
+    private List<Integer> deletes;
+}
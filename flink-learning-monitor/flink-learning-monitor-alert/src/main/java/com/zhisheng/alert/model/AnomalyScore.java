@@ -0,0 +1,33 @@
+package com.zhisheng.alert.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.Map;
+
+/**
+ * Desc: 指标序列上每个数据点的异常分数，分数为 NaN 表示该检测器还在预热
+ * Created by zhisheng on 2019/11/08 上午10:20
+ * blog：http://www.54tianzhisheng.cn/
+ * 微信公众号：zhisheng
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class AnomalyScore {
+    //metric name
+    private String name;
+    //metric field
+    private String measurement;
+    private Map<String, String> tags;
+    private long timestamp;
+    private double value;
+    //基线给出的期望值
+    private double expected;
+    private double ewmaScore;
+    private double seasonalScore;
+    private double madScore;
+    //综合分数
+    private double score;
+}
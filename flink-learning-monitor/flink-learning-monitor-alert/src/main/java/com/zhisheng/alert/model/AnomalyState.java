@@ -0,0 +1,39 @@
+package com.zhisheng.alert.model;
+
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Desc: 异常检测中一个指标序列的基线状态，大小固定（季节数组长度由 seasonSlots 决定），不保存历史数据点
+ * Created by zhisheng on 2019/11/08 上午10:12
+ * blog：http://www.54tianzhisheng.cn/
+ * 微信公众号：zhisheng
+ */
+@Data
+@NoArgsConstructor
+public class AnomalyState {
+    //已经处理的数据点个数
+    private long count;
+    private long firstTimestamp;
+    private long lastTimestamp;
+
+    //EWMA 均值和方差
+    private double ewmaMean;
+    private double ewmaVar;
+
+    //Holt-Winters（加法模型）的水平、趋势、季节分量和残差的平均绝对值
+    private double level;
+    private double trend;
+    private double[] seasonal;
+    private double errorScale;
+
+    //流式估计的中位数和 MAD
+    private double median;
+    private double mad;
+
+    //连续超过阈值的数据点个数
+    private int anomalous;
+    //是否正在告警
+    private boolean alerting;
+    private long alertTime;
+}
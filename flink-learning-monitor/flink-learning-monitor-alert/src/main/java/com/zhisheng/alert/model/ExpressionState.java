@@ -0,0 +1,22 @@
+package com.zhisheng.alert.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Desc: 告警表达式中窗口聚合的状态，每个 metric 序列、每条规则一份
+ * 每个窗口切成固定个数的 pane，paneIds 保存每个 pane 对应的时间段，values 保存每个 pane 的 sum/count/min/max
+ * Created by zhisheng on 2019/11/07 上午10:20
+ * blog：http://www.54tianzhisheng.cn/
+ * 微信公众号：zhisheng
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ExpressionState {
+    //规则版本，规则修改后状态重新计算
+    private long version;
+    private long[] paneIds;
+    private double[] values;
+}
@@ -0,0 +1,51 @@
+package com.zhisheng.alert.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.Map;
+
+/**
+ * Desc: 维护窗口，窗口期内匹配的告警不发通知
+ * Created by zhisheng on 2019/11/06 上午10:40
+ * blog：http://www.54tianzhisheng.cn/
+ * 微信公众号：zhisheng
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder
+public class MaintenanceWindow {
+    private Integer id;
+    //告警类型，为空则匹配所有类型
+    private String type;
+    //告警的 tag 需要全部相等才匹配，为空则匹配所有告警
+    private Map<String, String> tags;
+    private long startTime;
+    private long endTime;
+
+    public boolean isActive(long now) {
+        return now >= startTime && now < endTime;
+    }
+
+    public boolean matches(AlertEvent alertEvent) {
+        if (type != null && !type.equals(alertEvent.getType())) {
+            return false;
+        }
+        if (tags == null || tags.isEmpty()) {
+            return true;
+        }
+        Map<String, String> alertTags = alertEvent.getMetricEvent() == null ? null : alertEvent.getMetricEvent().getTags();
+        if (alertTags == null) {
+            return false;
+        }
+        for (Map.Entry<String, String> tag : tags.entrySet()) {
+            if (!tag.getValue().equals(alertTags.get(tag.getKey()))) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -1,9 +1,11 @@
 package com.zhisheng.alert.model;
 
+import com.zhisheng.alert.serializer.OutageMetricEventSerializer;
 import com.zhisheng.common.constant.MachineConstant;
 import com.zhisheng.common.model.MetricEvent;
 import lombok.Data;
 import lombok.NoArgsConstructor;
+import org.apache.flink.api.common.typeinfo.TypeInfo;
 
 import java.util.Map;
 
@@ -16,6 +18,7 @@ import static com.zhisheng.common.constant.MachineConstant.*;
  * 微信公众号：zhisheng
  */
 @Data
+@TypeInfo(OutageMetricEventSerializer.OutageMetricEventTypeInfoFactory.class)
 @NoArgsConstructor
 public class OutageMetricEvent {
     //machine cluster name
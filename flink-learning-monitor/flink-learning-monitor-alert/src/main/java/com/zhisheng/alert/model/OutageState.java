@@ -0,0 +1,30 @@
+package com.zhisheng.alert.model;
+
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Desc: 宕机检测中每台机器的状态，只保存基本类型（指标为 NaN 表示没有上报过），
+ * 可以被 Flink 识别为 POJO，避免 Kryo 和装箱
+ * Created by zhisheng on 2019/11/03 上午10:42
+ * blog：http://www.54tianzhisheng.cn/
+ * 微信公众号：zhisheng
+ */
+@Data
+@NoArgsConstructor
+public class OutageState {
+    private String clusterName;
+    private String hostIp;
+    //最后一条数据的 event time
+    private long lastEventTime;
+    //最后一条数据到达的系统时间
+    private long lastSystemTime;
+    //当前注册的 timer，0 表示没有
+    private long timer;
+    //已经发出的宕机告警次数，为 0 表示没有在告警
+    private int counter;
+    private double cpuUsePercent = Double.NaN;
+    private double memUsedPercent = Double.NaN;
+    private double swapUsedPercent = Double.NaN;
+    private double load5 = Double.NaN;
+}
@@ -0,0 +1,285 @@
+package com.zhisheng.alert.serializer;
+
+import com.zhisheng.alert.model.AlertEvent;
+import org.apache.flink.api.common.typeinfo.TypeInfoFactory;
+import org.apache.flink.api.common.typeinfo.TypeInformation;
+import org.apache.flink.api.common.typeutils.TypeSerializer;
+import org.apache.flink.api.common.typeutils.TypeSerializerSchemaCompatibility;
+import org.apache.flink.api.common.typeutils.TypeSerializerSnapshot;
+import org.apache.flink.api.common.typeutils.base.TypeSerializerSingleton;
+import org.apache.flink.core.memory.DataInputView;
+import org.apache.flink.core.memory.DataOutputView;
+import org.apache.flink.types.StringValue;
+
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.util.Map;
+
+/**
+ * Desc: AlertEvent 的序列化器，metricEvent 使用 MetricEventSerializer
+ * 格式：1 字节的 null 标记位（recover 也放在标记位里） + 非 null 字段 + level + suppressed，
+ * level、suppressed 是后加的，snapshot 版本从 3 升到 4，旧 savepoint 恢复时会迁移
+ * Created by zhisheng on 2019/11/04 上午11:40
+ * blog：http://www.54tianzhisheng.cn/
+ * 微信公众号：zhisheng
+ */
+public final class AlertEventSerializer extends TypeSerializerSingleton<AlertEvent> {
+
+    private static final long serialVersionUID = 1L;
+
+    public static final AlertEventSerializer INSTANCE = new AlertEventSerializer();
+
+    private static final int TYPE = 1;
+    private static final int METRIC_EVENT = 1 << 1;
+    private static final int RECOVER = 1 << 2;
+    private static final int TRIGER_TIME = 1 << 3;
+    private static final int RECOVER_TIME = 1 << 4;
+
+    @Override
+    public boolean isImmutableType() {
+        return false;
+    }
+
+    @Override
+    public AlertEvent createInstance() {
+        return new AlertEvent();
+    }
+
+    @Override
+    public AlertEvent copy(AlertEvent from) {
+        AlertEvent copy = new AlertEvent();
+        copy.setType(from.getType());
+        if (from.getMetricEvent() != null) {
+            copy.setMetricEvent(MetricEventSerializer.INSTANCE.copy(from.getMetricEvent()));
+        }
+        copy.setRecover(from.isRecover());
+        copy.setTrigerTime(from.getTrigerTime());
+        copy.setRecoverTime(from.getRecoverTime());
+        copy.setLevel(from.getLevel());
+        copy.setSuppressed(from.getSuppressed());
+        return copy;
+    }
+
+    @Override
+    public AlertEvent copy(AlertEvent from, AlertEvent reuse) {
+        return copy(from);
+    }
+
+    @Override
+    public int getLength() {
+        return -1;
+    }
+
+    @Override
+    public void serialize(AlertEvent record, DataOutputView target) throws IOException {
+        serialize(record, target, true);
+    }
+
+    @Override
+    public AlertEvent deserialize(DataInputView source) throws IOException {
+        return deserialize(source, true);
+    }
+
+    @Override
+    public AlertEvent deserialize(AlertEvent reuse, DataInputView source) throws IOException {
+        return deserialize(source);
+    }
+
+    @Override
+    public void copy(DataInputView source, DataOutputView target) throws IOException {
+        copy(source, target, true);
+    }
+
+    @Override
+    public TypeSerializerSnapshot<AlertEvent> snapshotConfiguration() {
+        return new AlertEventSerializerSnapshot();
+    }
+
+    //withLevel 为 false 时是加上 level、suppressed 之前的格式
+    private static void serialize(AlertEvent record, DataOutputView target, boolean withLevel) throws IOException {
+        int flags = 0;
+        flags |= record.getType() != null ? TYPE : 0;
+        flags |= record.getMetricEvent() != null ? METRIC_EVENT : 0;
+        flags |= record.isRecover() ? RECOVER : 0;
+        flags |= record.getTrigerTime() != null ? TRIGER_TIME : 0;
+        flags |= record.getRecoverTime() != null ? RECOVER_TIME : 0;
+        target.writeByte(flags);
+
+        if (record.getType() != null) {
+            StringValue.writeString(record.getType(), target);
+        }
+        if (record.getMetricEvent() != null) {
+            MetricEventSerializer.INSTANCE.serialize(record.getMetricEvent(), target);
+        }
+        if (record.getTrigerTime() != null) {
+            target.writeLong(record.getTrigerTime());
+        }
+        if (record.getRecoverTime() != null) {
+            target.writeLong(record.getRecoverTime());
+        }
+        if (withLevel) {
+            target.writeInt(record.getLevel());
+            target.writeInt(record.getSuppressed());
+        }
+    }
+
+    private static AlertEvent deserialize(DataInputView source, boolean withLevel) throws IOException {
+        int flags = source.readUnsignedByte();
+        AlertEvent record = new AlertEvent();
+        if ((flags & TYPE) != 0) {
+            record.setType(StringValue.readString(source));
+        }
+        if ((flags & METRIC_EVENT) != 0) {
+            record.setMetricEvent(MetricEventSerializer.INSTANCE.deserialize(source));
+        }
+        record.setRecover((flags & RECOVER) != 0);
+        if ((flags & TRIGER_TIME) != 0) {
+            record.setTrigerTime(source.readLong());
+        }
+        if ((flags & RECOVER_TIME) != 0) {
+            record.setRecoverTime(source.readLong());
+        }
+        if (withLevel) {
+            record.setLevel(source.readInt());
+            record.setSuppressed(source.readInt());
+        }
+        return record;
+    }
+
+    private static void copy(DataInputView source, DataOutputView target, boolean withLevel) throws IOException {
+        int flags = source.readUnsignedByte();
+        target.writeByte(flags);
+        if ((flags & TYPE) != 0) {
+            StringValue.copyString(source, target);
+        }
+        if ((flags & METRIC_EVENT) != 0) {
+            MetricEventSerializer.INSTANCE.copy(source, target);
+        }
+        int fixedBytes = ((flags & TRIGER_TIME) != 0 ? 8 : 0) + ((flags & RECOVER_TIME) != 0 ? 8 : 0) + (withLevel ? 8 : 0);
+        target.write(source, fixedBytes);
+    }
+
+    /**
+     * 加上 level、suppressed 之前的格式，只用来读取旧 savepoint 里的 AlertEvent，恢复时迁移成新格式，
+     * 读出来的 level、suppressed 都是 0
+     */
+    public static final class LegacyAlertEventSerializer extends TypeSerializerSingleton<AlertEvent> {
+
+        private static final long serialVersionUID = 1L;
+
+        public static final LegacyAlertEventSerializer INSTANCE = new LegacyAlertEventSerializer();
+
+        @Override
+        public boolean isImmutableType() {
+            return false;
+        }
+
+        @Override
+        public AlertEvent createInstance() {
+            return new AlertEvent();
+        }
+
+        @Override
+        public AlertEvent copy(AlertEvent from) {
+            return AlertEventSerializer.INSTANCE.copy(from);
+        }
+
+        @Override
+        public AlertEvent copy(AlertEvent from, AlertEvent reuse) {
+            return copy(from);
+        }
+
+        @Override
+        public int getLength() {
+            return -1;
+        }
+
+        @Override
+        public void serialize(AlertEvent record, DataOutputView target) throws IOException {
+            AlertEventSerializer.serialize(record, target, false);
+        }
+
+        @Override
+        public AlertEvent deserialize(DataInputView source) throws IOException {
+            return AlertEventSerializer.deserialize(source, false);
+        }
+
+        @Override
+        public AlertEvent deserialize(AlertEvent reuse, DataInputView source) throws IOException {
+            return deserialize(source);
+        }
+
+        @Override
+        public void copy(DataInputView source, DataOutputView target) throws IOException {
+            AlertEventSerializer.copy(source, target, false);
+        }
+
+        @Override
+        public TypeSerializerSnapshot<AlertEvent> snapshotConfiguration() {
+            return new AlertEventSerializerSnapshot(AlertEventSerializerSnapshot.LEGACY_VERSION);
+        }
+    }
+
+    /**
+     * 版本 3 是之前继承 SimpleTypeSerializerSnapshot 时写入的版本号（没有 level、suppressed），
+     * 从这种 savepoint 恢复时用 LegacyAlertEventSerializer 读出旧数据，再用新的序列化器写回
+     */
+    public static final class AlertEventSerializerSnapshot implements TypeSerializerSnapshot<AlertEvent> {
+
+        private static final int LEGACY_VERSION = 3;
+
+        private static final int CURRENT_VERSION = 4;
+
+        private int version;
+
+        public AlertEventSerializerSnapshot() {
+            this(CURRENT_VERSION);
+        }
+
+        private AlertEventSerializerSnapshot(int version) {
+            this.version = version;
+        }
+
+        @Override
+        public int getCurrentVersion() {
+            return version;
+        }
+
+        @Override
+        public void writeSnapshot(DataOutputView out) {
+        }
+
+        @Override
+        public void readSnapshot(int readVersion, DataInputView in, ClassLoader userCodeClassLoader) throws IOException {
+            if (readVersion != LEGACY_VERSION && readVersion != CURRENT_VERSION) {
+                throw new IOException("Unrecognized AlertEventSerializer snapshot version: " + readVersion);
+            }
+            version = readVersion;
+        }
+
+        @Override
+        public TypeSerializer<AlertEvent> restoreSerializer() {
+            return version == LEGACY_VERSION ? LegacyAlertEventSerializer.INSTANCE : INSTANCE;
+        }
+
+        @Override
+        public TypeSerializerSchemaCompatibility<AlertEvent> resolveSchemaCompatibility(TypeSerializer<AlertEvent> newSerializer) {
+            if (newSerializer instanceof AlertEventSerializer) {
+                return version == LEGACY_VERSION
+                        ? TypeSerializerSchemaCompatibility.compatibleAfterMigration()
+                        : TypeSerializerSchemaCompatibility.compatibleAsIs();
+            }
+            if (newSerializer instanceof LegacyAlertEventSerializer && version == LEGACY_VERSION) {
+                return TypeSerializerSchemaCompatibility.compatibleAsIs();
+            }
+            return TypeSerializerSchemaCompatibility.incompatible();
+        }
+    }
+
+    public static class AlertEventTypeInfoFactory extends TypeInfoFactory<AlertEvent> {
+        @Override
+        public TypeInformation<AlertEvent> createTypeInfo(Type t, Map<String, TypeInformation<?>> genericParameters) {
+            return new SerializerTypeInfo<>(AlertEvent.class, INSTANCE);
+        }
+    }
+}
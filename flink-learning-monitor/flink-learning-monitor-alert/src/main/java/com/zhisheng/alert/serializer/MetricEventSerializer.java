@@ -0,0 +1,246 @@
+package com.zhisheng.alert.serializer;
+
+import com.zhisheng.common.model.MetricEvent;
+import org.apache.flink.api.common.typeutils.SimpleTypeSerializerSnapshot;
+import org.apache.flink.api.common.typeutils.TypeSerializerSnapshot;
+import org.apache.flink.api.common.typeutils.base.TypeSerializerSingleton;
+import org.apache.flink.core.memory.DataInputView;
+import org.apache.flink.core.memory.DataOutputView;
+import org.apache.flink.types.StringValue;
+import org.apache.flink.util.InstantiationUtil;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Desc: MetricEvent 的序列化器，fields 里常见的数值/字符串/布尔类型按基本类型编码，
+ * 其他类型（如 json 解析出来的嵌套 map/list）使用 java 序列化
+ * 格式：1 字节的 null 标记位 + name + timestamp + fields + tags
+ * Created by zhisheng on 2019/11/04 上午11:05
+ * blog：http://www.54tianzhisheng.cn/
+ * 微信公众号：zhisheng
+ */
+public final class MetricEventSerializer extends TypeSerializerSingleton<MetricEvent> {
+
+    private static final long serialVersionUID = 1L;
+
+    public static final MetricEventSerializer INSTANCE = new MetricEventSerializer();
+
+    private static final int NAME = 1;
+    private static final int TIMESTAMP = 1 << 1;
+    private static final int FIELDS = 1 << 2;
+    private static final int TAGS = 1 << 3;
+
+    private static final byte NULL_VALUE = 0;
+    private static final byte DOUBLE_VALUE = 1;
+    private static final byte LONG_VALUE = 2;
+    private static final byte INT_VALUE = 3;
+    private static final byte STRING_VALUE = 4;
+    private static final byte BOOLEAN_VALUE = 5;
+    private static final byte FLOAT_VALUE = 6;
+    private static final byte SERIALIZED_VALUE = 7;
+
+    @Override
+    public boolean isImmutableType() {
+        return false;
+    }
+
+    @Override
+    public MetricEvent createInstance() {
+        return new MetricEvent();
+    }
+
+    @Override
+    public MetricEvent copy(MetricEvent from) {
+        MetricEvent copy = new MetricEvent();
+        copy.setName(from.getName());
+        copy.setTimestamp(from.getTimestamp());
+        if (from.getFields() != null) {
+            Map<String, Object> fields = new HashMap<>(capacity(from.getFields().size()));
+            for (Map.Entry<String, Object> entry : from.getFields().entrySet()) {
+                fields.put(entry.getKey(), copyValue(entry.getValue()));
+            }
+            copy.setFields(fields);
+        }
+        if (from.getTags() != null) {
+            //key、value 都是 String，复制一份 map 就是深拷贝
+            copy.setTags(new HashMap<>(from.getTags()));
+        }
+        return copy;
+    }
+
+    @Override
+    public MetricEvent copy(MetricEvent from, MetricEvent reuse) {
+        return copy(from);
+    }
+
+    @Override
+    public int getLength() {
+        return -1;
+    }
+
+    @Override
+    public void serialize(MetricEvent record, DataOutputView target) throws IOException {
+        int flags = 0;
+        flags |= record.getName() != null ? NAME : 0;
+        flags |= record.getTimestamp() != null ? TIMESTAMP : 0;
+        flags |= record.getFields() != null ? FIELDS : 0;
+        flags |= record.getTags() != null ? TAGS : 0;
+        target.writeByte(flags);
+
+        if (record.getName() != null) {
+            StringValue.writeString(record.getName(), target);
+        }
+        if (record.getTimestamp() != null) {
+            target.writeLong(record.getTimestamp());
+        }
+        if (record.getFields() != null) {
+            target.writeInt(record.getFields().size());
+            for (Map.Entry<String, Object> entry : record.getFields().entrySet()) {
+                StringValue.writeString(entry.getKey(), target);
+                writeValue(entry.getValue(), target);
+            }
+        }
+        if (record.getTags() != null) {
+            target.writeInt(record.getTags().size());
+            for (Map.Entry<String, String> entry : record.getTags().entrySet()) {
+                //StringValue 本身支持 null
+                StringValue.writeString(entry.getKey(), target);
+                StringValue.writeString(entry.getValue(), target);
+            }
+        }
+    }
+
+    @Override
+    public MetricEvent deserialize(DataInputView source) throws IOException {
+        int flags = source.readUnsignedByte();
+        MetricEvent record = new MetricEvent();
+        if ((flags & NAME) != 0) {
+            record.setName(StringValue.readString(source));
+        }
+        if ((flags & TIMESTAMP) != 0) {
+            record.setTimestamp(source.readLong());
+        }
+        if ((flags & FIELDS) != 0) {
+            int size = source.readInt();
+            Map<String, Object> fields = new HashMap<>(capacity(size));
+            for (int i = 0; i < size; i++) {
+                fields.put(StringValue.readString(source), readValue(source));
+            }
+            record.setFields(fields);
+        }
+        if ((flags & TAGS) != 0) {
+            int size = source.readInt();
+            Map<String, String> tags = new HashMap<>(capacity(size));
+            for (int i = 0; i < size; i++) {
+                tags.put(StringValue.readString(source), StringValue.readString(source));
+            }
+            record.setTags(tags);
+        }
+        return record;
+    }
+
+    @Override
+    public MetricEvent deserialize(MetricEvent reuse, DataInputView source) throws IOException {
+        return deserialize(source);
+    }
+
+    @Override
+    public void copy(DataInputView source, DataOutputView target) throws IOException {
+        serialize(deserialize(source), target);
+    }
+
+    private static void writeValue(Object value, DataOutputView target) throws IOException {
+        if (value == null) {
+            target.writeByte(NULL_VALUE);
+        } else if (value instanceof Double) {
+            target.writeByte(DOUBLE_VALUE);
+            target.writeDouble((Double) value);
+        } else if (value instanceof Long) {
+            target.writeByte(LONG_VALUE);
+            target.writeLong((Long) value);
+        } else if (value instanceof Integer) {
+            target.writeByte(INT_VALUE);
+            target.writeInt((Integer) value);
+        } else if (value instanceof String) {
+            target.writeByte(STRING_VALUE);
+            StringValue.writeString((String) value, target);
+        } else if (value instanceof Boolean) {
+            target.writeByte(BOOLEAN_VALUE);
+            target.writeBoolean((Boolean) value);
+        } else if (value instanceof Float) {
+            target.writeByte(FLOAT_VALUE);
+            target.writeFloat((Float) value);
+        } else if (value instanceof Serializable) {
+            byte[] bytes = InstantiationUtil.serializeObject(value);
+            target.writeByte(SERIALIZED_VALUE);
+            target.writeInt(bytes.length);
+            target.write(bytes);
+        } else {
+            throw new IOException("unsupported metric field value type: " + value.getClass().getName());
+        }
+    }
+
+    private static Object readValue(DataInputView source) throws IOException {
+        byte type = source.readByte();
+        switch (type) {
+            case NULL_VALUE:
+                return null;
+            case DOUBLE_VALUE:
+                return source.readDouble();
+            case LONG_VALUE:
+                return source.readLong();
+            case INT_VALUE:
+                return source.readInt();
+            case STRING_VALUE:
+                return StringValue.readString(source);
+            case BOOLEAN_VALUE:
+                return source.readBoolean();
+            case FLOAT_VALUE:
+                return source.readFloat();
+            case SERIALIZED_VALUE:
+                byte[] bytes = new byte[source.readInt()];
+                source.readFully(bytes);
+                try {
+                    return InstantiationUtil.deserializeObject(bytes, Thread.currentThread().getContextClassLoader());
+                } catch (ClassNotFoundException e) {
+                    throw new IOException("could not deserialize metric field value", e);
+                }
+            default:
+                throw new IOException("unknown metric field value type: " + type);
+        }
+    }
+
+    //基本类型和 String 不可变，直接复用；其他类型（嵌套的 map/list 等）和序列化时一样走 java 序列化复制一份
+    private static Object copyValue(Object value) {
+        if (value == null || value instanceof Double || value instanceof Long || value instanceof Integer
+                || value instanceof String || value instanceof Boolean || value instanceof Float) {
+            return value;
+        }
+        if (!(value instanceof Serializable)) {
+            throw new IllegalArgumentException("unsupported metric field value type: " + value.getClass().getName());
+        }
+        try {
+            return InstantiationUtil.clone((Serializable) value, Thread.currentThread().getContextClassLoader());
+        } catch (IOException | ClassNotFoundException e) {
+            throw new RuntimeException("could not copy metric field value", e);
+        }
+    }
+
+    private static int capacity(int size) {
+        return (int) (size / 0.75f) + 1;
+    }
+
+    @Override
+    public TypeSerializerSnapshot<MetricEvent> snapshotConfiguration() {
+        return new MetricEventSerializerSnapshot();
+    }
+
+    public static final class MetricEventSerializerSnapshot extends SimpleTypeSerializerSnapshot<MetricEvent> {
+        public MetricEventSerializerSnapshot() {
+            super(() -> INSTANCE);
+        }
+    }
+}
@@ -0,0 +1,204 @@
+package com.zhisheng.alert.serializer;
+
+import com.zhisheng.alert.model.OutageMetricEvent;
+import org.apache.flink.api.common.typeinfo.TypeInfoFactory;
+import org.apache.flink.api.common.typeinfo.TypeInformation;
+import org.apache.flink.api.common.typeutils.SimpleTypeSerializerSnapshot;
+import org.apache.flink.api.common.typeutils.TypeSerializerSnapshot;
+import org.apache.flink.api.common.typeutils.base.TypeSerializerSingleton;
+import org.apache.flink.core.memory.DataInputView;
+import org.apache.flink.core.memory.DataOutputView;
+import org.apache.flink.types.StringValue;
+
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.util.Map;
+
+/**
+ * Desc: OutageMetricEvent 的序列化器
+ * 格式：2 字节的 null 标记位 + 非 null 字段的基本类型编码 + counter
+ * Created by zhisheng on 2019/11/04 上午10:32
+ * blog：http://www.54tianzhisheng.cn/
+ * 微信公众号：zhisheng
+ */
+public final class OutageMetricEventSerializer extends TypeSerializerSingleton<OutageMetricEvent> {
+
+    private static final long serialVersionUID = 1L;
+
+    public static final OutageMetricEventSerializer INSTANCE = new OutageMetricEventSerializer();
+
+    private static final int CLUSTER_NAME = 1;
+    private static final int HOST_IP = 1 << 1;
+    private static final int TIMESTAMP = 1 << 2;
+    private static final int RECOVER = 1 << 3;
+    private static final int RECOVER_VALUE = 1 << 4;
+    private static final int RECOVER_TIME = 1 << 5;
+    private static final int SYSTEM_TIMESTAMP = 1 << 6;
+    private static final int CPU_USE_PERCENT = 1 << 7;
+    private static final int MEM_USED_PERCENT = 1 << 8;
+    private static final int SWAP_USED_PERCENT = 1 << 9;
+    private static final int LOAD5 = 1 << 10;
+
+    @Override
+    public boolean isImmutableType() {
+        return false;
+    }
+
+    @Override
+    public OutageMetricEvent createInstance() {
+        return new OutageMetricEvent();
+    }
+
+    @Override
+    public OutageMetricEvent copy(OutageMetricEvent from) {
+        //所有字段都是不可变类型，浅拷贝即可
+        OutageMetricEvent copy = new OutageMetricEvent();
+        copy.setClusterName(from.getClusterName());
+        copy.setHostIp(from.getHostIp());
+        copy.setTimestamp(from.getTimestamp());
+        copy.setRecover(from.getRecover());
+        copy.setRecoverTime(from.getRecoverTime());
+        copy.setSystemTimestamp(from.getSystemTimestamp());
+        copy.setCpuUsePercent(from.getCpuUsePercent());
+        copy.setMemUsedPercent(from.getMemUsedPercent());
+        copy.setSwapUsedPercent(from.getSwapUsedPercent());
+        copy.setLoad5(from.getLoad5());
+        copy.setCounter(from.getCounter());
+        return copy;
+    }
+
+    @Override
+    public OutageMetricEvent copy(OutageMetricEvent from, OutageMetricEvent reuse) {
+        return copy(from);
+    }
+
+    @Override
+    public int getLength() {
+        return -1;
+    }
+
+    @Override
+    public void serialize(OutageMetricEvent record, DataOutputView target) throws IOException {
+        int flags = 0;
+        flags |= record.getClusterName() != null ? CLUSTER_NAME : 0;
+        flags |= record.getHostIp() != null ? HOST_IP : 0;
+        flags |= record.getTimestamp() != null ? TIMESTAMP : 0;
+        flags |= record.getRecover() != null ? RECOVER : 0;
+        flags |= Boolean.TRUE.equals(record.getRecover()) ? RECOVER_VALUE : 0;
+        flags |= record.getRecoverTime() != null ? RECOVER_TIME : 0;
+        flags |= record.getSystemTimestamp() != null ? SYSTEM_TIMESTAMP : 0;
+        flags |= record.getCpuUsePercent() != null ? CPU_USE_PERCENT : 0;
+        flags |= record.getMemUsedPercent() != null ? MEM_USED_PERCENT : 0;
+        flags |= record.getSwapUsedPercent() != null ? SWAP_USED_PERCENT : 0;
+        flags |= record.getLoad5() != null ? LOAD5 : 0;
+        target.writeShort(flags);
+
+        if (record.getClusterName() != null) {
+            StringValue.writeString(record.getClusterName(), target);
+        }
+        if (record.getHostIp() != null) {
+            StringValue.writeString(record.getHostIp(), target);
+        }
+        if (record.getTimestamp() != null) {
+            target.writeLong(record.getTimestamp());
+        }
+        if (record.getRecoverTime() != null) {
+            target.writeLong(record.getRecoverTime());
+        }
+        if (record.getSystemTimestamp() != null) {
+            target.writeLong(record.getSystemTimestamp());
+        }
+        if (record.getCpuUsePercent() != null) {
+            target.writeDouble(record.getCpuUsePercent());
+        }
+        if (record.getMemUsedPercent() != null) {
+            target.writeDouble(record.getMemUsedPercent());
+        }
+        if (record.getSwapUsedPercent() != null) {
+            target.writeDouble(record.getSwapUsedPercent());
+        }
+        if (record.getLoad5() != null) {
+            target.writeDouble(record.getLoad5());
+        }
+        target.writeInt(record.getCounter());
+    }
+
+    @Override
+    public OutageMetricEvent deserialize(DataInputView source) throws IOException {
+        int flags = source.readUnsignedShort();
+        OutageMetricEvent record = new OutageMetricEvent();
+        if ((flags & CLUSTER_NAME) != 0) {
+            record.setClusterName(StringValue.readString(source));
+        }
+        if ((flags & HOST_IP) != 0) {
+            record.setHostIp(StringValue.readString(source));
+        }
+        if ((flags & TIMESTAMP) != 0) {
+            record.setTimestamp(source.readLong());
+        }
+        if ((flags & RECOVER) != 0) {
+            record.setRecover((flags & RECOVER_VALUE) != 0);
+        }
+        if ((flags & RECOVER_TIME) != 0) {
+            record.setRecoverTime(source.readLong());
+        }
+        if ((flags & SYSTEM_TIMESTAMP) != 0) {
+            record.setSystemTimestamp(source.readLong());
+        }
+        if ((flags & CPU_USE_PERCENT) != 0) {
+            record.setCpuUsePercent(source.readDouble());
+        }
+        if ((flags & MEM_USED_PERCENT) != 0) {
+            record.setMemUsedPercent(source.readDouble());
+        }
+        if ((flags & SWAP_USED_PERCENT) != 0) {
+            record.setSwapUsedPercent(source.readDouble());
+        }
+        if ((flags & LOAD5) != 0) {
+            record.setLoad5(source.readDouble());
+        }
+        record.setCounter(source.readInt());
+        return record;
+    }
+
+    @Override
+    public OutageMetricEvent deserialize(OutageMetricEvent reuse, DataInputView source) throws IOException {
+        return deserialize(source);
+    }
+
+    @Override
+    public void copy(DataInputView source, DataOutputView target) throws IOException {
+        int flags = source.readUnsignedShort();
+        target.writeShort(flags);
+        if ((flags & CLUSTER_NAME) != 0) {
+            StringValue.copyString(source, target);
+        }
+        if ((flags & HOST_IP) != 0) {
+            StringValue.copyString(source, target);
+        }
+        int fixedBytes = 4;
+        for (int flag : new int[]{TIMESTAMP, RECOVER_TIME, SYSTEM_TIMESTAMP, CPU_USE_PERCENT,
+                MEM_USED_PERCENT, SWAP_USED_PERCENT, LOAD5}) {
+            fixedBytes += (flags & flag) != 0 ? 8 : 0;
+        }
+        target.write(source, fixedBytes);
+    }
+
+    @Override
+    public TypeSerializerSnapshot<OutageMetricEvent> snapshotConfiguration() {
+        return new OutageMetricEventSerializerSnapshot();
+    }
+
+    public static final class OutageMetricEventSerializerSnapshot extends SimpleTypeSerializerSnapshot<OutageMetricEvent> {
+        public OutageMetricEventSerializerSnapshot() {
+            super(() -> INSTANCE);
+        }
+    }
+
+    public static class OutageMetricEventTypeInfoFactory extends TypeInfoFactory<OutageMetricEvent> {
+        @Override
+        public TypeInformation<OutageMetricEvent> createTypeInfo(Type t, Map<String, TypeInformation<?>> genericParameters) {
+            return new SerializerTypeInfo<>(OutageMetricEvent.class, INSTANCE);
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package com.zhisheng.alert.serializer;
+
+import org.apache.flink.api.common.ExecutionConfig;
+import org.apache.flink.api.common.typeinfo.TypeInformation;
+import org.apache.flink.api.common.typeutils.TypeSerializer;
+
+/**
+ * Desc: 使用指定 TypeSerializer 的 TypeInformation，配合 @TypeInfo 注解让 Flink 在 state 和网络传输中
+ * 直接使用手写的序列化器，而不是回退到 Kryo
+ * Created by zhisheng on 2019/11/04 上午10:15
+ * blog：http://www.54tianzhisheng.cn/
+ * 微信公众号：zhisheng
+ */
+public class SerializerTypeInfo<T> extends TypeInformation<T> {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Class<T> typeClass;
+
+    private final TypeSerializer<T> serializer;
+
+    public SerializerTypeInfo(Class<T> typeClass, TypeSerializer<T> serializer) {
+        this.typeClass = typeClass;
+        this.serializer = serializer;
+    }
+
+    @Override
+    public boolean isBasicType() {
+        return false;
+    }
+
+    @Override
+    public boolean isTupleType() {
+        return false;
+    }
+
+    @Override
+    public int getArity() {
+        return 1;
+    }
+
+    @Override
+    public int getTotalFields() {
+        return 1;
+    }
+
+    @Override
+    public Class<T> getTypeClass() {
+        return typeClass;
+    }
+
+    @Override
+    public boolean isKeyType() {
+        return false;
+    }
+
+    @Override
+    public TypeSerializer<T> createSerializer(ExecutionConfig config) {
+        return serializer.duplicate();
+    }
+
+    @Override
+    public String toString() {
+        return "SerializerTypeInfo<" + typeClass.getSimpleName() + ">";
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof SerializerTypeInfo)) {
+            return false;
+        }
+        SerializerTypeInfo<?> other = (SerializerTypeInfo<?>) obj;
+        return other.canEqual(this) && typeClass == other.typeClass && serializer.equals(other.serializer);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * typeClass.hashCode() + serializer.hashCode();
+    }
+
+    @Override
+    public boolean canEqual(Object obj) {
+        return obj instanceof SerializerTypeInfo;
+    }
+}
@@ -0,0 +1,101 @@
+package com.zhisheng.alert.sink;
+
+import com.zhisheng.alert.model.AlertEvent;
+import com.zhisheng.alert.utils.DingDingNotifier;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.flink.api.common.state.ListState;
+import org.apache.flink.api.common.state.ListStateDescriptor;
+import org.apache.flink.api.java.utils.ParameterTool;
+import org.apache.flink.configuration.Configuration;
+import org.apache.flink.metrics.Gauge;
+import org.apache.flink.metrics.MetricGroup;
+import org.apache.flink.runtime.state.FunctionInitializationContext;
+import org.apache.flink.runtime.state.FunctionSnapshotContext;
+import org.apache.flink.streaming.api.checkpoint.CheckpointedFunction;
+import org.apache.flink.streaming.api.functions.sink.RichSinkFunction;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static com.zhisheng.common.constant.PropertiesConstants.*;
+
+/**
+ * Desc: 钉钉告警通知 sink，告警交给 DingDingNotifier 异步汇总、限流、重试发送，invoke 不会阻塞；
+ * 还没有发送成功的告警会保存在 operator state 里，作业恢复后重新发送
+ * Created by zhisheng on 2019/11/05 下午3:10
+ * blog：http://www.54tianzhisheng.cn/
+ * 微信公众号：zhisheng
+ */
+@Slf4j
+public class DingDingNotifySink extends RichSinkFunction<AlertEvent> implements CheckpointedFunction {
+
+    private transient DingDingNotifier notifier;
+
+    private transient ListState<AlertEvent> pendingState;
+
+    private transient List<AlertEvent> restoredAlerts;
+
+    @Override
+    public void open(Configuration parameters) throws Exception {
+        super.open(parameters);
+        ParameterTool parameterTool = (ParameterTool) getRuntimeContext().getExecutionConfig().getGlobalJobParameters();
+        String hooks = parameterTool.get(ALERT_DINGDING_HOOKS, "");
+        if (hooks.trim().isEmpty()) {
+            throw new IllegalArgumentException(ALERT_DINGDING_HOOKS + " must be configured");
+        }
+        notifier = new DingDingNotifier(Arrays.asList(hooks.trim().split("\\s*,\\s*")),
+                parameterTool.getLong(ALERT_DINGDING_DIGEST_WINDOW, 10 * 1000L),
+                parameterTool.getInt(ALERT_DINGDING_DIGEST_MAX_ALERTS, 20),
+                parameterTool.getInt(ALERT_DINGDING_MAX_PENDING, 10000),
+                parameterTool.getInt(ALERT_DINGDING_RATE_PER_MINUTE, 20),
+                parameterTool.getInt(ALERT_DINGDING_MAX_RETRIES, 3),
+                parameterTool.getLong(ALERT_DINGDING_RETRY_BACKOFF, 1000L));
+
+        MetricGroup metricGroup = getRuntimeContext().getMetricGroup().addGroup("dingding");
+        metricGroup.gauge("pendingAlerts", (Gauge<Integer>) notifier::getPendingAlerts);
+        metricGroup.gauge("sentMessages", (Gauge<Long>) notifier::getSentMessages);
+        metricGroup.gauge("failedMessages", (Gauge<Long>) notifier::getFailedMessages);
+        metricGroup.gauge("overflowAlerts", (Gauge<Long>) notifier::getOverflowAlerts);
+        metricGroup.gauge("retries", (Gauge<Long>) notifier::getRetries);
+
+        if (restoredAlerts != null) {
+            log.info("resend {} pending ding ding alerts restored from state", restoredAlerts.size());
+            for (AlertEvent alertEvent : restoredAlerts) {
+                notifier.notify(alertEvent);
+            }
+            restoredAlerts = null;
+        }
+    }
+
+    @Override
+    public void invoke(AlertEvent value, Context context) throws Exception {
+        notifier.notify(value);
+    }
+
+    @Override
+    public void snapshotState(FunctionSnapshotContext context) throws Exception {
+        pendingState.update(notifier.pendingAlerts());
+    }
+
+    @Override
+    public void initializeState(FunctionInitializationContext context) throws Exception {
+        pendingState = context.getOperatorStateStore().getListState(
+                new ListStateDescriptor<>("dingding_pending_alerts", AlertEvent.class));
+        if (context.isRestored()) {
+            restoredAlerts = new ArrayList<>();
+            for (AlertEvent alertEvent : pendingState.get()) {
+                restoredAlerts.add(alertEvent);
+            }
+        }
+    }
+
+    @Override
+    public void close() throws Exception {
+        if (notifier != null) {
+            log.info("close ding ding notifier, pending alerts: {}", notifier.getPendingAlerts());
+            notifier.close();
+        }
+        super.close();
+    }
+}
@@ -0,0 +1,120 @@
+package com.zhisheng.alert.utils;
+
+import com.zhisheng.alert.model.AlertRule;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Desc: 告警规则本地缓存（按 metric name）
+ * 1、缓存有效期 ttl，查不到规则的也缓存（negativeTtl），避免不断查库；
+ * 2、过了 ttl 的 80% 仍有请求时在后台提前刷新，调用方直接用旧值，不用等待；
+ * 3、同一个 name 同时只会有一个查询，其余请求复用同一个 future；
+ * 4、查询在传入的有界线程池中执行，不占用算子线程，刷新失败时继续使用旧值
+ * Created by zhisheng on 2019/11/01 下午3:12
+ * blog：http://www.54tianzhisheng.cn/
+ * 微信公众号：zhisheng
+ */
+public class AlertRuleCache {
+
+    private static final double REFRESH_AHEAD_RATIO = 0.8;
+
+    private final Map<String, Entry> cache = new ConcurrentHashMap<>();
+
+    private final Map<String, CompletableFuture<Entry>> inFlight = new ConcurrentHashMap<>();
+
+    private final Executor executor;
+
+    private final Loader loader;
+
+    private final long ttl;
+
+    private final long negativeTtl;
+
+    public AlertRuleCache(Executor executor, Loader loader, long ttl, long negativeTtl) {
+        this.executor = executor;
+        this.loader = loader;
+        this.ttl = ttl;
+        this.negativeTtl = negativeTtl;
+    }
+
+    /**
+     * 获取规则，没有规则时 future 的结果为 null
+     */
+    public CompletableFuture<AlertRule> get(String name) {
+        long now = System.currentTimeMillis();
+        Entry entry = cache.get(name);
+        if (entry != null) {
+            long age = now - entry.loadTime;
+            long entryTtl = entry.rule == null ? negativeTtl : ttl;
+            if (age < entryTtl) {
+                if (entry.rule != null && age >= entryTtl * REFRESH_AHEAD_RATIO) {
+                    load(name);
+                }
+                return CompletableFuture.completedFuture(entry.rule);
+            }
+        }
+        return load(name).handle((loaded, throwable) -> {
+            if (throwable == null) {
+                return loaded.rule;
+            }
+            if (entry != null) {
+                return entry.rule;
+            }
+            throw new RuntimeException("load alert rule failed, name = " + name, throwable);
+        });
+    }
+
+    private CompletableFuture<Entry> load(String name) {
+        CompletableFuture<Entry> future = inFlight.get(name);
+        if (future != null) {
+            return future;
+        }
+        CompletableFuture<Entry> newFuture = new CompletableFuture<>();
+        future = inFlight.putIfAbsent(name, newFuture);
+        if (future != null) {
+            return future;
+        }
+        try {
+            executor.execute(() -> {
+                try {
+                    Entry entry = new Entry(loader.load(name), System.currentTimeMillis());
+                    cache.put(name, entry);
+                    newFuture.complete(entry);
+                } catch (Throwable t) {
+                    newFuture.completeExceptionally(t);
+                } finally {
+                    inFlight.remove(name, newFuture);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            inFlight.remove(name, newFuture);
+            newFuture.completeExceptionally(e);
+        }
+        return newFuture;
+    }
+
+    public int size() {
+        return cache.size();
+    }
+
+    public interface Loader {
+        /**
+         * 查询规则，没有规则时返回 null
+         */
+        AlertRule load(String name) throws Exception;
+    }
+
+    private static class Entry {
+        private final AlertRule rule;
+        private final long loadTime;
+
+        private Entry(AlertRule rule, long loadTime) {
+            this.rule = rule;
+            this.loadTime = loadTime;
+        }
+    }
+}
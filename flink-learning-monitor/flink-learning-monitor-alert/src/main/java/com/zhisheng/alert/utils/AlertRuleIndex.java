@@ -0,0 +1,213 @@
+package com.zhisheng.alert.utils;
+
+import com.zhisheng.alert.expression.CompiledExpression;
+import com.zhisheng.alert.expression.ExpressionCompiler;
+import com.zhisheng.alert.model.AlertRule;
+import com.zhisheng.alert.model.ExpressionState;
+import com.zhisheng.common.model.MetricEvent;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Desc: 编译后的告警规则索引，每个 subtask 一份（不参与 checkpoint，从 broadcast state 重建）
+ * 按 metric name -> (tag key -> tag value) 分组，阈值提前解析成 double，表达式规则提前编译好，
+ * 一条 metric 只需要遍历和它匹配的规则，规则的增删改也只更新对应的分组
+ * Created by zhisheng on 2019/11/02 下午2:05
+ * blog：http://www.54tianzhisheng.cn/
+ * 微信公众号：zhisheng
+ */
+@Slf4j
+public class AlertRuleIndex {
+
+    private final Map<String, RuleGroup> groups = new HashMap<>();
+
+    private final Map<Integer, CompiledRule> rulesById = new HashMap<>();
+
+    /**
+     * 新增或者替换规则，阈值不是数字或者表达式不合法的规则直接忽略（同时删除旧规则）
+     *
+     * @param rule
+     * @return 规则是否生效
+     */
+    public boolean upsert(AlertRule rule) {
+        remove(rule.getId());
+        CompiledRule compiled = CompiledRule.compile(rule);
+        if (compiled == null) {
+            return false;
+        }
+        rulesById.put(rule.getId(), compiled);
+        groups.computeIfAbsent(rule.getName(), name -> new RuleGroup()).add(compiled);
+        return true;
+    }
+
+    public void remove(Integer id) {
+        CompiledRule compiled = rulesById.remove(id);
+        if (compiled == null) {
+            return;
+        }
+        RuleGroup group = groups.get(compiled.rule.getName());
+        if (group != null && group.remove(compiled)) {
+            groups.remove(compiled.rule.getName());
+        }
+    }
+
+    public void clear() {
+        groups.clear();
+        rulesById.clear();
+    }
+
+    public int size() {
+        return rulesById.size();
+    }
+
+    /**
+     * 找出被该 metric 触发的规则，没有触发时返回空 list
+     *
+     * @param event
+     * @param states 带窗口聚合的表达式规则的状态，该 metric 所在序列的
+     * @return
+     */
+    public List<AlertRule> match(MetricEvent event, ExpressionStates states) throws Exception {
+        RuleGroup group = groups.get(event.getName());
+        if (group == null) {
+            return new ArrayList<>(0);
+        }
+        List<AlertRule> matched = new ArrayList<>(0);
+        evaluate(group.untagged, event, states, matched);
+        Map<String, String> tags = event.getTags();
+        if (tags != null && !group.tagged.isEmpty()) {
+            for (Map.Entry<String, Map<String, List<CompiledRule>>> entry : group.tagged.entrySet()) {
+                String tagValue = tags.get(entry.getKey());
+                if (tagValue != null) {
+                    evaluate(entry.getValue().get(tagValue), event, states, matched);
+                }
+            }
+        }
+        return matched;
+    }
+
+    private static void evaluate(List<CompiledRule> rules, MetricEvent event, ExpressionStates states, List<AlertRule> matched) throws Exception {
+        Map<String, Object> fields = event.getFields();
+        if (rules == null || fields == null) {
+            return;
+        }
+        for (CompiledRule compiled : rules) {
+            if (compiled.expression == null) {
+                Object value = fields.get(compiled.measurement);
+                if (value instanceof Number && ((Number) value).doubleValue() > compiled.threshold) {
+                    matched.add(compiled.rule);
+                }
+                continue;
+            }
+            ExpressionState state = null;
+            if (compiled.expression.isStateful()) {
+                state = states.get(compiled.rule);
+                if (state == null || state.getVersion() != compiled.rule.getVersion()) {
+                    //规则修改过，之前的窗口数据作废
+                    state = compiled.expression.newState(compiled.rule.getVersion());
+                }
+            }
+            long timestamp = event.getTimestamp() == null ? System.currentTimeMillis() : event.getTimestamp();
+            if (compiled.expression.evaluate(fields, timestamp, state)) {
+                matched.add(compiled.rule);
+            }
+            if (state != null) {
+                states.put(compiled.rule, state);
+            }
+        }
+    }
+
+    /**
+     * 表达式规则的窗口聚合状态，由调用方按 metric 序列保存（如 keyed state）
+     */
+    public interface ExpressionStates {
+        ExpressionState get(AlertRule rule) throws Exception;
+
+        void put(AlertRule rule, ExpressionState state) throws Exception;
+    }
+
+    private static class RuleGroup {
+        //没有配置 tag 的规则
+        private final List<CompiledRule> untagged = new ArrayList<>();
+        //tag key -> tag value -> rules
+        private final Map<String, Map<String, List<CompiledRule>>> tagged = new HashMap<>();
+
+        private void add(CompiledRule compiled) {
+            AlertRule rule = compiled.rule;
+            if (rule.getTagKey() == null) {
+                untagged.add(compiled);
+                return;
+            }
+            tagged.computeIfAbsent(rule.getTagKey(), key -> new HashMap<>())
+                    .computeIfAbsent(rule.getTagValue(), value -> new ArrayList<>())
+                    .add(compiled);
+        }
+
+        /**
+         * @return 分组是否已经为空
+         */
+        private boolean remove(CompiledRule compiled) {
+            AlertRule rule = compiled.rule;
+            if (rule.getTagKey() == null) {
+                untagged.remove(compiled);
+            } else {
+                Map<String, List<CompiledRule>> byValue = tagged.get(rule.getTagKey());
+                if (byValue != null) {
+                    List<CompiledRule> rules = byValue.get(rule.getTagValue());
+                    if (rules != null && rules.remove(compiled) && rules.isEmpty()) {
+                        byValue.remove(rule.getTagValue());
+                        if (byValue.isEmpty()) {
+                            tagged.remove(rule.getTagKey());
+                        }
+                    }
+                }
+            }
+            return untagged.isEmpty() && tagged.isEmpty();
+        }
+    }
+
+    private static class CompiledRule {
+        private final AlertRule rule;
+        private final String measurement;
+        private final double threshold;
+        private final CompiledExpression expression;
+
+        private CompiledRule(AlertRule rule, double threshold, CompiledExpression expression) {
+            this.rule = rule;
+            this.measurement = rule.getMeasurement();
+            this.threshold = threshold;
+            this.expression = expression;
+        }
+
+        private static CompiledRule compile(AlertRule rule) {
+            if (rule.getName() == null) {
+                return null;
+            }
+            //只配置了 tag key 没有 tag value 的规则无法匹配任何数据
+            if (rule.getTagKey() != null && rule.getTagValue() == null) {
+                return null;
+            }
+            if (rule.getExpression() != null && !rule.getExpression().trim().isEmpty()) {
+                try {
+                    return new CompiledRule(rule, Double.NaN, ExpressionCompiler.compile(rule.getExpression()));
+                } catch (IllegalArgumentException e) {
+                    log.warn("alert rule {} has invalid expression, ignored: {}", rule.getId(), e.getMessage());
+                    return null;
+                }
+            }
+            if (rule.getMeasurement() == null || rule.getThresholds() == null) {
+                return null;
+            }
+            try {
+                return new CompiledRule(rule, Double.parseDouble(rule.getThresholds().trim()), null);
+            } catch (NumberFormatException e) {
+                log.warn("alert rule {} has invalid thresholds, ignored: {}", rule.getId(), e.getMessage());
+                return null;
+            }
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package com.zhisheng.alert.utils;
+
+import com.zhisheng.alert.model.AnomalyState;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * Desc: 指标序列的流式异常检测，每个数据点 O(1) 更新三种基线并打分：
+ * 1、EWMA 均值 / 方差，分数是偏离均值的标准差倍数；
+ * 2、Holt-Winters 加法模型（季节周期 = seasonSlots * slotSize，按数据的时间落到对应的季节槽），分数是预测残差相对于平均残差的倍数，
+ * 数据跨过一个完整周期之前不打分；
+ * 3、流式中位数 / MAD（符号随机逼近，步长跟随 EWMA 标准差），分数是 robust z-score
+ * 综合分数：EWMA 和 MAD 都认为异常时取两者中较小的（对单个基线的偶然偏差更稳健），
+ * Holt-Winters 就绪后再和它的分数取较大值（有季节性的序列主要靠它发现偏离当前时段规律的数据）；
+ * 被判定为异常的数据点只以截断后的值更新基线，避免基线被异常值带偏
+ * Created by zhisheng on 2019/11/08 上午10:35
+ * blog：http://www.54tianzhisheng.cn/
+ * 微信公众号：zhisheng
+ */
+public class AnomalyDetector implements Serializable {
+
+    //update 输出数组中各个分数的下标
+    public static final int EWMA = 0;
+    public static final int SEASONAL = 1;
+    public static final int MAD = 2;
+    public static final int EXPECTED = 3;
+    public static final int SCORES = 4;
+
+    //MAD 换算成标准差的系数
+    private static final double MAD_TO_SIGMA = 1.4826;
+    //平均绝对残差换算成标准差的系数
+    private static final double MEAN_ABS_TO_SIGMA = 1.2533;
+    //基线尺度的下限（相对于基线值），避免常量序列的分数无穷大
+    private static final double MIN_SCALE_RATIO = 1e-3;
+
+    private final double ewmaAlpha;
+    private final double hwAlpha;
+    private final double hwBeta;
+    private final double hwGamma;
+    private final int seasonSlots;
+    private final long slotSize;
+    private final double madRate;
+    private final int warmup;
+    //超过该分数的数据点截断后再更新基线
+    private final double clip;
+
+    public AnomalyDetector(double ewmaAlpha, int seasonSlots, long slotSize, int warmup, double clip) {
+        this(ewmaAlpha, ewmaAlpha, 0.01, 0.05, seasonSlots, slotSize, 0.05, warmup, clip);
+    }
+
+    public AnomalyDetector(double ewmaAlpha, double hwAlpha, double hwBeta, double hwGamma,
+                           int seasonSlots, long slotSize, double madRate, int warmup, double clip) {
+        if (seasonSlots <= 0 || slotSize <= 0) {
+            throw new IllegalArgumentException("seasonSlots and slotSize must be positive, but are " + seasonSlots + ", " + slotSize);
+        }
+        this.ewmaAlpha = ewmaAlpha;
+        this.hwAlpha = hwAlpha;
+        this.hwBeta = hwBeta;
+        this.hwGamma = hwGamma;
+        this.seasonSlots = seasonSlots;
+        this.slotSize = slotSize;
+        this.madRate = madRate;
+        this.warmup = warmup;
+        this.clip = clip;
+    }
+
+    public AnomalyState newState() {
+        AnomalyState state = new AnomalyState();
+        state.setSeasonal(new double[seasonSlots]);
+        return state;
+    }
+
+    /**
+     * 用一个数据点更新基线
+     *
+     * @param state     序列的状态，会被原地修改
+     * @param value     数据点的值
+     * @param timestamp 数据点的时间
+     * @param scores    长度至少为 SCORES，输出各基线的分数（NaN 表示未就绪）和期望值
+     * @return 综合分数，预热期间为 0
+     */
+    public double update(AnomalyState state, double value, long timestamp, double[] scores) {
+        Arrays.fill(scores, 0, SCORES, Double.NaN);
+        if (state.getSeasonal() == null || state.getSeasonal().length != seasonSlots) {
+            //季节槽的配置改过，季节分量重新学习
+            state.setSeasonal(new double[seasonSlots]);
+        }
+        if (state.getCount() == 0) {
+            state.setFirstTimestamp(timestamp);
+            state.setEwmaMean(value);
+            state.setLevel(value);
+            state.setMedian(value);
+            state.setCount(1);
+            state.setLastTimestamp(timestamp);
+            scores[EXPECTED] = value;
+            return 0;
+        }
+        boolean ready = state.getCount() >= warmup;
+        //预热期间基线还不可信，不截断
+        double limit = ready ? clip : Double.POSITIVE_INFINITY;
+
+        //EWMA
+        double mean = state.getEwmaMean();
+        double sigma = Math.max(Math.sqrt(state.getEwmaVar()), minScale(mean));
+        double diff = value - mean;
+        double ewmaScore = Math.abs(diff) / sigma;
+        double clipped = clamp(diff, limit * sigma);
+        double increment = ewmaAlpha * clipped;
+        state.setEwmaMean(mean + increment);
+        state.setEwmaVar((1 - ewmaAlpha) * (state.getEwmaVar() + clipped * increment));
+
+        //Holt-Winters
+        double[] seasonal = state.getSeasonal();
+        int slot = (int) Math.floorMod(Math.floorDiv(timestamp, slotSize), (long) seasonSlots);
+        double level = state.getLevel();
+        double trend = state.getTrend();
+        double forecast = level + trend + seasonal[slot];
+        double errorSigma = Math.max(state.getErrorScale() * MEAN_ABS_TO_SIGMA, minScale(forecast));
+        double error = value - forecast;
+        double seasonalScore = Math.abs(error) / errorSigma;
+        double hwValue = forecast + clamp(error, limit * errorSigma);
+        double newLevel = hwAlpha * (hwValue - seasonal[slot]) + (1 - hwAlpha) * (level + trend);
+        state.setTrend(hwBeta * (newLevel - level) + (1 - hwBeta) * trend);
+        state.setLevel(newLevel);
+        seasonal[slot] = hwGamma * (hwValue - newLevel) + (1 - hwGamma) * seasonal[slot];
+        state.setErrorScale(ewmaAlpha * Math.abs(hwValue - forecast) + (1 - ewmaAlpha) * state.getErrorScale());
+        boolean seasonReady = timestamp - state.getFirstTimestamp() >= seasonSlots * slotSize;
+
+        //中位数 / MAD，步长跟随 EWMA 标准差，预热后不再受单个点的大小影响
+        double median = state.getMedian();
+        double mad = state.getMad();
+        double deviation = value - median;
+        double madScore = Math.abs(deviation) / Math.max(mad * MAD_TO_SIGMA, minScale(median));
+        double step = madRate * sigma;
+        state.setMedian(median + Math.signum(deviation) * step);
+        state.setMad(Math.max(0, mad + Math.signum(Math.abs(deviation) - mad) * step));
+
+        state.setCount(state.getCount() + 1);
+        state.setLastTimestamp(Math.max(state.getLastTimestamp(), timestamp));
+
+        scores[EXPECTED] = seasonReady ? forecast : mean;
+        if (!ready) {
+            return 0;
+        }
+        scores[EWMA] = ewmaScore;
+        scores[MAD] = madScore;
+        if (seasonReady) {
+            scores[SEASONAL] = seasonalScore;
+        }
+        return combine(scores[EWMA], scores[SEASONAL], scores[MAD]);
+    }
+
+    private static double minScale(double baseline) {
+        return MIN_SCALE_RATIO * (Math.abs(baseline) + 1);
+    }
+
+    private static double clamp(double value, double limit) {
+        return Math.max(-limit, Math.min(limit, value));
+    }
+
+    private static double combine(double ewma, double seasonal, double mad) {
+        double score = Math.min(ewma, mad);
+        return Double.isNaN(seasonal) ? score : Math.max(score, seasonal);
+    }
+}
@@ -0,0 +1,301 @@
+package com.zhisheng.alert.utils;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.zhisheng.alert.model.AlertEvent;
+import com.zhisheng.common.utils.DateUtil;
+import com.zhisheng.common.utils.GsonUtil;
+import com.zhisheng.common.utils.HttpUtil;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Desc: 异步的钉钉告警通知
+ * 告警先放进每个机器人的待发送队列，digestWindow 内的告警合并成一条 markdown 汇总消息，
+ * 在后台线程里按机器人的令牌桶限流发送，失败后按指数退避重试；调用方（算子线程）永远不会被 http 请求阻塞
+ * Created by zhisheng on 2019/11/05 上午10:45
+ * blog：http://www.54tianzhisheng.cn/
+ * 微信公众号：zhisheng
+ */
+@Slf4j
+public class DingDingNotifier implements AutoCloseable {
+
+    //钉钉返回的发送太快的错误码
+    private static final int ERRCODE_SEND_TOO_FAST = 130101;
+
+    private final long digestWindow;
+    private final int maxAlertsPerDigest;
+    private final int maxPending;
+    private final int maxRetries;
+    private final long retryBackoff;
+    private final Sender sender;
+
+    private final Map<String, Robot> robots = new LinkedHashMap<>();
+
+    private final ScheduledExecutorService scheduler;
+
+    private final AtomicInteger pendingAlerts = new AtomicInteger();
+    private final AtomicLong sentMessages = new AtomicLong();
+    private final AtomicLong failedMessages = new AtomicLong();
+    private final AtomicLong overflowAlerts = new AtomicLong();
+    private final AtomicLong retries = new AtomicLong();
+
+    /**
+     * @param hooks              钉钉机器人地址
+     * @param digestWindow       汇总窗口（ms），窗口内的告警合并成一条消息
+     * @param maxAlertsPerDigest 一条汇总消息里最多展示的告警条数，超出的只计数
+     * @param maxPending         每个机器人最多缓存的告警条数，超出的只计数
+     * @param ratePerMinute      每个机器人每分钟最多发送的消息数
+     * @param maxRetries         发送失败的最大重试次数
+     * @param retryBackoff       第一次重试的等待时间（ms），之后每次翻倍
+     * @param sender             发送消息的实现
+     */
+    public DingDingNotifier(List<String> hooks, long digestWindow, int maxAlertsPerDigest, int maxPending,
+                            int ratePerMinute, int maxRetries, long retryBackoff, Sender sender) {
+        this.digestWindow = digestWindow;
+        this.maxAlertsPerDigest = maxAlertsPerDigest;
+        this.maxPending = maxPending;
+        this.maxRetries = maxRetries;
+        this.retryBackoff = retryBackoff;
+        this.sender = sender;
+        long now = System.currentTimeMillis();
+        for (String hook : hooks) {
+            robots.put(hook, new Robot(hook, new TokenBucket(ratePerMinute, 60 * 1000, now)));
+        }
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat("dingding-notify-%d").setDaemon(true).build());
+    }
+
+    public DingDingNotifier(List<String> hooks, long digestWindow, int maxAlertsPerDigest, int maxPending,
+                            int ratePerMinute, int maxRetries, long retryBackoff) {
+        this(hooks, digestWindow, maxAlertsPerDigest, maxPending, ratePerMinute, maxRetries, retryBackoff, HttpUtil::doPostString);
+    }
+
+    /**
+     * 添加一条告警，发给所有的机器人，不会阻塞
+     */
+    public void notify(AlertEvent alertEvent) {
+        for (Robot robot : robots.values()) {
+            boolean schedule;
+            synchronized (robot) {
+                if (robot.pending.size() < maxPending) {
+                    robot.pending.add(alertEvent);
+                    pendingAlerts.incrementAndGet();
+                } else {
+                    robot.overflow++;
+                    overflowAlerts.incrementAndGet();
+                }
+                schedule = !robot.scheduled;
+                robot.scheduled = true;
+            }
+            if (schedule) {
+                schedule(robot, digestWindow);
+            }
+        }
+    }
+
+    /**
+     * 所有还没有发送成功的告警（包括正在发送的），用于 checkpoint
+     */
+    public List<AlertEvent> pendingAlerts() {
+        //同一条告警会放进多个机器人的队列，按对象去重
+        Set<AlertEvent> alerts = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (Robot robot : robots.values()) {
+            synchronized (robot) {
+                alerts.addAll(robot.inFlight);
+                alerts.addAll(robot.pending);
+            }
+        }
+        return new ArrayList<>(alerts);
+    }
+
+    private void schedule(Robot robot, long delay) {
+        if (!scheduler.isShutdown()) {
+            scheduler.schedule(() -> flush(robot), delay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * 只在 scheduler 线程里执行
+     */
+    private void flush(Robot robot) {
+        int overflow;
+        synchronized (robot) {
+            if (robot.pending.isEmpty() && robot.overflow == 0) {
+                robot.scheduled = false;
+                return;
+            }
+        }
+        long wait = robot.bucket.tryAcquire(System.currentTimeMillis());
+        if (wait > 0) {
+            //限流期间新的告警继续合并到这条汇总消息里
+            schedule(robot, wait);
+            return;
+        }
+        synchronized (robot) {
+            robot.inFlight = robot.pending;
+            robot.pending = new ArrayList<>();
+            overflow = robot.overflow;
+            robot.overflow = 0;
+        }
+
+        List<AlertEvent> batch = robot.inFlight;
+        boolean success = send(robot, buildDigest(batch, overflow));
+        long nextDelay = digestWindow;
+        synchronized (robot) {
+            robot.inFlight = Collections.emptyList();
+            if (success) {
+                sentMessages.incrementAndGet();
+                pendingAlerts.addAndGet(-batch.size());
+                robot.attempts = 0;
+            } else if (++robot.attempts > maxRetries) {
+                log.error("send ding ding digest to {} failed after {} retries, drop {} alerts", robot.hook, maxRetries, batch.size() + overflow);
+                failedMessages.incrementAndGet();
+                pendingAlerts.addAndGet(-batch.size());
+                robot.attempts = 0;
+            } else {
+                //放回队列头部，和新的告警一起重试，超出 maxPending 的部分只计数
+                retries.incrementAndGet();
+                List<AlertEvent> requeue = new ArrayList<>(batch);
+                requeue.addAll(robot.pending);
+                int keep = Math.min(requeue.size(), maxPending);
+                int dropped = requeue.size() - keep;
+                robot.pending = new ArrayList<>(requeue.subList(0, keep));
+                robot.overflow += overflow + dropped;
+                pendingAlerts.addAndGet(-dropped);
+                overflowAlerts.addAndGet(dropped);
+                nextDelay = retryBackoff << Math.min(robot.attempts - 1, 16);
+            }
+            if (robot.pending.isEmpty() && robot.overflow == 0) {
+                robot.scheduled = false;
+                return;
+            }
+        }
+        schedule(robot, nextDelay);
+    }
+
+    private boolean send(Robot robot, String msg) {
+        try {
+            String result = sender.send(robot.hook, msg);
+            Map<?, ?> response = result == null ? null : GsonUtil.fromJson(result, Map.class);
+            Object errcode = response == null ? null : response.get("errcode");
+            if (errcode instanceof Number && ((Number) errcode).intValue() == 0) {
+                return true;
+            }
+            if (errcode instanceof Number && ((Number) errcode).intValue() == ERRCODE_SEND_TOO_FAST) {
+                robot.bucket.drain(System.currentTimeMillis());
+            }
+            log.warn("send ding ding digest to {} failed, response: {}", robot.hook, result);
+        } catch (Exception e) {
+            log.warn("send ding ding digest to {} has an error", robot.hook, e);
+        }
+        return false;
+    }
+
+    private String buildDigest(List<AlertEvent> alerts, int overflow) {
+        int total = alerts.size() + overflow;
+        String title = "告警汇总(" + total + ")";
+        StringBuilder text = new StringBuilder("#### ").append(title).append("\n\n");
+        //按告警类型分组展示
+        Map<String, List<AlertEvent>> byType = new LinkedHashMap<>();
+        for (AlertEvent alert : alerts) {
+            byType.computeIfAbsent(String.valueOf(alert.getType()), type -> new ArrayList<>()).add(alert);
+        }
+        int shown = 0;
+        for (Map.Entry<String, List<AlertEvent>> entry : byType.entrySet()) {
+            text.append("**").append(entry.getKey()).append("** ").append(entry.getValue().size()).append(" 条\n\n");
+            for (AlertEvent alert : entry.getValue()) {
+                if (shown++ >= maxAlertsPerDigest) {
+                    break;
+                }
+                text.append("- ").append(format(alert)).append("\n");
+            }
+            text.append("\n");
+        }
+        int hidden = total - Math.min(maxAlertsPerDigest, alerts.size());
+        if (hidden > 0) {
+            text.append("另有 ").append(hidden).append(" 条告警未展示\n");
+        }
+        return DingDingGroupMsgUtil.setMarkdownMessage(false, title, text.toString(), new ArrayList<>());
+    }
+
+    private static String format(AlertEvent alert) {
+        StringBuilder line = new StringBuilder(alert.isRecover() ? "【恢复】" : "【告警】");
+        if (alert.getLevel() > 0) {
+            line.append("[升级 ").append(alert.getLevel()).append("]");
+        }
+        if (alert.getMetricEvent() != null) {
+            if (alert.getMetricEvent().getTags() != null) {
+                line.append(' ').append(alert.getMetricEvent().getTags());
+            }
+            if (alert.getMetricEvent().getFields() != null) {
+                line.append(' ').append(alert.getMetricEvent().getFields());
+            }
+        }
+        Long time = alert.isRecover() ? alert.getRecoverTime() : alert.getTrigerTime();
+        if (time != null) {
+            line.append(' ').append(DateUtil.format(time, DateUtil.YYYY_MM_DD_HH_MM_SS));
+        }
+        if (alert.getSuppressed() > 0) {
+            line.append(" (期间收敛 ").append(alert.getSuppressed()).append(" 条)");
+        }
+        return line.toString();
+    }
+
+    public int getPendingAlerts() {
+        return pendingAlerts.get();
+    }
+
+    public long getSentMessages() {
+        return sentMessages.get();
+    }
+
+    public long getFailedMessages() {
+        return failedMessages.get();
+    }
+
+    public long getOverflowAlerts() {
+        return overflowAlerts.get();
+    }
+
+    public long getRetries() {
+        return retries.get();
+    }
+
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+    }
+
+    public interface Sender {
+        String send(String url, String msg) throws Exception;
+    }
+
+    private static class Robot {
+        private final String hook;
+        //只在 scheduler 线程里使用
+        private final TokenBucket bucket;
+        private List<AlertEvent> pending = new ArrayList<>();
+        private List<AlertEvent> inFlight = Collections.emptyList();
+        private int overflow;
+        private int attempts;
+        //是否已经有 flush 任务在等待执行
+        private boolean scheduled;
+
+        private Robot(String hook, TokenBucket bucket) {
+            this.hook = hook;
+            this.bucket = bucket;
+        }
+    }
+}
@@ -0,0 +1,328 @@
+package com.zhisheng.alert.utils;
+
+import com.zhisheng.alert.expression.CompiledExpression;
+import com.zhisheng.alert.expression.ExpressionCompiler;
+import com.zhisheng.alert.model.AlertRule;
+import com.zhisheng.common.model.MetricEvent;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Desc: 告警规则的批量（列式）计算，攒批时按 metric name 分组把规则用到的 field 和 tag 拆成基本类型的列：
+ * 时间戳 long[]、field 值 double[]（缺失为 NaN）、tag 值 int[]（规则里出现过的 tag value 的编号，其他为 -1），
+ * 计算时每条阈值规则只是对一列做一次紧凑循环，没有装箱、虚方法调用和 map 查找；
+ * 无状态的表达式规则在批内逐条计算，带窗口聚合的表达式规则需要 keyed 状态，批量模式下不支持
+ * 非线程安全，规则变化之前必须先 flush
+ * Created by zhisheng on 2019/11/10 上午11:05
+ * blog：http://www.54tianzhisheng.cn/
+ * 微信公众号：zhisheng
+ */
+public class MetricBatchEvaluator {
+
+    public static final long NO_TIMESTAMP = Long.MIN_VALUE;
+
+    private final int capacity;
+
+    //生效的规则，规则变化后在下一次 add 时重建列的布局
+    private final Map<Integer, AlertRule> rules = new HashMap<>();
+    private final Map<Integer, CompiledExpression> expressions = new HashMap<>();
+    private Map<String, NameBatch> batches = new HashMap<>();
+    private boolean dirty;
+    private int buffered;
+
+    public MetricBatchEvaluator(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive, but is " + capacity);
+        }
+        this.capacity = capacity;
+    }
+
+    /**
+     * 新增或者替换规则，不合法或者批量模式不支持的规则直接忽略（同时删除旧规则）
+     *
+     * @param rule
+     * @return 规则是否生效
+     */
+    public boolean upsert(AlertRule rule) {
+        remove(rule.getId());
+        if (rule.getName() == null || (rule.getTagKey() != null && rule.getTagValue() == null)) {
+            return false;
+        }
+        if (rule.getExpression() != null && !rule.getExpression().trim().isEmpty()) {
+            CompiledExpression expression;
+            try {
+                expression = ExpressionCompiler.compile(rule.getExpression());
+            } catch (IllegalArgumentException e) {
+                return false;
+            }
+            if (expression.isStateful()) {
+                return false;
+            }
+            expressions.put(rule.getId(), expression);
+        } else {
+            if (rule.getMeasurement() == null || rule.getThresholds() == null) {
+                return false;
+            }
+            try {
+                Double.parseDouble(rule.getThresholds().trim());
+            } catch (NumberFormatException e) {
+                return false;
+            }
+        }
+        rules.put(rule.getId(), rule);
+        dirty = true;
+        return true;
+    }
+
+    public void remove(Integer id) {
+        if (rules.remove(id) != null) {
+            expressions.remove(id);
+            dirty = true;
+        }
+    }
+
+    public void clear() {
+        rules.clear();
+        expressions.clear();
+        dirty = true;
+    }
+
+    public int size() {
+        return rules.size();
+    }
+
+    /**
+     * 当前攒批的条数
+     */
+    public int buffered() {
+        return buffered;
+    }
+
+    /**
+     * 加入当前批次，没有规则关心的 metric 直接丢弃
+     *
+     * @param event
+     * @param timestamp 输出时使用的时间戳，没有时为 NO_TIMESTAMP
+     * @return 是否加入了批次
+     */
+    public boolean add(MetricEvent event, long timestamp) {
+        if (dirty) {
+            rebuild();
+        }
+        NameBatch batch = batches.get(event.getName());
+        if (batch == null || event.getFields() == null) {
+            return false;
+        }
+        batch.add(event, timestamp);
+        buffered++;
+        return true;
+    }
+
+    /**
+     * 计算当前批次，触发了任意规则的 metric 交给 collector，然后清空批次
+     *
+     * @return 触发告警的条数
+     */
+    public int flush(MatchedCollector collector) {
+        if (buffered == 0) {
+            return 0;
+        }
+        int matched = 0;
+        for (NameBatch batch : batches.values()) {
+            matched += batch.evaluate(collector);
+        }
+        buffered = 0;
+        return matched;
+    }
+
+    private void rebuild() {
+        if (buffered > 0) {
+            throw new IllegalStateException("flush the buffered " + buffered + " metrics before changing rules");
+        }
+        Map<String, List<AlertRule>> byName = new HashMap<>();
+        for (AlertRule rule : rules.values()) {
+            byName.computeIfAbsent(rule.getName(), name -> new ArrayList<>()).add(rule);
+        }
+        Map<String, NameBatch> rebuilt = new HashMap<>();
+        for (Map.Entry<String, List<AlertRule>> entry : byName.entrySet()) {
+            rebuilt.put(entry.getKey(), new NameBatch(entry.getValue(), expressions));
+        }
+        batches = rebuilt;
+        dirty = false;
+    }
+
+    public interface MatchedCollector {
+        void collect(MetricEvent event, long timestamp);
+    }
+
+    /**
+     * 同一个 metric name 的批次和规则
+     */
+    private final class NameBatch {
+        //列 -> field
+        private final String[] measurements;
+        //tag 列 -> tag key
+        private final String[] tagKeys;
+        //tag 列 -> (tag value -> 编号)
+        private final Map<String, Integer>[] tagValueIds;
+
+        //阈值规则，按下标一一对应
+        private final int[] ruleColumn;
+        private final double[] ruleThreshold;
+        private final int[] ruleTagColumn;
+        private final int[] ruleTagValue;
+
+        private final CompiledExpression[] expressionRules;
+        private final int[] expressionTagColumn;
+        private final int[] expressionTagValue;
+
+        private int size;
+        private long[] timestamps = new long[0];
+        private MetricEvent[] events = new MetricEvent[0];
+        private double[][] columns;
+        private int[][] tagColumns;
+        private boolean[] hits = new boolean[0];
+
+        @SuppressWarnings("unchecked")
+        private NameBatch(List<AlertRule> rules, Map<Integer, CompiledExpression> compiled) {
+            Map<String, Integer> columnIds = new LinkedHashMap<>();
+            Map<String, Integer> tagColumnIds = new LinkedHashMap<>();
+            List<Map<String, Integer>> tagValues = new ArrayList<>();
+            List<AlertRule> thresholdRules = new ArrayList<>();
+            List<AlertRule> expressionList = new ArrayList<>();
+            for (AlertRule rule : rules) {
+                if (rule.getTagKey() != null) {
+                    int tagColumn = tagColumnIds.computeIfAbsent(rule.getTagKey(), key -> {
+                        tagValues.add(new HashMap<>());
+                        return tagValues.size() - 1;
+                    });
+                    Map<String, Integer> values = tagValues.get(tagColumn);
+                    values.putIfAbsent(rule.getTagValue(), values.size());
+                }
+                if (compiled.containsKey(rule.getId())) {
+                    expressionList.add(rule);
+                } else {
+                    columnIds.putIfAbsent(rule.getMeasurement(), columnIds.size());
+                    thresholdRules.add(rule);
+                }
+            }
+            measurements = columnIds.keySet().toArray(new String[0]);
+            tagKeys = tagColumnIds.keySet().toArray(new String[0]);
+            tagValueIds = tagValues.toArray(new Map[0]);
+
+            ruleColumn = new int[thresholdRules.size()];
+            ruleThreshold = new double[thresholdRules.size()];
+            ruleTagColumn = new int[thresholdRules.size()];
+            ruleTagValue = new int[thresholdRules.size()];
+            for (int r = 0; r < thresholdRules.size(); r++) {
+                AlertRule rule = thresholdRules.get(r);
+                ruleColumn[r] = columnIds.get(rule.getMeasurement());
+                ruleThreshold[r] = Double.parseDouble(rule.getThresholds().trim());
+                ruleTagColumn[r] = tagColumn(rule, tagColumnIds);
+                ruleTagValue[r] = tagValue(rule, tagColumnIds);
+            }
+            expressionRules = new CompiledExpression[expressionList.size()];
+            expressionTagColumn = new int[expressionList.size()];
+            expressionTagValue = new int[expressionList.size()];
+            for (int r = 0; r < expressionList.size(); r++) {
+                AlertRule rule = expressionList.get(r);
+                expressionRules[r] = compiled.get(rule.getId());
+                expressionTagColumn[r] = tagColumn(rule, tagColumnIds);
+                expressionTagValue[r] = tagValue(rule, tagColumnIds);
+            }
+            columns = new double[measurements.length][0];
+            tagColumns = new int[tagKeys.length][0];
+        }
+
+        private int tagColumn(AlertRule rule, Map<String, Integer> tagColumnIds) {
+            return rule.getTagKey() == null ? -1 : tagColumnIds.get(rule.getTagKey());
+        }
+
+        private int tagValue(AlertRule rule, Map<String, Integer> tagColumnIds) {
+            return rule.getTagKey() == null ? -1 : tagValueIds[tagColumnIds.get(rule.getTagKey())].get(rule.getTagValue());
+        }
+
+        private void add(MetricEvent event, long timestamp) {
+            if (size == events.length) {
+                grow();
+            }
+            int i = size++;
+            events[i] = event;
+            timestamps[i] = timestamp;
+            Map<String, Object> fields = event.getFields();
+            for (int c = 0; c < measurements.length; c++) {
+                Object value = fields.get(measurements[c]);
+                columns[c][i] = value instanceof Number ? ((Number) value).doubleValue() : Double.NaN;
+            }
+            Map<String, String> tags = event.getTags();
+            for (int t = 0; t < tagKeys.length; t++) {
+                Integer id = tags == null ? null : tagValueIds[t].get(tags.get(tagKeys[t]));
+                tagColumns[t][i] = id == null ? -1 : id;
+            }
+        }
+
+        private void grow() {
+            int length = Math.min(capacity, Math.max(16, events.length * 2));
+            if (length <= events.length) {
+                //一个 name 的批次不会超过总容量，调用方应该在攒满 capacity 时 flush
+                length = events.length * 2;
+            }
+            events = Arrays.copyOf(events, length);
+            timestamps = Arrays.copyOf(timestamps, length);
+            hits = new boolean[length];
+            for (int c = 0; c < columns.length; c++) {
+                columns[c] = Arrays.copyOf(columns[c], length);
+            }
+            for (int t = 0; t < tagColumns.length; t++) {
+                tagColumns[t] = Arrays.copyOf(tagColumns[t], length);
+            }
+        }
+
+        private int evaluate(MatchedCollector collector) {
+            int n = size;
+            if (n == 0) {
+                return 0;
+            }
+            boolean[] hits = this.hits;
+            Arrays.fill(hits, 0, n, false);
+            for (int r = 0; r < ruleColumn.length; r++) {
+                double[] column = columns[ruleColumn[r]];
+                double threshold = ruleThreshold[r];
+                if (ruleTagColumn[r] < 0) {
+                    for (int i = 0; i < n; i++) {
+                        hits[i] |= column[i] > threshold;
+                    }
+                } else {
+                    int[] tagColumn = tagColumns[ruleTagColumn[r]];
+                    int tagValue = ruleTagValue[r];
+                    for (int i = 0; i < n; i++) {
+                        hits[i] |= column[i] > threshold & tagColumn[i] == tagValue;
+                    }
+                }
+            }
+            for (int r = 0; r < expressionRules.length; r++) {
+                int[] tagColumn = expressionTagColumn[r] < 0 ? null : tagColumns[expressionTagColumn[r]];
+                for (int i = 0; i < n; i++) {
+                    if (!hits[i] && (tagColumn == null || tagColumn[i] == expressionTagValue[r])) {
+                        hits[i] = expressionRules[r].evaluate(events[i].getFields(), timestamps[i], null);
+                    }
+                }
+            }
+            int matched = 0;
+            for (int i = 0; i < n; i++) {
+                if (hits[i]) {
+                    collector.collect(events[i], timestamps[i]);
+                    matched++;
+                }
+                events[i] = null;
+            }
+            size = 0;
+            return matched;
+        }
+    }
+}
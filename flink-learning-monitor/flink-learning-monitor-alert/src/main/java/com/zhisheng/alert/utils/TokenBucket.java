@@ -0,0 +1,60 @@
+package com.zhisheng.alert.utils;
+
+/**
+ * Desc: 令牌桶限流，用于控制单个钉钉机器人的发送速率（钉钉限制每个机器人 1 分钟最多 20 条消息）
+ * 非线程安全，由调用方保证在同一个线程里使用
+ * Created by zhisheng on 2019/11/05 上午10:20
+ * blog：http://www.54tianzhisheng.cn/
+ * 微信公众号：zhisheng
+ */
+public class TokenBucket {
+
+    private final int capacity;
+
+    //每生成一个令牌需要的时间（ms）
+    private final double refillIntervalMillis;
+
+    private double tokens;
+
+    private long lastRefillTime;
+
+    public TokenBucket(int capacity, long periodMillis, long now) {
+        if (capacity <= 0 || periodMillis <= 0) {
+            throw new IllegalArgumentException("invalid token bucket, capacity: " + capacity + ", period: " + periodMillis);
+        }
+        this.capacity = capacity;
+        this.refillIntervalMillis = (double) periodMillis / capacity;
+        this.tokens = capacity;
+        this.lastRefillTime = now;
+    }
+
+    /**
+     * 尝试获取一个令牌
+     *
+     * @param now 当前时间
+     * @return 获取成功返回 0，否则返回还需要等待的时间（ms）
+     */
+    public long tryAcquire(long now) {
+        refill(now);
+        if (tokens >= 1) {
+            tokens -= 1;
+            return 0;
+        }
+        return (long) Math.ceil((1 - tokens) * refillIntervalMillis);
+    }
+
+    /**
+     * 服务端返回限流时清空令牌，等待重新生成
+     */
+    public void drain(long now) {
+        refill(now);
+        tokens = 0;
+    }
+
+    private void refill(long now) {
+        if (now > lastRefillTime) {
+            tokens = Math.min(capacity, tokens + (now - lastRefillTime) / refillIntervalMillis);
+            lastRefillTime = now;
+        }
+    }
+}
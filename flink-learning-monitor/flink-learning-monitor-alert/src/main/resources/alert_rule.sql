@@ -0,0 +1,16 @@
+DROP TABLE IF EXISTS `alert_rule`;
+CREATE TABLE `alert_rule` (
+  `id` int(11) NOT NULL AUTO_INCREMENT,
+  `name` varchar(64) NOT NULL COMMENT 'metric name',
+  `measurement` varchar(64) DEFAULT NULL COMMENT 'metric field',
+  `thresholds` varchar(32) DEFAULT NULL,
+  `expression` varchar(512) DEFAULT NULL COMMENT '告警表达式，配置后忽略 measurement 和 thresholds',
+  `tag_key` varchar(64) DEFAULT NULL COMMENT '只对带有该 tag 的 metric 生效',
+  `tag_value` varchar(128) DEFAULT NULL,
+  PRIMARY KEY (`id`),
+  KEY `idx_name` (`name`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8;
+
+INSERT INTO `alert_rule` VALUES (1, 'mem', 'usedPercent', '90', NULL, NULL, NULL);
+INSERT INTO `alert_rule` VALUES (2, 'cpu', 'usedPercent', '80', NULL, 'cluster_name', 'zhisheng');
+INSERT INTO `alert_rule` VALUES (3, 'load', NULL, NULL, 'avg(load5, 5m) > 10 && load1 > load5 * 2', NULL, NULL);
@@ -0,0 +1,12 @@
+DROP TABLE IF EXISTS `maintenance_window`;
+CREATE TABLE `maintenance_window` (
+  `id` int(11) NOT NULL AUTO_INCREMENT,
+  `type` varchar(64) DEFAULT NULL COMMENT '告警类型，为空则匹配所有类型',
+  `tags` varchar(1024) DEFAULT NULL COMMENT 'json 格式的 tag，如 {"host_ip":"121.12.17.10"}，为空则匹配所有告警',
+  `start_time` datetime NOT NULL,
+  `end_time` datetime NOT NULL,
+  PRIMARY KEY (`id`),
+  KEY `idx_end_time` (`end_time`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8;
+
+INSERT INTO `maintenance_window` VALUES (1, NULL, '{"cluster_name":"zhisheng","host_ip":"121.12.17.10"}', '2019-11-06 22:00:00', '2019-11-07 02:00:00');
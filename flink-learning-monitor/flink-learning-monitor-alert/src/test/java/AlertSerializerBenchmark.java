@@ -0,0 +1,117 @@
+import com.zhisheng.alert.model.AlertEvent;
+import com.zhisheng.alert.model.OutageMetricEvent;
+import com.zhisheng.alert.serializer.AlertEventSerializer;
+import com.zhisheng.alert.serializer.OutageMetricEventSerializer;
+import com.zhisheng.common.model.MetricEvent;
+import org.apache.flink.api.common.ExecutionConfig;
+import org.apache.flink.api.common.typeutils.TypeSerializer;
+import org.apache.flink.api.common.typeutils.TypeSerializerSnapshot;
+import org.apache.flink.api.java.typeutils.runtime.kryo.KryoSerializer;
+import org.apache.flink.core.memory.DataInputDeserializer;
+import org.apache.flink.core.memory.DataOutputSerializer;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static com.zhisheng.common.constant.MachineConstant.*;
+
+/**
+ * Desc: 手写序列化器和 Kryo 的序列化大小、吞吐对比，同时校验序列化前后数据一致、copy 不共用可变字段、旧格式可以迁移
+ * Created by zhisheng on 2019/11/04 下午2:20
+ * blog：http://www.54tianzhisheng.cn/
+ * 微信公众号：zhisheng
+ */
+public class AlertSerializerBenchmark {
+
+    public static final int DEFAULT_ROUNDS = 1_000_000;
+
+    public static void main(String[] args) throws Exception {
+        int rounds = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_ROUNDS;
+
+        OutageMetricEvent outageMetricEvent = new OutageMetricEvent("zhisheng", "121.12.17.10", System.currentTimeMillis(), false, System.currentTimeMillis());
+        outageMetricEvent.setLoad5(1.5);
+        outageMetricEvent.setCpuUsePercent(35.2);
+        outageMetricEvent.setCounter(3);
+        run("OutageMetricEvent", outageMetricEvent, OutageMetricEventSerializer.INSTANCE,
+                new KryoSerializer<>(OutageMetricEvent.class, new ExecutionConfig()), rounds);
+
+        run("AlertEvent", buildAlertEvent(), AlertEventSerializer.INSTANCE,
+                new KryoSerializer<>(AlertEvent.class, new ExecutionConfig()), rounds);
+
+        checkCopy();
+        checkLegacyFormat();
+    }
+
+    //copy 出来的 fields/tags 不能和原数据共用
+    private static void checkCopy() {
+        AlertEvent alertEvent = buildAlertEvent();
+        AlertEvent copy = AlertEventSerializer.INSTANCE.copy(alertEvent);
+        copy.getMetricEvent().getFields().put(LOAD5, 9.9);
+        copy.getMetricEvent().getTags().put(HOST_IP, "121.12.17.11");
+        if (!Double.valueOf(2.7).equals(alertEvent.getMetricEvent().getFields().get(LOAD5))
+                || !"121.12.17.10".equals(alertEvent.getMetricEvent().getTags().get(HOST_IP))) {
+            throw new IllegalStateException("copy shares fields/tags with the source: " + alertEvent);
+        }
+    }
+
+    //模拟从加上 level、suppressed 之前的 savepoint 恢复：旧 snapshot 需要迁移，旧数据读出来 level、suppressed 为 0
+    private static void checkLegacyFormat() throws Exception {
+        DataOutputSerializer out = new DataOutputSerializer(64);
+        TypeSerializerSnapshot.writeVersionedSnapshot(out, AlertEventSerializer.LegacyAlertEventSerializer.INSTANCE.snapshotConfiguration());
+        TypeSerializerSnapshot<AlertEvent> snapshot = TypeSerializerSnapshot.readVersionedSnapshot(
+                new DataInputDeserializer(out.getCopyOfBuffer()), AlertSerializerBenchmark.class.getClassLoader());
+        if (!snapshot.resolveSchemaCompatibility(AlertEventSerializer.INSTANCE).isCompatibleAfterMigration()) {
+            throw new IllegalStateException("legacy snapshot should be migrated");
+        }
+
+        AlertEvent alertEvent = buildAlertEvent();
+        out.clear();
+        AlertEventSerializer.LegacyAlertEventSerializer.INSTANCE.serialize(alertEvent, out);
+        AlertEvent result = snapshot.restoreSerializer().deserialize(new DataInputDeserializer(out.getCopyOfBuffer()));
+        alertEvent.setLevel(0);
+        alertEvent.setSuppressed(0);
+        if (!alertEvent.equals(result)) {
+            throw new IllegalStateException("legacy format mismatch, expected: " + alertEvent + ", actual: " + result);
+        }
+    }
+
+    private static <T> void run(String name, T record, TypeSerializer<T> serializer, TypeSerializer<T> kryo, int rounds) throws Exception {
+        System.out.println("===== " + name);
+        measure(record, kryo, rounds);
+        measure(record, serializer, rounds);
+    }
+
+    private static <T> void measure(T record, TypeSerializer<T> serializer, int rounds) throws Exception {
+        DataOutputSerializer out = new DataOutputSerializer(256);
+        serializer.serialize(record, out);
+        T result = serializer.deserialize(new DataInputDeserializer(out.getCopyOfBuffer()));
+        if (!record.equals(result)) {
+            throw new IllegalStateException("round trip mismatch, expected: " + record + ", actual: " + result);
+        }
+        int size = out.length();
+
+        DataInputDeserializer in = new DataInputDeserializer();
+        long start = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            out.clear();
+            serializer.serialize(record, out);
+            in.setBuffer(out.getSharedBuffer(), 0, out.length());
+            serializer.deserialize(in);
+        }
+        long costNanos = System.nanoTime() - start;
+        System.out.printf("%-30s %5d bytes, %10d round trips/s%n",
+                serializer.getClass().getSimpleName(), size, (long) (rounds * 1_000_000_000D / costNanos));
+    }
+
+    private static AlertEvent buildAlertEvent() {
+        Map<String, Object> fields = new HashMap<>();
+        fields.put(MEM + "_" + USED_PERCENT, 81.3);
+        fields.put(LOAD5, 2.7);
+        fields.put(CPU + "_" + USED_PERCENT, 45.0);
+        Map<String, String> tags = new HashMap<>();
+        tags.put(CLUSTER_NAME, "zhisheng");
+        tags.put(HOST_IP, "121.12.17.10");
+        MetricEvent metricEvent = new MetricEvent("outage", System.currentTimeMillis(), fields, tags);
+        return new AlertEvent("outage", metricEvent, false, System.currentTimeMillis(), null, 1, 12);
+    }
+}
@@ -0,0 +1,123 @@
+import com.zhisheng.alert.function.AlertRuleBroadcastProcessFunction;
+import com.zhisheng.alert.function.AnomalyDetectionFunction;
+import com.zhisheng.alert.model.AlertEvent;
+import com.zhisheng.alert.model.AnomalyState;
+import com.zhisheng.alert.utils.AnomalyDetector;
+import com.zhisheng.alert.utils.BuildMachineMetricDataUtil;
+import com.zhisheng.common.model.MetricEvent;
+import org.apache.flink.api.common.ExecutionConfig;
+import org.apache.flink.api.common.typeinfo.TypeInformation;
+import org.apache.flink.api.common.typeinfo.Types;
+import org.apache.flink.core.memory.DataOutputSerializer;
+import org.apache.flink.streaming.api.operators.KeyedProcessOperator;
+import org.apache.flink.streaming.runtime.streamrecord.StreamRecord;
+import org.apache.flink.streaming.util.KeyedOneInputStreamOperatorTestHarness;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Desc: AnomalyDetectionFunction 的吞吐和检测效果
+ * 用 BuildMachineMetricDataUtil 生成 N 台机器每隔 10s 上报的 cpu / load / mem / swap 数据（默认 25 万台，即 100 万个序列），
+ * 最后几轮给 1% 机器的 load5 注入突增，输出每轮吞吐、keyed state 条数、单个序列状态序列化后的大小，
+ * 以及注入异常的机器被告警的比例和正常机器的误报数
+ * 运行需要较大的堆：-Xmx8g，参数：[机器数] [轮数]
+ * Created by zhisheng on 2019/11/08 下午5:20
+ * blog：http://www.54tianzhisheng.cn/
+ * 微信公众号：zhisheng
+ */
+public class AnomalyDetectionBenchmark {
+
+    private static final int REPORT_INTERVAL = 10_000;
+    private static final double THRESHOLD = 6;
+    private static final int MIN_CONSECUTIVE = 3;
+    //load5 的正常范围是 [0, 50)
+    private static final int SPIKE_LOAD5 = 500;
+
+    public static void main(String[] args) throws Exception {
+        int hosts = args.length > 0 ? Integer.parseInt(args[0]) : 250_000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 45;
+        int spikeStart = rounds - MIN_CONSECUTIVE - 2;
+
+        Map<String, List<String>> measurements = new HashMap<>();
+        measurements.put("cpu", Arrays.asList("usedPercent"));
+        measurements.put("load", Arrays.asList("load5"));
+        measurements.put("mem", Arrays.asList("usedPercent"));
+        measurements.put("swap", Arrays.asList("usedPercent"));
+        //季节周期缩短到 24 轮，让 Holt-Winters 也参与打分
+        AnomalyDetector detector = new AnomalyDetector(0.05, 24, REPORT_INTERVAL, 30, THRESHOLD);
+
+        KeyedOneInputStreamOperatorTestHarness<String, MetricEvent, AlertEvent> harness =
+                new KeyedOneInputStreamOperatorTestHarness<>(new KeyedProcessOperator<>(new AnomalyDetectionFunction(
+                        measurements, detector, THRESHOLD, 3, MIN_CONSECUTIVE, 0)),
+                        AlertRuleBroadcastProcessFunction::seriesKey, Types.STRING);
+        harness.open();
+
+        String[] hostIps = new String[hosts];
+        Set<String> spikedHosts = new HashSet<>();
+        for (int i = 0; i < hosts; i++) {
+            hostIps[i] = (10 + (i >>> 24)) + "." + ((i >>> 16) & 0xFF) + "." + ((i >>> 8) & 0xFF) + "." + (i & 0xFF);
+            if (i % 100 == 0) {
+                spikedHosts.add(hostIps[i]);
+            }
+        }
+
+        Set<String> alertedHosts = new HashSet<>();
+        int falsePositives = 0;
+        int recovered = 0;
+        long eventTime = System.currentTimeMillis();
+        for (int round = 0; round < rounds; round++) {
+            List<MetricEvent> events = new ArrayList<>(hosts * 4);
+            boolean spike = round >= spikeStart && round < spikeStart + MIN_CONSECUTIVE;
+            for (String hostIp : hostIps) {
+                events.add(BuildMachineMetricDataUtil.buildCpuData(hostIp, eventTime));
+                MetricEvent load = BuildMachineMetricDataUtil.buildLoadData(hostIp, eventTime);
+                if (spike && spikedHosts.contains(hostIp)) {
+                    load.getFields().put("load5", SPIKE_LOAD5);
+                }
+                events.add(load);
+                events.add(BuildMachineMetricDataUtil.buildMemData(hostIp, eventTime));
+                events.add(BuildMachineMetricDataUtil.buildSwapData(hostIp, eventTime));
+            }
+
+            long start = System.nanoTime();
+            for (MetricEvent event : events) {
+                harness.processElement(new StreamRecord<>(event, eventTime));
+            }
+            long costNanos = System.nanoTime() - start;
+
+            int alerts = 0;
+            for (AlertEvent alert : harness.extractOutputValues()) {
+                String hostIp = alert.getMetricEvent().getTags().get("host_ip");
+                if (alert.isRecover()) {
+                    recovered++;
+                } else if (spikedHosts.contains(hostIp) && "load5".equals(alert.getMetricEvent().getTags().get(AnomalyDetectionFunction.MEASUREMENT_TAG))) {
+                    alertedHosts.add(hostIp);
+                    alerts++;
+                } else {
+                    falsePositives++;
+                    alerts++;
+                }
+            }
+            System.out.printf("round %2d: %10d events/s, keyed state entries: %10d, alerts: %d%n",
+                    round, (long) (events.size() * 1_000_000_000D / costNanos), harness.numKeyedStateEntries(), alerts);
+            harness.getOutput().clear();
+            if (harness.getSideOutput(AnomalyDetectionFunction.ANOMALY_SCORE) != null) {
+                harness.getSideOutput(AnomalyDetectionFunction.ANOMALY_SCORE).clear();
+            }
+            eventTime += REPORT_INTERVAL;
+        }
+        harness.close();
+
+        DataOutputSerializer output = new DataOutputSerializer(512);
+        TypeInformation.of(AnomalyState.class).createSerializer(new ExecutionConfig()).serialize(detector.newState(), output);
+        System.out.printf("series: %d, serialized state per series: %d bytes%n", hosts * 4, output.length());
+        System.out.printf("spiked hosts: %d, alerted: %d, recovered: %d, false positives: %d%n",
+                spikedHosts.size(), alertedHosts.size(), recovered, falsePositives);
+    }
+}
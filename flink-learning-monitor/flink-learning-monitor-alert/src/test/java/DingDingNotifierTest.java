@@ -0,0 +1,61 @@
+import com.google.common.collect.Lists;
+import com.zhisheng.alert.model.AlertEvent;
+import com.zhisheng.alert.utils.DingDingNotifier;
+import com.zhisheng.common.model.MetricEvent;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static com.zhisheng.common.constant.MachineConstant.*;
+
+/**
+ * Desc: 用本地的钉钉模拟服务测试告警风暴下的通知：
+ * 两个机器人，模拟服务每个机器人 6 秒最多 20 条、10% 的请求随机失败，30 秒内产生 10000 条告警，
+ * 观察实际发送的消息数、被限流/失败的请求数以及队列深度，告警都应该汇总发送出去而不是丢失
+ * Created by zhisheng on 2019/11/05 下午4:50
+ * blog：http://www.54tianzhisheng.cn/
+ * 微信公众号：zhisheng
+ */
+public class DingDingNotifierTest {
+
+    public static void main(String[] args) throws Exception {
+        try (DingDingStubServer server = new DingDingStubServer(20, 6000, 0.1);
+             DingDingNotifier notifier = new DingDingNotifier(
+                     Lists.newArrayList(server.hook("robot1"), server.hook("robot2")),
+                     1000, 20, 100000, 200, 3, 500)) {
+            long start = System.currentTimeMillis();
+            for (int i = 0; i < 10000; i++) {
+                long invokeStart = System.nanoTime();
+                notifier.notify(buildAlertEvent(i));
+                long invokeCost = System.nanoTime() - invokeStart;
+                if (invokeCost > 10_000_000) {
+                    System.out.println("notify blocked " + invokeCost / 1_000_000 + " ms");
+                }
+                Thread.sleep(3);
+                if (i % 1000 == 0) {
+                    System.out.printf("%5ds alerts: %5d, pending: %5d, sent: %4d, retries: %4d, stub received: %4d, rejected: %4d, failed: %4d%n",
+                            (System.currentTimeMillis() - start) / 1000, i, notifier.getPendingAlerts(), notifier.getSentMessages(),
+                            notifier.getRetries(), server.getMessages().size(), server.getRejected(), server.getFailed());
+                }
+            }
+            while (notifier.getPendingAlerts() > 0 && System.currentTimeMillis() - start < 120 * 1000) {
+                Thread.sleep(1000);
+            }
+            System.out.printf("done in %ds, pending: %d, sent: %d, failed: %d, overflow: %d, retries: %d, stub received: %d, rejected: %d, failed: %d%n",
+                    (System.currentTimeMillis() - start) / 1000, notifier.getPendingAlerts(), notifier.getSentMessages(),
+                    notifier.getFailedMessages(), notifier.getOverflowAlerts(), notifier.getRetries(),
+                    server.getMessages().size(), server.getRejected(), server.getFailed());
+            System.out.println("last message: " + server.getMessages().get(server.getMessages().size() - 1));
+        }
+    }
+
+    private static AlertEvent buildAlertEvent(int i) {
+        Map<String, Object> fields = new HashMap<>();
+        fields.put(LOAD5, 1.5 + i % 10);
+        Map<String, String> tags = new HashMap<>();
+        tags.put(CLUSTER_NAME, "zhisheng");
+        tags.put(HOST_IP, "121.12." + (i / 256 % 256) + "." + (i % 256));
+        MetricEvent metricEvent = new MetricEvent("outage", System.currentTimeMillis(), fields, tags);
+        return new AlertEvent("outage", metricEvent, i % 7 == 0, System.currentTimeMillis(), i % 7 == 0 ? System.currentTimeMillis() : null, 0, 0);
+    }
+}
@@ -0,0 +1,114 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Desc: 本地的钉钉机器人 http 模拟服务，用于测试告警通知
+ * 和钉钉一样每个 access_token 1 分钟内最多接收 rateLimit 条消息，超出返回 130101，
+ * 另外可以按 failureRate 随机返回 500
+ * Created by zhisheng on 2019/11/05 下午4:20
+ * blog：http://www.54tianzhisheng.cn/
+ * 微信公众号：zhisheng
+ */
+public class DingDingStubServer implements AutoCloseable {
+
+    private final HttpServer server;
+    private final int rateLimit;
+    private final long ratePeriod;
+    private final double failureRate;
+    private final Random random = new Random();
+
+    private final Map<String, Deque<Long>> requestTimes = new HashMap<>();
+    private final List<String> messages = Collections.synchronizedList(new ArrayList<>());
+    private int rejected;
+    private int failed;
+
+    public DingDingStubServer(int rateLimit, long ratePeriod, double failureRate) throws IOException {
+        this.rateLimit = rateLimit;
+        this.ratePeriod = ratePeriod;
+        this.failureRate = failureRate;
+        this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        this.server.createContext("/robot/send", this::handle);
+        this.server.start();
+    }
+
+    public String hook(String accessToken) {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/robot/send?access_token=" + accessToken;
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        String body = read(exchange.getRequestBody());
+        String query = exchange.getRequestURI().getQuery();
+        String token = query == null ? "" : query.replace("access_token=", "");
+        long now = System.currentTimeMillis();
+        synchronized (this) {
+            if (random.nextDouble() < failureRate) {
+                failed++;
+                respond(exchange, 500, "{\"errcode\":-1,\"errmsg\":\"system busy\"}");
+                return;
+            }
+            Deque<Long> times = requestTimes.computeIfAbsent(token, t -> new ArrayDeque<>());
+            while (!times.isEmpty() && now - times.peekFirst() >= ratePeriod) {
+                times.pollFirst();
+            }
+            if (times.size() >= rateLimit) {
+                rejected++;
+                respond(exchange, 200, "{\"errcode\":130101,\"errmsg\":\"send too fast\"}");
+                return;
+            }
+            times.addLast(now);
+        }
+        messages.add(body);
+        respond(exchange, 200, "{\"errcode\":0,\"errmsg\":\"ok\"}");
+    }
+
+    private static String read(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int n;
+        while ((n = in.read(buffer)) > 0) {
+            out.write(buffer, 0, n);
+        }
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    public List<String> getMessages() {
+        return messages;
+    }
+
+    public synchronized int getRejected() {
+        return rejected;
+    }
+
+    public synchronized int getFailed() {
+        return failed;
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+}
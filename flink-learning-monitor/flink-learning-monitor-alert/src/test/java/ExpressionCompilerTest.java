@@ -0,0 +1,80 @@
+import com.zhisheng.alert.expression.CompiledExpression;
+import com.zhisheng.alert.expression.ExpressionCompiler;
+import com.zhisheng.alert.model.ExpressionState;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Desc: 告警表达式编译和计算的测试，最后粗略测一下编译后表达式的计算耗时
+ * Created by zhisheng on 2019/11/07 下午3:20
+ * blog：http://www.54tianzhisheng.cn/
+ * 微信公众号：zhisheng
+ */
+public class ExpressionCompilerTest {
+
+    private static final int EVENTS = 5_000_000;
+
+    public static void main(String[] args) {
+        Map<String, Object> fields = new HashMap<>();
+        fields.put("used_percent", 95.0);
+        fields.put("load5", 9.0);
+        fields.put("cores", 4);
+
+        check("used_percent > 90", fields, true);
+        check("used_percent > 90 && load5 > cores * 2", fields, true);
+        check("!(load5 <= cores * 2) || used_percent < 10", fields, true);
+        check("abs(load5 - 10) >= 1", fields, true);
+        check("missing_field > 1", fields, false);
+
+        //窗口聚合：5m 内 used_percent 的平均值，前两分半是 80，后面是 100
+        CompiledExpression avg = ExpressionCompiler.compile("avg(used_percent, 5m) > 90");
+        ExpressionState state = avg.newState(1);
+        boolean result = false;
+        for (long time = 0; time < 5 * 60 * 1000; time += 10 * 1000) {
+            fields.put("used_percent", time < 150 * 1000 ? 80.0 : 100.0);
+            result = avg.evaluate(fields, time, state);
+        }
+        assertEquals(false, result, "avg over the whole window is 90");
+        //再过 1 分钟，80 的数据逐渐滑出窗口
+        for (long time = 5 * 60 * 1000; time < 6 * 60 * 1000; time += 10 * 1000) {
+            result = avg.evaluate(fields, time, state);
+        }
+        assertEquals(true, result, "old panes should expire");
+
+        for (String invalid : new String[]{"load5 >", "avg(load5) > 1", "load5 > 1 > 2", "foo(load5) > 1", "avg(load5, 5w) > 1"}) {
+            try {
+                ExpressionCompiler.compile(invalid);
+                throw new AssertionError("expected compile failure: " + invalid);
+            } catch (IllegalArgumentException e) {
+                System.out.println("invalid expression [" + invalid + "]: " + e.getMessage());
+            }
+        }
+
+        CompiledExpression expression = ExpressionCompiler.compile("avg(used_percent, 5m) > 90 && load5 > cores * 2");
+        state = expression.newState(1);
+        int matched = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < EVENTS; i++) {
+            fields.put("used_percent", (double) (i % 100));
+            if (expression.evaluate(fields, i * 100L, state)) {
+                matched++;
+            }
+        }
+        long cost = System.nanoTime() - start;
+        System.out.println(String.format("evaluated %d events in %d ms, %.1f ns/event, matched %d",
+                EVENTS, cost / 1_000_000, (double) cost / EVENTS, matched));
+    }
+
+    private static void check(String expression, Map<String, Object> fields, boolean expected) {
+        CompiledExpression compiled = ExpressionCompiler.compile(expression);
+        assertEquals(expected, compiled.evaluate(fields, 0, null), expression);
+    }
+
+    private static void assertEquals(boolean expected, boolean actual, String message) {
+        if (expected != actual) {
+            throw new AssertionError(message + ": expected " + expected + " but was " + actual);
+        }
+        System.out.println("ok: " + message);
+    }
+}
@@ -0,0 +1,144 @@
+import com.zhisheng.alert.function.OutageProcessFunction;
+import com.zhisheng.alert.model.OutageMetricEvent;
+import org.apache.flink.api.common.state.ValueState;
+import org.apache.flink.api.common.state.ValueStateDescriptor;
+import org.apache.flink.api.common.typeinfo.TypeHint;
+import org.apache.flink.api.common.typeinfo.TypeInformation;
+import org.apache.flink.api.common.typeinfo.Types;
+import org.apache.flink.configuration.Configuration;
+import org.apache.flink.streaming.api.functions.KeyedProcessFunction;
+import org.apache.flink.streaming.api.operators.KeyedProcessOperator;
+import org.apache.flink.streaming.api.watermark.Watermark;
+import org.apache.flink.streaming.runtime.streamrecord.StreamRecord;
+import org.apache.flink.streaming.util.KeyedOneInputStreamOperatorTestHarness;
+import org.apache.flink.util.Collector;
+
+/**
+ * Desc: OutageProcessFunction 的 timer 数量和吞吐对比
+ * 用算子测试 harness 模拟 N 台机器每隔 10s 上报一次数据（默认 100 万台、上报 5 轮），
+ * 每轮结束后推进 watermark，输出吞吐、timer service 里的 timer 数量和 keyed state 的条数，
+ * 对比优化前（每条数据注册一个 timer、状态是装箱的 OutageMetricEvent）和现在的实现
+ * 运行需要较大的堆：-Xmx8g，参数：[机器数] [轮数]
+ * Created by zhisheng on 2019/11/03 下午2:30
+ * blog：http://www.54tianzhisheng.cn/
+ * 微信公众号：zhisheng
+ */
+public class OutageProcessFunctionBenchmark {
+
+    private static final int REPORT_INTERVAL = 10_000;
+    private static final int DELAY = 10_000;
+
+    public static void main(String[] args) throws Exception {
+        int hosts = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+        OutageMetricEvent[] events = buildEvents(hosts);
+        run("legacy (timer per element)", new LegacyOutageProcessFunction(DELAY, 60), events, rounds);
+        run("coalesced timer + primitive state", new OutageProcessFunction(DELAY, 60, 1000), events, rounds);
+    }
+
+    private static void run(String name, KeyedProcessFunction<String, OutageMetricEvent, OutageMetricEvent> function,
+                            OutageMetricEvent[] events, int rounds) throws Exception {
+        System.out.println("===== " + name + ", hosts: " + events.length);
+        KeyedOneInputStreamOperatorTestHarness<String, OutageMetricEvent, OutageMetricEvent> harness =
+                new KeyedOneInputStreamOperatorTestHarness<>(new KeyedProcessOperator<>(function),
+                        OutageMetricEvent::getKey, Types.STRING);
+        harness.open();
+        long eventTime = System.currentTimeMillis();
+        for (int round = 0; round < rounds; round++) {
+            long start = System.nanoTime();
+            for (OutageMetricEvent event : events) {
+                event.setTimestamp(eventTime);
+                event.setLoad5((double) (round % 10));
+                harness.processElement(new StreamRecord<>(event, eventTime));
+            }
+            //和 OutageMetricWaterMark 一样，watermark 比最大的 event time 落后 5s
+            harness.processWatermark(new Watermark(eventTime - 5000));
+            long costNanos = System.nanoTime() - start;
+            System.out.printf("round %d: %10d events/s, timers: %10d, keyed state entries: %10d, output: %d%n",
+                    round, (long) (events.length * 1_000_000_000D / costNanos),
+                    harness.numEventTimeTimers(), harness.numKeyedStateEntries(), harness.getOutput().size());
+            harness.getOutput().clear();
+            eventTime += REPORT_INTERVAL;
+        }
+        harness.close();
+    }
+
+    private static OutageMetricEvent[] buildEvents(int hosts) {
+        OutageMetricEvent[] events = new OutageMetricEvent[hosts];
+        for (int i = 0; i < hosts; i++) {
+            String hostIp = (10 + (i >>> 24)) + "." + ((i >>> 16) & 0xFF) + "." + ((i >>> 8) & 0xFF) + "." + (i & 0xFF);
+            events[i] = new OutageMetricEvent("zhisheng", hostIp, 0L, null, null);
+        }
+        return events;
+    }
+
+    /**
+     * 优化前的实现，只用于对比
+     */
+    private static class LegacyOutageProcessFunction extends KeyedProcessFunction<String, OutageMetricEvent, OutageMetricEvent> {
+
+        private ValueState<OutageMetricEvent> outageMetricState;
+        private ValueState<Boolean> recover;
+
+        private final int delay;
+        private final int alertCountLimit;
+
+        private LegacyOutageProcessFunction(int delay, int alertCountLimit) {
+            this.delay = delay;
+            this.alertCountLimit = alertCountLimit;
+        }
+
+        @Override
+        public void open(Configuration parameters) throws Exception {
+            outageMetricState = getRuntimeContext().getState(new ValueStateDescriptor<>("outage_zhisheng",
+                    TypeInformation.of(new TypeHint<OutageMetricEvent>() {
+                    })));
+            recover = getRuntimeContext().getState(new ValueStateDescriptor<>("recover_zhisheng",
+                    TypeInformation.of(new TypeHint<Boolean>() {
+                    })));
+        }
+
+        @Override
+        public void processElement(OutageMetricEvent outageMetricEvent, Context ctx, Collector<OutageMetricEvent> collector) throws Exception {
+            OutageMetricEvent current = outageMetricState.value();
+            if (current == null) {
+                current = new OutageMetricEvent(outageMetricEvent.getClusterName(), outageMetricEvent.getHostIp(),
+                        outageMetricEvent.getTimestamp(), outageMetricEvent.getRecover(), System.currentTimeMillis());
+            } else {
+                if (outageMetricEvent.getLoad5() != null) {
+                    current.setLoad5(outageMetricEvent.getLoad5());
+                }
+                current.setSystemTimestamp(System.currentTimeMillis());
+            }
+            if (recover.value() != null && !recover.value() && outageMetricEvent.getTimestamp() > current.getTimestamp()) {
+                OutageMetricEvent recoverEvent = new OutageMetricEvent(outageMetricEvent.getClusterName(), outageMetricEvent.getHostIp(),
+                        current.getTimestamp(), true, System.currentTimeMillis());
+                recoverEvent.setRecoverTime(ctx.timestamp());
+                collector.collect(recoverEvent);
+                current.setCounter(0);
+                recover.update(true);
+            }
+            current.setTimestamp(outageMetricEvent.getTimestamp());
+            outageMetricState.update(current);
+            ctx.timerService().registerEventTimeTimer(current.getSystemTimestamp() + delay);
+        }
+
+        @Override
+        public void onTimer(long timestamp, OnTimerContext ctx, Collector<OutageMetricEvent> out) throws Exception {
+            OutageMetricEvent result = outageMetricState.value();
+            if (result != null && timestamp >= result.getSystemTimestamp() + delay && System.currentTimeMillis() - result.getTimestamp() >= delay) {
+                if (result.getCounter() > alertCountLimit) {
+                    return;
+                }
+                result.setRecover(false);
+                out.collect(result);
+                ctx.timerService().registerEventTimeTimer(timestamp + delay);
+                result.setCounter(result.getCounter() + 1);
+                result.setSystemTimestamp(timestamp);
+                outageMetricState.update(result);
+                recover.update(false);
+            }
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package com.zhisheng.alert.benchmark;
+
+import com.zhisheng.alert.function.AlertRuleBatchOperator;
+import com.zhisheng.alert.function.AlertRuleBroadcastProcessFunction;
+import com.zhisheng.alert.model.AlertRuleUpdate;
+import com.zhisheng.common.model.MetricEvent;
+import org.apache.flink.api.common.JobExecutionResult;
+import org.apache.flink.api.common.accumulators.LongCounter;
+import org.apache.flink.api.common.typeinfo.TypeInformation;
+import org.apache.flink.configuration.Configuration;
+import org.apache.flink.streaming.api.datastream.DataStream;
+import org.apache.flink.streaming.api.datastream.KeyedStream;
+import org.apache.flink.streaming.api.environment.StreamExecutionEnvironment;
+import org.apache.flink.streaming.api.functions.sink.RichSinkFunction;
+import org.apache.flink.streaming.api.functions.source.RichParallelSourceFunction;
+import org.apache.flink.streaming.api.functions.source.SourceFunction;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Desc: 在本地 MiniCluster 上对比告警规则逐条计算（AlertRuleBroadcastProcessFunction）和微批计算（AlertRuleBatchOperator），
+ * 两种模式的拓扑完全一样：都按 seriesKey keyBy 之后再连接广播的规则流，shuffle 的开销相同，差别只有逐条还是攒批计算；
+ * source 按目标速率（默认 100 万条/s）发送 BuildMachineMetricDataUtil 生成的数据，输出实际吞吐和命中条数，
+ * 吞吐明显低于目标速率说明该模式跟不上
+ * 参数：[总条数] [目标速率] [并行度] [规则数] [批大小]
+ * Created by zhisheng on 2019/11/10 下午5:15
+ * blog：http://www.54tianzhisheng.cn/
+ * 微信公众号：zhisheng
+ */
+public class AlertRuleBatchMiniClusterBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        long total = args.length > 0 ? Long.parseLong(args[0]) : 30_000_000L;
+        long rate = args.length > 1 ? Long.parseLong(args[1]) : 1_000_000L;
+        int parallelism = args.length > 2 ? Integer.parseInt(args[2]) : 4;
+        int rules = args.length > 3 ? Integer.parseInt(args[3]) : 200;
+        int batchSize = args.length > 4 ? Integer.parseInt(args[4]) : 4096;
+
+        run("per-record", total, rate, parallelism, rules, 0);
+        run("batch " + batchSize, total, rate, parallelism, rules, batchSize);
+    }
+
+    private static void run(String name, long total, long rate, int parallelism, int rules, int batchSize) throws Exception {
+        StreamExecutionEnvironment env = StreamExecutionEnvironment.createLocalEnvironment(parallelism);
+        DataStream<MetricEvent> metrics = env.addSource(new MetricSource(total / parallelism, rate / parallelism));
+        DataStream<AlertRuleUpdate> updates = env.addSource(new RuleSource(rules)).setParallelism(1);
+
+        //微批模式本身不需要 keyBy，这里也 keyBy 是为了和逐条计算走同样的网络 shuffle，只比较计算方式
+        KeyedStream<MetricEvent, String> keyedMetrics = metrics.keyBy(AlertRuleBroadcastProcessFunction::seriesKey);
+        DataStream<MetricEvent> alerts;
+        if (batchSize > 0) {
+            alerts = keyedMetrics.connect(updates.broadcast())
+                    .transform("alert rule batch", TypeInformation.of(MetricEvent.class), new AlertRuleBatchOperator(batchSize, 100));
+        } else {
+            alerts = keyedMetrics.connect(updates.broadcast(AlertRuleBroadcastProcessFunction.ALERT_RULE))
+                    .process(new AlertRuleBroadcastProcessFunction(24 * 60 * 60 * 1000L));
+        }
+        alerts.addSink(new CountingSink());
+
+        JobExecutionResult result = env.execute(name);
+        //source 开始前等了规则 1s
+        long millis = Math.max(1, result.getNetRuntime(TimeUnit.MILLISECONDS) - 1000);
+        Long matched = result.getAccumulatorResult("matched");
+        System.out.printf("===== %s: %d events in %d ms, %d events/s (target %d), matched %d%n",
+                name, total, millis, total * 1000 / millis, rate, matched);
+    }
+
+    private static class MetricSource extends RichParallelSourceFunction<MetricEvent> {
+        private final long count;
+        private final long ratePerSecond;
+        private volatile boolean running = true;
+
+        private MetricSource(long count, long ratePerSecond) {
+            this.count = count;
+            this.ratePerSecond = ratePerSecond;
+        }
+
+        @Override
+        public void run(SourceContext<MetricEvent> ctx) throws Exception {
+            MetricEvent[] events = AlertRuleEvaluationBenchmark.buildEvents(AlertRuleEvaluationBenchmark.EVENTS * 4, AlertRuleEvaluationBenchmark.HOSTS);
+            //等规则先广播到下游
+            Thread.sleep(1000);
+            long start = System.nanoTime();
+            for (long i = 0; i < count && running; i++) {
+                ctx.collect(events[(int) (i % events.length)]);
+                if (ratePerSecond > 0 && (i & 1023) == 0) {
+                    long expectedNanos = i * 1_000_000_000L / ratePerSecond;
+                    long sleepNanos = expectedNanos - (System.nanoTime() - start);
+                    if (sleepNanos > 1_000_000) {
+                        Thread.sleep(sleepNanos / 1_000_000);
+                    }
+                }
+            }
+        }
+
+        @Override
+        public void cancel() {
+            running = false;
+        }
+    }
+
+    private static class RuleSource implements SourceFunction<AlertRuleUpdate> {
+        private final int rules;
+
+        private RuleSource(int rules) {
+            this.rules = rules;
+        }
+
+        @Override
+        public void run(SourceContext<AlertRuleUpdate> ctx) {
+            ctx.collect(new AlertRuleUpdate(1, true,
+                    AlertRuleEvaluationBenchmark.buildRules(rules, AlertRuleEvaluationBenchmark.HOSTS),
+                    Collections.emptyList()));
+        }
+
+        @Override
+        public void cancel() {
+        }
+    }
+
+    private static class CountingSink extends RichSinkFunction<MetricEvent> {
+        private transient LongCounter matched;
+
+        @Override
+        public void open(Configuration parameters) {
+            matched = getRuntimeContext().getLongCounter("matched");
+        }
+
+        @Override
+        public void invoke(MetricEvent value, Context context) {
+            matched.add(1);
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package com.zhisheng.alert.benchmark;
+
+import com.zhisheng.alert.model.AlertRule;
+import com.zhisheng.alert.utils.AlertRuleIndex;
+import com.zhisheng.alert.utils.BuildMachineMetricDataUtil;
+import com.zhisheng.alert.utils.MetricBatchEvaluator;
+import com.zhisheng.common.model.MetricEvent;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Desc: 告警规则逐条计算（AlertRuleIndex）和微批列式计算（MetricBatchEvaluator）的 JMH 对比，
+ * 数据由 BuildMachineMetricDataUtil 生成，1000 台机器的 cpu / load / mem / swap，规则一部分带 host_ip tag
+ * Created by zhisheng on 2019/11/10 下午4:30
+ * blog：http://www.54tianzhisheng.cn/
+ * 微信公众号：zhisheng
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AlertRuleEvaluationBenchmark {
+
+    static final int EVENTS = 4096;
+    static final int HOSTS = 1000;
+
+    @Param({"20", "200"})
+    public int rules;
+
+    private MetricEvent[] events;
+    private AlertRuleIndex index;
+    private MetricBatchEvaluator evaluator;
+
+    @Setup
+    public void setup() {
+        events = buildEvents(EVENTS, HOSTS);
+        index = new AlertRuleIndex();
+        evaluator = new MetricBatchEvaluator(EVENTS);
+        for (AlertRule rule : buildRules(rules, HOSTS)) {
+            index.upsert(rule);
+            evaluator.upsert(rule);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(EVENTS)
+    public void perRecord(Blackhole blackhole) throws Exception {
+        for (MetricEvent event : events) {
+            //阈值规则不需要表达式状态
+            blackhole.consume(index.match(event, null));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(EVENTS)
+    public void batched(Blackhole blackhole) {
+        for (MetricEvent event : events) {
+            evaluator.add(event, event.getTimestamp());
+        }
+        evaluator.flush((event, timestamp) -> blackhole.consume(event));
+    }
+
+    static MetricEvent[] buildEvents(int count, int hosts) {
+        MetricEvent[] events = new MetricEvent[count];
+        long timestamp = System.currentTimeMillis();
+        for (int i = 0; i < count; i++) {
+            String hostIp = hostIp((i / 4) % hosts);
+            switch (i % 4) {
+                case 0:
+                    events[i] = BuildMachineMetricDataUtil.buildCpuData(hostIp, timestamp);
+                    break;
+                case 1:
+                    events[i] = BuildMachineMetricDataUtil.buildLoadData(hostIp, timestamp);
+                    break;
+                case 2:
+                    events[i] = BuildMachineMetricDataUtil.buildMemData(hostIp, timestamp);
+                    break;
+                default:
+                    events[i] = BuildMachineMetricDataUtil.buildSwapData(hostIp, timestamp);
+            }
+        }
+        return events;
+    }
+
+    static List<AlertRule> buildRules(int count, int hosts) {
+        String[] names = {"cpu", "load", "mem", "swap"};
+        String[] measurements = {"usedPercent", "load5", "usedPercent", "usedPercent"};
+        Random random = new Random(42);
+        List<AlertRule> rules = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            int metric = i % 4;
+            AlertRule rule = new AlertRule().builder()
+                    .id(i)
+                    .name(names[metric])
+                    .measurement(measurements[metric])
+                    .thresholds(String.valueOf(metric == 1 ? 45 + random.nextInt(5) : 90 + random.nextInt(10)))
+                    .version(1)
+                    .build();
+            if (i % 3 == 0) {
+                rule.setTagKey("host_ip");
+                rule.setTagValue(hostIp(random.nextInt(hosts)));
+            }
+            rules.add(rule);
+        }
+        return rules;
+    }
+
+    static String hostIp(int i) {
+        return "10." + ((i >>> 16) & 0xFF) + "." + ((i >>> 8) & 0xFF) + "." + (i & 0xFF);
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder().include(AlertRuleEvaluationBenchmark.class.getSimpleName()).build()).run();
+    }
+}
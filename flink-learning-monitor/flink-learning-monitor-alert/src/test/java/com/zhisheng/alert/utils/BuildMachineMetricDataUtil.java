@@ -1,3 +1,5 @@
+package com.zhisheng.alert.utils;
+
 import com.zhisheng.common.model.MetricEvent;
 import com.zhisheng.common.utils.GsonUtil;
 import org.apache.kafka.clients.producer.KafkaProducer;
@@ -1,9 +1,16 @@
 package com.zhisheng.log;
 
 import com.zhisheng.common.model.LogEvent;
+import com.zhisheng.log.function.ErrorRateAlertFunction;
+import com.zhisheng.log.utils.LogTemplateMiner;
 import org.apache.flink.api.java.utils.ParameterTool;
 import org.apache.flink.streaming.api.datastream.DataStream;
 
+import java.util.Map;
+
+import static com.zhisheng.common.constant.PropertiesConstants.*;
+import static com.zhisheng.log.function.ErrorRateAlertFunction.KEY_SEPARATOR;
+
 /**
  * Desc: log alert
  * Created by zhisheng on 2019/10/26 下午7:23
@@ -12,8 +19,17 @@ import org.apache.flink.streaming.api.datastream.DataStream;
  */
 public class LogAlert {
     public static void alert(DataStream<LogEvent> logDataStream, ParameterTool parameterTool) {
-        //异常日志事件
-        logDataStream.filter(logEvent -> "ERROR".equals(logEvent.getLevel().toUpperCase()))
+        //异常日志事件，按 app + host + 日志指纹统计窗口内的错误数，只在告警/恢复时输出
+        logDataStream.filter(logEvent -> logEvent.getLevel() != null && "ERROR".equals(logEvent.getLevel().toUpperCase()))
+                .keyBy(LogAlert::errorKey)
+                .process(new ErrorRateAlertFunction(
+                        parameterTool.getLong(LOG_ALERT_PANE_SIZE, 60 * 1000L),
+                        parameterTool.getInt(LOG_ALERT_WINDOW_PANES, 5),
+                        parameterTool.getLong(LOG_ALERT_MIN_COUNT, 10),
+                        parameterTool.getDouble(LOG_ALERT_BASELINE_FACTOR, 3),
+                        parameterTool.getDouble(LOG_ALERT_BASELINE_ALPHA, 0.1),
+                        parameterTool.getDouble(LOG_ALERT_RECOVER_RATIO, 0.5),
+                        parameterTool.getLong(LOG_ALERT_BASELINE_TTL, 7 * 24 * 60 * 60 * 1000L)))
                 .print();
 
         //告警事件与应用通知方式和收敛方式的策略数据关联
@@ -21,4 +37,11 @@ public class LogAlert {
 
         //sink 调用发送告警消息的接口
     }
+
+    private static String errorKey(LogEvent logEvent) {
+        Map<String, String> tags = logEvent.getTags();
+        String app = tags.getOrDefault("app_id", tags.get("source"));
+        return app + KEY_SEPARATOR + tags.get("host_name") + KEY_SEPARATOR
+                + LogTemplateMiner.fingerprint(logEvent.getMessage() == null ? "" : logEvent.getMessage());
+    }
 }
@@ -2,13 +2,23 @@ package com.zhisheng.log;
 
 import com.zhisheng.common.model.LogEvent;
 import com.zhisheng.common.utils.ExecutionEnvUtil;
+import com.zhisheng.log.function.LogTemplateMiningFunction;
+import com.zhisheng.log.function.MultilineAssembleFunction;
+import com.zhisheng.log.model.FilebeatLogEvent;
 import com.zhisheng.log.function.OriLog2LogEventFlatMapFunction;
-import com.zhisheng.log.schema.OriginalLogEventSchema;
+import com.zhisheng.log.schema.FilebeatLogEventSchema;
 import org.apache.flink.api.java.utils.ParameterTool;
+import org.apache.flink.streaming.api.datastream.DataStream;
 import org.apache.flink.streaming.api.datastream.SingleOutputStreamOperator;
 import org.apache.flink.streaming.api.environment.StreamExecutionEnvironment;
 import org.apache.flink.streaming.connectors.kafka.FlinkKafkaConsumer;
 
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static com.zhisheng.common.constant.PropertiesConstants.*;
 import static com.zhisheng.common.utils.KafkaConfigUtil.buildKafkaProps;
 
 /**
@@ -20,9 +30,19 @@ public class LogMain {
     public static void main(String[] args) throws Exception {
         final ParameterTool parameterTool = ExecutionEnvUtil.createParameterTool(args);
         StreamExecutionEnvironment env = ExecutionEnvUtil.prepare(parameterTool);
-        SingleOutputStreamOperator<LogEvent> logDataStream = env.addSource(new FlinkKafkaConsumer<>("zhisheng_log",
-                new OriginalLogEventSchema(),
-                buildKafkaProps(parameterTool)))
+        //FilebeatLogEvent 用自己的序列化器，keyBy 时只传输四个字段未解码的 byte，message 等到用的时候才解码
+        DataStream<FilebeatLogEvent> originalLogStream = env.addSource(new FlinkKafkaConsumer<>("zhisheng_log",
+                new FilebeatLogEventSchema(),
+                buildKafkaProps(parameterTool)));
+        //同一台机器同一个文件的异常堆栈合并成一条日志
+        if (parameterTool.getBoolean(LOG_MULTILINE_ENABLE, true)) {
+            originalLogStream = originalLogStream
+                    .keyBy(event -> event.getHostName() + "|" + event.getSource())
+                    .process(new MultilineAssembleFunction(parameterTool.getInt(LOG_MULTILINE_MAX_LINES, 500),
+                            parameterTool.getInt(LOG_MULTILINE_MAX_BYTES, 64 * 1024),
+                            parameterTool.getLong(LOG_MULTILINE_TIMEOUT, 1000)));
+        }
+        SingleOutputStreamOperator<LogEvent> logDataStream = originalLogStream
                 .flatMap(new OriLog2LogEventFlatMapFunction());
         //alert
         LogAlert.alert(logDataStream, parameterTool);
@@ -54,6 +74,19 @@ public class LogMain {
 //        });
 
 
+        //日志模版提取，按 source + 分词个数维护模版，指定级别的日志按分钟聚合后再写 es
+        if (parameterTool.getBoolean(LOG_TEMPLATE_ENABLE, true)) {
+            Set<String> aggregateLevels = Arrays.stream(parameterTool.get(LOG_TEMPLATE_AGGREGATE_LEVELS, "").split(","))
+                    .map(String::trim)
+                    .filter(level -> !level.isEmpty())
+                    .map(String::toUpperCase)
+                    .collect(Collectors.toCollection(HashSet::new));
+            logDataStream = logDataStream
+                    .keyBy(LogTemplateMiningFunction::bucketKey)
+                    .process(new LogTemplateMiningFunction(parameterTool.getDouble(LOG_TEMPLATE_SIMILARITY, 0.5),
+                            parameterTool.getInt(LOG_TEMPLATE_MAX_PER_LEAF, 100), aggregateLevels));
+        }
+
         //sink to es
         LogSink2ES.sink2es(logDataStream, parameterTool);
 
@@ -0,0 +1,178 @@
+package com.zhisheng.log.function;
+
+import com.zhisheng.common.model.LogEvent;
+import com.zhisheng.log.model.ErrorRateBaseline;
+import com.zhisheng.log.model.ErrorRateState;
+import com.zhisheng.log.model.LogErrorRateAlert;
+import org.apache.flink.api.common.state.StateTtlConfig;
+import org.apache.flink.api.common.state.ValueState;
+import org.apache.flink.api.common.state.ValueStateDescriptor;
+import org.apache.flink.api.common.time.Time;
+import org.apache.flink.configuration.Configuration;
+import org.apache.flink.streaming.api.functions.KeyedProcessFunction;
+import org.apache.flink.util.Collector;
+
+/**
+ * Desc: 错误日志频率告警（按 app + host + 日志指纹 keyBy）
+ * 滑动窗口由 windowPanes 个 pane 组成，每个 pane 只累加计数；窗口内错误数超过 max(minCount, 基线 * baselineFactor) 时告警，
+ * 低于阈值 * recoverRatio 时恢复，只在告警/恢复发生变化时输出，一次故障只会产生一条告警；
+ * 基线为每个 pane 结束时窗口错误数的 EWMA，告警期间不更新；窗口内没有错误且未告警时只清空 pane 计数和 timer，
+ * 基线单独保存（baselineTtl 内没有更新才清理），下次有错误时补上中间这些错误数为 0 的 pane 的衰减
+ * Created by zhisheng on 2019/10/31 下午8:35
+ * blog：http://www.54tianzhisheng.cn/
+ * 微信公众号：zhisheng
+ */
+public class ErrorRateAlertFunction extends KeyedProcessFunction<String, LogEvent, LogErrorRateAlert> {
+
+    public static final String KEY_SEPARATOR = "|";
+
+    private final long paneSize;
+
+    private final int windowPanes;
+
+    private final long minCount;
+
+    private final double baselineFactor;
+
+    private final double baselineAlpha;
+
+    private final double recoverRatio;
+
+    private final long baselineTtl;
+
+    private transient ValueState<ErrorRateState> errorRateState;
+
+    private transient ValueState<ErrorRateBaseline> baselineState;
+
+    public ErrorRateAlertFunction(long paneSize, int windowPanes, long minCount,
+                                  double baselineFactor, double baselineAlpha, double recoverRatio, long baselineTtl) {
+        this.paneSize = paneSize;
+        this.windowPanes = windowPanes;
+        this.minCount = minCount;
+        this.baselineFactor = baselineFactor;
+        this.baselineAlpha = baselineAlpha;
+        this.recoverRatio = recoverRatio;
+        this.baselineTtl = baselineTtl;
+    }
+
+    @Override
+    public void open(Configuration parameters) throws Exception {
+        errorRateState = getRuntimeContext().getState(new ValueStateDescriptor<>("log_error_rate", ErrorRateState.class));
+        ValueStateDescriptor<ErrorRateBaseline> baselineDescriptor = new ValueStateDescriptor<>("log_error_rate_baseline", ErrorRateBaseline.class);
+        baselineDescriptor.enableTimeToLive(StateTtlConfig.newBuilder(Time.milliseconds(baselineTtl))
+                .setUpdateType(StateTtlConfig.UpdateType.OnCreateAndWrite)
+                .build());
+        baselineState = getRuntimeContext().getState(baselineDescriptor);
+    }
+
+    @Override
+    public void processElement(LogEvent logEvent, Context ctx, Collector<LogErrorRateAlert> out) throws Exception {
+        long now = ctx.timerService().currentProcessingTime();
+        long pane = now / paneSize;
+        ErrorRateState state = errorRateState.value();
+        if (state == null) {
+            state = new ErrorRateState(new long[windowPanes], pane, false, null);
+            ctx.timerService().registerProcessingTimeTimer((pane + 1) * paneSize);
+        }
+        advance(state, pane);
+        state.getPaneCounts()[(int) (pane % windowPanes)]++;
+        state.setSampleMessage(logEvent.getMessage());
+
+        if (!state.isAlerting()) {
+            long count = windowCount(state);
+            //基线只计入到上一个 pane
+            double baseline = decayedBaseline(baselineState.value(), pane - 1);
+            double threshold = threshold(baseline);
+            if (count >= threshold) {
+                state.setAlerting(true);
+                out.collect(buildAlert(ctx.getCurrentKey(), LogErrorRateAlert.FIRING, count, threshold, baseline, state, now));
+            }
+        }
+        errorRateState.update(state);
+    }
+
+    @Override
+    public void onTimer(long timestamp, OnTimerContext ctx, Collector<LogErrorRateAlert> out) throws Exception {
+        ErrorRateState state = errorRateState.value();
+        if (state == null) {
+            return;
+        }
+        //timer 在 pane 结束时触发，窗口为刚结束的 pane 及之前的 windowPanes - 1 个 pane
+        long pane = timestamp / paneSize - 1;
+        advance(state, pane);
+        long count = windowCount(state);
+        double baseline = decayedBaseline(baselineState.value(), pane - 1);
+        double threshold = threshold(baseline);
+        if (state.isAlerting()) {
+            if (count < threshold * recoverRatio) {
+                state.setAlerting(false);
+                out.collect(buildAlert(ctx.getCurrentKey(), LogErrorRateAlert.RESOLVED, count, threshold, baseline, state, timestamp));
+            }
+            //告警期间基线保持不变，只记录已经计入到这个 pane
+            baselineState.update(new ErrorRateBaseline(baseline, pane));
+        } else {
+            baselineState.update(new ErrorRateBaseline(baselineAlpha * count + (1 - baselineAlpha) * baseline, pane));
+        }
+
+        if (count == 0 && !state.isAlerting()) {
+            //只清空 pane 计数，基线保留
+            errorRateState.clear();
+            return;
+        }
+        errorRateState.update(state);
+        ctx.timerService().registerProcessingTimeTimer(timestamp + paneSize);
+    }
+
+    private void advance(ErrorRateState state, long pane) {
+        long currentPane = state.getCurrentPane();
+        if (pane <= currentPane) {
+            return;
+        }
+        long[] paneCounts = state.getPaneCounts();
+        long steps = Math.min(pane - currentPane, windowPanes);
+        for (long i = 1; i <= steps; i++) {
+            paneCounts[(int) ((currentPane + i) % windowPanes)] = 0;
+        }
+        state.setCurrentPane(pane);
+    }
+
+    private static long windowCount(ErrorRateState state) {
+        long count = 0;
+        for (long paneCount : state.getPaneCounts()) {
+            count += paneCount;
+        }
+        return count;
+    }
+
+    /**
+     * 基线计入到 pane 时的值，基线之后到 pane 之间的 pane 窗口错误数都是 0，每个 pane 衰减一次
+     */
+    private double decayedBaseline(ErrorRateBaseline baseline, long pane) {
+        if (baseline == null) {
+            return 0;
+        }
+        long idlePanes = pane - baseline.getPane();
+        return idlePanes <= 0 ? baseline.getBaseline() : baseline.getBaseline() * Math.pow(1 - baselineAlpha, idlePanes);
+    }
+
+    private double threshold(double baseline) {
+        return Math.max(minCount, baseline * baselineFactor);
+    }
+
+    private static LogErrorRateAlert buildAlert(String key, String status, long count, double threshold,
+                                                double baseline, ErrorRateState state, long timestamp) {
+        int fingerprintIndex = key.lastIndexOf(KEY_SEPARATOR);
+        int hostIndex = key.lastIndexOf(KEY_SEPARATOR, fingerprintIndex - 1);
+        return LogErrorRateAlert.builder()
+                .app(key.substring(0, hostIndex))
+                .hostName(key.substring(hostIndex + 1, fingerprintIndex))
+                .fingerprint(key.substring(fingerprintIndex + 1))
+                .status(status)
+                .windowCount(count)
+                .threshold(threshold)
+                .baseline(baseline)
+                .timestamp(timestamp)
+                .sampleMessage(state.getSampleMessage())
+                .build();
+    }
+}
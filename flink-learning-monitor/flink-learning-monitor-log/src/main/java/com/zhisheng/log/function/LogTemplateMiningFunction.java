@@ -0,0 +1,137 @@
+package com.zhisheng.log.function;
+
+import com.zhisheng.common.model.LogEvent;
+import com.zhisheng.log.model.LogTemplate;
+import com.zhisheng.log.model.LogTemplateCount;
+import com.zhisheng.log.utils.LogTemplateMiner;
+import org.apache.flink.api.common.state.MapState;
+import org.apache.flink.api.common.state.MapStateDescriptor;
+import org.apache.flink.api.common.typeinfo.TypeInformation;
+import org.apache.flink.api.common.typeinfo.Types;
+import org.apache.flink.configuration.Configuration;
+import org.apache.flink.streaming.api.functions.KeyedProcessFunction;
+import org.apache.flink.util.Collector;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Desc: 日志模版提取（按 source + 分词个数 keyBy，即 Drain 解析树的第一层，每个 key 在 state 中维护这一层下面的叶子节点）
+ * /var/log/app.log 这类路径在所有机器上都一样，只按 source keyBy 会成为热点 key；分词个数不同的日志不会匹配到同一个模版，
+ * 按分词个数拆开不影响提取结果，同一个模版仍然只在一个 key 上维护（各机器共享），叶子节点按解析树路径存在 MapState 里，每条日志只读写匹配到的那一组模版
+ * 每条日志打上 templateId 和 variables；指定级别（如 INFO/DEBUG）的日志不再输出原始日志，
+ * 而是按 模版 + 级别 + 机器 每分钟聚合成一条，message 为模版，tags 中的 count 为条数
+ * Created by zhisheng on 2019/10/29 下午8:10
+ * blog：http://www.54tianzhisheng.cn/
+ * 微信公众号：zhisheng
+ */
+public class LogTemplateMiningFunction extends KeyedProcessFunction<String, LogEvent, LogEvent> {
+
+    private static final long MINUTE = 60 * 1000L;
+
+    private final LogTemplateMiner miner;
+
+    //这些级别的日志按分钟聚合后输出，为空则全部输出原始日志
+    private final Set<String> aggregateLevels;
+
+    //解析树路径（叶子节点 key） -> 模版列表
+    private transient MapState<String, List<LogTemplate>> templateTree;
+
+    //分钟|模版 id|级别|机器 -> 条数
+    private transient MapState<String, LogTemplateCount> templateCounts;
+
+    public LogTemplateMiningFunction(double similarityThreshold, int maxTemplatesPerLeaf, Set<String> aggregateLevels) {
+        this.miner = new LogTemplateMiner(similarityThreshold, maxTemplatesPerLeaf);
+        this.aggregateLevels = aggregateLevels;
+    }
+
+    /**
+     * keyBy 的 key：source + 分词个数
+     */
+    public static String bucketKey(LogEvent logEvent) {
+        String source = logEvent.getTags() == null ? null : logEvent.getTags().get("source");
+        int tokenCount = logEvent.getMessage() == null ? 0 : LogTemplateMiner.tokenCount(logEvent.getMessage());
+        return source + "|" + tokenCount;
+    }
+
+    @Override
+    public void open(Configuration parameters) throws Exception {
+        //显式声明模版的字段类型，模版列表和其中的 tokens 都用 ListSerializer，不经过 Kryo
+        Map<String, TypeInformation<?>> templateFields = new HashMap<>();
+        templateFields.put("id", Types.STRING);
+        templateFields.put("tokens", Types.LIST(Types.STRING));
+        templateTree = getRuntimeContext().getMapState(new MapStateDescriptor<>("log_template_tree",
+                Types.STRING, Types.LIST(Types.POJO(LogTemplate.class, templateFields))));
+        templateCounts = getRuntimeContext().getMapState(new MapStateDescriptor<>("log_template_count",
+                String.class, LogTemplateCount.class));
+    }
+
+    @Override
+    public void processElement(LogEvent logEvent, Context ctx, Collector<LogEvent> out) throws Exception {
+        if (logEvent.getMessage() == null) {
+            out.collect(logEvent);
+            return;
+        }
+        String[] tokens = LogTemplateMiner.tokenize(logEvent.getMessage());
+        String leafKey = LogTemplateMiner.leafKey(tokens);
+        List<LogTemplate> leaf = templateTree.get(leafKey);
+        if (leaf == null) {
+            leaf = new ArrayList<>();
+        }
+        LogTemplateMiner.Result result = miner.mine(leaf, tokens);
+        if (result.isTemplateChanged()) {
+            templateTree.put(leafKey, leaf);
+        }
+        LogTemplate template = result.getTemplate();
+
+        String level = logEvent.getLevel() == null ? null : logEvent.getLevel().toUpperCase();
+        if (level == null || !aggregateLevels.contains(level)) {
+            logEvent.setTemplateId(template.getId());
+            logEvent.setVariables(LogTemplateMiner.variables(template, tokens));
+            out.collect(logEvent);
+            return;
+        }
+
+        long minute = ctx.timerService().currentProcessingTime() / MINUTE * MINUTE;
+        //同一个 source 有多台机器，tags 里有 host_name，按机器分别计数
+        String hostName = logEvent.getTags() == null ? null : logEvent.getTags().get("host_name");
+        String countKey = minute + "|" + template.getId() + "|" + level + "|" + hostName;
+        LogTemplateCount count = templateCounts.get(countKey);
+        if (count == null) {
+            Map<String, String> tags = logEvent.getTags() == null ? new HashMap<>() : new HashMap<>(logEvent.getTags());
+            count = new LogTemplateCount(minute, template.getId(), null, logEvent.getType(), level, tags, 0);
+            //同一分钟同一个 key 只注册一个 timer（相同时间的 timer 会去重）
+            ctx.timerService().registerProcessingTimeTimer(minute + MINUTE);
+        }
+        //模版在这一分钟内可能还会被合并，以最新的为准
+        count.setTemplate(LogTemplateMiner.toTemplateString(template));
+        count.setCount(count.getCount() + 1);
+        templateCounts.put(countKey, count);
+    }
+
+    @Override
+    public void onTimer(long timestamp, OnTimerContext ctx, Collector<LogEvent> out) throws Exception {
+        Iterator<Map.Entry<String, LogTemplateCount>> iterator = templateCounts.iterator();
+        while (iterator.hasNext()) {
+            LogTemplateCount count = iterator.next().getValue();
+            if (count.getMinute() + MINUTE > timestamp) {
+                continue;
+            }
+            Map<String, String> tags = count.getTags();
+            tags.put("count", String.valueOf(count.getCount()));
+            LogEvent logEvent = new LogEvent();
+            logEvent.setType(count.getType());
+            logEvent.setTimestamp(count.getMinute());
+            logEvent.setLevel(count.getLevel());
+            logEvent.setMessage(count.getTemplate());
+            logEvent.setTags(tags);
+            logEvent.setTemplateId(count.getTemplateId());
+            out.collect(logEvent);
+            iterator.remove();
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package com.zhisheng.log.function;
+
+import com.zhisheng.log.model.FilebeatLogEvent;
+import com.zhisheng.log.model.MultilineBuffer;
+import com.zhisheng.log.utils.GrokPatternMatcher;
+import org.apache.flink.api.common.state.ListState;
+import org.apache.flink.api.common.state.ListStateDescriptor;
+import org.apache.flink.api.common.state.ValueState;
+import org.apache.flink.api.common.state.ValueStateDescriptor;
+import org.apache.flink.configuration.Configuration;
+import org.apache.flink.streaming.api.TimerService;
+import org.apache.flink.streaming.api.functions.KeyedProcessFunction;
+import org.apache.flink.util.Collector;
+
+/**
+ * Desc: 多行日志合并（按 host + source keyBy）
+ * 以日期开头的行为一条日志的开始，其余行（如异常堆栈的 at ...、Caused by: ...）拼接到前一条日志后面；
+ * 遇到下一条日志的开始，或者超过 timeout 没有新的行时输出，每个 key 缓存的行数和字节数有上限，超过的行会被丢弃
+ * Created by zhisheng on 2019/10/30 下午9:02
+ * blog：http://www.54tianzhisheng.cn/
+ * 微信公众号：zhisheng
+ */
+public class MultilineAssembleFunction extends KeyedProcessFunction<String, FilebeatLogEvent, FilebeatLogEvent> {
+
+    private final int maxLines;
+
+    private final int maxBytes;
+
+    private final long timeout;
+
+    //一条日志的第一行
+    private transient ValueState<FilebeatLogEvent> headState;
+
+    //后续的行
+    private transient ListState<String> linesState;
+
+    private transient ValueState<MultilineBuffer> bufferState;
+
+    public MultilineAssembleFunction(int maxLines, int maxBytes, long timeout) {
+        this.maxLines = maxLines;
+        this.maxBytes = maxBytes;
+        this.timeout = timeout;
+    }
+
+    @Override
+    public void open(Configuration parameters) throws Exception {
+        headState = getRuntimeContext().getState(new ValueStateDescriptor<>("multiline_head_event", FilebeatLogEvent.class));
+        linesState = getRuntimeContext().getListState(new ListStateDescriptor<>("multiline_lines", String.class));
+        bufferState = getRuntimeContext().getState(new ValueStateDescriptor<>("multiline_buffer", MultilineBuffer.class));
+    }
+
+    @Override
+    public void processElement(FilebeatLogEvent event, Context ctx, Collector<FilebeatLogEvent> out) throws Exception {
+        String message = event.getMessage();
+        if (message == null) {
+            out.collect(event);
+            return;
+        }
+        long now = ctx.timerService().currentProcessingTime();
+        if (isStartLine(message)) {
+            if (headState.value() != null) {
+                flush(ctx.timerService(), out);
+            }
+            long timer = now + timeout;
+            headState.update(event);
+            bufferState.update(new MultilineBuffer(0, message.length(), 0, now, timer));
+            ctx.timerService().registerProcessingTimeTimer(timer);
+            return;
+        }
+
+        //前面没有日志开始的行，无法合并，直接输出
+        if (headState.value() == null) {
+            out.collect(event);
+            return;
+        }
+        MultilineBuffer buffer = bufferState.value();
+        if (buffer.getLines() >= maxLines || buffer.getBytes() + message.length() > maxBytes) {
+            buffer.setDroppedLines(buffer.getDroppedLines() + 1);
+        } else {
+            linesState.add(message);
+            buffer.setLines(buffer.getLines() + 1);
+            buffer.setBytes(buffer.getBytes() + message.length());
+        }
+        //不重新注册 timer，timer 触发时再根据最后一行的时间决定是否顺延
+        buffer.setLastUpdateTime(now);
+        bufferState.update(buffer);
+    }
+
+    @Override
+    public void onTimer(long timestamp, OnTimerContext ctx, Collector<FilebeatLogEvent> out) throws Exception {
+        MultilineBuffer buffer = bufferState.value();
+        if (buffer == null || buffer.getTimer() != timestamp) {
+            return;
+        }
+        long expireTime = buffer.getLastUpdateTime() + timeout;
+        if (expireTime > timestamp) {
+            buffer.setTimer(expireTime);
+            bufferState.update(buffer);
+            ctx.timerService().registerProcessingTimeTimer(expireTime);
+            return;
+        }
+        flush(ctx.timerService(), out);
+    }
+
+    private void flush(TimerService timerService, Collector<FilebeatLogEvent> out) throws Exception {
+        FilebeatLogEvent head = headState.value();
+        MultilineBuffer buffer = bufferState.value();
+        //第一行之前存在 multiline_head（LogLine）里，从那时的 savepoint 恢复时 head 为 null，只清理缓存的行
+        if (head != null && buffer.getLines() == 0 && buffer.getDroppedLines() == 0) {
+            out.collect(head);
+        } else if (head != null) {
+            StringBuilder message = new StringBuilder(buffer.getBytes() + buffer.getLines());
+            message.append(head.getMessage());
+            for (String line : linesState.get()) {
+                message.append('\n').append(line);
+            }
+            if (buffer.getDroppedLines() > 0) {
+                message.append("\n... ").append(buffer.getDroppedLines()).append(" lines dropped");
+            }
+            out.collect(FilebeatLogEvent.of(message.toString(), head.getSource(), head.getHostName(), head.getTopic()));
+        }
+        timerService.deleteProcessingTimeTimer(buffer.getTimer());
+        headState.clear();
+        linesState.clear();
+        bufferState.clear();
+    }
+
+    /**
+     * 以 yyyy-MM-dd 或者 [yyyy-MM-dd 开头的行为一条新日志
+     */
+    public static boolean isStartLine(String message) {
+        return GrokPatternMatcher.startsWithIsoDate(message) || GrokPatternMatcher.startsWithBracketIsoDate(message);
+    }
+}
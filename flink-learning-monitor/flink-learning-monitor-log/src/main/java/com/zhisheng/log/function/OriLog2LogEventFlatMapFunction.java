@@ -2,9 +2,10 @@ package com.zhisheng.log.function;
 
 import com.zhisheng.common.model.LogEvent;
 import com.zhisheng.common.utils.DateUtil;
-import com.zhisheng.log.model.OriginalLogEvent;
-import com.zhisheng.log.utils.GrokUtil;
+import com.zhisheng.log.model.FilebeatLogEvent;
+import com.zhisheng.log.utils.GrokPatternMatcher;
 import org.apache.flink.api.common.functions.RichFlatMapFunction;
+import org.apache.flink.configuration.Configuration;
 import org.apache.flink.util.Collector;
 
 import java.util.HashMap;
@@ -18,15 +19,27 @@ import static com.zhisheng.common.utils.DateUtil.YYYY_MM_DD_HH_MM_SS;
  * blog：http://www.54tianzhisheng.cn/
  * 微信公众号：zhisheng
  */
-public class OriLog2LogEventFlatMapFunction extends RichFlatMapFunction<OriginalLogEvent, LogEvent> {
+public class OriLog2LogEventFlatMapFunction extends RichFlatMapFunction<FilebeatLogEvent, LogEvent> {
+
+    //每个算子实例一份，pattern 只在 open 的时候编译一次
+    private transient GrokPatternMatcher grokMatcher;
+
+    @Override
+    public void open(Configuration parameters) throws Exception {
+        super.open(parameters);
+        grokMatcher = GrokPatternMatcher.defaultLogMatcher();
+    }
+
     @Override
-    public void flatMap(OriginalLogEvent originalLogEvent, Collector<LogEvent> collector) throws Exception {
-        if (originalLogEvent == null) {
+    public void flatMap(FilebeatLogEvent logLine, Collector<LogEvent> collector) throws Exception {
+        if (logLine == null) {
             return;
         }
         LogEvent logEvent = new LogEvent();
-        String source = originalLogEvent.getSource();
-        if (source.contains("middleware")) {
+        String source = logLine.getSource();
+        if (source == null) {
+            logEvent.setType("MACHINE");
+        } else if (source.contains("middleware")) {
             logEvent.setType("MIDDLEWARE");
         } else if (source.contains("app")){
             logEvent.setType("APP");
@@ -35,17 +48,25 @@ public class OriLog2LogEventFlatMapFunction extends RichFlatMapFunction<Original
         } else {
             logEvent.setType("MACHINE");
         }
-        logEvent.setMessage(originalLogEvent.getMessage());
+        logEvent.setMessage(logLine.getMessage());
 
-        Map<String, Object> messageMap = GrokUtil.toMap("%{KAFKALOG}", originalLogEvent.getMessage());
+        Map<String, Object> messageMap = grokMatcher.match(logLine.getMessage());
+        if (messageMap.get("timestamp") == null || messageMap.get("level") == null) {
+            return;
+        }
 
-        logEvent.setTimestamp(DateUtil.format(messageMap.get("timestamp").toString(), YYYY_MM_DD_HH_MM_SS));
+        //去掉毫秒部分（如 2019-10-26 19:53:05,929）再解析
+        String timestamp = messageMap.get("timestamp").toString();
+        if (timestamp.length() > 19) {
+            timestamp = timestamp.substring(0, 19);
+        }
+        logEvent.setTimestamp(DateUtil.format(timestamp, YYYY_MM_DD_HH_MM_SS));
 
         logEvent.setLevel(messageMap.get("level").toString());
         Map<String, String> tags = new HashMap<>();
-        tags.put("host_name", originalLogEvent.getHost().get("name"));
-        tags.put("kafka_tpoic", originalLogEvent.getMetadata().get("topic"));
-        tags.put("source", originalLogEvent.getSource());
+        tags.put("host_name", logLine.getHostName());
+        tags.put("kafka_tpoic", logLine.getTopic());
+        tags.put("source", source);
         //可以添加更多 message 解析出来的字段放在该 tags 里面
 
         logEvent.setTags(tags);
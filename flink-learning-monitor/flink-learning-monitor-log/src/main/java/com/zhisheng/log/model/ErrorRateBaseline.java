@@ -0,0 +1,23 @@
+package com.zhisheng.log.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Desc: 错误日志窗口错误数的基线（EWMA），和 pane 计数分开保存，窗口计数清空之后基线仍然保留
+ * Created by zhisheng on 2019/11/22 下午2:20
+ * blog：http://www.54tianzhisheng.cn/
+ * 微信公众号：zhisheng
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ErrorRateBaseline {
+
+    //基线的值
+    private double baseline;
+
+    //基线已经计入到哪个 pane（时间 / paneSize），之后的 pane 窗口错误数为 0，使用时再补上衰减
+    private long pane;
+}
@@ -0,0 +1,29 @@
+package com.zhisheng.log.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Desc: 错误日志滑动窗口的状态，窗口由若干个 pane 组成，每个 pane 只存一个计数
+ * Created by zhisheng on 2019/10/31 下午8:35
+ * blog：http://www.54tianzhisheng.cn/
+ * 微信公众号：zhisheng
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ErrorRateState {
+
+    //环形数组，下标为 pane % paneCounts.length
+    private long[] paneCounts;
+
+    //最新的 pane（时间 / paneSize）
+    private long currentPane;
+
+    //是否处于告警中
+    private boolean alerting;
+
+    //最近一条错误日志，告警时带上
+    private String sampleMessage;
+}
@@ -0,0 +1,199 @@
+package com.zhisheng.log.model;
+
+import com.zhisheng.log.serializer.FilebeatLogEventSerializer;
+import org.apache.flink.api.common.typeinfo.TypeInfo;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Desc: Filebeat 发送到 Kafka 的日志，只保留下游用到的 message、source、host.name、@metadata.topic
+ * 不拷贝原始 byte 数组，只记录每个字段在数组中的位置，字段在第一次 get 的时候才解码成 String
+ * 使用 FilebeatLogEventSerializer 序列化，网络传输和状态里只有这四个字段未解码的 byte
+ * Created by zhisheng on 2019/10/27 下午4:12
+ * blog：http://www.54tianzhisheng.cn/
+ * 微信公众号：zhisheng
+ */
+@TypeInfo(FilebeatLogEventSerializer.FilebeatLogEventTypeInfoFactory.class)
+public class FilebeatLogEvent {
+
+    public static final int MESSAGE = 0;
+    public static final int SOURCE = 1;
+    public static final int HOST_NAME = 2;
+    public static final int TOPIC = 3;
+    public static final int FIELD_COUNT = 4;
+
+    private byte[] raw;
+
+    //每个字段两个值：start（包含）、end（不包含），-1 表示不存在
+    private int[] spans;
+
+    //第 i 位为 1 表示第 i 个字段包含转义字符，解码时需要反转义
+    private int escapedMask;
+
+    private transient String[] decoded;
+
+    public FilebeatLogEvent(byte[] raw) {
+        this.raw = raw;
+        this.spans = new int[FIELD_COUNT * 2];
+        Arrays.fill(spans, -1);
+    }
+
+    /**
+     * 用已经解码的字段构造（如多行合并后的日志），按 UTF-8 编码放在同一个 byte 数组里
+     */
+    public static FilebeatLogEvent of(String message, String source, String hostName, String topic) {
+        String[] values = {message, source, hostName, topic};
+        byte[][] encoded = new byte[FIELD_COUNT][];
+        int total = 0;
+        for (int field = 0; field < FIELD_COUNT; field++) {
+            if (values[field] != null) {
+                encoded[field] = values[field].getBytes(StandardCharsets.UTF_8);
+                total += encoded[field].length;
+            }
+        }
+        FilebeatLogEvent event = new FilebeatLogEvent(new byte[total]);
+        int start = 0;
+        for (int field = 0; field < FIELD_COUNT; field++) {
+            if (encoded[field] != null) {
+                System.arraycopy(encoded[field], 0, event.raw, start, encoded[field].length);
+                event.setField(field, start, start + encoded[field].length, false);
+                start += encoded[field].length;
+            }
+        }
+        event.decoded = values;
+        return event;
+    }
+
+    /**
+     * 原始 byte 数组解析之后不会再修改，拷贝时共享，只拷贝字段位置和已经解码的 String
+     */
+    public FilebeatLogEvent copy() {
+        FilebeatLogEvent copy = new FilebeatLogEvent(raw);
+        System.arraycopy(spans, 0, copy.spans, 0, spans.length);
+        copy.escapedMask = escapedMask;
+        if (decoded != null) {
+            copy.decoded = decoded.clone();
+        }
+        return copy;
+    }
+
+    public void setField(int field, int start, int end, boolean escaped) {
+        spans[field * 2] = start;
+        spans[field * 2 + 1] = end;
+        if (escaped) {
+            escapedMask |= 1 << field;
+        } else {
+            escapedMask &= ~(1 << field);
+        }
+        if (decoded != null) {
+            decoded[field] = null;
+        }
+    }
+
+    public byte[] getRaw() {
+        return raw;
+    }
+
+    public int getStart(int field) {
+        return spans[field * 2];
+    }
+
+    public int getEnd(int field) {
+        return spans[field * 2 + 1];
+    }
+
+    public boolean isEscaped(int field) {
+        return (escapedMask & (1 << field)) != 0;
+    }
+
+    public String getMessage() {
+        return get(MESSAGE);
+    }
+
+    public String getSource() {
+        return get(SOURCE);
+    }
+
+    public String getHostName() {
+        return get(HOST_NAME);
+    }
+
+    public String getTopic() {
+        return get(TOPIC);
+    }
+
+    public String get(int field) {
+        int start = spans[field * 2];
+        if (start < 0) {
+            return null;
+        }
+        if (decoded == null) {
+            decoded = new String[FIELD_COUNT];
+        }
+        String value = decoded[field];
+        if (value == null) {
+            int end = spans[field * 2 + 1];
+            value = (escapedMask & (1 << field)) == 0
+                    ? new String(raw, start, end - start, StandardCharsets.UTF_8)
+                    : unescape(raw, start, end);
+            decoded[field] = value;
+        }
+        return value;
+    }
+
+    /**
+     * 反转义 json 字符串，不含转义字符的部分按 UTF-8 整段解码
+     */
+    static String unescape(byte[] bytes, int start, int end) {
+        StringBuilder sb = new StringBuilder(end - start);
+        int runStart = start;
+        int i = start;
+        while (i < end) {
+            if (bytes[i] != '\\') {
+                i++;
+                continue;
+            }
+            if (i > runStart) {
+                sb.append(new String(bytes, runStart, i - runStart, StandardCharsets.UTF_8));
+            }
+            char c = (char) bytes[i + 1];
+            switch (c) {
+                case 'b':
+                    sb.append('\b');
+                    break;
+                case 'f':
+                    sb.append('\f');
+                    break;
+                case 'n':
+                    sb.append('\n');
+                    break;
+                case 'r':
+                    sb.append('\r');
+                    break;
+                case 't':
+                    sb.append('\t');
+                    break;
+                case 'u':
+                    sb.append((char) Integer.parseInt(new String(bytes, i + 2, 4, StandardCharsets.US_ASCII), 16));
+                    i += 4;
+                    break;
+                default:
+                    //\" \\ \/
+                    sb.append(c);
+            }
+            i += 2;
+            runStart = i;
+        }
+        if (end > runStart) {
+            sb.append(new String(bytes, runStart, end - runStart, StandardCharsets.UTF_8));
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public String toString() {
+        return "FilebeatLogEvent(message=" + getMessage() + ", source=" + getSource()
+                + ", hostName=" + getHostName() + ", topic=" + getTopic() + ")";
+    }
+}
@@ -0,0 +1,42 @@
+package com.zhisheng.log.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Desc: 错误日志频率告警，只在状态变化（告警/恢复）时产生
+ * Created by zhisheng on 2019/10/31 下午8:35
+ * blog：http://www.54tianzhisheng.cn/
+ * 微信公众号：zhisheng
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class LogErrorRateAlert {
+
+    public static final String FIRING = "FIRING";
+    public static final String RESOLVED = "RESOLVED";
+
+    private String app;
+
+    private String hostName;
+
+    private String fingerprint;
+
+    //FIRING / RESOLVED
+    private String status;
+
+    //窗口内的错误日志条数
+    private long windowCount;
+
+    private double threshold;
+
+    private double baseline;
+
+    private Long timestamp;
+
+    private String sampleMessage;
+}
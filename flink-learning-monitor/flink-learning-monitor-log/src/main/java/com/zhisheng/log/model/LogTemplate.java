@@ -0,0 +1,26 @@
+package com.zhisheng.log.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * Desc: 日志模版，变量部分用 <*> 表示
+ * eg: [2019-10-26 <*> INFO [GroupMetadataManager brokerId=<*>] Removed <*> expired offsets in <*> milliseconds.
+ * Created by zhisheng on 2019/10/29 下午8:10
+ * blog：http://www.54tianzhisheng.cn/
+ * 微信公众号：zhisheng
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class LogTemplate {
+
+    //模版 id，模版第一次出现时生成，后续合并变化不会改变
+    private String id;
+
+    //模版分词，变量部分为 <*>
+    private List<String> tokens;
+}
@@ -0,0 +1,33 @@
+package com.zhisheng.log.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.Map;
+
+/**
+ * Desc: 某个模版某个级别每分钟的日志条数
+ * Created by zhisheng on 2019/10/29 下午8:10
+ * blog：http://www.54tianzhisheng.cn/
+ * 微信公众号：zhisheng
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class LogTemplateCount {
+
+    private long minute;
+
+    private String templateId;
+
+    private String template;
+
+    private String type;
+
+    private String level;
+
+    private Map<String, String> tags;
+
+    private long count;
+}
@@ -0,0 +1,32 @@
+package com.zhisheng.log.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Desc: 多行日志合并时每个 key 缓存的统计信息（缓存的行保存在 ListState 中）
+ * Created by zhisheng on 2019/10/30 下午9:02
+ * blog：http://www.54tianzhisheng.cn/
+ * 微信公众号：zhisheng
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class MultilineBuffer {
+
+    //已缓存的后续行数
+    private int lines;
+
+    //已缓存的字节数（按字符数估算）
+    private int bytes;
+
+    //超过上限被丢弃的行数
+    private int droppedLines;
+
+    //最后一行到达的时间
+    private long lastUpdateTime;
+
+    //已注册的超时 timer
+    private long timer;
+}
@@ -0,0 +1,34 @@
+package com.zhisheng.log.schema;
+
+import com.zhisheng.log.model.FilebeatLogEvent;
+import com.zhisheng.log.utils.FilebeatLogEventParser;
+import org.apache.flink.api.common.serialization.DeserializationSchema;
+import org.apache.flink.api.common.typeinfo.TypeInformation;
+
+import java.io.IOException;
+
+/**
+ * Desc: FilebeatLogEvent Deserialization Schema
+ * 相比 OriginalLogEventSchema，不再 new String 后整体反序列化，只解析下游用到的字段
+ * produced type 由 FilebeatLogEvent 上的 @TypeInfo 指定为 FilebeatLogEventSerializer，不会回退到 Kryo
+ * Created by zhisheng on 2019/10/27 下午4:12
+ * blog：http://www.54tianzhisheng.cn/
+ * 微信公众号：zhisheng
+ */
+public class FilebeatLogEventSchema implements DeserializationSchema<FilebeatLogEvent> {
+
+    @Override
+    public FilebeatLogEvent deserialize(byte[] bytes) throws IOException {
+        return FilebeatLogEventParser.parse(bytes);
+    }
+
+    @Override
+    public boolean isEndOfStream(FilebeatLogEvent filebeatLogEvent) {
+        return false;
+    }
+
+    @Override
+    public TypeInformation<FilebeatLogEvent> getProducedType() {
+        return TypeInformation.of(FilebeatLogEvent.class);
+    }
+}
@@ -0,0 +1,130 @@
+package com.zhisheng.log.serializer;
+
+import com.zhisheng.log.model.FilebeatLogEvent;
+import org.apache.flink.api.common.typeinfo.TypeInfoFactory;
+import org.apache.flink.api.common.typeinfo.TypeInformation;
+import org.apache.flink.api.common.typeutils.SimpleTypeSerializerSnapshot;
+import org.apache.flink.api.common.typeutils.TypeSerializerSnapshot;
+import org.apache.flink.api.common.typeutils.base.TypeSerializerSingleton;
+import org.apache.flink.core.memory.DataInputView;
+import org.apache.flink.core.memory.DataOutputView;
+
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.util.Map;
+
+/**
+ * Desc: FilebeatLogEvent 的序列化器，只写四个字段在原始 json 中的那一段 byte，不解码、也不带上其余字段
+ * 格式：1 字节的转义标记位 + 四个字段的长度（-1 表示不存在） + 四段 byte，反序列化后字段仍然在第一次 get 的时候才解码；
+ * copy 时共享原始 byte 数组（解析之后不会再修改），不拷贝数据
+ * Created by zhisheng on 2019/11/22 上午10:30
+ * blog：http://www.54tianzhisheng.cn/
+ * 微信公众号：zhisheng
+ */
+public final class FilebeatLogEventSerializer extends TypeSerializerSingleton<FilebeatLogEvent> {
+
+    private static final long serialVersionUID = 1L;
+
+    public static final FilebeatLogEventSerializer INSTANCE = new FilebeatLogEventSerializer();
+
+    @Override
+    public boolean isImmutableType() {
+        return false;
+    }
+
+    @Override
+    public FilebeatLogEvent createInstance() {
+        return new FilebeatLogEvent(new byte[0]);
+    }
+
+    @Override
+    public FilebeatLogEvent copy(FilebeatLogEvent from) {
+        return from.copy();
+    }
+
+    @Override
+    public FilebeatLogEvent copy(FilebeatLogEvent from, FilebeatLogEvent reuse) {
+        return copy(from);
+    }
+
+    @Override
+    public int getLength() {
+        return -1;
+    }
+
+    @Override
+    public void serialize(FilebeatLogEvent record, DataOutputView target) throws IOException {
+        int escapedMask = 0;
+        for (int field = 0; field < FilebeatLogEvent.FIELD_COUNT; field++) {
+            escapedMask |= record.isEscaped(field) ? 1 << field : 0;
+        }
+        target.writeByte(escapedMask);
+        for (int field = 0; field < FilebeatLogEvent.FIELD_COUNT; field++) {
+            target.writeInt(record.getStart(field) < 0 ? -1 : record.getEnd(field) - record.getStart(field));
+        }
+        byte[] raw = record.getRaw();
+        for (int field = 0; field < FilebeatLogEvent.FIELD_COUNT; field++) {
+            int start = record.getStart(field);
+            if (start >= 0) {
+                target.write(raw, start, record.getEnd(field) - start);
+            }
+        }
+    }
+
+    @Override
+    public FilebeatLogEvent deserialize(DataInputView source) throws IOException {
+        int escapedMask = source.readUnsignedByte();
+        int[] lengths = new int[FilebeatLogEvent.FIELD_COUNT];
+        int total = 0;
+        for (int field = 0; field < FilebeatLogEvent.FIELD_COUNT; field++) {
+            lengths[field] = source.readInt();
+            total += Math.max(0, lengths[field]);
+        }
+        byte[] raw = new byte[total];
+        source.readFully(raw);
+        FilebeatLogEvent record = new FilebeatLogEvent(raw);
+        int start = 0;
+        for (int field = 0; field < FilebeatLogEvent.FIELD_COUNT; field++) {
+            if (lengths[field] >= 0) {
+                record.setField(field, start, start + lengths[field], (escapedMask & (1 << field)) != 0);
+                start += lengths[field];
+            }
+        }
+        return record;
+    }
+
+    @Override
+    public FilebeatLogEvent deserialize(FilebeatLogEvent reuse, DataInputView source) throws IOException {
+        return deserialize(source);
+    }
+
+    @Override
+    public void copy(DataInputView source, DataOutputView target) throws IOException {
+        target.writeByte(source.readUnsignedByte());
+        int total = 0;
+        for (int field = 0; field < FilebeatLogEvent.FIELD_COUNT; field++) {
+            int length = source.readInt();
+            target.writeInt(length);
+            total += Math.max(0, length);
+        }
+        target.write(source, total);
+    }
+
+    @Override
+    public TypeSerializerSnapshot<FilebeatLogEvent> snapshotConfiguration() {
+        return new FilebeatLogEventSerializerSnapshot();
+    }
+
+    public static final class FilebeatLogEventSerializerSnapshot extends SimpleTypeSerializerSnapshot<FilebeatLogEvent> {
+        public FilebeatLogEventSerializerSnapshot() {
+            super(() -> INSTANCE);
+        }
+    }
+
+    public static class FilebeatLogEventTypeInfoFactory extends TypeInfoFactory<FilebeatLogEvent> {
+        @Override
+        public TypeInformation<FilebeatLogEvent> createTypeInfo(Type t, Map<String, TypeInformation<?>> genericParameters) {
+            return new SerializerTypeInfo<>(FilebeatLogEvent.class, INSTANCE);
+        }
+    }
+}
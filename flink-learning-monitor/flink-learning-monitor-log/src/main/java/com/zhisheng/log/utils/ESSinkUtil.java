@@ -1,7 +1,9 @@
 package com.zhisheng.log.utils;
 
+import com.zhisheng.common.utils.AdaptiveBulkController;
 import org.apache.flink.api.java.utils.ParameterTool;
 import org.apache.flink.streaming.api.datastream.SingleOutputStreamOperator;
+import org.apache.flink.streaming.connectors.elasticsearch.ElasticsearchSinkBase;
 import org.apache.flink.streaming.connectors.elasticsearch.ElasticsearchSinkFunction;
 import org.apache.flink.streaming.connectors.elasticsearch6.ElasticsearchSink;
 import org.apache.http.HttpHost;
@@ -11,6 +13,8 @@ import java.net.URL;
 import java.util.ArrayList;
 import java.util.List;
 
+import static com.zhisheng.common.constant.PropertiesConstants.*;
+
 /**
  * Desc: es sink util
  * Created by zhisheng on 2019/10/21 下午3:05
@@ -21,6 +25,8 @@ public class ESSinkUtil {
 
     /**
      * es sink
+     * 除了 bulk 条数，还会按 bulk 大小（MB）和时间间隔 flush，并开启指数退避重试，
+     * 重试后仍被拒绝的请求由 RetryRequestFailureHandler 直接重新加入（不阻塞），并按拒绝情况给出建议的 bulk 条数
      *
      * @param hosts               es hosts
      * @param bulkFlushMaxActions bulk flush size
@@ -34,7 +40,16 @@ public class ESSinkUtil {
                                    ParameterTool parameterTool) {
         ElasticsearchSink.Builder<T> esSinkBuilder = new ElasticsearchSink.Builder<>(hosts, func);
         esSinkBuilder.setBulkFlushMaxActions(bulkFlushMaxActions);
-        esSinkBuilder.setFailureHandler(new RetryRequestFailureHandler());
+        esSinkBuilder.setBulkFlushMaxSizeMb(parameterTool.getInt(ELASTICSEARCH_BULK_FLUSH_MAX_SIZE_MB, 5));
+        esSinkBuilder.setBulkFlushInterval(parameterTool.getLong(ELASTICSEARCH_BULK_FLUSH_INTERVAL, 1000));
+        if (parameterTool.getBoolean(ELASTICSEARCH_BULK_FLUSH_BACKOFF_ENABLE, true)) {
+            esSinkBuilder.setBulkFlushBackoff(true);
+            esSinkBuilder.setBulkFlushBackoffType(ElasticsearchSinkBase.FlushBackoffType.EXPONENTIAL);
+            esSinkBuilder.setBulkFlushBackoffRetries(parameterTool.getInt(ELASTICSEARCH_BULK_FLUSH_BACKOFF_RETRIES, 3));
+            esSinkBuilder.setBulkFlushBackoffDelay(parameterTool.getLong(ELASTICSEARCH_BULK_FLUSH_BACKOFF_DELAY, 100));
+        }
+        esSinkBuilder.setFailureHandler(new RetryRequestFailureHandler(new AdaptiveBulkController(
+                bulkFlushMaxActions, parameterTool.getLong(ELASTICSEARCH_REJECTED_RECOVER_INTERVAL, 30000))));
         //todo:xpack security
         data.addSink(esSinkBuilder.build()).setParallelism(parallelism);
     }
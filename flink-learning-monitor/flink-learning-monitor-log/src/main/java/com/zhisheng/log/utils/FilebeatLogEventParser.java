@@ -0,0 +1,213 @@
+package com.zhisheng.log.utils;
+
+import com.zhisheng.log.model.FilebeatLogEvent;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Desc: 直接在 byte 数组上流式解析 Filebeat 日志 json
+ * 只定位 message、source、host.name、@metadata.topic 四个字段的位置，其余字段直接跳过，不做任何解码
+ * Created by zhisheng on 2019/10/27 下午4:12
+ * blog：http://www.54tianzhisheng.cn/
+ * 微信公众号：zhisheng
+ */
+public class FilebeatLogEventParser {
+
+    private static final int ROOT = 0;
+    private static final int HOST = 1;
+    private static final int METADATA = 2;
+
+    private static final byte[] MESSAGE_KEY = "message".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] SOURCE_KEY = "source".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] HOST_KEY = "host".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] METADATA_KEY = "@metadata".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] NAME_KEY = "name".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] TOPIC_KEY = "topic".getBytes(StandardCharsets.UTF_8);
+
+    private final byte[] bytes;
+    private final FilebeatLogEvent event;
+    private int pos;
+
+    //最近一次 scanString 的结果
+    private int strStart;
+    private int strEnd;
+    private boolean strEscaped;
+
+    private FilebeatLogEventParser(byte[] bytes) {
+        this.bytes = bytes;
+        this.event = new FilebeatLogEvent(bytes);
+    }
+
+    public static FilebeatLogEvent parse(byte[] bytes) throws IOException {
+        FilebeatLogEventParser parser = new FilebeatLogEventParser(bytes);
+        parser.skipWhitespace();
+        parser.parseObject(ROOT);
+        return parser.event;
+    }
+
+    private void parseObject(int scope) throws IOException {
+        expect('{');
+        skipWhitespace();
+        if (peek() == '}') {
+            pos++;
+            return;
+        }
+        while (true) {
+            skipWhitespace();
+            scanString();
+            int keyStart = strStart;
+            int keyEnd = strEnd;
+            skipWhitespace();
+            expect(':');
+            skipWhitespace();
+            parseValue(scope, keyStart, keyEnd);
+            skipWhitespace();
+            byte c = next();
+            if (c == '}') {
+                return;
+            }
+            if (c != ',') {
+                throw error("expect ',' or '}'");
+            }
+        }
+    }
+
+    private void parseValue(int scope, int keyStart, int keyEnd) throws IOException {
+        byte c = peek();
+        if (scope == ROOT) {
+            if (c == '"' && keyEquals(keyStart, keyEnd, MESSAGE_KEY)) {
+                readField(FilebeatLogEvent.MESSAGE);
+                return;
+            }
+            if (c == '"' && keyEquals(keyStart, keyEnd, SOURCE_KEY)) {
+                readField(FilebeatLogEvent.SOURCE);
+                return;
+            }
+            if (c == '{' && keyEquals(keyStart, keyEnd, HOST_KEY)) {
+                parseObject(HOST);
+                return;
+            }
+            if (c == '{' && keyEquals(keyStart, keyEnd, METADATA_KEY)) {
+                parseObject(METADATA);
+                return;
+            }
+        } else if (c == '"' && scope == HOST && keyEquals(keyStart, keyEnd, NAME_KEY)) {
+            readField(FilebeatLogEvent.HOST_NAME);
+            return;
+        } else if (c == '"' && scope == METADATA && keyEquals(keyStart, keyEnd, TOPIC_KEY)) {
+            readField(FilebeatLogEvent.TOPIC);
+            return;
+        }
+        skipValue();
+    }
+
+    private void readField(int field) throws IOException {
+        scanString();
+        event.setField(field, strStart, strEnd, strEscaped);
+    }
+
+    /**
+     * 跳过任意 json 值（字符串、对象、数组、数字、true/false/null）
+     */
+    private void skipValue() throws IOException {
+        byte c = peek();
+        if (c == '"') {
+            scanString();
+            return;
+        }
+        if (c == '{' || c == '[') {
+            int depth = 0;
+            do {
+                c = peek();
+                if (c == '"') {
+                    scanString();
+                    continue;
+                }
+                if (c == '{' || c == '[') {
+                    depth++;
+                } else if (c == '}' || c == ']') {
+                    depth--;
+                }
+                pos++;
+            } while (depth > 0);
+            return;
+        }
+        while (pos < bytes.length) {
+            c = bytes[pos];
+            if (c == ',' || c == '}' || c == ']' || isWhitespace(c)) {
+                return;
+            }
+            pos++;
+        }
+    }
+
+    /**
+     * pos 指向左引号，结束后指向右引号的下一位
+     */
+    private void scanString() throws IOException {
+        expect('"');
+        strStart = pos;
+        strEscaped = false;
+        while (pos < bytes.length) {
+            byte c = bytes[pos];
+            if (c == '"') {
+                strEnd = pos++;
+                return;
+            }
+            if (c == '\\') {
+                strEscaped = true;
+                pos += 2;
+            } else {
+                pos++;
+            }
+        }
+        throw error("unterminated string");
+    }
+
+    private boolean keyEquals(int start, int end, byte[] key) {
+        if (end - start != key.length) {
+            return false;
+        }
+        for (int i = 0; i < key.length; i++) {
+            if (bytes[start + i] != key[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void skipWhitespace() {
+        while (pos < bytes.length && isWhitespace(bytes[pos])) {
+            pos++;
+        }
+    }
+
+    private static boolean isWhitespace(byte c) {
+        return c == ' ' || c == '\n' || c == '\r' || c == '\t';
+    }
+
+    private byte peek() throws IOException {
+        if (pos >= bytes.length) {
+            throw error("unexpected end of input");
+        }
+        return bytes[pos];
+    }
+
+    private byte next() throws IOException {
+        byte c = peek();
+        pos++;
+        return c;
+    }
+
+    private void expect(char expected) throws IOException {
+        if (next() != expected) {
+            pos--;
+            throw error("expect '" + expected + "'");
+        }
+    }
+
+    private IOException error(String msg) {
+        return new IOException("invalid filebeat log json, " + msg + " at position " + pos);
+    }
+}
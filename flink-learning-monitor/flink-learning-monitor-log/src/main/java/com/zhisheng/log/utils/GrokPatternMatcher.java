@@ -0,0 +1,129 @@
+package com.zhisheng.log.utils;
+
+import io.krakens.grok.api.Grok;
+import io.krakens.grok.api.GrokCompiler;
+import io.krakens.grok.api.Match;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * Desc: 多 pattern 的 grok 匹配器
+ * 每个算子实例持有一份（在 open 里创建），pattern 只在 addPattern 时编译一次；
+ * 匹配时先用廉价的前缀/特征判断挑出候选 pattern，再跑正则，并优先尝试上一次命中的 pattern
+ * Created by zhisheng on 2019/10/27 下午2:20
+ * blog：http://www.54tianzhisheng.cn/
+ * 微信公众号：zhisheng
+ */
+public class GrokPatternMatcher {
+
+    private final GrokCompiler compiler;
+
+    private final List<Candidate> candidates = new ArrayList<>();
+
+    //上一次命中的 pattern 下标，同一个 source 的日志格式基本一致
+    private int lastHit = 0;
+
+    public GrokPatternMatcher() {
+        this(GrokUtil.newCompiler());
+    }
+
+    public GrokPatternMatcher(GrokCompiler compiler) {
+        this.compiler = compiler;
+    }
+
+    /**
+     * 注册一个 pattern
+     *
+     * @param pattern grok pattern，如 %{KAFKALOG}
+     * @param guard   廉价的前置判断，返回 false 时跳过该 pattern 的正则匹配
+     * @return
+     */
+    public GrokPatternMatcher addPattern(String pattern, Predicate<String> guard) {
+        candidates.add(new Candidate(compiler.compile(pattern, true), guard));
+        return this;
+    }
+
+    public GrokPatternMatcher addPattern(String pattern) {
+        return addPattern(pattern, message -> true);
+    }
+
+    /**
+     * 匹配日志，没有任何 pattern 匹配上时返回空 map
+     *
+     * @param message
+     * @return
+     */
+    public Map<String, Object> match(String message) {
+        if (message == null || candidates.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        Map<String, Object> result = tryMatch(lastHit, message);
+        if (result != null) {
+            return result;
+        }
+        for (int i = 0; i < candidates.size(); i++) {
+            if (i == lastHit) {
+                continue;
+            }
+            result = tryMatch(i, message);
+            if (result != null) {
+                lastHit = i;
+                return result;
+            }
+        }
+        return Collections.emptyMap();
+    }
+
+    private Map<String, Object> tryMatch(int index, String message) {
+        Candidate candidate = candidates.get(index);
+        if (!candidate.guard.test(message)) {
+            return null;
+        }
+        Match match = candidate.grok.match(message);
+        Map<String, Object> capture = match.capture();
+        return capture.isEmpty() ? null : capture;
+    }
+
+    /**
+     * 以 yyyy-MM-dd 开头的日志，如 2019-10-26 19:53:05,929 INFO ...
+     */
+    public static boolean startsWithIsoDate(String message) {
+        return message.length() > 10
+                && Character.isDigit(message.charAt(0))
+                && message.charAt(4) == '-'
+                && message.charAt(7) == '-';
+    }
+
+    /**
+     * 以 [yyyy-MM-dd 开头的日志，如 [2019-10-26 17:23:11,769] TRACE ...
+     */
+    public static boolean startsWithBracketIsoDate(String message) {
+        return message.length() > 11
+                && message.charAt(0) == '['
+                && message.charAt(5) == '-'
+                && message.charAt(8) == '-';
+    }
+
+    /**
+     * 默认的日志 pattern：kafka server.log 格式和普通的 kafka/log4j 格式
+     */
+    public static GrokPatternMatcher defaultLogMatcher() {
+        return new GrokPatternMatcher()
+                .addPattern("%{KAFKASERVERLOG}", GrokPatternMatcher::startsWithBracketIsoDate)
+                .addPattern("%{KAFKALOG}", GrokPatternMatcher::startsWithIsoDate);
+    }
+
+    private static class Candidate {
+        private final Grok grok;
+        private final Predicate<String> guard;
+
+        private Candidate(Grok grok, Predicate<String> guard) {
+            this.grok = grok;
+            this.guard = guard;
+        }
+    }
+}
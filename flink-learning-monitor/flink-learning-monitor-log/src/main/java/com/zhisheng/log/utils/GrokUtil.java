@@ -7,6 +7,7 @@ import io.krakens.grok.api.Match;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import static com.zhisheng.common.utils.DateUtil.YYYY_MM_DD_HH_MM_SS;
 
@@ -18,12 +19,38 @@ import static com.zhisheng.common.utils.DateUtil.YYYY_MM_DD_HH_MM_SS;
  */
 public class GrokUtil {
 
-    public static final GrokCompiler compiler = GrokCompiler.newInstance();
-    public static Grok grok = null;
+    public static final String PATTERNS_FILE = "/patterns/patterns";
+
+    public static final GrokCompiler compiler = newCompiler();
+
+    /**
+     * pattern -> 编译好的 Grok，避免每条日志都重新读取 patterns 文件和重新编译正则
+     */
+    private static final Map<String, Grok> GROK_CACHE = new ConcurrentHashMap<>();
+
+    /**
+     * 创建一个已经注册好 classpath 下 patterns 的 compiler
+     *
+     * @return
+     */
+    public static GrokCompiler newCompiler() {
+        GrokCompiler grokCompiler = GrokCompiler.newInstance();
+        grokCompiler.registerPatternFromClasspath(PATTERNS_FILE);
+        return grokCompiler;
+    }
+
+    /**
+     * 获取编译好的 Grok，同一个 pattern 只编译一次
+     *
+     * @param pattern
+     * @return
+     */
+    public static Grok getGrok(String pattern) {
+        return GROK_CACHE.computeIfAbsent(pattern, p -> compiler.compile(p, true));
+    }
 
     public static Map<String, Object> toMap(String pattern, String message) {
-        compiler.registerPatternFromClasspath("/patterns/patterns");
-        grok = compiler.compile(pattern);
+        Grok grok = getGrok(pattern);
         if (grok != null) {
             Match match = grok.match(message);
             return match.capture();
@@ -41,4 +68,4 @@ public class GrokUtil {
         System.out.println(messageMap.get("timestamp"));
         System.out.println(DateUtil.format(messageMap.get("timestamp").toString(), YYYY_MM_DD_HH_MM_SS));
     }
-}
\ No newline at end of file
+}
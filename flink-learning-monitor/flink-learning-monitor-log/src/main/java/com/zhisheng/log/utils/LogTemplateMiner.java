@@ -0,0 +1,188 @@
+package com.zhisheng.log.utils;
+
+import com.google.common.hash.Hashing;
+import com.zhisheng.log.model.LogTemplate;
+
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Desc: Drain 算法的日志模版提取
+ * 解析树固定两层：第一层是分词个数，第二层是第一个分词（含数字的分词视为变量），叶子节点是模版列表；
+ * 在叶子节点里找相似度最高的模版，超过阈值则合并（不同位置替换为 <*>），否则新建模版
+ * Created by zhisheng on 2019/10/29 下午8:10
+ * blog：http://www.54tianzhisheng.cn/
+ * 微信公众号：zhisheng
+ */
+public class LogTemplateMiner implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    public static final String WILDCARD = "<*>";
+
+    private final double similarityThreshold;
+
+    private final int maxTemplatesPerLeaf;
+
+    public LogTemplateMiner(double similarityThreshold, int maxTemplatesPerLeaf) {
+        this.similarityThreshold = similarityThreshold;
+        this.maxTemplatesPerLeaf = maxTemplatesPerLeaf;
+    }
+
+    public static String[] tokenize(String message) {
+        String trimmed = message.trim();
+        return trimmed.isEmpty() ? new String[0] : trimmed.split("\\s+");
+    }
+
+    /**
+     * 和 tokenize(message).length 相同，但不切分字符串，用于 keyBy
+     */
+    public static int tokenCount(String message) {
+        int count = 0;
+        boolean inToken = false;
+        for (int i = 0; i < message.length(); i++) {
+            char c = message.charAt(i);
+            boolean whitespace = c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+            if (!whitespace && !inToken) {
+                count++;
+            }
+            inToken = !whitespace;
+        }
+        return count;
+    }
+
+    /**
+     * 解析树中叶子节点的 key：分词个数 + 第一个分词
+     */
+    public static String leafKey(String[] tokens) {
+        if (tokens.length == 0) {
+            return "0";
+        }
+        return tokens.length + " " + (hasDigit(tokens[0]) ? WILDCARD : tokens[0]);
+    }
+
+    /**
+     * 在叶子节点的模版中匹配，匹配不到时新建模版，模版列表会被原地修改
+     *
+     * @param leaf   叶子节点的模版列表
+     * @param tokens 日志分词
+     * @return 匹配到的模版，templateChanged 表示模版列表是否发生变化（需要写回 state）
+     */
+    public Result mine(List<LogTemplate> leaf, String[] tokens) {
+        LogTemplate best = null;
+        double bestSimilarity = -1;
+        int bestWildcards = -1;
+        for (LogTemplate template : leaf) {
+            List<String> templateTokens = template.getTokens();
+            int same = 0;
+            int wildcards = 0;
+            for (int i = 0; i < tokens.length; i++) {
+                String token = templateTokens.get(i);
+                if (WILDCARD.equals(token)) {
+                    wildcards++;
+                } else if (token.equals(tokens[i])) {
+                    same++;
+                }
+            }
+            double similarity = tokens.length == 0 ? 1 : (double) same / tokens.length;
+            if (similarity > bestSimilarity || (similarity == bestSimilarity && wildcards > bestWildcards)) {
+                best = template;
+                bestSimilarity = similarity;
+                bestWildcards = wildcards;
+            }
+        }
+
+        //叶子节点模版数达到上限后，强制合并到最相似的模版，保证 state 有界
+        if (best != null && (bestSimilarity >= similarityThreshold || leaf.size() >= maxTemplatesPerLeaf)) {
+            return new Result(best, merge(best, tokens));
+        }
+
+        List<String> templateTokens = new ArrayList<>(tokens.length);
+        for (String token : tokens) {
+            templateTokens.add(hasDigit(token) ? WILDCARD : token);
+        }
+        LogTemplate template = new LogTemplate(templateId(templateTokens), templateTokens);
+        leaf.add(template);
+        return new Result(template, true);
+    }
+
+    /**
+     * 模版中为 <*> 位置上的分词
+     */
+    public static List<String> variables(LogTemplate template, String[] tokens) {
+        List<String> variables = new ArrayList<>();
+        List<String> templateTokens = template.getTokens();
+        for (int i = 0; i < tokens.length; i++) {
+            if (WILDCARD.equals(templateTokens.get(i))) {
+                variables.add(tokens[i]);
+            }
+        }
+        return variables;
+    }
+
+    public static String toTemplateString(LogTemplate template) {
+        return String.join(" ", template.getTokens());
+    }
+
+    /**
+     * 日志指纹：第一行（异常堆栈只取第一行）含数字的分词替换为 <*> 后的 hash，同一类日志的指纹相同
+     */
+    public static String fingerprint(String message) {
+        int lineEnd = message.indexOf('\n');
+        String[] tokens = tokenize(lineEnd < 0 ? message : message.substring(0, lineEnd));
+        for (int i = 0; i < tokens.length; i++) {
+            if (hasDigit(tokens[i])) {
+                tokens[i] = WILDCARD;
+            }
+        }
+        return Hashing.murmur3_128().hashString(String.join(" ", tokens), StandardCharsets.UTF_8)
+                .toString().substring(0, 16);
+    }
+
+    private static boolean merge(LogTemplate template, String[] tokens) {
+        boolean changed = false;
+        List<String> templateTokens = template.getTokens();
+        for (int i = 0; i < tokens.length; i++) {
+            String token = templateTokens.get(i);
+            if (!WILDCARD.equals(token) && !token.equals(tokens[i])) {
+                templateTokens.set(i, WILDCARD);
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    private static String templateId(List<String> templateTokens) {
+        return Hashing.murmur3_128().hashString(String.join(" ", templateTokens), StandardCharsets.UTF_8)
+                .toString().substring(0, 16);
+    }
+
+    private static boolean hasDigit(String token) {
+        for (int i = 0; i < token.length(); i++) {
+            if (Character.isDigit(token.charAt(i))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public static class Result {
+        private final LogTemplate template;
+        private final boolean templateChanged;
+
+        public Result(LogTemplate template, boolean templateChanged) {
+            this.template = template;
+            this.templateChanged = templateChanged;
+        }
+
+        public LogTemplate getTemplate() {
+            return template;
+        }
+
+        public boolean isTemplateChanged() {
+            return templateChanged;
+        }
+    }
+}
@@ -0,0 +1,55 @@
+import com.zhisheng.log.model.FilebeatLogEvent;
+import com.zhisheng.log.model.OriginalLogEvent;
+import com.zhisheng.log.schema.FilebeatLogEventSchema;
+import com.zhisheng.log.schema.OriginalLogEventSchema;
+
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Desc: Filebeat 日志反序列化性能对比（ObjectMapper 全量反序列化 vs 按需流式解析）
+ * 可以传入从 Kafka 导出的日志文件（一行一条 Filebeat json）
+ * Created by zhisheng on 2019/10/27 下午4:40
+ * blog：http://www.54tianzhisheng.cn/
+ * 微信公众号：zhisheng
+ */
+public class FilebeatLogEventSchemaBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        String path = args.length > 0 ? args[0]
+                : Paths.get(FilebeatLogEventSchemaBenchmark.class.getResource("/filebeat-log-samples.json").toURI()).toString();
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 1_000_000;
+        List<byte[]> records = Files.readAllLines(Paths.get(path)).stream()
+                .filter(line -> !line.trim().isEmpty())
+                .map(String::getBytes)
+                .collect(Collectors.toList());
+
+        OriginalLogEventSchema originalSchema = new OriginalLogEventSchema();
+        FilebeatLogEventSchema filebeatSchema = new FilebeatLogEventSchema();
+        for (int round = 0; round < 3; round++) {
+            long start = System.nanoTime();
+            long chars = 0;
+            for (int i = 0; i < rounds; i++) {
+                OriginalLogEvent event = originalSchema.deserialize(records.get(i % records.size()));
+                chars += event.getMessage().length() + event.getSource().length()
+                        + event.getHost().get("name").length() + event.getMetadata().get("topic").length();
+            }
+            print("OriginalLogEventSchema", rounds, System.nanoTime() - start, chars);
+
+            start = System.nanoTime();
+            chars = 0;
+            for (int i = 0; i < rounds; i++) {
+                FilebeatLogEvent event = filebeatSchema.deserialize(records.get(i % records.size()));
+                chars += event.getMessage().length() + event.getSource().length()
+                        + event.getHostName().length() + event.getTopic().length();
+            }
+            print("FilebeatLogEventSchema", rounds, System.nanoTime() - start, chars);
+        }
+    }
+
+    private static void print(String name, int rounds, long costNanos, long chars) {
+        System.out.printf("%-25s %10d records/s (%d chars)%n", name, (long) (rounds * 1_000_000_000D / costNanos), chars);
+    }
+}
@@ -0,0 +1,85 @@
+import com.zhisheng.log.schema.FilebeatLogEventSchema;
+import com.zhisheng.log.utils.GrokPatternMatcher;
+import com.zhisheng.log.utils.GrokUtil;
+import io.krakens.grok.api.GrokCompiler;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Desc: grok 解析性能对比
+ * 默认使用 src/test/resources/filebeat-log-samples.json 里的 Filebeat 日志样本，
+ * 也可以传入从 Kafka 导出的日志文件（一行一条 Filebeat json），如：
+ * kafka-console-consumer.sh --topic zhisheng_log --max-messages 100000 > /tmp/zhisheng_log.json
+ * Created by zhisheng on 2019/10/27 下午3:10
+ * blog：http://www.54tianzhisheng.cn/
+ * 微信公众号：zhisheng
+ */
+public class GrokBenchmark {
+
+    public static final int DEFAULT_ROUNDS = 200_000;
+
+    public static void main(String[] args) throws Exception {
+        List<String> messages = loadMessages(args.length > 0 ? args[0] : null);
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_ROUNDS;
+        System.out.println("samples: " + messages.size() + ", rounds: " + rounds);
+
+        //每条日志都注册 patterns 文件并编译（优化前的做法），耗时太久，只跑 1/100
+        run("register + compile per message", messages, rounds / 100, message -> {
+            GrokCompiler compiler = GrokCompiler.newInstance();
+            compiler.registerPatternFromClasspath(GrokUtil.PATTERNS_FILE);
+            return compiler.compile(message.startsWith("[") ? "%{KAFKASERVERLOG}" : "%{KAFKALOG}").match(message).capture();
+        });
+
+        run("GrokUtil cached pattern", messages, rounds,
+                message -> GrokUtil.toMap(message.startsWith("[") ? "%{KAFKASERVERLOG}" : "%{KAFKALOG}", message));
+
+        GrokPatternMatcher matcher = GrokPatternMatcher.defaultLogMatcher();
+        run("GrokPatternMatcher", messages, rounds, matcher::match);
+    }
+
+    private static void run(String name, List<String> messages, int rounds, Parser parser) {
+        //warm up
+        for (int i = 0; i < Math.min(rounds, 10_000); i++) {
+            parser.parse(messages.get(i % messages.size()));
+        }
+        int matched = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            if (!parser.parse(messages.get(i % messages.size())).isEmpty()) {
+                matched++;
+            }
+        }
+        long costNanos = System.nanoTime() - start;
+        System.out.printf("%-35s %10d lines/s, matched %d/%d%n",
+                name, (long) (rounds * 1_000_000_000D / costNanos), matched, rounds);
+    }
+
+    private static List<String> loadMessages(String path) throws Exception {
+        FilebeatLogEventSchema schema = new FilebeatLogEventSchema();
+        List<String> messages = new ArrayList<>();
+        try (InputStream in = path == null
+                ? GrokBenchmark.class.getResourceAsStream("/filebeat-log-samples.json")
+                : new FileInputStream(path);
+             BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.trim().isEmpty()) {
+                    continue;
+                }
+                messages.add(schema.deserialize(line.getBytes(StandardCharsets.UTF_8)).getMessage());
+            }
+        }
+        return messages;
+    }
+
+    private interface Parser {
+        Map<String, Object> parse(String message);
+    }
+}
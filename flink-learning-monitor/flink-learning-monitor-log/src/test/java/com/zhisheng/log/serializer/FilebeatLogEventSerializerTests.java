@@ -0,0 +1,66 @@
+package com.zhisheng.log.serializer;
+
+import com.zhisheng.log.model.FilebeatLogEvent;
+import com.zhisheng.log.utils.FilebeatLogEventParser;
+import org.apache.flink.api.common.typeinfo.TypeInformation;
+import org.apache.flink.core.memory.DataInputDeserializer;
+import org.apache.flink.core.memory.DataOutputSerializer;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+public class FilebeatLogEventSerializerTests {
+
+    private static final String JSON = "{\"@metadata\":{\"beat\":\"filebeat\",\"topic\":\"zhisheng_log\"},"
+            + "\"host\":{\"name\":\"VM_0_2_centos\"},\"offset\":12345,"
+            + "\"message\":\"user \\\"zhisheng\\\" \\u767b\\u5f55\\nat com.zhisheng.Main\"}";
+
+    @Test
+    public void testTypeInfo() {
+        Assert.assertTrue(TypeInformation.of(FilebeatLogEvent.class) instanceof SerializerTypeInfo);
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        FilebeatLogEvent event = FilebeatLogEventParser.parse(JSON.getBytes(StandardCharsets.UTF_8));
+        DataOutputSerializer out = new DataOutputSerializer(256);
+        FilebeatLogEventSerializer.INSTANCE.serialize(event, out);
+        //只写四个字段，其余字段不会被传输
+        Assert.assertTrue(out.length() < JSON.length());
+
+        FilebeatLogEvent copy = FilebeatLogEventSerializer.INSTANCE.deserialize(new DataInputDeserializer(out.getCopyOfBuffer()));
+        assertSameFields(event, copy);
+
+        DataOutputSerializer copied = new DataOutputSerializer(256);
+        FilebeatLogEventSerializer.INSTANCE.copy(new DataInputDeserializer(out.getCopyOfBuffer()), copied);
+        Assert.assertArrayEquals(out.getCopyOfBuffer(), copied.getCopyOfBuffer());
+    }
+
+    @Test
+    public void testCopySharesRawBytes() throws IOException {
+        FilebeatLogEvent event = FilebeatLogEventParser.parse(JSON.getBytes(StandardCharsets.UTF_8));
+        FilebeatLogEvent copy = FilebeatLogEventSerializer.INSTANCE.copy(event);
+        Assert.assertNotSame(event, copy);
+        Assert.assertSame(event.getRaw(), copy.getRaw());
+        assertSameFields(event, copy);
+    }
+
+    @Test
+    public void testDecodedFields() throws IOException {
+        FilebeatLogEvent event = FilebeatLogEvent.of("日志\n第二行", "/var/log/app.log", null, "zhisheng_log");
+        DataOutputSerializer out = new DataOutputSerializer(256);
+        FilebeatLogEventSerializer.INSTANCE.serialize(event, out);
+        FilebeatLogEvent copy = FilebeatLogEventSerializer.INSTANCE.deserialize(new DataInputDeserializer(out.getCopyOfBuffer()));
+        assertSameFields(event, copy);
+        Assert.assertNull(copy.getHostName());
+    }
+
+    private static void assertSameFields(FilebeatLogEvent expected, FilebeatLogEvent actual) {
+        Assert.assertEquals(expected.getMessage(), actual.getMessage());
+        Assert.assertEquals(expected.getSource(), actual.getSource());
+        Assert.assertEquals(expected.getHostName(), actual.getHostName());
+        Assert.assertEquals(expected.getTopic(), actual.getTopic());
+    }
+}
@@ -0,0 +1,107 @@
+package com.zhisheng.log.utils;
+
+import com.zhisheng.log.model.FilebeatLogEvent;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+public class FilebeatLogEventParserTests {
+
+    private static FilebeatLogEvent parse(String json) throws IOException {
+        return FilebeatLogEventParser.parse(json.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testParseFields() throws IOException {
+        FilebeatLogEvent event = parse("{\"@timestamp\":\"2019-10-26T09:23:16.848Z\","
+                + "\"@metadata\":{\"beat\":\"filebeat\",\"type\":\"doc\",\"topic\":\"zhisheng_log\"},"
+                + "\"host\":{\"name\":\"VM_0_2_centos\"},\"source\":\"/var/logs/server.log\","
+                + "\"message\":\"2019-10-26 17:23:12 INFO started\"}");
+        Assert.assertEquals("2019-10-26 17:23:12 INFO started", event.getMessage());
+        Assert.assertEquals("/var/logs/server.log", event.getSource());
+        Assert.assertEquals("VM_0_2_centos", event.getHostName());
+        Assert.assertEquals("zhisheng_log", event.getTopic());
+    }
+
+    @Test
+    public void testEscapedQuotes() throws IOException {
+        FilebeatLogEvent event = parse("{\"message\":\"user \\\"zhisheng\\\" login, path C:\\\\logs\\\\\","
+                + "\"source\":\"/var/log/app.log\"}");
+        Assert.assertEquals("user \"zhisheng\" login, path C:\\logs\\", event.getMessage());
+        Assert.assertEquals("/var/log/app.log", event.getSource());
+    }
+
+    @Test
+    public void testEscapedControlCharacters() throws IOException {
+        FilebeatLogEvent event = parse("{\"message\":\"line1\\nline2\\tcol\\r\\/end\"}");
+        Assert.assertEquals("line1\nline2\tcol\r/end", event.getMessage());
+    }
+
+    @Test
+    public void testUnicodeEscapes() throws IOException {
+        FilebeatLogEvent event = parse("{\"message\":\"\\u65e5\\u5fd7 error \\ud83d\\ude00 \\u0041\","
+                + "\"host\":{\"name\":\"\\u4e3b\\u673a\"}}");
+        Assert.assertEquals("日志 error \uD83D\uDE00 A", event.getMessage());
+        Assert.assertEquals("主机", event.getHostName());
+    }
+
+    @Test
+    public void testRawUtf8() throws IOException {
+        FilebeatLogEvent event = parse("{\"message\":\"日志 \\\"报错\\\" 了\",\"source\":\"/var/log/应用.log\"}");
+        Assert.assertEquals("日志 \"报错\" 了", event.getMessage());
+        Assert.assertEquals("/var/log/应用.log", event.getSource());
+    }
+
+    @Test
+    public void testNestedObjects() throws IOException {
+        //嵌套对象里同名的 message、source、name、topic 都不能覆盖外层的字段
+        FilebeatLogEvent event = parse("{\"log\":{\"message\":\"inner\",\"file\":{\"path\":\"/inner.log\"}},"
+                + "\"host\":{\"os\":{\"name\":\"CentOS\",\"family\":\"redhat\"},\"name\":\"VM_0_2_centos\","
+                + "\"ip\":[\"10.0.0.1\",\"fe80::1\"]},"
+                + "\"fields\":{\"source\":\"inner\",\"tags\":[{\"topic\":\"inner\"},[1,2,{\"a\":\"}]\"}]]},"
+                + "\"@metadata\":{\"beat\":{\"topic\":\"inner\"},\"topic\":\"zhisheng_log\"},"
+                + "\"offset\":12345,\"prospector\":{\"type\":\"log\"},\"ok\":true,\"empty\":{},\"nothing\":null,"
+                + "\"source\":\"/var/log/app.log\",\"message\":\"outer\"}");
+        Assert.assertEquals("outer", event.getMessage());
+        Assert.assertEquals("/var/log/app.log", event.getSource());
+        Assert.assertEquals("VM_0_2_centos", event.getHostName());
+        Assert.assertEquals("zhisheng_log", event.getTopic());
+    }
+
+    @Test
+    public void testMissingFields() throws IOException {
+        FilebeatLogEvent event = parse("{\"message\":\"only message\"}");
+        Assert.assertEquals("only message", event.getMessage());
+        Assert.assertNull(event.getSource());
+        Assert.assertNull(event.getHostName());
+        Assert.assertNull(event.getTopic());
+
+        event = parse(" { } ");
+        Assert.assertNull(event.getMessage());
+
+        //host 不是对象（老版本 filebeat 的格式）、message 不是字符串时当作不存在
+        event = parse("{\"host\":\"VM_0_2_centos\",\"message\":123,\"@metadata\":{}}");
+        Assert.assertNull(event.getHostName());
+        Assert.assertNull(event.getMessage());
+        Assert.assertNull(event.getTopic());
+    }
+
+    @Test
+    public void testWhitespace() throws IOException {
+        FilebeatLogEvent event = parse("{\n  \"host\" : { \"name\" : \"h\" } ,\n  \"message\" : \"m\"\n}\n");
+        Assert.assertEquals("m", event.getMessage());
+        Assert.assertEquals("h", event.getHostName());
+    }
+
+    @Test(expected = IOException.class)
+    public void testUnterminatedString() throws IOException {
+        parse("{\"message\":\"no end}");
+    }
+
+    @Test(expected = IOException.class)
+    public void testNotAnObject() throws IOException {
+        parse("[\"message\"]");
+    }
+}
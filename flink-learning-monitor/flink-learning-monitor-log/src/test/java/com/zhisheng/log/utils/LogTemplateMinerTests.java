@@ -0,0 +1,111 @@
+package com.zhisheng.log.utils;
+
+import com.zhisheng.common.model.LogEvent;
+import com.zhisheng.log.function.LogTemplateMiningFunction;
+import com.zhisheng.log.model.LogTemplate;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+public class LogTemplateMinerTests {
+
+    private static final String[] SAMPLE = {
+            "[2019-10-26 17:23:12,101] INFO [GroupMetadataManager brokerId=0] Removed 0 expired offsets in 0 milliseconds. (kafka.coordinator.group.GroupMetadataManager)",
+            "[2019-10-26 17:33:12,101] INFO [GroupMetadataManager brokerId=0] Removed 3 expired offsets in 1 milliseconds. (kafka.coordinator.group.GroupMetadataManager)",
+            "[2019-10-26 17:23:11,769] TRACE [Controller id=0] Leader imbalance ratio for broker 0 is 0.0 (kafka.controller.KafkaController)",
+            "[2019-10-26 17:28:11,769] TRACE [Controller id=0] Leader imbalance ratio for broker 1 is 0.5 (kafka.controller.KafkaController)",
+            "Connection to node 1 could not be established. Broker may not be available.",
+            "Connection to node 2 could not be established. Broker may not be available.",
+            "Connection to node 3 was closed by peer.",
+            "Session expired for user zhisheng",
+            "Session expired for user admin",
+    };
+
+    @Test
+    public void testMineSample() {
+        LogTemplateMiner miner = new LogTemplateMiner(0.5, 100);
+        //和 LogTemplateMiningFunction 一样，按叶子节点 key 分组保存模版
+        Map<String, List<LogTemplate>> tree = new LinkedHashMap<>();
+        List<String> templateIds = new ArrayList<>();
+        for (String message : SAMPLE) {
+            String[] tokens = LogTemplateMiner.tokenize(message);
+            List<LogTemplate> leaf = tree.computeIfAbsent(LogTemplateMiner.leafKey(tokens), key -> new ArrayList<>());
+            templateIds.add(miner.mine(leaf, tokens).getTemplate().getId());
+        }
+
+        //含数字的分词（日期、时间、brokerId=0]）都是变量
+        Set<String> templates = new TreeSet<>();
+        tree.values().forEach(leaf -> leaf.forEach(template -> templates.add(LogTemplateMiner.toTemplateString(template))));
+        Assert.assertEquals(new TreeSet<>(Arrays.asList(
+                "<*> <*> INFO [GroupMetadataManager <*> Removed <*> expired offsets in <*> milliseconds. (kafka.coordinator.group.GroupMetadataManager)",
+                "<*> <*> TRACE [Controller <*> Leader imbalance ratio for broker <*> is <*> (kafka.controller.KafkaController)",
+                "Connection to node <*> could not be established. Broker may not be available.",
+                "Connection to node <*> was closed by peer.",
+                "Session expired for user <*>")), templates);
+
+        //同一类日志的模版 id 不变，不同类日志的模版 id 不同
+        Assert.assertEquals(templateIds.get(0), templateIds.get(1));
+        Assert.assertEquals(templateIds.get(2), templateIds.get(3));
+        Assert.assertEquals(templateIds.get(4), templateIds.get(5));
+        Assert.assertEquals(templateIds.get(7), templateIds.get(8));
+        Assert.assertEquals(5, new TreeSet<>(templateIds).size());
+    }
+
+    @Test
+    public void testVariables() {
+        LogTemplateMiner miner = new LogTemplateMiner(0.5, 100);
+        List<LogTemplate> leaf = new ArrayList<>();
+        miner.mine(leaf, LogTemplateMiner.tokenize(SAMPLE[7]));
+        String[] tokens = LogTemplateMiner.tokenize(SAMPLE[8]);
+        LogTemplate template = miner.mine(leaf, tokens).getTemplate();
+        Assert.assertEquals(Collections.singletonList("admin"), LogTemplateMiner.variables(template, tokens));
+    }
+
+    @Test
+    public void testMaxTemplatesPerLeaf() {
+        LogTemplateMiner miner = new LogTemplateMiner(0.9, 2);
+        List<LogTemplate> leaf = new ArrayList<>();
+        miner.mine(leaf, LogTemplateMiner.tokenize("start job a b"));
+        miner.mine(leaf, LogTemplateMiner.tokenize("start task c d"));
+        LogTemplate template = miner.mine(leaf, LogTemplateMiner.tokenize("start job e f")).getTemplate();
+        Assert.assertEquals(2, leaf.size());
+        Assert.assertEquals("start job <*> <*>", LogTemplateMiner.toTemplateString(template));
+    }
+
+    @Test
+    public void testTokenCount() {
+        for (String message : new String[]{"", "   ", "a", " a  b\tc\n", "Caused by: x\n\tat a.B(B.java:1)"}) {
+            Assert.assertEquals(LogTemplateMiner.tokenize(message).length, LogTemplateMiner.tokenCount(message));
+        }
+        for (String message : SAMPLE) {
+            Assert.assertEquals(LogTemplateMiner.tokenize(message).length, LogTemplateMiner.tokenCount(message));
+        }
+    }
+
+    @Test
+    public void testBucketKey() {
+        //同一个 source 的日志按分词个数拆到不同的 key，同一个模版的日志在同一个 key
+        Assert.assertEquals(bucketKey(SAMPLE[0]), bucketKey(SAMPLE[1]));
+        Assert.assertEquals(bucketKey(SAMPLE[4]), bucketKey(SAMPLE[5]));
+        Assert.assertNotEquals(bucketKey(SAMPLE[0]), bucketKey(SAMPLE[2]));
+        Assert.assertNotEquals(bucketKey(SAMPLE[4]), bucketKey(SAMPLE[6]));
+    }
+
+    private static String bucketKey(String message) {
+        LogEvent logEvent = new LogEvent();
+        logEvent.setMessage(message);
+        Map<String, String> tags = new HashMap<>();
+        tags.put("source", "/var/log/app.log");
+        logEvent.setTags(tags);
+        return LogTemplateMiningFunction.bucketKey(logEvent);
+    }
+}
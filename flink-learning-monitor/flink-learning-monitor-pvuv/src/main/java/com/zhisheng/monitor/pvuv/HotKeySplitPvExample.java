@@ -0,0 +1,320 @@
+package com.zhisheng.monitor.pvuv;
+
+
+import com.zhisheng.common.utils.GsonUtil;
+import com.zhisheng.monitor.pvuv.model.HotKeyReport;
+import com.zhisheng.monitor.pvuv.model.UserVisitWebEvent;
+import com.zhisheng.monitor.pvuv.sink.RedisBatchSink;
+import com.zhisheng.monitor.pvuv.utils.HotKeyUtil;
+import com.zhisheng.monitor.pvuv.utils.SpaceSavingSketch;
+import com.zhisheng.monitor.pvuv.utils.UvExampleUtil;
+import org.apache.flink.api.common.functions.RichFlatMapFunction;
+import org.apache.flink.api.common.serialization.SimpleStringSchema;
+import org.apache.flink.api.common.state.MapStateDescriptor;
+import org.apache.flink.api.common.state.ReadOnlyBroadcastState;
+import org.apache.flink.api.common.state.StateTtlConfig;
+import org.apache.flink.api.common.state.ValueState;
+import org.apache.flink.api.common.state.ValueStateDescriptor;
+import org.apache.flink.api.common.time.Time;
+import org.apache.flink.api.common.typeinfo.PrimitiveArrayTypeInfo;
+import org.apache.flink.api.common.typeinfo.Types;
+import org.apache.flink.api.java.functions.KeySelector;
+import org.apache.flink.api.java.tuple.Tuple2;
+import org.apache.flink.configuration.Configuration;
+import org.apache.flink.metrics.Gauge;
+import org.apache.flink.streaming.api.CheckpointingMode;
+import org.apache.flink.streaming.api.datastream.BroadcastStream;
+import org.apache.flink.streaming.api.datastream.DataStream;
+import org.apache.flink.streaming.api.environment.CheckpointConfig;
+import org.apache.flink.streaming.api.environment.StreamExecutionEnvironment;
+import org.apache.flink.streaming.api.functions.KeyedProcessFunction;
+import org.apache.flink.streaming.api.functions.co.BroadcastProcessFunction;
+import org.apache.flink.streaming.connectors.kafka.FlinkKafkaConsumer;
+import org.apache.flink.streaming.connectors.kafka.FlinkKafkaConsumerBase;
+import org.apache.flink.streaming.connectors.redis.common.config.FlinkJedisPoolConfig;
+import org.apache.flink.util.Collector;
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author fanrui
+ * @date 2019-11-21 14:32:08
+ * @desc 自动发现热点 key 并两阶段聚合统计各页面的 PV，少数热门页面不会再把一个 subtask 压满：
+ * 1、HotKeyReporter 在每个 subtask 上用 SpaceSavingSketch 统计一个周期内的热点 key，周期结束时上报（HotKeyReport）
+ * 2、HotKeyAggregator（并行度为 1）合并所有 subtask 的上报，用 HotKeyUtil 选出热点 key 和每个 key 拆成的子 key 个数，
+ * 再为每个热点 key 挑选落在不同 subtask 上的后缀，变化时广播出去
+ * 3、HotKeySplitFunction 把广播的热点 key 存在 broadcast state 里，热点 key 轮流加上挑选好的后缀，其他 key 后缀固定为 0
+ * 4、第一阶段按 (key, 后缀) keyBy，SaltedPvFunction 每隔 interval 把这段时间内的 PV 增量发往下游
+ * 5、第二阶段按 key keyBy，PvMergeFunction 把增量累加成 PV
+ * 每条数据只会计入一个 (key, 后缀) 的增量，第二阶段只做加法，所以热点 key 集合怎么变化、子 key 个数怎么变化都不影响结果；
+ * 增量、PV、热点 key 集合都在状态里，从 checkpoint 恢复或者改并行度之后结果仍然准确
+ */
+public class HotKeySplitPvExample {
+
+    // 热点 key -> 子 key 的后缀
+    private static final MapStateDescriptor<String, int[]> HOT_KEYS =
+            new MapStateDescriptor<>("hotKeys", Types.STRING, PrimitiveArrayTypeInfo.INT_PRIMITIVE_ARRAY_TYPE_INFO);
+
+    public static void main(String[] args) throws Exception {
+
+        final StreamExecutionEnvironment env = StreamExecutionEnvironment.getExecutionEnvironment();
+        env.enableCheckpointing(TimeUnit.MINUTES.toMillis(1));
+        env.setParallelism(4);
+        // 挑选后缀时要用到 key group 个数，这里固定下来
+        env.setMaxParallelism(128);
+
+        CheckpointConfig checkpointConf = env.getCheckpointConfig();
+        checkpointConf.setCheckpointingMode(CheckpointingMode.EXACTLY_ONCE);
+        checkpointConf.enableExternalizedCheckpoints(CheckpointConfig.ExternalizedCheckpointCleanup.RETAIN_ON_CANCELLATION);
+
+        Properties props = new Properties();
+        props.put(ConsumerConfig.BOOTSTRAP_SERVERS_CONFIG, UvExampleUtil.broker_list);
+        props.put(ConsumerConfig.GROUP_ID_CONFIG, "app-pv-stat");
+
+        FlinkKafkaConsumerBase<String> kafkaConsumer = new FlinkKafkaConsumer<>(
+                UvExampleUtil.topic, new SimpleStringSchema(), props)
+                .setStartFromGroupOffsets();
+
+        FlinkJedisPoolConfig conf = new FlinkJedisPoolConfig
+                .Builder().setHost("192.168.30.244").build();
+
+        DataStream<UserVisitWebEvent> events = env.addSource(kafkaConsumer)
+                // 反序列化 JSON
+                .map(string -> GsonUtil.fromJson(string, UserVisitWebEvent.class));
+
+        // 每个 subtask 每 5 秒上报一次占比超过 2.5% 的 key，占比超过 5% 成为热点 key，一个 key 最多拆成 parallelism 个子 key
+        BroadcastStream<Map<String, int[]>> hotKeys = events
+                .flatMap(new HotKeyReporter(128, 0.025, TimeUnit.SECONDS.toMillis(5)))
+                .flatMap(new HotKeyAggregator(0.05, env.getMaxParallelism(), env.getParallelism(), env.getParallelism(),
+                        TimeUnit.SECONDS.toMillis(15)))
+                .returns(Types.MAP(Types.STRING, PrimitiveArrayTypeInfo.INT_PRIMITIVE_ARRAY_TYPE_INFO))
+                .setParallelism(1)
+                .broadcast(HOT_KEYS);
+
+        events.connect(hotKeys)
+                .process(new HotKeySplitFunction())
+                // 第一阶段：热点 key 分散到多个子 key 上
+                .keyBy((KeySelector<Tuple2<String, Integer>, Tuple2<String, Integer>>) saltedKey -> saltedKey,
+                        Types.TUPLE(Types.STRING, Types.INT))
+                .process(new SaltedPvFunction(TimeUnit.SECONDS.toMillis(1)))
+                // 第二阶段：合并同一个 key 的增量
+                .keyBy((KeySelector<Tuple2<String, Long>, String>) delta -> delta.f0)
+                .process(new PvMergeFunction())
+                .addSink(new RedisBatchSink<>(conf, new MapStateUvExample.RedisSetSinkMapper()));
+
+        env.execute("Hot Key Split PV Stat");
+    }
+
+    // 生成 Redis key，格式为 日期_pageId，如: 20191026_0
+    private static String redisKey(UserVisitWebEvent event) {
+        return event.getDate() + "_" + event.getPageId();
+    }
+
+    // 在本地统计热点 key，每隔 interval 上报一次并重新统计，所以上报的是最近一个周期的流量分布
+    public static class HotKeyReporter extends RichFlatMapFunction<UserVisitWebEvent, HotKeyReport> {
+
+        private final int capacity;
+        private final double minShare;
+        private final long interval;
+
+        private transient SpaceSavingSketch<String> sketch;
+        private transient long nextReportTime;
+
+        /**
+         * @param capacity sketch 的计数器个数，占比超过 1 / capacity 的 key 一定能统计到
+         * @param minShare 本地占比超过多少的 key 才上报
+         * @param interval 上报的间隔（ms）
+         */
+        public HotKeyReporter(int capacity, double minShare, long interval) {
+            if (interval <= 0) {
+                throw new IllegalArgumentException("interval must be positive, but is " + interval);
+            }
+            this.capacity = capacity;
+            this.minShare = minShare;
+            this.interval = interval;
+        }
+
+        @Override
+        public void open(Configuration parameters) throws Exception {
+            super.open(parameters);
+            sketch = new SpaceSavingSketch<>(capacity);
+            nextReportTime = System.currentTimeMillis() + interval;
+        }
+
+        @Override
+        public void flatMap(UserVisitWebEvent event, Collector<HotKeyReport> out) {
+            sketch.add(redisKey(event));
+            long now = System.currentTimeMillis();
+            if (now >= nextReportTime) {
+                long total = sketch.getTotal();
+                out.collect(new HotKeyReport(getRuntimeContext().getIndexOfThisSubtask(), now, total,
+                        sketch.heavyHitters((long) Math.ceil(total * minShare))));
+                sketch.clear();
+                nextReportTime = now + interval;
+            }
+        }
+    }
+
+    // 合并各 subtask 最近一次的上报，热点 key 集合变化时输出新的集合；
+    // 上报不存状态，重启之后第一次合并的结果一定会输出，覆盖掉 broadcast state 里恢复的旧集合
+    public static class HotKeyAggregator extends RichFlatMapFunction<HotKeyReport, Map<String, int[]>> {
+
+        private final double threshold;
+        private final int maxParallelism;
+        private final int parallelism;
+        private final int maxSalts;
+        private final long expireTime;
+
+        private transient Map<Integer, HotKeyReport> reports;
+        private transient Map<String, Integer> hotKeys;
+
+        /**
+         * @param threshold      全局占比超过多少的 key 是热点 key
+         * @param maxParallelism 第一阶段聚合的最大并行度
+         * @param parallelism    第一阶段聚合的并行度
+         * @param maxSalts       一个 key 最多拆成几个子 key
+         * @param expireTime     一个 subtask 多久（ms）没有上报就不再使用它之前的上报，比如这个 subtask 上已经没有数据了
+         */
+        public HotKeyAggregator(double threshold, int maxParallelism, int parallelism, int maxSalts, long expireTime) {
+            this.threshold = threshold;
+            this.maxParallelism = maxParallelism;
+            this.parallelism = parallelism;
+            this.maxSalts = maxSalts;
+            this.expireTime = expireTime;
+        }
+
+        @Override
+        public void open(Configuration parameters) throws Exception {
+            super.open(parameters);
+            reports = new HashMap<>();
+            getRuntimeContext().getMetricGroup().gauge("hotKeys", (Gauge<Integer>) () -> hotKeys == null ? 0 : hotKeys.size());
+        }
+
+        @Override
+        public void flatMap(HotKeyReport report, Collector<Map<String, int[]>> out) {
+            reports.put(report.getSubtask(), report);
+
+            long total = 0;
+            Map<String, Long> counts = new HashMap<>();
+            Iterator<HotKeyReport> iterator = reports.values().iterator();
+            while (iterator.hasNext()) {
+                HotKeyReport current = iterator.next();
+                if (current.getTimestamp() < report.getTimestamp() - expireTime) {
+                    iterator.remove();
+                    continue;
+                }
+                total += current.getTotal();
+                current.getCounts().forEach((key, count) -> counts.merge(key, count, Long::sum));
+            }
+
+            Map<String, Integer> selected = HotKeyUtil.selectHotKeys(counts, total,
+                    hotKeys == null ? Collections.emptyMap() : hotKeys, threshold, parallelism, maxSalts);
+            if (!selected.equals(hotKeys)) {
+                hotKeys = selected;
+                Map<String, int[]> salts = new HashMap<>();
+                selected.forEach((key, count) -> salts.put(key, HotKeyUtil.distinctSalts(key, count, maxParallelism, parallelism)));
+                out.collect(salts);
+            }
+        }
+    }
+
+    // 输出 (key, 后缀)，热点 key 的数据轮流分到各个后缀上
+    public static class HotKeySplitFunction
+            extends BroadcastProcessFunction<UserVisitWebEvent, Map<String, int[]>, Tuple2<String, Integer>> {
+
+        private transient int next;
+
+        @Override
+        public void processElement(UserVisitWebEvent event, ReadOnlyContext ctx, Collector<Tuple2<String, Integer>> out) throws Exception {
+            String key = redisKey(event);
+            ReadOnlyBroadcastState<String, int[]> hotKeys = ctx.getBroadcastState(HOT_KEYS);
+            int[] salts = hotKeys.get(key);
+            if (salts == null) {
+                out.collect(Tuple2.of(key, 0));
+            } else {
+                out.collect(Tuple2.of(key, salts[(next++ & Integer.MAX_VALUE) % salts.length]));
+            }
+        }
+
+        @Override
+        public void processBroadcastElement(Map<String, int[]> hotKeys, Context ctx, Collector<Tuple2<String, Integer>> out) throws Exception {
+            // 每次广播的都是完整的热点 key 集合，不再是热点的 key 要删掉
+            ctx.getBroadcastState(HOT_KEYS).clear();
+            ctx.getBroadcastState(HOT_KEYS).putAll(hotKeys);
+        }
+    }
+
+    // 第一阶段：统计一个 (key, 后缀) 在这个周期内的 PV 增量，周期结束时输出 (key, 增量) 并清空
+    public static class SaltedPvFunction
+            extends KeyedProcessFunction<Tuple2<String, Integer>, Tuple2<String, Integer>, Tuple2<String, Long>> {
+
+        private final long interval;
+
+        private transient ValueState<Long> deltaState;
+
+        public SaltedPvFunction(long interval) {
+            if (interval <= 0) {
+                throw new IllegalArgumentException("interval must be positive, but is " + interval);
+            }
+            this.interval = interval;
+        }
+
+        @Override
+        public void open(Configuration parameters) throws Exception {
+            super.open(parameters);
+            deltaState = getRuntimeContext().getState(new ValueStateDescriptor<>("saltedPvDelta", Types.LONG));
+        }
+
+        @Override
+        public void processElement(Tuple2<String, Integer> saltedKey, Context ctx, Collector<Tuple2<String, Long>> out) throws Exception {
+            Long delta = deltaState.value();
+            if (delta == null) {
+                // 定时器对齐到 interval 的整数倍，同一时刻的定时器会合并
+                long now = ctx.timerService().currentProcessingTime();
+                ctx.timerService().registerProcessingTimeTimer((now / interval + 1) * interval);
+                delta = 0L;
+            }
+            deltaState.update(delta + 1);
+        }
+
+        @Override
+        public void onTimer(long timestamp, OnTimerContext ctx, Collector<Tuple2<String, Long>> out) throws Exception {
+            Long delta = deltaState.value();
+            if (delta != null) {
+                out.collect(Tuple2.of(ctx.getCurrentKey().f0, delta));
+                deltaState.clear();
+            }
+        }
+    }
+
+    // 第二阶段：把各个子 key 的增量累加成 PV，每次累加之后输出当前的 PV
+    public static class PvMergeFunction extends KeyedProcessFunction<String, Tuple2<String, Long>, Tuple2<String, Long>> {
+
+        private transient ValueState<Long> pvState;
+
+        @Override
+        public void open(Configuration parameters) throws Exception {
+            super.open(parameters);
+            ValueStateDescriptor<Long> descriptor = new ValueStateDescriptor<>("pvState", Types.LONG);
+            // key 里带着日期，两天之后就不会再有数据了
+            descriptor.enableTimeToLive(StateTtlConfig.newBuilder(Time.days(2))
+                    .setUpdateType(StateTtlConfig.UpdateType.OnCreateAndWrite)
+                    .build());
+            pvState = getRuntimeContext().getState(descriptor);
+        }
+
+        @Override
+        public void processElement(Tuple2<String, Long> delta, Context ctx, Collector<Tuple2<String, Long>> out) throws Exception {
+            Long pv = pvState.value();
+            pv = pv == null ? delta.f1 : pv + delta.f1;
+            pvState.update(pv);
+            out.collect(Tuple2.of(delta.f0, pv));
+        }
+    }
+}
@@ -0,0 +1,213 @@
+package com.zhisheng.monitor.pvuv;
+
+
+import com.zhisheng.common.operator.LocalAggregateOperator;
+import com.zhisheng.common.utils.GsonUtil;
+import com.zhisheng.monitor.pvuv.model.UserVisitWebEvent;
+import com.zhisheng.monitor.pvuv.utils.HyperLogLogUtil;
+import com.zhisheng.monitor.pvuv.utils.UvExampleUtil;
+import org.apache.flink.api.common.functions.AggregateFunction;
+import org.apache.flink.api.common.serialization.SimpleStringSchema;
+import org.apache.flink.api.common.state.StateTtlConfig;
+import org.apache.flink.api.common.state.ValueState;
+import org.apache.flink.api.common.state.ValueStateDescriptor;
+import org.apache.flink.api.common.time.Time;
+import org.apache.flink.api.common.typeinfo.PrimitiveArrayTypeInfo;
+import org.apache.flink.api.common.typeinfo.TypeHint;
+import org.apache.flink.api.common.typeinfo.Types;
+import org.apache.flink.api.java.functions.KeySelector;
+import org.apache.flink.api.java.tuple.Tuple2;
+import org.apache.flink.configuration.Configuration;
+import org.apache.flink.streaming.api.CheckpointingMode;
+import org.apache.flink.streaming.api.datastream.DataStream;
+import org.apache.flink.streaming.api.environment.CheckpointConfig;
+import org.apache.flink.streaming.api.environment.StreamExecutionEnvironment;
+import org.apache.flink.streaming.api.functions.KeyedProcessFunction;
+import org.apache.flink.streaming.api.functions.sink.RichSinkFunction;
+import org.apache.flink.streaming.connectors.kafka.FlinkKafkaConsumer;
+import org.apache.flink.streaming.connectors.kafka.FlinkKafkaConsumerBase;
+import org.apache.flink.util.Collector;
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.Pipeline;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author fanrui
+ * @date 2019-11-17 14:05:27
+ * @desc 在 Flink 状态里维护 HyperLogLog 来统计各页面的 UV，和 HyperLogLogUvExample 每条数据一次 PFADD 相比，Redis 不再是瓶颈：
+ * 每个 key（日期_pageId）的 sketch 以 byte[] 存在 ValueState 里（见 HyperLogLogUtil，基数小时是几十字节的 sparse 格式），
+ * 输入是部分 sketch，由上游的 LocalAggregateOperator 在 keyBy 之前按 key 预聚合（HyperLogLogAggregate），热门页面也只发送少量的部分 sketch，在这里合并；
+ * 每隔 interval 输出一次这段时间内有数据的 key 的 sketch，可以转成 UV 估计值，也可以整体写到 Redis（每个 key 每个周期一次写入），
+ * 写入的格式和 Redis 的 HyperLogLog 相同，PFCOUNT / PFMERGE 都可以直接使用
+ */
+public class HyperLogLogStateUvExample {
+    public static void main(String[] args) throws Exception {
+
+        final StreamExecutionEnvironment env = StreamExecutionEnvironment.getExecutionEnvironment();
+        env.enableCheckpointing(TimeUnit.MINUTES.toMillis(1));
+        env.setParallelism(2);
+
+        CheckpointConfig checkpointConf = env.getCheckpointConfig();
+        checkpointConf.setCheckpointingMode(CheckpointingMode.EXACTLY_ONCE);
+        checkpointConf.enableExternalizedCheckpoints(CheckpointConfig.ExternalizedCheckpointCleanup.RETAIN_ON_CANCELLATION);
+
+        Properties props = new Properties();
+        props.put(ConsumerConfig.BOOTSTRAP_SERVERS_CONFIG, UvExampleUtil.broker_list);
+        props.put(ConsumerConfig.GROUP_ID_CONFIG, "app-uv-stat");
+
+        FlinkKafkaConsumerBase<String> kafkaConsumer = new FlinkKafkaConsumer<>(
+                UvExampleUtil.topic, new SimpleStringSchema(), props)
+                .setStartFromGroupOffsets();
+
+        // 每个 subtask 先在本地把同一个 key 的 userId 合并成部分 sketch，最多缓存 16MB、200ms，checkpoint barrier 之前也会发送
+        LocalAggregateOperator<String, UserVisitWebEvent, byte[]> localSketch = new LocalAggregateOperator<>(
+                (KeySelector<UserVisitWebEvent, String>) HyperLogLogStateUvExample::redisKey, new HyperLogLogAggregate(),
+                Types.STRING, PrimitiveArrayTypeInfo.BYTE_PRIMITIVE_ARRAY_TYPE_INFO,
+                100000, 16 * 1024 * 1024, (key, sketch) -> key.length() * 2 + sketch.length, 200, true);
+
+        DataStream<Tuple2<String, byte[]>> sketches = env.addSource(kafkaConsumer)
+                // 反序列化 JSON
+                .map(string -> GsonUtil.fromJson(string, UserVisitWebEvent.class))
+                .transform("LocalHyperLogLog", localSketch.getProducedType(), localSketch)
+                .keyBy((KeySelector<Tuple2<String, byte[]>, String>) sketch -> sketch.f0)
+                .process(new HyperLogLogUvFunction(TimeUnit.SECONDS.toMillis(10)));
+
+        // 每个 key 每 10 秒最多写一次 Redis
+        sketches.addSink(new RedisHyperLogLogSink("192.168.30.244", 6379, false));
+        // UV 估计值
+        sketches.map(sketch -> Tuple2.of(sketch.f0, HyperLogLogUtil.estimate(sketch.f1)))
+                .returns(new TypeHint<Tuple2<String, Long>>() {
+                })
+                .print();
+
+        env.execute("HyperLogLog State UV Stat");
+    }
+
+    // 生成 Redis key，格式为 日期_pageId，如: 20191026_0
+    private static String redisKey(UserVisitWebEvent event) {
+        return event.getDate() + "_" + event.getPageId();
+    }
+
+    // 把 userId 加到 sketch 里，部分 sketch 之间按寄存器取最大值合并
+    public static class HyperLogLogAggregate implements AggregateFunction<UserVisitWebEvent, byte[], byte[]> {
+        @Override
+        public byte[] createAccumulator() {
+            return HyperLogLogUtil.create();
+        }
+
+        @Override
+        public byte[] add(UserVisitWebEvent event, byte[] sketch) {
+            return HyperLogLogUtil.add(sketch, event.getUserId());
+        }
+
+        @Override
+        public byte[] getResult(byte[] sketch) {
+            return sketch;
+        }
+
+        @Override
+        public byte[] merge(byte[] a, byte[] b) {
+            return HyperLogLogUtil.merge(a, b);
+        }
+    }
+
+    // 合并同一个 key 的 sketch，每隔 interval 输出一次这段时间内有数据的 key 的完整 sketch
+    public static class HyperLogLogUvFunction extends KeyedProcessFunction<String, Tuple2<String, byte[]>, Tuple2<String, byte[]>> {
+
+        private final long interval;
+
+        private transient ValueState<byte[]> sketchState;
+
+        public HyperLogLogUvFunction(long interval) {
+            if (interval <= 0) {
+                throw new IllegalArgumentException("interval must be positive, but is " + interval);
+            }
+            this.interval = interval;
+        }
+
+        @Override
+        public void open(Configuration parameters) throws Exception {
+            super.open(parameters);
+            ValueStateDescriptor<byte[]> descriptor = new ValueStateDescriptor<>("hyperLogLogState",
+                    PrimitiveArrayTypeInfo.BYTE_PRIMITIVE_ARRAY_TYPE_INFO);
+            // key 里带着日期，两天之后就不会再有数据了
+            descriptor.enableTimeToLive(StateTtlConfig.newBuilder(Time.days(2))
+                    .setUpdateType(StateTtlConfig.UpdateType.OnCreateAndWrite)
+                    .build());
+            sketchState = getRuntimeContext().getState(descriptor);
+        }
+
+        @Override
+        public void processElement(Tuple2<String, byte[]> value, Context ctx, Collector<Tuple2<String, byte[]>> out) throws Exception {
+            byte[] sketch = sketchState.value();
+            sketchState.update(HyperLogLogUtil.merge(sketch == null ? HyperLogLogUtil.create() : sketch, value.f1));
+            // 同一个 key 同一时刻的定时器只会注册一个，每个周期最多输出一次
+            long now = ctx.timerService().currentProcessingTime();
+            ctx.timerService().registerProcessingTimeTimer(now - Math.floorMod(now, interval) + interval);
+        }
+
+        @Override
+        public void onTimer(long timestamp, OnTimerContext ctx, Collector<Tuple2<String, byte[]>> out) throws Exception {
+            byte[] sketch = sketchState.value();
+            if (sketch != null) {
+                out.collect(Tuple2.of(ctx.getCurrentKey(), sketch));
+            }
+        }
+    }
+
+    /**
+     * 把 sketch 转成 Redis 的 HyperLogLog 格式写入，merge 为 false 时直接 SET 覆盖（sketch 是这个 key 的全量结果，重复写入也是幂等的）；
+     * 如果 Redis 里的 key 同时还有别的程序在 PFADD，merge 设为 true，先 SET 到临时 key 再 PFMERGE，三条命令走一次 pipeline
+     */
+    public static class RedisHyperLogLogSink extends RichSinkFunction<Tuple2<String, byte[]>> {
+
+        private final String host;
+        private final int port;
+        private final boolean merge;
+
+        private transient JedisPool jedisPool;
+
+        public RedisHyperLogLogSink(String host, int port, boolean merge) {
+            this.host = host;
+            this.port = port;
+            this.merge = merge;
+        }
+
+        @Override
+        public void open(Configuration parameters) throws Exception {
+            super.open(parameters);
+            jedisPool = new JedisPool(host, port);
+        }
+
+        @Override
+        public void invoke(Tuple2<String, byte[]> value, Context context) {
+            byte[] key = value.f0.getBytes(StandardCharsets.UTF_8);
+            byte[] hll = HyperLogLogUtil.toRedis(value.f1);
+            try (Jedis jedis = jedisPool.getResource()) {
+                if (!merge) {
+                    jedis.set(key, hll);
+                    return;
+                }
+                byte[] tmpKey = (value.f0 + "_tmp_" + getRuntimeContext().getIndexOfThisSubtask()).getBytes(StandardCharsets.UTF_8);
+                Pipeline pipeline = jedis.pipelined();
+                pipeline.set(tmpKey, hll);
+                pipeline.pfmerge(key, key, tmpKey);
+                pipeline.del(tmpKey);
+                pipeline.sync();
+            }
+        }
+
+        @Override
+        public void close() throws Exception {
+            super.close();
+            if (jedisPool != null) {
+                jedisPool.close();
+            }
+        }
+    }
+}
@@ -3,6 +3,7 @@ package com.zhisheng.monitor.pvuv;
 
 import com.zhisheng.common.utils.GsonUtil;
 import com.zhisheng.monitor.pvuv.model.UserVisitWebEvent;
+import com.zhisheng.monitor.pvuv.sink.RedisBatchSink;
 import com.zhisheng.monitor.pvuv.utils.UvExampleUtil;
 import org.apache.flink.api.common.functions.RichMapFunction;
 import org.apache.flink.api.common.serialization.SimpleStringSchema;
@@ -19,7 +20,6 @@ import org.apache.flink.streaming.api.environment.CheckpointConfig;
 import org.apache.flink.streaming.api.environment.StreamExecutionEnvironment;
 import org.apache.flink.streaming.connectors.kafka.FlinkKafkaConsumer;
 import org.apache.flink.streaming.connectors.kafka.FlinkKafkaConsumerBase;
-import org.apache.flink.streaming.connectors.redis.RedisSink;
 import org.apache.flink.streaming.connectors.redis.common.config.FlinkJedisPoolConfig;
 import org.apache.flink.streaming.connectors.redis.common.mapper.RedisCommand;
 import org.apache.flink.streaming.connectors.redis.common.mapper.RedisCommandDescription;
@@ -98,7 +98,8 @@ public class MapStateUvExample {
                                     TypeInformation.of(new TypeHint<Long>() {})));
                 }
             })
-            .addSink(new RedisSink<>(conf, new RedisSetSinkMapper()));
+            // 每条数据都会输出一次 UV，同一个 key 在一个 batch 里只 SET 最后的值
+            .addSink(new RedisBatchSink<>(conf, new RedisSetSinkMapper()));
 
         env.execute("Redis Set UV Stat");
     }
@@ -3,6 +3,7 @@ package com.zhisheng.monitor.pvuv;
 
 import com.zhisheng.common.utils.GsonUtil;
 import com.zhisheng.monitor.pvuv.model.UserVisitWebEvent;
+import com.zhisheng.monitor.pvuv.sink.RedisBatchSink;
 import com.zhisheng.monitor.pvuv.utils.UvExampleUtil;
 import org.apache.flink.api.common.serialization.SimpleStringSchema;
 import org.apache.flink.api.common.typeinfo.TypeHint;
@@ -12,7 +13,6 @@ import org.apache.flink.streaming.api.environment.CheckpointConfig;
 import org.apache.flink.streaming.api.environment.StreamExecutionEnvironment;
 import org.apache.flink.streaming.connectors.kafka.FlinkKafkaConsumer;
 import org.apache.flink.streaming.connectors.kafka.FlinkKafkaConsumerBase;
-import org.apache.flink.streaming.connectors.redis.RedisSink;
 import org.apache.flink.streaming.connectors.redis.common.config.FlinkJedisPoolConfig;
 import org.apache.flink.streaming.connectors.redis.common.mapper.RedisCommand;
 import org.apache.flink.streaming.connectors.redis.common.mapper.RedisCommandDescription;
@@ -61,7 +61,8 @@ public class RedisSetUvExample {
                     return Tuple2.of(redisKey, userVisitWebEvent.getUserId());
                 })
                 .returns(new TypeHint<Tuple2<String, String>>(){})
-                .addSink(new RedisSink<>(conf, new RedisSaddSinkMapper()));
+                // 同一个 key 的 userId 在本地合并成一条多 member 的 SADD，批量 pipeline 写入
+                .addSink(new RedisBatchSink<>(conf, new RedisSaddSinkMapper()));
 
         env.execute("Redis Set UV Stat");
     }
@@ -0,0 +1,38 @@
+package com.zhisheng.monitor.pvuv.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.Map;
+
+/**
+ * @author fanrui
+ * @date 2019-11-21 11:02:45
+ * @desc 一个 subtask 在一个统计周期内看到的热点 key
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class HotKeyReport {
+
+    /**
+     * 上报的 subtask
+     */
+    private int subtask;
+
+    /**
+     * 上报的时间
+     */
+    private long timestamp;
+
+    /**
+     * 这个周期内收到的数据条数
+     */
+    private long total;
+
+    /**
+     * 候选热点 key 在这个周期内的出现次数（下界）
+     */
+    private Map<String, Long> counts;
+}
@@ -0,0 +1,112 @@
+package com.zhisheng.monitor.pvuv.sink;
+
+import com.zhisheng.monitor.pvuv.utils.RedisCommandBatcher;
+import org.apache.commons.pool2.impl.GenericObjectPoolConfig;
+import org.apache.flink.configuration.Configuration;
+import org.apache.flink.metrics.Gauge;
+import org.apache.flink.metrics.MetricGroup;
+import org.apache.flink.runtime.state.FunctionInitializationContext;
+import org.apache.flink.runtime.state.FunctionSnapshotContext;
+import org.apache.flink.streaming.api.checkpoint.CheckpointedFunction;
+import org.apache.flink.streaming.api.functions.sink.RichSinkFunction;
+import org.apache.flink.streaming.connectors.redis.common.config.FlinkJedisPoolConfig;
+import org.apache.flink.streaming.connectors.redis.common.mapper.RedisCommand;
+import org.apache.flink.streaming.connectors.redis.common.mapper.RedisMapper;
+import redis.clients.jedis.JedisPool;
+
+/**
+ * @author fanrui
+ * @date 2019-11-18 11:30:08
+ * @desc 和 RedisSink 用法相同（同样的 FlinkJedisPoolConfig 和 RedisMapper），但命令交给 RedisCommandBatcher 合并之后 pipeline 批量写入，
+ * 只支持可以合并的 SET（同一个 key 保留最后的值）、SADD 和 PFADD（同一个 key 的 member 合并）；
+ * checkpoint 时等待之前的命令全部写到 Redis 之后才完成 snapshot，作业从 checkpoint 恢复时不会丢数据，
+ * 重放的数据再写一次 SET / SADD / PFADD 结果不变，所以不需要把缓冲区保存到状态里
+ */
+public class RedisBatchSink<IN> extends RichSinkFunction<IN> implements CheckpointedFunction {
+
+    private final FlinkJedisPoolConfig jedisPoolConfig;
+    private final RedisMapper<IN> redisSinkMapper;
+    private final RedisCommand redisCommand;
+    private final int maxBatchSize;
+    private final long flushInterval;
+    private final int maxInFlightBatches;
+
+    private transient RedisCommandBatcher batcher;
+
+    /**
+     * @param maxBatchSize       每个 batch 最多的 SET key 数 + SADD / PFADD member 数
+     * @param flushInterval      定时 flush 的间隔（ms）
+     * @param maxInFlightBatches 最多同时有多少个 batch 在等待写入，超过时反压上游
+     */
+    public RedisBatchSink(FlinkJedisPoolConfig jedisPoolConfig, RedisMapper<IN> redisSinkMapper,
+                          int maxBatchSize, long flushInterval, int maxInFlightBatches) {
+        this.redisCommand = redisSinkMapper.getCommandDescription().getCommand();
+        if (redisCommand != RedisCommand.SET && redisCommand != RedisCommand.SADD && redisCommand != RedisCommand.PFADD) {
+            throw new IllegalArgumentException("RedisBatchSink only supports SET, SADD and PFADD, but is " + redisCommand);
+        }
+        this.jedisPoolConfig = jedisPoolConfig;
+        this.redisSinkMapper = redisSinkMapper;
+        this.maxBatchSize = maxBatchSize;
+        this.flushInterval = flushInterval;
+        this.maxInFlightBatches = maxInFlightBatches;
+    }
+
+    public RedisBatchSink(FlinkJedisPoolConfig jedisPoolConfig, RedisMapper<IN> redisSinkMapper) {
+        this(jedisPoolConfig, redisSinkMapper, 1000, 1000, 4);
+    }
+
+    @Override
+    public void open(Configuration parameters) throws Exception {
+        super.open(parameters);
+        GenericObjectPoolConfig poolConfig = new GenericObjectPoolConfig();
+        poolConfig.setMaxTotal(jedisPoolConfig.getMaxTotal());
+        poolConfig.setMaxIdle(jedisPoolConfig.getMaxIdle());
+        poolConfig.setMinIdle(jedisPoolConfig.getMinIdle());
+        JedisPool jedisPool = new JedisPool(poolConfig, jedisPoolConfig.getHost(), jedisPoolConfig.getPort(),
+                jedisPoolConfig.getConnectionTimeout(), jedisPoolConfig.getPassword(), jedisPoolConfig.getDatabase());
+        batcher = new RedisCommandBatcher(jedisPool, maxBatchSize, flushInterval, maxInFlightBatches);
+
+        MetricGroup metricGroup = getRuntimeContext().getMetricGroup().addGroup("redis");
+        metricGroup.gauge("receivedCommands", (Gauge<Long>) batcher::getReceivedCommands);
+        metricGroup.gauge("writtenCommands", (Gauge<Long>) batcher::getWrittenCommands);
+        metricGroup.gauge("writtenBatches", (Gauge<Long>) batcher::getWrittenBatches);
+        metricGroup.gauge("pendingBatches", (Gauge<Integer>) batcher::getPendingBatches);
+    }
+
+    @Override
+    public void invoke(IN input, Context context) throws Exception {
+        String key = redisSinkMapper.getKeyFromData(input);
+        String value = redisSinkMapper.getValueFromData(input);
+        switch (redisCommand) {
+            case SET:
+                batcher.set(key, value);
+                break;
+            case SADD:
+                batcher.sadd(key, value);
+                break;
+            case PFADD:
+                batcher.pfadd(key, value);
+                break;
+            default:
+                throw new IllegalArgumentException("Cannot process such data type: " + redisCommand);
+        }
+    }
+
+    @Override
+    public void snapshotState(FunctionSnapshotContext context) throws Exception {
+        // barrier 之前的数据全部写到 Redis 之后 checkpoint 才能完成
+        batcher.sync();
+    }
+
+    @Override
+    public void initializeState(FunctionInitializationContext context) {
+    }
+
+    @Override
+    public void close() throws Exception {
+        super.close();
+        if (batcher != null) {
+            batcher.close();
+        }
+    }
+}
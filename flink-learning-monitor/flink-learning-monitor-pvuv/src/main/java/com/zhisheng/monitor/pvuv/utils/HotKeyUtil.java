@@ -0,0 +1,71 @@
+package com.zhisheng.monitor.pvuv.utils;
+
+import org.apache.flink.api.java.tuple.Tuple2;
+import org.apache.flink.runtime.state.KeyGroupRangeAssignment;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * @author fanrui
+ * @date 2019-11-21 11:20:37
+ * @desc 根据各 key 的流量占比决定哪些 key 是热点、每个热点 key 拆成几个子 key：
+ * 一个 subtask 在没有倾斜时分到 1 / parallelism 的流量，占比为 share 的 key 拆成 ceil(share * parallelism) 个子 key 之后，
+ * 每个子 key 的流量就不会超过一个 subtask 的平均流量；
+ * 子 key 是 (key, 后缀)，后缀不是简单的 0 ~ salts - 1，而是按 Flink 的 key group 分配规则挑选的，保证同一个 key 的子 key 落在不同的 subtask 上，
+ * 否则并行度小的时候几个子 key 很容易 hash 到同一个 subtask，拆了也没用；
+ * 占比超过 threshold 时成为热点，之后占比低于 threshold / 2 才取消，避免在阈值附近来回切换
+ */
+public class HotKeyUtil {
+
+    /**
+     * @param counts      各 key 在这段时间内的出现次数（只需要包含候选的热点 key）
+     * @param total       这段时间内所有 key 的出现次数之和
+     * @param current     当前的热点 key 及其子 key 个数
+     * @param threshold   成为热点 key 的流量占比
+     * @param parallelism 第一阶段聚合的并行度
+     * @param maxSalts    一个 key 最多拆成几个子 key
+     * @return 新的热点 key -> 子 key 个数
+     */
+    public static Map<String, Integer> selectHotKeys(Map<String, Long> counts, long total, Map<String, Integer> current,
+                                                     double threshold, int parallelism, int maxSalts) {
+        Map<String, Integer> hotKeys = new HashMap<>();
+        if (total <= 0) {
+            return hotKeys;
+        }
+        for (Map.Entry<String, Long> entry : counts.entrySet()) {
+            double share = (double) entry.getValue() / total;
+            if (share >= threshold || (current.containsKey(entry.getKey()) && share >= threshold / 2)) {
+                hotKeys.put(entry.getKey(), salts(share, parallelism, maxSalts));
+            }
+        }
+        return hotKeys;
+    }
+
+    public static int salts(double share, int parallelism, int maxSalts) {
+        return Math.max(2, Math.min(maxSalts, (int) Math.ceil(share * parallelism)));
+    }
+
+    /**
+     * 为 key 挑选 count 个后缀，(key, 后缀) 分配到不同的 subtask 上；count 超过 parallelism 时只返回 parallelism 个
+     *
+     * @param maxParallelism 第一阶段聚合的最大并行度（key group 个数）
+     * @param parallelism    第一阶段聚合的并行度
+     */
+    public static int[] distinctSalts(String key, int count, int maxParallelism, int parallelism) {
+        count = Math.min(count, parallelism);
+        int[] salts = new int[count];
+        boolean[] used = new boolean[parallelism];
+        int found = 0;
+        // 每个 subtask 至少有一个 key group，一般试几倍 parallelism 个后缀就够了，这里限制一下次数
+        for (int salt = 0; found < count && salt < parallelism * 100; salt++) {
+            int subtask = KeyGroupRangeAssignment.assignKeyToParallelOperator(Tuple2.of(key, salt), maxParallelism, parallelism);
+            if (!used[subtask]) {
+                used[subtask] = true;
+                salts[found++] = salt;
+            }
+        }
+        return found == count ? salts : Arrays.copyOf(salts, found);
+    }
+}
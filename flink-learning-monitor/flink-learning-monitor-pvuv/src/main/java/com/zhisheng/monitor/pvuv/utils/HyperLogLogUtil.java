@@ -0,0 +1,245 @@
+package com.zhisheng.monitor.pvuv.utils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * @author fanrui
+ * @date 2019-11-17 10:36:12
+ * @desc 存放在 byte[] 里的 HyperLogLog，方便直接放进 Flink 状态，hash、分桶和寄存器布局都和 Redis 的 HyperLogLog 一致（p = 14，16384 个 6 bit 寄存器）：
+ * 同一个 userId 在这里和 PFADD 到 Redis 里落在同一个寄存器上，toRedis() 的结果可以直接 SET 到 Redis，之后 PFCOUNT / PFMERGE 都可以使用
+ * byte[] 的第一个字节是格式：
+ * SPARSE：之后每 3 个字节一个非 0 寄存器（index << 6 | value），按 index 排序，基数小的时候只有几十、几百字节
+ * DENSE：之后是 12288 字节，和 Redis dense 编码的寄存器部分相同；sparse 超过 MAX_SPARSE_SIZE 时转成 dense
+ * 基数估计使用和 Redis（5.0 之后）相同的估计方法，小基数和大基数都不需要额外的偏差修正
+ */
+public class HyperLogLogUtil {
+
+    public static final byte SPARSE = 0;
+    public static final byte DENSE = 1;
+
+    private static final int P = 14;
+    private static final int Q = 64 - P;
+    private static final int REGISTERS = 1 << P;
+    private static final int REGISTER_MAX = (1 << 6) - 1;
+    private static final int DENSE_SIZE = 1 + REGISTERS * 6 / 8;
+    // sparse 超过 dense 大小的 1/4 之后转成 dense，再大的话 sparse 的有序插入也变慢了
+    private static final int MAX_SPARSE_SIZE = DENSE_SIZE / 4;
+    private static final double ALPHA_INF = 0.721347520444481703680;
+    private static final long SEED = 0xadc83b19L;
+
+    private static final byte[] REDIS_HEADER = {'H', 'Y', 'L', 'L', 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, (byte) 0x80};
+
+    public static byte[] create() {
+        return new byte[]{SPARSE};
+    }
+
+    /**
+     * 和 Redis PFADD 相同的 hash（MurmurHash64A，seed 0xadc83b19）
+     */
+    public static long hash(String value) {
+        byte[] data = value.getBytes(StandardCharsets.UTF_8);
+        final long m = 0xc6a4a7935bd1e995L;
+        final int r = 47;
+        long h = SEED ^ (data.length * m);
+        int end = data.length - (data.length & 7);
+        for (int i = 0; i < end; i += 8) {
+            long k = (data[i] & 0xFFL) | (data[i + 1] & 0xFFL) << 8 | (data[i + 2] & 0xFFL) << 16 | (data[i + 3] & 0xFFL) << 24
+                    | (data[i + 4] & 0xFFL) << 32 | (data[i + 5] & 0xFFL) << 40 | (data[i + 6] & 0xFFL) << 48 | (data[i + 7] & 0xFFL) << 56;
+            k *= m;
+            k ^= k >>> r;
+            k *= m;
+            h ^= k;
+            h *= m;
+        }
+        int remaining = data.length & 7;
+        if (remaining > 0) {
+            for (int i = remaining - 1; i >= 0; i--) {
+                h ^= (data[end + i] & 0xFFL) << (8 * i);
+            }
+            h *= m;
+        }
+        h ^= h >>> r;
+        h *= m;
+        h ^= h >>> r;
+        return h;
+    }
+
+    /**
+     * 和 Redis 一样取 hash 的低 14 位做寄存器下标，剩下的位里第一个 1 的位置做寄存器的值
+     * @return 加入之后的 sketch，sparse 扩容或者转成 dense 时会返回新的数组，调用方要用返回值替换原来的 sketch
+     */
+    public static byte[] add(byte[] sketch, long hash) {
+        int index = (int) (hash & (REGISTERS - 1));
+        long rest = (hash >>> P) | (1L << Q);
+        int value = Long.numberOfTrailingZeros(rest) + 1;
+        return set(sketch, index, value);
+    }
+
+    public static byte[] add(byte[] sketch, String value) {
+        return add(sketch, hash(value));
+    }
+
+    /**
+     * 把 other 合并到 sketch 里（对应寄存器取最大值），和 PFMERGE 相同
+     * @return 合并之后的 sketch，可能是新的数组
+     */
+    public static byte[] merge(byte[] sketch, byte[] other) {
+        if (other[0] == SPARSE) {
+            for (int i = 1; i < other.length; i += 3) {
+                int entry = sparseEntry(other, i);
+                sketch = set(sketch, entry >>> 6, entry & REGISTER_MAX);
+            }
+            return sketch;
+        }
+        byte[] dense = sketch[0] == DENSE ? sketch : toDense(sketch);
+        for (int i = 0; i < REGISTERS; i++) {
+            int value = denseGet(other, i);
+            if (value > denseGet(dense, i)) {
+                denseSet(dense, i, value);
+            }
+        }
+        return dense;
+    }
+
+    public static long estimate(byte[] sketch) {
+        int[] histogram = new int[64];
+        if (sketch[0] == SPARSE) {
+            int entries = (sketch.length - 1) / 3;
+            histogram[0] = REGISTERS - entries;
+            for (int i = 1; i < sketch.length; i += 3) {
+                histogram[sparseEntry(sketch, i) & REGISTER_MAX]++;
+            }
+        } else {
+            for (int i = 0; i < REGISTERS; i++) {
+                histogram[denseGet(sketch, i)]++;
+            }
+        }
+        double m = REGISTERS;
+        double z = m * tau((m - histogram[Q + 1]) / m);
+        for (int j = Q; j >= 1; --j) {
+            z += histogram[j];
+            z *= 0.5;
+        }
+        z += m * sigma(histogram[0] / m);
+        return Math.round(ALPHA_INF * m * m / z);
+    }
+
+    /**
+     * 转成 Redis 的 dense 编码（16 字节 header + 12288 字节寄存器），header 里缓存的基数标记为无效，Redis 读取时会重新计算
+     */
+    public static byte[] toRedis(byte[] sketch) {
+        byte[] dense = sketch[0] == DENSE ? sketch : toDense(sketch);
+        byte[] redis = new byte[REDIS_HEADER.length + DENSE_SIZE - 1];
+        System.arraycopy(REDIS_HEADER, 0, redis, 0, REDIS_HEADER.length);
+        System.arraycopy(dense, 1, redis, REDIS_HEADER.length, DENSE_SIZE - 1);
+        return redis;
+    }
+
+    private static byte[] set(byte[] sketch, int index, int value) {
+        if (sketch[0] == DENSE) {
+            if (value > denseGet(sketch, index)) {
+                denseSet(sketch, index, value);
+            }
+            return sketch;
+        }
+        // 二分查找 index 所在的位置
+        int low = 0;
+        int high = (sketch.length - 1) / 3 - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int entry = sparseEntry(sketch, 1 + mid * 3);
+            int midIndex = entry >>> 6;
+            if (midIndex < index) {
+                low = mid + 1;
+            } else if (midIndex > index) {
+                high = mid - 1;
+            } else {
+                if (value > (entry & REGISTER_MAX)) {
+                    putSparseEntry(sketch, 1 + mid * 3, index << 6 | value);
+                }
+                return sketch;
+            }
+        }
+        if (sketch.length + 3 > MAX_SPARSE_SIZE) {
+            byte[] dense = toDense(sketch);
+            denseSet(dense, index, value);
+            return dense;
+        }
+        int offset = 1 + low * 3;
+        byte[] grown = Arrays.copyOf(sketch, sketch.length + 3);
+        System.arraycopy(sketch, offset, grown, offset + 3, sketch.length - offset);
+        putSparseEntry(grown, offset, index << 6 | value);
+        return grown;
+    }
+
+    private static byte[] toDense(byte[] sparse) {
+        byte[] dense = new byte[DENSE_SIZE];
+        dense[0] = DENSE;
+        for (int i = 1; i < sparse.length; i += 3) {
+            int entry = sparseEntry(sparse, i);
+            denseSet(dense, entry >>> 6, entry & REGISTER_MAX);
+        }
+        return dense;
+    }
+
+    private static int sparseEntry(byte[] sketch, int offset) {
+        return (sketch[offset] & 0xFF) << 16 | (sketch[offset + 1] & 0xFF) << 8 | (sketch[offset + 2] & 0xFF);
+    }
+
+    private static void putSparseEntry(byte[] sketch, int offset, int entry) {
+        sketch[offset] = (byte) (entry >>> 16);
+        sketch[offset + 1] = (byte) (entry >>> 8);
+        sketch[offset + 2] = (byte) entry;
+    }
+
+    // 和 Redis 的 HLL_DENSE_GET_REGISTER / HLL_DENSE_SET_REGISTER 相同的 6 bit 布局，dense[0] 是格式
+    private static int denseGet(byte[] dense, int index) {
+        int byteOffset = 1 + index * 6 / 8;
+        int bitOffset = index * 6 & 7;
+        int b0 = dense[byteOffset] & 0xFF;
+        int b1 = byteOffset + 1 < dense.length ? dense[byteOffset + 1] & 0xFF : 0;
+        return ((b0 >>> bitOffset) | (b1 << (8 - bitOffset))) & REGISTER_MAX;
+    }
+
+    private static void denseSet(byte[] dense, int index, int value) {
+        int byteOffset = 1 + index * 6 / 8;
+        int bitOffset = index * 6 & 7;
+        dense[byteOffset] = (byte) ((dense[byteOffset] & ~(REGISTER_MAX << bitOffset)) | (value << bitOffset));
+        if (byteOffset + 1 < dense.length) {
+            dense[byteOffset + 1] = (byte) ((dense[byteOffset + 1] & ~(REGISTER_MAX >>> (8 - bitOffset))) | (value >>> (8 - bitOffset)));
+        }
+    }
+
+    private static double sigma(double x) {
+        if (x == 1.) {
+            return Double.POSITIVE_INFINITY;
+        }
+        double zPrime;
+        double y = 1;
+        double z = x;
+        do {
+            x *= x;
+            zPrime = z;
+            z += x * y;
+            y += y;
+        } while (zPrime != z);
+        return z;
+    }
+
+    private static double tau(double x) {
+        if (x == 0. || x == 1.) {
+            return 0.;
+        }
+        double zPrime;
+        double y = 1.0;
+        double z = 1 - x;
+        do {
+            x = Math.sqrt(x);
+            zPrime = z;
+            y *= 0.5;
+            z -= Math.pow(1 - x, 2) * y;
+        } while (zPrime != z);
+        return z / 3;
+    }
+}
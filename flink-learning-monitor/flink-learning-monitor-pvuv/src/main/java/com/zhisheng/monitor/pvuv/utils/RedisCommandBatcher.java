@@ -0,0 +1,255 @@
+package com.zhisheng.monitor.pvuv.utils;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import lombok.extern.slf4j.Slf4j;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.exceptions.JedisDataException;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * @author fanrui
+ * @date 2019-11-18 10:12:35
+ * @desc 合并 + pipeline 批量写 Redis，用来代替每条数据一次网络往返的 RedisSink：
+ * 命令先在本地缓冲区里合并，同一个 key 的 SET 只保留最后一次的值，同一个 key 的 SADD / PFADD 合并成一条多 member 的命令；
+ * 缓冲区里的 key / member 数达到 maxBatchSize 或者距离上次 flush 超过 flushInterval 时，整个缓冲区做为一个 batch 交给后台线程用一次 pipeline 写入，
+ * 调用方不等待 Redis 返回；还没写完的 batch 最多 maxInFlightBatches 个，超过时 flush 阻塞，相当于对上游反压，内存不会无限增长
+ * batch 按 flush 的顺序依次写入，SET 的结果不会被更早的值覆盖；写入失败的异常在下一次调用时抛出
+ */
+@Slf4j
+public class RedisCommandBatcher implements AutoCloseable {
+
+    private final JedisPool jedisPool;
+    private final int maxBatchSize;
+    private final BlockingQueue<Batch> inFlight;
+    private final Thread writer;
+    private final ScheduledExecutorService scheduler;
+
+    // 调用方线程和定时 flush 线程都会访问，用 this 加锁
+    private Batch buffer = new Batch();
+    // 已经 flush 但还没有写完的 batch 数，包括 writer 线程正在写的那个，用 inFlight 加锁
+    private int pendingBatches;
+    private volatile boolean closed;
+
+    private final AtomicReference<Exception> failure = new AtomicReference<>();
+    private final AtomicLong receivedCommands = new AtomicLong();
+    private final AtomicLong writtenCommands = new AtomicLong();
+    private final AtomicLong writtenBatches = new AtomicLong();
+
+    /**
+     * @param jedisPool          Redis 连接池，close 时一起关闭
+     * @param maxBatchSize       缓冲区里最多的 SET key 数 + SADD / PFADD member 数，达到之后立即 flush
+     * @param flushInterval      定时 flush 的间隔（ms），数据少的时候结果最多延迟这么久写到 Redis
+     * @param maxInFlightBatches 最多同时缓存多少个已经 flush 但还没有写完的 batch
+     */
+    public RedisCommandBatcher(JedisPool jedisPool, int maxBatchSize, long flushInterval, int maxInFlightBatches) {
+        if (maxBatchSize <= 0 || flushInterval <= 0 || maxInFlightBatches <= 0) {
+            throw new IllegalArgumentException("maxBatchSize, flushInterval and maxInFlightBatches must be positive, but are "
+                    + maxBatchSize + ", " + flushInterval + ", " + maxInFlightBatches);
+        }
+        this.jedisPool = jedisPool;
+        this.maxBatchSize = maxBatchSize;
+        this.inFlight = new ArrayBlockingQueue<>(maxInFlightBatches);
+        this.writer = new ThreadFactoryBuilder().setNameFormat("redis-batch-writer-%d").setDaemon(true).build()
+                .newThread(this::writeLoop);
+        this.writer.start();
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat("redis-batch-flush-%d").setDaemon(true).build());
+        this.scheduler.scheduleWithFixedDelay(this::scheduledFlush, flushInterval, flushInterval, TimeUnit.MILLISECONDS);
+    }
+
+    public void set(String key, String value) throws Exception {
+        checkFailure();
+        synchronized (this) {
+            if (buffer.sets.put(key, value) == null) {
+                buffer.size++;
+            }
+            afterAdd();
+        }
+    }
+
+    public void sadd(String key, String member) throws Exception {
+        checkFailure();
+        synchronized (this) {
+            if (buffer.sadds.computeIfAbsent(key, k -> new LinkedHashSet<>()).add(member)) {
+                buffer.size++;
+            }
+            afterAdd();
+        }
+    }
+
+    public void pfadd(String key, String element) throws Exception {
+        checkFailure();
+        synchronized (this) {
+            if (buffer.pfadds.computeIfAbsent(key, k -> new LinkedHashSet<>()).add(element)) {
+                buffer.size++;
+            }
+            afterAdd();
+        }
+    }
+
+    private void afterAdd() throws InterruptedException {
+        receivedCommands.incrementAndGet();
+        if (buffer.size >= maxBatchSize) {
+            flush();
+        }
+    }
+
+    /**
+     * 把缓冲区交给 writer 线程，不等待写入完成；in-flight 的 batch 已满时阻塞
+     */
+    public synchronized void flush() throws InterruptedException {
+        if (buffer.size == 0) {
+            return;
+        }
+        synchronized (inFlight) {
+            pendingBatches++;
+        }
+        // 持有 this 锁入队，保证 batch 的写入顺序和 flush 的顺序一致；writer 线程不需要 this 锁，不会死锁
+        inFlight.put(buffer);
+        buffer = new Batch();
+    }
+
+    /**
+     * flush 并等待之前的所有命令都写到 Redis，checkpoint 时调用，有写入失败时抛出异常
+     */
+    public void sync() throws Exception {
+        flush();
+        synchronized (inFlight) {
+            while (pendingBatches > 0) {
+                inFlight.wait();
+            }
+        }
+        checkFailure();
+    }
+
+    private void scheduledFlush() {
+        try {
+            flush();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            log.error("scheduled flush to redis failed", e);
+        }
+    }
+
+    private void writeLoop() {
+        while (!closed || !inFlight.isEmpty()) {
+            Batch batch;
+            try {
+                batch = inFlight.poll(100, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (batch == null) {
+                continue;
+            }
+            try {
+                write(batch);
+            } catch (Exception e) {
+                // 记录第一次失败，由调用方线程抛出；后面的 batch 继续处理，sync 不会一直等待
+                log.error("write {} keys to redis failed", batch.keys(), e);
+                failure.compareAndSet(null, e);
+            } finally {
+                synchronized (inFlight) {
+                    pendingBatches--;
+                    inFlight.notifyAll();
+                }
+            }
+        }
+    }
+
+    private void write(Batch batch) {
+        try (Jedis jedis = jedisPool.getResource()) {
+            Pipeline pipeline = jedis.pipelined();
+            for (Map.Entry<String, String> entry : batch.sets.entrySet()) {
+                pipeline.set(entry.getKey(), entry.getValue());
+            }
+            for (Map.Entry<String, Set<String>> entry : batch.sadds.entrySet()) {
+                pipeline.sadd(entry.getKey(), entry.getValue().toArray(new String[0]));
+            }
+            for (Map.Entry<String, Set<String>> entry : batch.pfadds.entrySet()) {
+                pipeline.pfadd(entry.getKey(), entry.getValue().toArray(new String[0]));
+            }
+            // pipeline 里单条命令的错误不会直接抛出，要检查每条命令的返回值
+            for (Object response : pipeline.syncAndReturnAll()) {
+                if (response instanceof JedisDataException) {
+                    throw (JedisDataException) response;
+                }
+            }
+        }
+        writtenCommands.addAndGet(batch.keys());
+        writtenBatches.incrementAndGet();
+    }
+
+    private void checkFailure() throws Exception {
+        Exception e = failure.get();
+        if (e != null) {
+            throw new IOException("write to redis failed", e);
+        }
+    }
+
+    /**
+     * 调用方提交的命令数
+     */
+    public long getReceivedCommands() {
+        return receivedCommands.get();
+    }
+
+    /**
+     * 合并之后实际写到 Redis 的命令数
+     */
+    public long getWrittenCommands() {
+        return writtenCommands.get();
+    }
+
+    public long getWrittenBatches() {
+        return writtenBatches.get();
+    }
+
+    public int getPendingBatches() {
+        synchronized (inFlight) {
+            return pendingBatches;
+        }
+    }
+
+    /**
+     * 写完缓冲区里剩下的命令之后关闭
+     */
+    @Override
+    public void close() throws Exception {
+        scheduler.shutdownNow();
+        try {
+            sync();
+        } finally {
+            closed = true;
+            writer.join();
+            jedisPool.close();
+        }
+    }
+
+    private static class Batch {
+        private final Map<String, String> sets = new LinkedHashMap<>();
+        private final Map<String, Set<String>> sadds = new LinkedHashMap<>();
+        private final Map<String, Set<String>> pfadds = new LinkedHashMap<>();
+        // SET 的 key 数 + SADD / PFADD 的 member 数
+        private int size;
+
+        private int keys() {
+            return sets.size() + sadds.size() + pfadds.size();
+        }
+    }
+}
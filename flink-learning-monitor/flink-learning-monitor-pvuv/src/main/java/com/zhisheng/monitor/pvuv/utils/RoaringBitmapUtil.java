@@ -0,0 +1,231 @@
+package com.zhisheng.monitor.pvuv.utils;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * @author fanrui
+ * @date 2019-11-19 09:48:20
+ * @desc Roaring bitmap，存放非负 int 的精确集合：int 的高 16 位做 container 的 key，低 16 位存在 container 里，
+ * 一个 bitmap 就是 SortedMap<高 16 位, container>，和放在 MapState 里的结构相同，修改一个 id 只会改动一个 container；
+ * container 是 byte[]，和 HyperLogLogUtil 一样方便直接放进 Flink 状态：
+ * ARRAY：元素个数小于 4096 时，是按从小到大排序的 2 字节无符号数，长度为 2 * 元素个数（最多 8190）
+ * BITMAP：元素个数达到 4096 之后转成 65536 位的位图，长度固定为 8192，用长度区分两种 container
+ * id 连续（比如字典编码之后）时每个用户平均只占 1 ~ 2 字节，而 MapState<String, Boolean> 每个用户是一条几十字节的 RocksDB 记录
+ */
+public class RoaringBitmapUtil {
+
+    public static final int BITMAP_SIZE = 1 << 13;
+    private static final int ARRAY_MAX = 4096;
+
+    public static int high(int value) {
+        return value >>> 16;
+    }
+
+    public static int low(int value) {
+        return value & 0xFFFF;
+    }
+
+    public static byte[] emptyContainer() {
+        return new byte[0];
+    }
+
+    public static boolean contains(byte[] container, int low) {
+        if (container.length == BITMAP_SIZE) {
+            return (container[low >>> 3] & (1 << (low & 7))) != 0;
+        }
+        return binarySearch(container, low) >= 0;
+    }
+
+    /**
+     * 加入低 16 位为 low 的元素
+     * @return 加入之后的 container，array 扩容或者转成 bitmap 时会返回新的数组，调用方要用返回值替换原来的 container
+     */
+    public static byte[] add(byte[] container, int low) {
+        if (container.length == BITMAP_SIZE) {
+            container[low >>> 3] |= 1 << (low & 7);
+            return container;
+        }
+        int index = binarySearch(container, low);
+        if (index >= 0) {
+            return container;
+        }
+        int offset = (-index - 1) * 2;
+        if (container.length / 2 + 1 >= ARRAY_MAX) {
+            byte[] bitmap = toBitmap(container);
+            bitmap[low >>> 3] |= 1 << (low & 7);
+            return bitmap;
+        }
+        byte[] grown = Arrays.copyOf(container, container.length + 2);
+        System.arraycopy(container, offset, grown, offset + 2, container.length - offset);
+        grown[offset] = (byte) (low >>> 8);
+        grown[offset + 1] = (byte) low;
+        return grown;
+    }
+
+    public static int cardinality(byte[] container) {
+        if (container.length != BITMAP_SIZE) {
+            return container.length / 2;
+        }
+        int cardinality = 0;
+        for (byte b : container) {
+            cardinality += Integer.bitCount(b & 0xFF);
+        }
+        return cardinality;
+    }
+
+    public static byte[] or(byte[] a, byte[] b) {
+        if (a.length == BITMAP_SIZE || b.length == BITMAP_SIZE) {
+            byte[] bitmap = a.length == BITMAP_SIZE ? a.clone() : toBitmap(a);
+            if (b.length == BITMAP_SIZE) {
+                for (int i = 0; i < BITMAP_SIZE; i++) {
+                    bitmap[i] |= b[i];
+                }
+            } else {
+                for (int i = 0; i < b.length; i += 2) {
+                    int low = get(b, i);
+                    bitmap[low >>> 3] |= 1 << (low & 7);
+                }
+            }
+            return bitmap;
+        }
+        // 两个有序数组归并
+        byte[] merged = new byte[a.length + b.length];
+        int i = 0, j = 0, n = 0;
+        while (i < a.length || j < b.length) {
+            int x = i < a.length ? get(a, i) : Integer.MAX_VALUE;
+            int y = j < b.length ? get(b, j) : Integer.MAX_VALUE;
+            int min = Math.min(x, y);
+            merged[n++] = (byte) (min >>> 8);
+            merged[n++] = (byte) min;
+            if (x == min) {
+                i += 2;
+            }
+            if (y == min) {
+                j += 2;
+            }
+        }
+        return n / 2 >= ARRAY_MAX ? toBitmap(Arrays.copyOf(merged, n)) : Arrays.copyOf(merged, n);
+    }
+
+    /**
+     * @return 交集，可能是空的 container
+     */
+    public static byte[] and(byte[] a, byte[] b) {
+        if (a.length == BITMAP_SIZE && b.length == BITMAP_SIZE) {
+            byte[] bitmap = new byte[BITMAP_SIZE];
+            for (int i = 0; i < BITMAP_SIZE; i++) {
+                bitmap[i] = (byte) (a[i] & b[i]);
+            }
+            return cardinality(bitmap) < ARRAY_MAX ? toArray(bitmap) : bitmap;
+        }
+        byte[] array = a.length == BITMAP_SIZE ? b : a;
+        byte[] other = array == a ? b : a;
+        byte[] result = new byte[array.length];
+        int n = 0;
+        for (int i = 0; i < array.length; i += 2) {
+            if (contains(other, get(array, i))) {
+                result[n++] = array[i];
+                result[n++] = array[i + 1];
+            }
+        }
+        return Arrays.copyOf(result, n);
+    }
+
+    public static boolean contains(Map<Integer, byte[]> bitmap, int value) {
+        byte[] container = bitmap.get(high(value));
+        return container != null && contains(container, low(value));
+    }
+
+    public static void add(Map<Integer, byte[]> bitmap, int value) {
+        if (value < 0) {
+            throw new IllegalArgumentException("value must be non-negative, but is " + value);
+        }
+        byte[] container = bitmap.get(high(value));
+        bitmap.put(high(value), add(container == null ? emptyContainer() : container, low(value)));
+    }
+
+    public static long cardinality(Map<Integer, byte[]> bitmap) {
+        long cardinality = 0;
+        for (byte[] container : bitmap.values()) {
+            cardinality += cardinality(container);
+        }
+        return cardinality;
+    }
+
+    /**
+     * 并集，比如多个页面的总 UV，不修改参数
+     */
+    public static SortedMap<Integer, byte[]> or(Map<Integer, byte[]> a, Map<Integer, byte[]> b) {
+        SortedMap<Integer, byte[]> result = new TreeMap<>();
+        for (Map.Entry<Integer, byte[]> entry : a.entrySet()) {
+            result.put(entry.getKey(), entry.getValue().clone());
+        }
+        for (Map.Entry<Integer, byte[]> entry : b.entrySet()) {
+            byte[] container = result.get(entry.getKey());
+            result.put(entry.getKey(), container == null ? entry.getValue().clone() : or(container, entry.getValue()));
+        }
+        return result;
+    }
+
+    /**
+     * 交集，比如同时访问过两个页面的用户数，不修改参数
+     */
+    public static SortedMap<Integer, byte[]> and(Map<Integer, byte[]> a, Map<Integer, byte[]> b) {
+        SortedMap<Integer, byte[]> result = new TreeMap<>();
+        for (Map.Entry<Integer, byte[]> entry : a.entrySet()) {
+            byte[] other = b.get(entry.getKey());
+            if (other != null) {
+                byte[] container = and(entry.getValue(), other);
+                if (container.length > 0) {
+                    result.put(entry.getKey(), container);
+                }
+            }
+        }
+        return result;
+    }
+
+    private static int binarySearch(byte[] array, int low) {
+        int lo = 0;
+        int hi = array.length / 2 - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int value = get(array, mid * 2);
+            if (value < low) {
+                lo = mid + 1;
+            } else if (value > low) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(lo + 1);
+    }
+
+    private static int get(byte[] array, int offset) {
+        return (array[offset] & 0xFF) << 8 | (array[offset + 1] & 0xFF);
+    }
+
+    private static byte[] toBitmap(byte[] array) {
+        byte[] bitmap = new byte[BITMAP_SIZE];
+        for (int i = 0; i < array.length; i += 2) {
+            int low = get(array, i);
+            bitmap[low >>> 3] |= 1 << (low & 7);
+        }
+        return bitmap;
+    }
+
+    private static byte[] toArray(byte[] bitmap) {
+        byte[] array = new byte[cardinality(bitmap) * 2];
+        int n = 0;
+        for (int low = 0; low < 1 << 16; low++) {
+            if (contains(bitmap, low)) {
+                array[n++] = (byte) (low >>> 8);
+                array[n++] = (byte) low;
+            }
+        }
+        return array;
+    }
+}
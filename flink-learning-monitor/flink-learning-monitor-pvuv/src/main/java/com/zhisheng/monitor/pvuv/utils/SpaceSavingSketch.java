@@ -0,0 +1,144 @@
+package com.zhisheng.monitor.pvuv.utils;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * @author fanrui
+ * @date 2019-11-21 10:05:14
+ * @desc Space-Saving 算法，用固定的 capacity 个计数器在线找出出现次数最多的 key（heavy hitters）：
+ * key 已经有计数器时直接加一；没有时如果计数器还没用完就新建一个，否则替换掉计数最小的计数器，
+ * 新 key 的计数从被替换的最小值开始（error 记录这部分高估），所以 count - error 是 key 真实出现次数的下界，
+ * 出现次数超过 total / capacity 的 key 一定会留在计数器里；
+ * 计数器放在按 count 排序的小顶堆里，每次 add 都是 O(log capacity)
+ */
+public class SpaceSavingSketch<K> {
+
+    private final Entry<K>[] heap;
+    private final Map<K, Entry<K>> index;
+    private int size;
+    private long total;
+
+    @SuppressWarnings("unchecked")
+    public SpaceSavingSketch(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive, but is " + capacity);
+        }
+        this.heap = new Entry[capacity];
+        this.index = new HashMap<>(capacity * 2);
+    }
+
+    public void add(K key) {
+        add(key, 1);
+    }
+
+    public void add(K key, long weight) {
+        total += weight;
+        Entry<K> entry = index.get(key);
+        if (entry != null) {
+            entry.count += weight;
+            siftDown(entry.position);
+            return;
+        }
+        if (size < heap.length) {
+            entry = new Entry<>();
+            entry.key = key;
+            entry.count = weight;
+            entry.position = size;
+            heap[size++] = entry;
+            index.put(key, entry);
+            siftUp(entry.position);
+            return;
+        }
+        // 替换计数最小的 key
+        entry = heap[0];
+        index.remove(entry.key);
+        entry.key = key;
+        entry.error = entry.count;
+        entry.count += weight;
+        index.put(key, entry);
+        siftDown(0);
+    }
+
+    /**
+     * 所有 add 的 weight 之和
+     */
+    public long getTotal() {
+        return total;
+    }
+
+    /**
+     * 出现次数的下界（count - error）不小于 minCount 的 key，不会把不够频繁的 key 误报出来
+     */
+    public Map<K, Long> heavyHitters(long minCount) {
+        Map<K, Long> result = new HashMap<>();
+        for (int i = 0; i < size; i++) {
+            long guaranteed = heap[i].count - heap[i].error;
+            if (guaranteed >= minCount) {
+                result.put(heap[i].key, guaranteed);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * key 的估计出现次数（上界），没有计数器的 key 返回 0
+     */
+    public long estimate(K key) {
+        Entry<K> entry = index.get(key);
+        return entry == null ? 0 : entry.count;
+    }
+
+    public void clear() {
+        for (int i = 0; i < size; i++) {
+            heap[i] = null;
+        }
+        index.clear();
+        size = 0;
+        total = 0;
+    }
+
+    private void siftUp(int position) {
+        Entry<K> entry = heap[position];
+        while (position > 0) {
+            int parent = (position - 1) >>> 1;
+            if (heap[parent].count <= entry.count) {
+                break;
+            }
+            move(heap[parent], position);
+            position = parent;
+        }
+        move(entry, position);
+    }
+
+    private void siftDown(int position) {
+        Entry<K> entry = heap[position];
+        while (true) {
+            int child = 2 * position + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && heap[child + 1].count < heap[child].count) {
+                child++;
+            }
+            if (entry.count <= heap[child].count) {
+                break;
+            }
+            move(heap[child], position);
+            position = child;
+        }
+        move(entry, position);
+    }
+
+    private void move(Entry<K> entry, int position) {
+        heap[position] = entry;
+        entry.position = position;
+    }
+
+    private static class Entry<K> {
+        private K key;
+        private long count;
+        private long error;
+        private int position;
+    }
+}
@@ -0,0 +1,148 @@
+import com.zhisheng.monitor.pvuv.utils.HotKeyUtil;
+import com.zhisheng.monitor.pvuv.utils.SpaceSavingSketch;
+import org.apache.flink.api.java.tuple.Tuple2;
+import org.apache.flink.runtime.state.KeyGroupRangeAssignment;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * @author fanrui
+ * @date 2019-11-21 16:48:25
+ * @desc 模拟 HotKeySplitPvExample：1 万个页面，200 万条数据，页面的访问次数服从 Zipf 分布（s = 1.2，最热的页面约占 1/5），
+ * 1、检查 SpaceSavingSketch 找到的 heavy hitters 和精确计数一致（下界 <= 真实值 <= 上界），且不会漏掉占比超过 1 / capacity 的 key
+ * 2、用和 HotKeyReporter / HotKeyAggregator 相同的方式选出热点 key，前一半数据还没有发现热点 key，后一半数据拆分热点 key，
+ * 检查两阶段聚合之后每个页面的 PV 和精确值一致
+ * 3、按 Flink 的 key group 分配规则计算第一阶段每个 subtask 收到的数据量，对比拆分前后最忙的 subtask 的负载，
+ * 作业的吞吐受最忙的 subtask 限制，拆分前的吞吐最多是最热页面占比的倒数（约 4.8 倍），拆分后随并行度继续增加（并行度 32 时约 11 倍）
+ */
+public class HotKeySplitTest {
+
+    private static final int PAGES = 10000;
+    private static final int EVENTS = 2000000;
+    private static final double ZIPF_EXPONENT = 1.2;
+    private static final int MAX_PARALLELISM = 128;
+
+    public static void main(String[] args) {
+        String[] events = zipf(new Random(1));
+        Map<String, Long> exact = new HashMap<>();
+        for (String event : events) {
+            exact.merge(event, 1L, Long::sum);
+        }
+
+        checkSketch(events, exact);
+
+        System.out.println("parallelism | hot keys | max load before split | max load after split | speedup before | speedup after");
+        for (int parallelism = 2; parallelism <= 32; parallelism *= 2) {
+            simulate(events, exact, parallelism);
+        }
+    }
+
+    private static void checkSketch(String[] events, Map<String, Long> exact) {
+        int capacity = 128;
+        SpaceSavingSketch<String> sketch = new SpaceSavingSketch<>(capacity);
+        for (String event : events) {
+            sketch.add(event);
+        }
+        check(sketch.getTotal() == EVENTS, "total");
+        Map<String, Long> heavyHitters = sketch.heavyHitters(1);
+        for (Map.Entry<String, Long> entry : exact.entrySet()) {
+            long count = entry.getValue();
+            Long guaranteed = heavyHitters.get(entry.getKey());
+            if (count > EVENTS / capacity) {
+                check(guaranteed != null, "missing heavy hitter " + entry.getKey());
+            }
+            if (guaranteed != null) {
+                check(guaranteed <= count && count <= sketch.estimate(entry.getKey()), "bounds of " + entry.getKey());
+            }
+        }
+        for (int page = 0; page < 5; page++) {
+            String key = String.valueOf(page);
+            System.out.printf("page %s: exact %7d, guaranteed %7d, estimate %7d%n",
+                    key, exact.get(key), heavyHitters.get(key), sketch.estimate(key));
+        }
+    }
+
+    private static void simulate(String[] events, Map<String, Long> exact, int parallelism) {
+        // 前一半数据：每个 subtask 上报，合并之后选出热点 key
+        SpaceSavingSketch<String>[] reporters = new SpaceSavingSketch[parallelism];
+        for (int subtask = 0; subtask < parallelism; subtask++) {
+            reporters[subtask] = new SpaceSavingSketch<>(128);
+        }
+        for (int i = 0; i < events.length / 2; i++) {
+            reporters[i % parallelism].add(events[i]);
+        }
+        long total = 0;
+        Map<String, Long> counts = new HashMap<>();
+        for (SpaceSavingSketch<String> reporter : reporters) {
+            total += reporter.getTotal();
+            reporter.heavyHitters((long) Math.ceil(reporter.getTotal() * 0.025))
+                    .forEach((key, count) -> counts.merge(key, count, Long::sum));
+        }
+        Map<String, int[]> hotKeys = new HashMap<>();
+        HotKeyUtil.selectHotKeys(counts, total, Collections.emptyMap(), 0.05, parallelism, parallelism)
+                .forEach((key, count) -> hotKeys.put(key, HotKeyUtil.distinctSalts(key, count, MAX_PARALLELISM, parallelism)));
+
+        long[] before = new long[parallelism];
+        long[] after = new long[parallelism];
+        // 拆分之后的负载只看后一半数据
+        long[] afterSplit = new long[parallelism];
+        int[] next = new int[parallelism];
+        Map<Tuple2<String, Integer>, Long> deltas = new HashMap<>();
+        for (int i = 0; i < events.length; i++) {
+            String key = events[i];
+            before[KeyGroupRangeAssignment.assignKeyToParallelOperator(key, MAX_PARALLELISM, parallelism)]++;
+            // 后一半数据才拆分热点 key，HotKeySplitFunction 在每个上游 subtask 上各自轮流分配后缀
+            int[] salts = i < events.length / 2 ? null : hotKeys.get(key);
+            int upstream = i % parallelism;
+            Tuple2<String, Integer> saltedKey = Tuple2.of(key, salts == null ? 0 : salts[next[upstream]++ % salts.length]);
+            int subtask = KeyGroupRangeAssignment.assignKeyToParallelOperator(saltedKey, MAX_PARALLELISM, parallelism);
+            after[subtask]++;
+            if (i >= events.length / 2) {
+                afterSplit[subtask]++;
+            }
+            deltas.merge(saltedKey, 1L, Long::sum);
+        }
+        check(Arrays.stream(after).sum() == EVENTS, "events after split");
+
+        // 第二阶段只做加法
+        Map<String, Long> pv = new HashMap<>();
+        deltas.forEach((saltedKey, delta) -> pv.merge(saltedKey.f0, delta, Long::sum));
+        check(pv.equals(exact), "pv with parallelism " + parallelism);
+
+        double maxBefore = (double) Arrays.stream(before).max().getAsLong() / EVENTS;
+        double maxAfter = (double) Arrays.stream(afterSplit).max().getAsLong() / (EVENTS - events.length / 2);
+        System.out.printf("%11d | %8d | %20.1f%% | %19.1f%% | %13.2fx | %12.2fx%n",
+                parallelism, hotKeys.size(), maxBefore * 100, maxAfter * 100, 1 / maxBefore, 1 / maxAfter);
+        // 最热的页面超过一个 subtask 的平均流量时，瓶颈是热点 key，拆分之后必须更均衡；否则瓶颈是 hash 本身的不均匀，拆分帮不上忙
+        double hottest = (double) exact.values().stream().mapToLong(Long::longValue).max().getAsLong() / EVENTS;
+        if (hottest > 1.0 / parallelism) {
+            check(maxAfter < maxBefore, "max load with parallelism " + parallelism);
+        }
+    }
+
+    // 页面 i 的访问概率和 1 / (i + 1) ^ s 成正比
+    private static String[] zipf(Random random) {
+        double[] cdf = new double[PAGES];
+        double sum = 0;
+        for (int page = 0; page < PAGES; page++) {
+            sum += 1 / Math.pow(page + 1, ZIPF_EXPONENT);
+            cdf[page] = sum;
+        }
+        String[] events = new String[EVENTS];
+        for (int i = 0; i < EVENTS; i++) {
+            int page = Arrays.binarySearch(cdf, random.nextDouble() * sum);
+            events[i] = String.valueOf(page < 0 ? -page - 1 : page);
+        }
+        return events;
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new IllegalStateException(message);
+        }
+    }
+}
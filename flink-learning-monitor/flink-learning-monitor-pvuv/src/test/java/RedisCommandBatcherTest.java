@@ -0,0 +1,84 @@
+import com.zhisheng.monitor.pvuv.utils.RedisCommandBatcher;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * @author fanrui
+ * @date 2019-11-18 15:20:16
+ * @desc 用本地的 RedisStubServer（每次网络往返 1ms）对比 RedisSink 那样一条数据一次 SADD / SET 和 RedisCommandBatcher 的吞吐：
+ * 20 万条访问记录、50 个页面、2 万个用户，每条记录一次 SADD 日期_pageId userId 和一次 SET uv_日期_pageId 当前 UV，
+ * 中途调用一次 sync()（即 checkpoint 时做的事情），检查 sync 返回时之前的数据是否都已经在 Redis 里，
+ * 最后检查每个页面的 SCARD 和 SET 的值是否和本地精确计算的结果一致，并输出合并前后的命令数
+ */
+public class RedisCommandBatcherTest {
+
+    private static final int EVENTS = 200000;
+    private static final int PAGES = 50;
+    private static final int USERS = 20000;
+
+    public static void main(String[] args) throws Exception {
+        try (RedisStubServer server = new RedisStubServer(1)) {
+            // 一条一条写，只写 2000 条，估算吞吐
+            Random random = new Random(1);
+            long start = System.nanoTime();
+            try (Jedis jedis = new Jedis("127.0.0.1", server.getPort())) {
+                for (int i = 0; i < 2000; i++) {
+                    String key = "baseline_" + random.nextInt(PAGES);
+                    jedis.sadd(key, "user_" + random.nextInt(USERS));
+                    jedis.set("uv_" + key, String.valueOf(i));
+                }
+            }
+            double baselineSeconds = (System.nanoTime() - start) / 1e9;
+            System.out.printf("one command per event: 2000 events in %.2fs, %.0f events/s, stub received %d commands in %d round trips%n",
+                    baselineSeconds, 2000 / baselineSeconds, server.getCommands(), server.getRoundTrips());
+
+            long baselineCommands = server.getCommands();
+            long baselineRoundTrips = server.getRoundTrips();
+            Map<String, Set<String>> expected = new HashMap<>();
+            random = new Random(2);
+            start = System.nanoTime();
+            try (RedisCommandBatcher batcher = new RedisCommandBatcher(new JedisPool("127.0.0.1", server.getPort()), 1000, 200, 4)) {
+                for (int i = 0; i < EVENTS; i++) {
+                    String key = "20191118_" + random.nextInt(PAGES);
+                    String userId = "user_" + random.nextInt(USERS);
+                    Set<String> users = expected.computeIfAbsent(key, k -> new HashSet<>());
+                    users.add(userId);
+                    batcher.sadd(key, userId);
+                    batcher.set("uv_" + key, String.valueOf(users.size()));
+
+                    if (i == EVENTS / 2) {
+                        long syncStart = System.nanoTime();
+                        batcher.sync();
+                        System.out.printf("sync after %d events took %.1f ms, redis up to date: %b%n",
+                                i + 1, (System.nanoTime() - syncStart) / 1e6, check(server, expected));
+                    }
+                }
+                batcher.sync();
+                double seconds = (System.nanoTime() - start) / 1e9;
+                System.out.printf("batched: %d events in %.2fs, %.0f events/s, received %d commands, wrote %d commands in %d batches, "
+                                + "stub received %d commands in %d round trips%n",
+                        EVENTS, seconds, EVENTS / seconds, batcher.getReceivedCommands(), batcher.getWrittenCommands(),
+                        batcher.getWrittenBatches(), server.getCommands() - baselineCommands, server.getRoundTrips() - baselineRoundTrips);
+            }
+            System.out.println("redis equals exact result: " + check(server, expected));
+        }
+    }
+
+    private static boolean check(RedisStubServer server, Map<String, Set<String>> expected) {
+        for (Map.Entry<String, Set<String>> entry : expected.entrySet()) {
+            int uv = entry.getValue().size();
+            if (server.scard(entry.getKey()) != uv || !String.valueOf(uv).equals(server.get("uv_" + entry.getKey()))) {
+                System.out.println(entry.getKey() + " expected " + uv + ", but scard is " + server.scard(entry.getKey())
+                        + ", uv is " + server.get("uv_" + entry.getKey()));
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,207 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @author fanrui
+ * @date 2019-11-18 14:02:51
+ * @desc 测试用的内存版 Redis，实现 RESP 协议和 PING、SET、GET、SADD、SCARD、SISMEMBER、PFADD、PFCOUNT、DEL 几个命令，
+ * PFADD / PFCOUNT 用 set 精确计数；每次读空了客户端发来的数据、要等下一个请求时 sleep rtt 毫秒，模拟一次网络往返，
+ * 这样一条一条发送的命令每条都要等 rtt，pipeline 里的命令只等一次
+ */
+public class RedisStubServer implements AutoCloseable {
+
+    private final ServerSocket serverSocket;
+    private final long rtt;
+    private final Thread acceptor;
+    private final List<Socket> sockets = new ArrayList<>();
+
+    private final Map<String, String> strings = new HashMap<>();
+    private final Map<String, Set<String>> sets = new HashMap<>();
+    private final AtomicLong commands = new AtomicLong();
+    private final AtomicLong roundTrips = new AtomicLong();
+
+    public RedisStubServer(long rtt) throws IOException {
+        this.rtt = rtt;
+        this.serverSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        this.acceptor = new Thread(this::accept, "redis-stub-acceptor");
+        this.acceptor.setDaemon(true);
+        this.acceptor.start();
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    private void accept() {
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket socket = serverSocket.accept();
+                // 和 Jedis 一样关掉 Nagle，否则 pipeline 的响应会被延迟确认拖慢
+                socket.setTcpNoDelay(true);
+                synchronized (sockets) {
+                    sockets.add(socket);
+                }
+                Thread handler = new Thread(() -> handle(socket), "redis-stub-connection");
+                handler.setDaemon(true);
+                handler.start();
+            } catch (IOException e) {
+                return;
+            }
+        }
+    }
+
+    private void handle(Socket socket) {
+        try (InputStream in = new BufferedInputStream(socket.getInputStream());
+             OutputStream out = new BufferedOutputStream(socket.getOutputStream())) {
+            while (true) {
+                if (in.available() == 0) {
+                    // 这一轮的请求都处理完了，返回结果之后等下一轮
+                    out.flush();
+                    roundTrips.incrementAndGet();
+                    if (rtt > 0) {
+                        Thread.sleep(rtt);
+                    }
+                }
+                List<String> command = readCommand(in);
+                commands.incrementAndGet();
+                out.write(execute(command).getBytes(StandardCharsets.UTF_8));
+            }
+        } catch (EOFException | InterruptedException e) {
+            // 客户端断开
+        } catch (IOException e) {
+            if (!serverSocket.isClosed()) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    // RESP 的请求格式：*<参数个数>\r\n 之后每个参数 $<字节数>\r\n<内容>\r\n
+    private static List<String> readCommand(InputStream in) throws IOException {
+        String header = readLine(in);
+        if (!header.startsWith("*")) {
+            throw new IOException("unexpected request " + header);
+        }
+        int count = Integer.parseInt(header.substring(1));
+        List<String> args = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            String length = readLine(in);
+            byte[] bytes = new byte[Integer.parseInt(length.substring(1))];
+            int read = 0;
+            while (read < bytes.length) {
+                int n = in.read(bytes, read, bytes.length - read);
+                if (n < 0) {
+                    throw new EOFException();
+                }
+                read += n;
+            }
+            readLine(in);
+            args.add(new String(bytes, StandardCharsets.UTF_8));
+        }
+        return args;
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int c;
+        while ((c = in.read()) != '\r') {
+            if (c < 0) {
+                throw new EOFException();
+            }
+            line.append((char) c);
+        }
+        in.read();
+        return line.toString();
+    }
+
+    private synchronized String execute(List<String> command) {
+        String name = command.get(0).toUpperCase();
+        switch (name) {
+            case "PING":
+                return "+PONG\r\n";
+            case "SET":
+                sets.remove(command.get(1));
+                strings.put(command.get(1), command.get(2));
+                return "+OK\r\n";
+            case "GET":
+                String value = strings.get(command.get(1));
+                return value == null ? "$-1\r\n" : bulk(value);
+            case "SADD":
+            case "PFADD":
+                Set<String> set = sets.computeIfAbsent(command.get(1), k -> new HashSet<>());
+                int added = 0;
+                for (String member : command.subList(2, command.size())) {
+                    if (set.add(member)) {
+                        added++;
+                    }
+                }
+                // PFADD 返回的是有没有寄存器被修改
+                return ":" + ("PFADD".equals(name) ? Math.min(added, 1) : added) + "\r\n";
+            case "SCARD":
+            case "PFCOUNT":
+                return ":" + sets.getOrDefault(command.get(1), new HashSet<>()).size() + "\r\n";
+            case "SISMEMBER":
+                return ":" + (sets.getOrDefault(command.get(1), new HashSet<>()).contains(command.get(2)) ? 1 : 0) + "\r\n";
+            case "DEL":
+                int deleted = 0;
+                for (String key : command.subList(1, command.size())) {
+                    if (strings.remove(key) != null | sets.remove(key) != null) {
+                        deleted++;
+                    }
+                }
+                return ":" + deleted + "\r\n";
+            default:
+                return "-ERR unknown command '" + command.get(0) + "'\r\n";
+        }
+    }
+
+    private static String bulk(String value) {
+        return "$" + value.getBytes(StandardCharsets.UTF_8).length + "\r\n" + value + "\r\n";
+    }
+
+    public synchronized String get(String key) {
+        return strings.get(key);
+    }
+
+    public synchronized int scard(String key) {
+        return sets.getOrDefault(key, new HashSet<>()).size();
+    }
+
+    /**
+     * 收到的命令数
+     */
+    public long getCommands() {
+        return commands.get();
+    }
+
+    /**
+     * 网络往返次数
+     */
+    public long getRoundTrips() {
+        return roundTrips.get();
+    }
+
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+        synchronized (sockets) {
+            for (Socket socket : sockets) {
+                socket.close();
+            }
+        }
+    }
+}
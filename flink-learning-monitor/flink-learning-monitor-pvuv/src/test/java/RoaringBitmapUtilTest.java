@@ -0,0 +1,89 @@
+import com.zhisheng.monitor.pvuv.utils.RoaringBitmapUtil;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * @author fanrui
+ * @date 2019-11-19 16:10:42
+ * @desc 用 HashSet 校验 RoaringBitmapUtil：10 个页面，200 万个字典编码之后的用户（id 为 0 ~ 2000000），
+ * 热门页面每个用户都有一定概率访问，冷门页面只有少量用户，覆盖 array 和 bitmap 两种 container；
+ * 检查每个页面的 UV、两个页面的交集、所有页面的并集，并输出 bitmap 的大小和 MapState 里 userId 字符串本身的大小（不含 RocksDB 每条记录的开销）
+ */
+public class RoaringBitmapUtilTest {
+
+    private static final int USERS = 2000000;
+    private static final int PAGES = 10;
+
+    public static void main(String[] args) {
+        Random random = new Random(1);
+        Map<Integer, byte[]>[] bitmaps = new Map[PAGES];
+        Set<Integer>[] sets = new Set[PAGES];
+        for (int page = 0; page < PAGES; page++) {
+            bitmaps[page] = new TreeMap<>();
+            sets[page] = new HashSet<>();
+            // 页面 0 的访问概率 50%，之后每个页面减半
+            double probability = 0.5 / (1 << page);
+            for (int user = 0; user < USERS; user++) {
+                if (random.nextDouble() < probability) {
+                    boolean added = !RoaringBitmapUtil.contains(bitmaps[page], user);
+                    RoaringBitmapUtil.add(bitmaps[page], user);
+                    if (added != sets[page].add(user)) {
+                        throw new IllegalStateException("page " + page + " user " + user + " mismatch");
+                    }
+                }
+            }
+            // 重复访问不影响结果
+            for (int i = 0; i < 10000; i++) {
+                int user = random.nextInt(USERS);
+                if (sets[page].contains(user)) {
+                    RoaringBitmapUtil.add(bitmaps[page], user);
+                }
+            }
+            long bitmapBytes = bitmaps[page].values().stream().mapToLong(container -> container.length).sum();
+            long userIdBytes = sets[page].stream().mapToLong(user -> String.valueOf(user).getBytes(StandardCharsets.UTF_8).length).sum();
+            System.out.printf("page %d: uv %7d, exact %7d, %3d containers, bitmap %8d bytes (%.2f bytes/user), userId strings %8d bytes%n",
+                    page, RoaringBitmapUtil.cardinality(bitmaps[page]), sets[page].size(), bitmaps[page].size(), bitmapBytes,
+                    (double) bitmapBytes / Math.max(1, sets[page].size()), userIdBytes);
+            check(RoaringBitmapUtil.cardinality(bitmaps[page]) == sets[page].size(), "uv of page " + page);
+        }
+
+        for (int a = 0; a < PAGES; a += 3) {
+            for (int b = a + 1; b < PAGES; b += 4) {
+                Set<Integer> intersection = new HashSet<>(sets[a]);
+                intersection.retainAll(sets[b]);
+                SortedMap<Integer, byte[]> and = RoaringBitmapUtil.and(bitmaps[a], bitmaps[b]);
+                System.out.printf("page %d AND page %d: %d, exact %d%n", a, b, RoaringBitmapUtil.cardinality(and), intersection.size());
+                check(RoaringBitmapUtil.cardinality(and) == intersection.size(), "and of " + a + ", " + b);
+                for (int user : intersection) {
+                    check(RoaringBitmapUtil.contains(and, user), "and contains " + user);
+                }
+            }
+        }
+
+        SortedMap<Integer, byte[]> all = new TreeMap<>();
+        Set<Integer> union = new HashSet<>();
+        for (int page = 0; page < PAGES; page++) {
+            all = RoaringBitmapUtil.or(all, bitmaps[page]);
+            union.addAll(sets[page]);
+        }
+        System.out.printf("OR of all pages: %d, exact %d%n", RoaringBitmapUtil.cardinality(all), union.size());
+        check(RoaringBitmapUtil.cardinality(all) == union.size(), "or of all pages");
+        // or / and 不能修改参数
+        for (int page = 0; page < PAGES; page++) {
+            check(RoaringBitmapUtil.cardinality(bitmaps[page]) == sets[page].size(), "page " + page + " unchanged");
+        }
+        System.out.println("all checks passed");
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new IllegalStateException("check failed: " + message);
+        }
+    }
+}
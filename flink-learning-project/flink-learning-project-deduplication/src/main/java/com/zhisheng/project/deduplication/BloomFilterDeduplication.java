@@ -0,0 +1,191 @@
+package com.zhisheng.project.deduplication;
+
+
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import com.zhisheng.common.utils.GsonUtil;
+import com.zhisheng.project.deduplication.model.UserVisitWebEvent;
+import com.zhisheng.project.deduplication.utils.BloomFilterUtil;
+import com.zhisheng.project.deduplication.utils.DeduplicationExampleUtil;
+import org.apache.flink.api.common.serialization.SimpleStringSchema;
+import org.apache.flink.api.common.state.MapState;
+import org.apache.flink.api.common.state.MapStateDescriptor;
+import org.apache.flink.api.common.state.ValueState;
+import org.apache.flink.api.common.state.ValueStateDescriptor;
+import org.apache.flink.api.common.typeinfo.PrimitiveArrayTypeInfo;
+import org.apache.flink.api.common.typeinfo.Types;
+import org.apache.flink.api.java.functions.KeySelector;
+import org.apache.flink.configuration.Configuration;
+import org.apache.flink.metrics.Counter;
+import org.apache.flink.runtime.state.hashmap.HashMapStateBackend;
+import org.apache.flink.streaming.api.CheckpointingMode;
+import org.apache.flink.streaming.api.environment.CheckpointConfig;
+import org.apache.flink.streaming.api.environment.StreamExecutionEnvironment;
+import org.apache.flink.streaming.api.functions.KeyedProcessFunction;
+import org.apache.flink.streaming.api.functions.sink.DiscardingSink;
+import org.apache.flink.streaming.connectors.kafka.FlinkKafkaConsumer;
+import org.apache.flink.streaming.connectors.kafka.FlinkKafkaConsumerBase;
+import org.apache.flink.util.Collector;
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author fanrui
+ * @date 2019-11-12 11:20:08
+ * @desc 基于按时间轮转的 Bloom Filter 去重：
+ * 按 id hash 后的粗粒度分桶 keyBy（桶的个数远大于并行度，扩缩容时按 key group 重新分配），
+ * 每个桶在 MapState 里保存一组 Bloom Filter（byte[]），每个时间片（默认 1 小时）一个，超出保留时间（默认 36 小时）的整片删除；
+ * 一个时间片里插入的元素超过预期个数时再追加一个 filter，保证误判率不会因为流量突增而变高
+ * 和 KeyedStateDeduplication 每个 id 一条 ValueState 相比，每个 id 只占二十几个 bit（fpp = 0.001 时），状态小一到两个数量级，
+ * 代价是有 fpp 的概率把新 id 误判为重复（不会把重复 id 误判为新的）
+ * Bloom Filter 每次访问都要读整个 byte[]，所以适合用 HashMapStateBackend（状态变小之后放得进内存），不适合 RocksDB
+ */
+public class BloomFilterDeduplication {
+
+    // 每天 10 亿 id，分成 16384 个桶，每个桶每小时约 2500 个 id
+    private static final int NUM_BUCKETS = 16384;
+    private static final long EXPECTED_INSERTIONS_PER_SLICE = 2560;
+    private static final double FPP = 0.001;
+
+    public static void main(String[] args) throws Exception {
+
+        StreamExecutionEnvironment env = StreamExecutionEnvironment.getExecutionEnvironment();
+        env.setParallelism(6);
+        // 桶的个数要大于最大并行度，否则扩容后有的 subtask 分不到数据
+        env.setMaxParallelism(4096);
+
+        // Bloom Filter 状态放在堆上
+        env.setStateBackend(new HashMapStateBackend());
+
+        // Checkpoint 间隔为 10 分钟
+        env.enableCheckpointing(TimeUnit.MINUTES.toMillis(10));
+        CheckpointConfig checkpointConf = env.getCheckpointConfig();
+        checkpointConf.setCheckpointStorage("hdfs:///flink/checkpoints");
+        checkpointConf.setCheckpointingMode(CheckpointingMode.EXACTLY_ONCE);
+        checkpointConf.setMinPauseBetweenCheckpoints(TimeUnit.MINUTES.toMillis(8));
+        checkpointConf.setCheckpointTimeout(TimeUnit.MINUTES.toMillis(20));
+        checkpointConf.enableExternalizedCheckpoints(
+                CheckpointConfig.ExternalizedCheckpointCleanup.RETAIN_ON_CANCELLATION);
+
+        // Kafka Consumer 配置
+        Properties props = new Properties();
+        props.put(ConsumerConfig.BOOTSTRAP_SERVERS_CONFIG, DeduplicationExampleUtil.broker_list);
+        props.put(ConsumerConfig.GROUP_ID_CONFIG, "bloom-filter-deduplication");
+        FlinkKafkaConsumerBase<String> kafkaConsumer = new FlinkKafkaConsumer<>(
+                DeduplicationExampleUtil.topic, new SimpleStringSchema(), props)
+                .setStartFromGroupOffsets();
+
+        env.addSource(kafkaConsumer)
+                .map(log -> GsonUtil.fromJson(log, UserVisitWebEvent.class))  // 反序列化 JSON
+                .keyBy((KeySelector<UserVisitWebEvent, Integer>) log -> bucket(log.getId(), NUM_BUCKETS))
+                .process(new BloomFilterDeduplicateFunction(TimeUnit.HOURS.toMillis(36), TimeUnit.HOURS.toMillis(1),
+                        EXPECTED_INSERTIONS_PER_SLICE, FPP))
+                // ... 这里执行去重之后的处理逻辑
+                .addSink(new DiscardingSink<>());
+
+        env.execute("BloomFilterDeduplication");
+    }
+
+    /**
+     * id 所在的桶，和 Bloom Filter 用的 hash 相互独立
+     */
+    public static int bucket(String id, int numBuckets) {
+        return Math.floorMod(Hashing.murmur3_32().hashUnencodedChars(id).asInt(), numBuckets);
+    }
+
+    // 输出第一次出现的数据，重复的数据被过滤
+    public static class BloomFilterDeduplicateFunction extends KeyedProcessFunction<Integer, UserVisitWebEvent, UserVisitWebEvent> {
+
+        private final long retention;
+        private final long sliceSize;
+        private final long expectedInsertionsPerSlice;
+        // 每个 filter 的误判率，所有同时存在的 filter 加起来约等于总的误判率
+        private final double filterFpp;
+
+        // filter id -> Bloom Filter，filter id = 时间片开始时间 + 该时间片内的序号
+        private transient MapState<Long, byte[]> filters;
+        // 最近一次处理数据时所在的时间片，时间片变化时清理过期的 filter
+        private transient ValueState<Long> lastSlice;
+        private transient Counter duplicates;
+
+        public BloomFilterDeduplicateFunction(long retention, long sliceSize, long expectedInsertionsPerSlice, double fpp) {
+            if (sliceSize <= 0 || retention < sliceSize) {
+                throw new IllegalArgumentException("retention must be no less than sliceSize, but are " + retention + ", " + sliceSize);
+            }
+            this.retention = retention;
+            this.sliceSize = sliceSize;
+            this.expectedInsertionsPerSlice = expectedInsertionsPerSlice;
+            // 保留期内同时存在 retention / sliceSize + 1 个时间片
+            this.filterFpp = 1 - Math.pow(1 - fpp, 1.0 / (retention / sliceSize + 1));
+        }
+
+        @Override
+        public void open(Configuration parameters) throws Exception {
+            super.open(parameters);
+            filters = getRuntimeContext().getMapState(new MapStateDescriptor<>("BloomFilterDeduplication",
+                    Types.LONG, PrimitiveArrayTypeInfo.BYTE_PRIMITIVE_ARRAY_TYPE_INFO));
+            lastSlice = getRuntimeContext().getState(new ValueStateDescriptor<>("BloomFilterDeduplicationSlice", Types.LONG));
+            duplicates = getRuntimeContext().getMetricGroup().counter("duplicates");
+        }
+
+        @Override
+        public void processElement(UserVisitWebEvent value, Context ctx, Collector<UserVisitWebEvent> out) throws Exception {
+            long now = ctx.timerService().currentProcessingTime();
+            long slice = now - Math.floorMod(now, sliceSize);
+            Long last = lastSlice.value();
+            if (last == null || last != slice) {
+                expire(now);
+                lastSlice.update(slice);
+            }
+
+            HashCode hash = BloomFilterUtil.hash(value.getId());
+            ByteBuffer bytes = ByteBuffer.wrap(hash.asBytes()).order(ByteOrder.LITTLE_ENDIAN);
+            long hash1 = bytes.getLong(0);
+            long hash2 = bytes.getLong(8);
+
+            // 当前时间片里最新的 filter
+            long currentId = Long.MIN_VALUE;
+            byte[] current = null;
+            for (Map.Entry<Long, byte[]> entry : filters.entries()) {
+                if (BloomFilterUtil.mightContain(entry.getValue(), hash1, hash2)) {
+                    // 之前已经出现过（或者误判），过滤掉
+                    duplicates.inc();
+                    return;
+                }
+                if (entry.getKey() >= slice && entry.getKey() > currentId) {
+                    currentId = entry.getKey();
+                    current = entry.getValue();
+                }
+            }
+            if (current == null) {
+                currentId = slice;
+                current = BloomFilterUtil.create(expectedInsertionsPerSlice, filterFpp);
+            } else if (BloomFilterUtil.count(current) >= expectedInsertionsPerSlice) {
+                // 当前 filter 已经装满，再追加一个，避免误判率升高
+                currentId = currentId + 1;
+                current = BloomFilterUtil.create(expectedInsertionsPerSlice, filterFpp);
+            }
+            BloomFilterUtil.put(current, hash1, hash2);
+            // HashMapStateBackend 下 byte[] 是原地修改的，put 只是为了兼容其他状态后端
+            filters.put(currentId, current);
+            out.collect(value);
+        }
+
+        private void expire(long now) throws Exception {
+            Iterator<Long> iterator = filters.keys().iterator();
+            while (iterator.hasNext()) {
+                long id = iterator.next();
+                long sliceEnd = id - Math.floorMod(id, sliceSize) + sliceSize;
+                if (sliceEnd <= now - retention) {
+                    iterator.remove();
+                }
+            }
+        }
+    }
+}
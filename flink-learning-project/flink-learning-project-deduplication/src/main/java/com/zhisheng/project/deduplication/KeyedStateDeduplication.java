@@ -32,6 +32,11 @@ import java.util.concurrent.TimeUnit;
  */
 public class KeyedStateDeduplication {
 
+    // 加 uid 之前 Flink 按拓扑自动生成的算子 id（TuningKeyedStateDeduplication 的拓扑相同，id 也相同），
+    // 用 setUidHash 固定下来，之前的 savepoint 里的 Kafka offset 和去重状态照常恢复
+    public static final String SOURCE_UID_HASH = "cbc357ccb763df2852fee8c4fc7d55f2";
+    public static final String SINK_UID_HASH = "9dd63673dd41ea021b896d5203f3ba7c";
+
     public static void main(String[] args) throws Exception {
 
         StreamExecutionEnvironment env = StreamExecutionEnvironment.getExecutionEnvironment();
@@ -64,10 +69,12 @@ public class KeyedStateDeduplication {
                 DeduplicationExampleUtil.topic, new SimpleStringSchema(), props)
                 .setStartFromGroupOffsets();
 
-        env.addSource(kafkaConsumer)
+        env.addSource(kafkaConsumer).uid("kafka-source").setUidHash(SOURCE_UID_HASH)
                 .map(log -> GsonUtil.fromJson(log, UserVisitWebEvent.class))  // 反序列化 JSON
                 .keyBy((KeySelector<UserVisitWebEvent, String>) UserVisitWebEvent::getId)
-                .addSink(new KeyedStateSink());
+                .addSink(new KeyedStateSink())
+                // 固定 uid，DeduplicationStateCompactor 按 uid 读写这个算子的状态
+                .uid("keyed-state-deduplication").setUidHash(SINK_UID_HASH);
 
         env.execute("KeyedStateDeduplication");
     }
@@ -0,0 +1,243 @@
+package com.zhisheng.project.deduplication;
+
+
+import com.google.common.hash.Hashing;
+import com.zhisheng.common.utils.GsonUtil;
+import com.zhisheng.project.deduplication.model.UserVisitWebEvent;
+import com.zhisheng.project.deduplication.utils.DeduplicationExampleUtil;
+import com.zhisheng.project.deduplication.utils.OffHeapLongHashSet;
+import org.apache.flink.api.common.serialization.SimpleStringSchema;
+import org.apache.flink.api.common.typeinfo.TypeInformation;
+import org.apache.flink.api.java.functions.KeySelector;
+import org.apache.flink.core.memory.DataInputViewStreamWrapper;
+import org.apache.flink.core.memory.DataOutputViewStreamWrapper;
+import org.apache.flink.metrics.Counter;
+import org.apache.flink.metrics.Gauge;
+import org.apache.flink.runtime.state.KeyGroupRange;
+import org.apache.flink.runtime.state.KeyGroupRangeAssignment;
+import org.apache.flink.runtime.state.KeyGroupStatePartitionStreamProvider;
+import org.apache.flink.runtime.state.KeyedStateCheckpointOutputStream;
+import org.apache.flink.runtime.state.StateInitializationContext;
+import org.apache.flink.runtime.state.StateSnapshotContext;
+import org.apache.flink.runtime.state.hashmap.HashMapStateBackend;
+import org.apache.flink.streaming.api.CheckpointingMode;
+import org.apache.flink.streaming.api.environment.CheckpointConfig;
+import org.apache.flink.streaming.api.environment.StreamExecutionEnvironment;
+import org.apache.flink.streaming.api.functions.sink.DiscardingSink;
+import org.apache.flink.streaming.api.operators.AbstractStreamOperator;
+import org.apache.flink.streaming.api.operators.OneInputStreamOperator;
+import org.apache.flink.streaming.connectors.kafka.FlinkKafkaConsumer;
+import org.apache.flink.streaming.connectors.kafka.FlinkKafkaConsumerBase;
+import org.apache.flink.streaming.runtime.streamrecord.StreamRecord;
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+
+import java.io.BufferedInputStream;
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author fanrui
+ * @date 2019-11-13 11:02:37
+ * @desc 在 TuningKeyedStateDeduplication 的基础上，把 id hash 出来的 long 放在堆外的 OffHeapLongHashSet 里去重，不再经过状态后端：
+ * 每个 key group 按时间段（默认 6 小时）各保存一个集合，超出保留时间（默认 36 小时）的整段释放，没有 TTL 元数据和逐条清理；
+ * Checkpoint 时把每个 key group 的集合排序后按 varint 差值写到 raw keyed state，扩缩容时按 key group 重新分配
+ * 和 RocksDB 相比每次查询都是内存访问，每个 id 在内存里占 16 ~ 32 字节、在 Checkpoint 里约 6 字节，
+ * 适合每个 subtask 几千万 id 的场景；注意这部分内存不归 Flink 管理，需要相应调大 taskmanager.memory.task.off-heap.size
+ * 快照在 Checkpoint 同步阶段完成，id 很多时同步阶段会变长
+ */
+public class OffHeapStateDeduplication {
+
+    public static void main(String[] args) throws Exception {
+
+        StreamExecutionEnvironment env = StreamExecutionEnvironment.getExecutionEnvironment();
+        env.setParallelism(6);
+
+        // 去重的数据不放在状态后端里，状态后端只负责把 raw keyed state 写到 Checkpoint
+        env.setStateBackend(new HashMapStateBackend());
+
+        // Checkpoint 间隔为 10 分钟
+        env.enableCheckpointing(TimeUnit.MINUTES.toMillis(10));
+        CheckpointConfig checkpointConf = env.getCheckpointConfig();
+        checkpointConf.setCheckpointStorage("hdfs:///flink/checkpoints");
+        checkpointConf.setCheckpointingMode(CheckpointingMode.EXACTLY_ONCE);
+        checkpointConf.setMinPauseBetweenCheckpoints(TimeUnit.MINUTES.toMillis(8));
+        checkpointConf.setCheckpointTimeout(TimeUnit.MINUTES.toMillis(20));
+        checkpointConf.enableExternalizedCheckpoints(
+                CheckpointConfig.ExternalizedCheckpointCleanup.RETAIN_ON_CANCELLATION);
+
+        // Kafka Consumer 配置
+        Properties props = new Properties();
+        props.put(ConsumerConfig.BOOTSTRAP_SERVERS_CONFIG, DeduplicationExampleUtil.broker_list);
+        props.put(ConsumerConfig.GROUP_ID_CONFIG, "off-heap-state-deduplication");
+        FlinkKafkaConsumerBase<String> kafkaConsumer = new FlinkKafkaConsumer<>(
+                DeduplicationExampleUtil.topic, new SimpleStringSchema(), props)
+                .setStartFromGroupOffsets();
+
+        env.addSource(kafkaConsumer)
+                .map(log -> GsonUtil.fromJson(log, UserVisitWebEvent.class))  // 反序列化 JSON
+                // 和 TuningKeyedStateDeduplication 一样，将 id 通过 murmur3_128 hash 成 long 当做 key
+                .keyBy((KeySelector<UserVisitWebEvent, Long>) log ->
+                        Hashing.murmur3_128(5).hashUnencodedChars(log.getId()).asLong())
+                .transform("OffHeapDeduplicate", TypeInformation.of(UserVisitWebEvent.class),
+                        new OffHeapDeduplicateOperator(TimeUnit.HOURS.toMillis(36), TimeUnit.HOURS.toMillis(6), 1024))
+                // ... 这里执行去重之后的处理逻辑
+                .addSink(new DiscardingSink<>());
+
+        env.execute("OffHeapStateDeduplication");
+    }
+
+    // 输出第一次出现的数据，重复的数据被过滤，上游必须按 id 的 long hash keyBy
+    public static class OffHeapDeduplicateOperator extends AbstractStreamOperator<UserVisitWebEvent>
+            implements OneInputStreamOperator<UserVisitWebEvent, UserVisitWebEvent> {
+
+        private final long retention;
+        private final long segmentSize;
+        private final int initialCapacity;
+
+        private transient KeyGroupRange keyGroupRange;
+        private transient int maxParallelism;
+        // key group - keyGroupRange.getStartKeyGroup() -> (时间段开始时间 -> 该时间段内出现过的 id)
+        private transient TreeMap<Long, OffHeapLongHashSet>[] segments;
+        private transient Counter duplicates;
+        // 只在 task 线程里修改，metric 线程读取
+        private transient volatile long ids;
+        private transient volatile long offHeapBytes;
+
+        public OffHeapDeduplicateOperator(long retention, long segmentSize, int initialCapacity) {
+            if (segmentSize <= 0 || retention < segmentSize) {
+                throw new IllegalArgumentException("retention must be no less than segmentSize, but are " + retention + ", " + segmentSize);
+            }
+            this.retention = retention;
+            this.segmentSize = segmentSize;
+            this.initialCapacity = initialCapacity;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public void initializeState(StateInitializationContext context) throws Exception {
+            super.initializeState(context);
+            maxParallelism = getRuntimeContext().getMaxNumberOfParallelSubtasks();
+            keyGroupRange = KeyGroupRangeAssignment.computeKeyGroupRangeForOperatorIndex(maxParallelism,
+                    getRuntimeContext().getNumberOfParallelSubtasks(), getRuntimeContext().getIndexOfThisSubtask());
+            segments = new TreeMap[keyGroupRange.getNumberOfKeyGroups()];
+            for (int i = 0; i < segments.length; i++) {
+                segments[i] = new TreeMap<>();
+            }
+
+            // 扩缩容后只会收到属于当前 subtask 的 key group
+            for (KeyGroupStatePartitionStreamProvider provider : context.getRawKeyedStateInputs()) {
+                TreeMap<Long, OffHeapLongHashSet> keyGroupSegments = segments[provider.getKeyGroupId() - keyGroupRange.getStartKeyGroup()];
+                try (InputStream in = provider.getStream()) {
+                    DataInputViewStreamWrapper view = new DataInputViewStreamWrapper(new BufferedInputStream(in));
+                    int count = view.readInt();
+                    for (int i = 0; i < count; i++) {
+                        long segmentStart = view.readLong();
+                        OffHeapLongHashSet set = OffHeapLongHashSet.readSorted(view);
+                        keyGroupSegments.put(segmentStart, set);
+                        ids += set.size();
+                        offHeapBytes += set.memorySize();
+                    }
+                }
+            }
+        }
+
+        @Override
+        public void open() throws Exception {
+            super.open();
+            duplicates = getMetricGroup().counter("duplicates");
+            getMetricGroup().gauge("deduplicationIds", (Gauge<Long>) () -> ids);
+            getMetricGroup().gauge("deduplicationOffHeapBytes", (Gauge<Long>) () -> offHeapBytes);
+            // 恢复出来的数据可能已经过期，先清理一次
+            expire(getProcessingTimeService().getCurrentProcessingTime());
+        }
+
+        @Override
+        public void processElement(StreamRecord<UserVisitWebEvent> element) throws Exception {
+            long id = (Long) getCurrentKey();
+            int keyGroup = KeyGroupRangeAssignment.assignToKeyGroup(id, maxParallelism);
+            TreeMap<Long, OffHeapLongHashSet> keyGroupSegments = segments[keyGroup - keyGroupRange.getStartKeyGroup()];
+            for (OffHeapLongHashSet set : keyGroupSegments.values()) {
+                if (set.contains(id)) {
+                    duplicates.inc();
+                    return;
+                }
+            }
+
+            long now = getProcessingTimeService().getCurrentProcessingTime();
+            long segmentStart = now - Math.floorMod(now, segmentSize);
+            OffHeapLongHashSet current = keyGroupSegments.get(segmentStart);
+            if (current == null) {
+                // 按上一个时间段的大小分配，减少扩容时的 rehash
+                Map.Entry<Long, OffHeapLongHashSet> previous = keyGroupSegments.lastEntry();
+                current = new OffHeapLongHashSet(previous == null ? initialCapacity : Math.max(initialCapacity, previous.getValue().size()));
+                keyGroupSegments.put(segmentStart, current);
+                offHeapBytes += current.memorySize();
+            }
+            long before = current.memorySize();
+            current.add(id);
+            ids++;
+            offHeapBytes += current.memorySize() - before;
+            output.collect(element);
+        }
+
+        @Override
+        public void snapshotState(StateSnapshotContext context) throws Exception {
+            super.snapshotState(context);
+            KeyedStateCheckpointOutputStream out = context.getRawKeyedOperatorStateOutput();
+            for (int keyGroup : out.getKeyGroupList()) {
+                out.startNewKeyGroup(keyGroup);
+                DataOutputViewStreamWrapper view = new DataOutputViewStreamWrapper(out);
+                TreeMap<Long, OffHeapLongHashSet> keyGroupSegments = segments[keyGroup - keyGroupRange.getStartKeyGroup()];
+                view.writeInt(keyGroupSegments.size());
+                for (Map.Entry<Long, OffHeapLongHashSet> entry : keyGroupSegments.entrySet()) {
+                    view.writeLong(entry.getKey());
+                    entry.getValue().writeSorted(view);
+                }
+            }
+        }
+
+        @Override
+        protected boolean isUsingCustomRawKeyedState() {
+            return true;
+        }
+
+        @Override
+        public void close() throws Exception {
+            try {
+                super.close();
+            } finally {
+                if (segments != null) {
+                    for (TreeMap<Long, OffHeapLongHashSet> keyGroupSegments : segments) {
+                        for (OffHeapLongHashSet set : keyGroupSegments.values()) {
+                            set.free();
+                        }
+                        keyGroupSegments.clear();
+                    }
+                }
+            }
+        }
+
+        // 删除结束时间早于 now - retention 的时间段，并注册下一个时间段开始时的定时器
+        private void expire(long now) {
+            for (TreeMap<Long, OffHeapLongHashSet> keyGroupSegments : segments) {
+                Iterator<Map.Entry<Long, OffHeapLongHashSet>> iterator = keyGroupSegments.entrySet().iterator();
+                while (iterator.hasNext()) {
+                    Map.Entry<Long, OffHeapLongHashSet> entry = iterator.next();
+                    if (entry.getKey() + segmentSize > now - retention) {
+                        break;
+                    }
+                    ids -= entry.getValue().size();
+                    offHeapBytes -= entry.getValue().memorySize();
+                    entry.getValue().free();
+                    iterator.remove();
+                }
+            }
+            long nextSegment = now - Math.floorMod(now, segmentSize) + segmentSize;
+            getProcessingTimeService().registerTimer(nextSegment, this::expire);
+        }
+    }
+}
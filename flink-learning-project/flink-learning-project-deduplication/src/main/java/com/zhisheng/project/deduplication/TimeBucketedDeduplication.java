@@ -0,0 +1,158 @@
+package com.zhisheng.project.deduplication;
+
+
+import com.zhisheng.common.utils.GsonUtil;
+import com.zhisheng.project.deduplication.model.UserVisitWebEvent;
+import com.zhisheng.project.deduplication.utils.DeduplicationExampleUtil;
+import org.apache.flink.api.common.serialization.SimpleStringSchema;
+import org.apache.flink.api.common.state.MapState;
+import org.apache.flink.api.common.state.MapStateDescriptor;
+import org.apache.flink.api.common.typeinfo.TypeInformation;
+import org.apache.flink.api.common.typeinfo.Types;
+import org.apache.flink.api.common.typeutils.base.LongSerializer;
+import org.apache.flink.api.java.functions.KeySelector;
+import org.apache.flink.contrib.streaming.state.EmbeddedRocksDBStateBackend;
+import org.apache.flink.contrib.streaming.state.PredefinedOptions;
+import org.apache.flink.metrics.Counter;
+import org.apache.flink.streaming.api.CheckpointingMode;
+import org.apache.flink.streaming.api.environment.CheckpointConfig;
+import org.apache.flink.streaming.api.environment.StreamExecutionEnvironment;
+import org.apache.flink.streaming.api.functions.sink.DiscardingSink;
+import org.apache.flink.streaming.api.operators.AbstractStreamOperator;
+import org.apache.flink.streaming.api.operators.InternalTimer;
+import org.apache.flink.streaming.api.operators.InternalTimerService;
+import org.apache.flink.streaming.api.operators.OneInputStreamOperator;
+import org.apache.flink.streaming.api.operators.Triggerable;
+import org.apache.flink.streaming.connectors.kafka.FlinkKafkaConsumer;
+import org.apache.flink.streaming.connectors.kafka.FlinkKafkaConsumerBase;
+import org.apache.flink.streaming.runtime.streamrecord.StreamRecord;
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author fanrui
+ * @date 2019-11-14 10:21:46
+ * @desc 按小时分桶的 MapState 去重，替代 KeyedStateDeduplication 里依赖 RocksDB compaction filter 的 State TTL：
+ * 按 id hash 后的粗粒度分桶 keyBy，每个桶里的 id 按到达时间所在的小时写进不同 namespace 的 MapState（和窗口算子用 namespace 区分窗口一样），
+ * 每个桶每小时只注册一个定时器，小时桶离开保留时间（默认 36 小时）时整体 clear，定时器个数和桶数成正比，和 id 个数无关；
+ * 读的时候不再需要检查每条数据的时间戳，过期数据也不会一直留到 compaction 才被删除
+ * 代价是一个新 id 要查询保留时间内的所有小时桶（从最新的小时开始查，重复数据一般很快命中），RocksDB 的 bloom filter 可以减少这些不存在的 key 的读放大
+ */
+public class TimeBucketedDeduplication {
+
+    private static final int NUM_BUCKETS = 16384;
+
+    public static void main(String[] args) throws Exception {
+
+        StreamExecutionEnvironment env = StreamExecutionEnvironment.getExecutionEnvironment();
+        env.setParallelism(6);
+        env.setMaxParallelism(4096);
+
+        // 使用 RocksDB 做为状态后端，并开启增量 Checkpoint
+        EmbeddedRocksDBStateBackend rocksDBStateBackend = new EmbeddedRocksDBStateBackend(true);
+        rocksDBStateBackend.setNumberOfTransferThreads(3);
+        rocksDBStateBackend.setPredefinedOptions(PredefinedOptions.SPINNING_DISK_OPTIMIZED_HIGH_MEM);
+        env.setStateBackend(rocksDBStateBackend);
+
+        // Checkpoint 间隔为 10 分钟
+        env.enableCheckpointing(TimeUnit.MINUTES.toMillis(10));
+        CheckpointConfig checkpointConf = env.getCheckpointConfig();
+        checkpointConf.setCheckpointStorage("hdfs:///flink/checkpoints");
+        checkpointConf.setCheckpointingMode(CheckpointingMode.EXACTLY_ONCE);
+        checkpointConf.setMinPauseBetweenCheckpoints(TimeUnit.MINUTES.toMillis(8));
+        checkpointConf.setCheckpointTimeout(TimeUnit.MINUTES.toMillis(20));
+        checkpointConf.enableExternalizedCheckpoints(
+                CheckpointConfig.ExternalizedCheckpointCleanup.RETAIN_ON_CANCELLATION);
+
+        // Kafka Consumer 配置
+        Properties props = new Properties();
+        props.put(ConsumerConfig.BOOTSTRAP_SERVERS_CONFIG, DeduplicationExampleUtil.broker_list);
+        props.put(ConsumerConfig.GROUP_ID_CONFIG, "time-bucketed-deduplication");
+        FlinkKafkaConsumerBase<String> kafkaConsumer = new FlinkKafkaConsumer<>(
+                DeduplicationExampleUtil.topic, new SimpleStringSchema(), props)
+                .setStartFromGroupOffsets();
+
+        env.addSource(kafkaConsumer)
+                .map(log -> GsonUtil.fromJson(log, UserVisitWebEvent.class))  // 反序列化 JSON
+                .keyBy((KeySelector<UserVisitWebEvent, Integer>) log -> BloomFilterDeduplication.bucket(log.getId(), NUM_BUCKETS))
+                .transform("TimeBucketedDeduplicate", TypeInformation.of(UserVisitWebEvent.class),
+                        new TimeBucketedDeduplicateOperator(TimeUnit.HOURS.toMillis(36), TimeUnit.HOURS.toMillis(1)))
+                // ... 这里执行去重之后的处理逻辑
+                .addSink(new DiscardingSink<>());
+
+        env.execute("TimeBucketedDeduplication");
+    }
+
+    // 输出第一次出现的数据，重复的数据被过滤；要用 namespace 和带 namespace 的定时器，所以实现成算子而不是 KeyedProcessFunction
+    public static class TimeBucketedDeduplicateOperator extends AbstractStreamOperator<UserVisitWebEvent>
+            implements OneInputStreamOperator<UserVisitWebEvent, UserVisitWebEvent>, Triggerable<Integer, Long> {
+
+        private final MapStateDescriptor<String, Boolean> seen =
+                new MapStateDescriptor<>("TimeBucketedDeduplication", Types.STRING, Types.BOOLEAN);
+        private final long retention;
+        private final long bucketSize;
+
+        private transient InternalTimerService<Long> timerService;
+        // 桶 -> 最近一次注册过清理定时器的小时，只是为了少调用 registerProcessingTimeTimer，丢失后重复注册也没有影响
+        private transient Map<Integer, Long> registered;
+        private transient Counter duplicates;
+
+        public TimeBucketedDeduplicateOperator(long retention, long bucketSize) {
+            if (bucketSize <= 0 || retention < bucketSize) {
+                throw new IllegalArgumentException("retention must be no less than bucketSize, but are " + retention + ", " + bucketSize);
+            }
+            this.retention = retention;
+            this.bucketSize = bucketSize;
+        }
+
+        @Override
+        public void open() throws Exception {
+            super.open();
+            timerService = getInternalTimerService("TimeBucketedDeduplicationTimers", LongSerializer.INSTANCE, this);
+            registered = new HashMap<>();
+            duplicates = getMetricGroup().counter("duplicates");
+        }
+
+        @Override
+        public void processElement(StreamRecord<UserVisitWebEvent> element) throws Exception {
+            String id = element.getValue().getId();
+            long now = timerService.currentProcessingTime();
+            long current = now - Math.floorMod(now, bucketSize);
+
+            // 从最新的小时桶往前查，已经过期但定时器还没触发的桶不再查
+            for (long bucket = current; bucket + bucketSize > now - retention; bucket -= bucketSize) {
+                if (bucketState(bucket).contains(id)) {
+                    duplicates.inc();
+                    return;
+                }
+            }
+
+            bucketState(current).put(id, true);
+            Integer key = (Integer) getCurrentKey();
+            Long last = registered.get(key);
+            if (last == null || last != current) {
+                timerService.registerProcessingTimeTimer(current, current + bucketSize + retention);
+                registered.put(key, current);
+            }
+            output.collect(element);
+        }
+
+        @Override
+        public void onProcessingTime(InternalTimer<Integer, Long> timer) throws Exception {
+            // 整个小时桶一起删除
+            bucketState(timer.getNamespace()).clear();
+        }
+
+        @Override
+        public void onEventTime(InternalTimer<Integer, Long> timer) {
+        }
+
+        private MapState<String, Boolean> bucketState(long bucket) throws Exception {
+            return getPartitionedState(bucket, LongSerializer.INSTANCE, seen);
+        }
+    }
+}
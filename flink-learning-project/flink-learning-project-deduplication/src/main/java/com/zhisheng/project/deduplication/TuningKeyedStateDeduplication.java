@@ -52,12 +52,13 @@ public class TuningKeyedStateDeduplication {
                 DeduplicationExampleUtil.topic, new SimpleStringSchema(), props)
                 .setStartFromLatest();
 
-        env.addSource(kafkaConsumer)
+        env.addSource(kafkaConsumer).uid("kafka-source").setUidHash(KeyedStateDeduplication.SOURCE_UID_HASH)
             .map(string -> GsonUtil.fromJson(string, UserVisitWebEvent.class))  // 反序列化 JSON
             // 这里将日志的主键 id 通过 murmur3_128 hash 后，将生成 long 类型数据当做 key
             .keyBy((KeySelector<UserVisitWebEvent, Long>) log ->
                     Hashing.murmur3_128(5).hashUnencodedChars(log.getId()).asLong())
-            .addSink(new KeyedStateDeduplication.KeyedStateSink());
+            .addSink(new KeyedStateDeduplication.KeyedStateSink())
+            .uid("tuning-keyed-state-deduplication").setUidHash(KeyedStateDeduplication.SINK_UID_HASH);
 
         env.execute("TuningKeyedStateDeduplication");
     }
@@ -0,0 +1,91 @@
+package com.zhisheng.project.deduplication.utils;
+
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+
+/**
+ * @author fanrui
+ * @date 2019-11-12 10:05:31
+ * @desc 存放在 byte[] 里的 Bloom Filter，方便直接放进 Flink 状态
+ * byte[] 的布局：[0, 4) 已插入的元素个数，[4] hash 函数个数，之后是 bit 数组，
+ * hash 函数个数写在 filter 里，配置变化后从状态恢复的旧 filter 仍然可以正确判断
+ */
+public class BloomFilterUtil {
+
+    private static final int HEADER_SIZE = 5;
+
+    /**
+     * 按预期元素个数和误判率创建 filter
+     */
+    public static byte[] create(long expectedInsertions, double fpp) {
+        if (expectedInsertions <= 0 || fpp <= 0 || fpp >= 1) {
+            throw new IllegalArgumentException("expectedInsertions must be positive and fpp must be in (0, 1), but are "
+                    + expectedInsertions + ", " + fpp);
+        }
+        long bits = (long) (-expectedInsertions * Math.log(fpp) / (Math.log(2) * Math.log(2)));
+        bits = Math.max(64, (bits + 7) / 8 * 8);
+        if (bits / 8 + HEADER_SIZE > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("bloom filter too large: " + bits + " bits");
+        }
+        int hashFunctions = Math.max(1, (int) Math.round((double) bits / expectedInsertions * Math.log(2)));
+        byte[] filter = new byte[(int) (bits / 8) + HEADER_SIZE];
+        filter[4] = (byte) Math.min(hashFunctions, Byte.MAX_VALUE);
+        return filter;
+    }
+
+    /**
+     * 对 id 做一次 murmur3_128，结果作为 mightContain / put 的 hash
+     */
+    public static HashCode hash(String id) {
+        return Hashing.murmur3_128().hashUnencodedChars(id);
+    }
+
+    public static boolean mightContain(byte[] filter, long hash1, long hash2) {
+        long bits = (long) (filter.length - HEADER_SIZE) * 8;
+        int hashFunctions = filter[4];
+        long combined = hash1;
+        for (int i = 0; i < hashFunctions; i++) {
+            long index = (combined & Long.MAX_VALUE) % bits;
+            if ((filter[HEADER_SIZE + (int) (index >>> 3)] & (1 << (index & 7))) == 0) {
+                return false;
+            }
+            combined += hash2;
+        }
+        return true;
+    }
+
+    /**
+     * @return bit 数组是否有变化（没有变化说明该元素可能已经存在）
+     */
+    public static boolean put(byte[] filter, long hash1, long hash2) {
+        long bits = (long) (filter.length - HEADER_SIZE) * 8;
+        int hashFunctions = filter[4];
+        long combined = hash1;
+        boolean changed = false;
+        for (int i = 0; i < hashFunctions; i++) {
+            long index = (combined & Long.MAX_VALUE) % bits;
+            int offset = HEADER_SIZE + (int) (index >>> 3);
+            int mask = 1 << (index & 7);
+            if ((filter[offset] & mask) == 0) {
+                filter[offset] |= mask;
+                changed = true;
+            }
+            combined += hash2;
+        }
+        if (changed) {
+            setCount(filter, count(filter) + 1);
+        }
+        return changed;
+    }
+
+    public static int count(byte[] filter) {
+        return ((filter[0] & 0xFF) << 24) | ((filter[1] & 0xFF) << 16) | ((filter[2] & 0xFF) << 8) | (filter[3] & 0xFF);
+    }
+
+    private static void setCount(byte[] filter, int count) {
+        filter[0] = (byte) (count >>> 24);
+        filter[1] = (byte) (count >>> 16);
+        filter[2] = (byte) (count >>> 8);
+        filter[3] = (byte) count;
+    }
+}
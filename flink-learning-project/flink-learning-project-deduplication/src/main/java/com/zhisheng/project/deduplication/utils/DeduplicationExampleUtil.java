@@ -34,17 +34,7 @@ public class DeduplicationExampleUtil {
 
         // 生成 0~9 的随机数做为 appId
         for(int i = 0; i<10; i++){
-            String yyyyMMdd = new DateTime(System.currentTimeMillis()).toString("yyyyMMdd");
-            int pageId = random.nextInt(10);    // 随机生成页面 id
-            int userId = random.nextInt(100);   // 随机生成用户 id
-
-            UserVisitWebEvent userVisitWebEvent = UserVisitWebEvent.builder()
-                    .id(UUID.randomUUID().toString())   // 日志的唯一 id
-                    .date(yyyyMMdd)                     // 日期
-                    .pageId(pageId)                     // 页面 id
-                    .userId(Integer.toString(userId))   // 用户 id
-                    .url("url/" + pageId)               // 页面的 url
-                    .build();
+            UserVisitWebEvent userVisitWebEvent = buildUserVisitWebEvent(UUID.randomUUID().toString(), random);
             // 对象序列化为 JSON 发送到 Kafka
             ProducerRecord record = new ProducerRecord<String, String>(topic,
                     null, null, GsonUtil.toJson(userVisitWebEvent));
@@ -54,6 +44,66 @@ public class DeduplicationExampleUtil {
         producer.flush();
     }
 
+    public static UserVisitWebEvent buildUserVisitWebEvent(String id, Random random) {
+        String yyyyMMdd = new DateTime(System.currentTimeMillis()).toString("yyyyMMdd");
+        int pageId = random.nextInt(10);    // 随机生成页面 id
+        int userId = random.nextInt(100);   // 随机生成用户 id
+
+        return UserVisitWebEvent.builder()
+                .id(id)                             // 日志的唯一 id
+                .date(yyyyMMdd)                     // 日期
+                .pageId(pageId)                     // 页面 id
+                .userId(Integer.toString(userId))   // 用户 id
+                .url("url/" + pageId)               // 页面的 url
+                .build();
+    }
+
+    /**
+     * 生成可以控制重复比例的 id 序列，用于对比各种去重方式：
+     * 每个 id 以 duplicateRatio 的概率重复之前出现过的 id，否则生成一个新的 UUID；
+     * 重复的 id 从最近生成的 cardinality 个新 id 里选，skew = 0 时均匀选取，skew 越大越集中在最近的 id 上
+     */
+    public static class IdGenerator {
+        private final Random random;
+        private final double duplicateRatio;
+        private final double skew;
+        private final String[] recent;
+        private long unique;
+
+        public IdGenerator(long seed, double duplicateRatio, double skew, int cardinality) {
+            if (duplicateRatio < 0 || duplicateRatio >= 1 || skew < 0 || cardinality <= 0) {
+                throw new IllegalArgumentException("duplicateRatio must be in [0, 1), skew must be non-negative and cardinality must be positive, but are "
+                        + duplicateRatio + ", " + skew + ", " + cardinality);
+            }
+            this.random = new Random(seed);
+            this.duplicateRatio = duplicateRatio;
+            this.skew = skew;
+            this.recent = new String[cardinality];
+        }
+
+        public String next() {
+            if (unique > 0 && random.nextDouble() < duplicateRatio) {
+                long window = Math.min(unique, recent.length);
+                long back = (long) (window * Math.pow(random.nextDouble(), 1 + skew));
+                return recent[(int) ((unique - 1 - back) % recent.length)];
+            }
+            String id = new UUID(random.nextLong(), random.nextLong()).toString();
+            recent[(int) (unique++ % recent.length)] = id;
+            return id;
+        }
+
+        /**
+         * 目前为止生成的不重复 id 个数
+         */
+        public long unique() {
+            return unique;
+        }
+
+        public Random random() {
+            return random;
+        }
+    }
+
     public static void main(String[] args) throws InterruptedException {
         while (true) {
             Thread.sleep(100);
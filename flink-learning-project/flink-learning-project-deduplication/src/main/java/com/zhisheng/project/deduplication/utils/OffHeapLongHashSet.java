@@ -0,0 +1,202 @@
+package com.zhisheng.project.deduplication.utils;
+
+import org.apache.flink.core.memory.MemorySegment;
+import org.apache.flink.core.memory.MemorySegmentFactory;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * @author fanrui
+ * @date 2019-11-13 10:12:45
+ * @desc 堆外的 long 集合，开放寻址 + 线性探测，每个元素只占一个 8 字节的槽位，没有对象头和序列化开销，也不会给 GC 增加压力
+ * 0 用来表示空槽位，集合里的 0 单独用一个标记位记录；负载因子超过 0.5 时容量翻倍
+ * 快照时把元素排序后按差值写成变长整数（varint），元素是均匀分布的 hash 值时每个元素约 6 字节（n 为千万级时）
+ * 用完必须调用 free() 释放堆外内存
+ */
+public class OffHeapLongHashSet {
+
+    // 单个 MemorySegment 最大 1G，即 2^27 个槽位
+    private static final int MAX_CAPACITY = 1 << 27;
+    private static final int MIN_CAPACITY = 16;
+
+    private MemorySegment slots;
+    private int capacity;
+    private int mask;
+    private int size;
+    private boolean containsZero;
+
+    public OffHeapLongHashSet(int expectedSize) {
+        allocate(capacityFor(expectedSize));
+    }
+
+    /**
+     * @return 元素之前不存在返回 true
+     */
+    public boolean add(long value) {
+        if (value == 0) {
+            if (containsZero) {
+                return false;
+            }
+            containsZero = true;
+            return true;
+        }
+        int index = index(value);
+        while (true) {
+            long current = slots.getLong(index << 3);
+            if (current == 0) {
+                break;
+            }
+            if (current == value) {
+                return false;
+            }
+            index = (index + 1) & mask;
+        }
+        slots.putLong(index << 3, value);
+        if (++size > capacity >>> 1) {
+            grow();
+        }
+        return true;
+    }
+
+    public boolean contains(long value) {
+        if (value == 0) {
+            return containsZero;
+        }
+        int index = index(value);
+        while (true) {
+            long current = slots.getLong(index << 3);
+            if (current == value) {
+                return true;
+            }
+            if (current == 0) {
+                return false;
+            }
+            index = (index + 1) & mask;
+        }
+    }
+
+    public int size() {
+        return containsZero ? size + 1 : size;
+    }
+
+    /**
+     * 占用的堆外内存字节数
+     */
+    public long memorySize() {
+        return (long) capacity << 3;
+    }
+
+    public void free() {
+        if (slots != null) {
+            slots.free();
+            slots = null;
+        }
+    }
+
+    /**
+     * 格式：元素个数 (int) + 排好序的元素，第一个元素和 Long.MIN_VALUE 的差、之后每个元素和前一个元素的差按无符号 varint 写出
+     * 有符号排序后相邻元素的差按无符号看不会溢出，读的时候直接累加即可
+     */
+    public void writeSorted(DataOutput out) throws IOException {
+        long[] values = new long[size()];
+        int n = 0;
+        if (containsZero) {
+            values[n++] = 0;
+        }
+        for (int i = 0; i < capacity; i++) {
+            long value = slots.getLong(i << 3);
+            if (value != 0) {
+                values[n++] = value;
+            }
+        }
+        Arrays.sort(values);
+
+        out.writeInt(values.length);
+        // 先编码到缓冲区再整块写出，避免逐字节写 checkpoint 流
+        byte[] buffer = new byte[8192];
+        int position = 0;
+        long previous = Long.MIN_VALUE;
+        for (long value : values) {
+            if (position > buffer.length - 10) {
+                out.write(buffer, 0, position);
+                position = 0;
+            }
+            long delta = value - previous;
+            while ((delta & ~0x7FL) != 0) {
+                buffer[position++] = (byte) ((delta & 0x7F) | 0x80);
+                delta >>>= 7;
+            }
+            buffer[position++] = (byte) delta;
+            previous = value;
+        }
+        out.write(buffer, 0, position);
+    }
+
+    public static OffHeapLongHashSet readSorted(DataInput in) throws IOException {
+        int count = in.readInt();
+        OffHeapLongHashSet set = new OffHeapLongHashSet(count);
+        long previous = Long.MIN_VALUE;
+        for (int i = 0; i < count; i++) {
+            long delta = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = in.readByte();
+                delta |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            previous += delta;
+            set.add(previous);
+        }
+        return set;
+    }
+
+    private int index(long value) {
+        // 元素一般已经是 hash 值，这里再打散一次，避免有规律的输入聚集在一起
+        long h = value * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+
+    private void grow() {
+        if (capacity >= MAX_CAPACITY) {
+            throw new IllegalStateException("OffHeapLongHashSet is full, size = " + size);
+        }
+        MemorySegment old = slots;
+        int oldCapacity = capacity;
+        allocate(capacity << 1);
+        for (int i = 0; i < oldCapacity; i++) {
+            long value = old.getLong(i << 3);
+            if (value != 0) {
+                int index = index(value);
+                while (slots.getLong(index << 3) != 0) {
+                    index = (index + 1) & mask;
+                }
+                slots.putLong(index << 3, value);
+                size++;
+            }
+        }
+        old.free();
+    }
+
+    private void allocate(int capacity) {
+        this.capacity = capacity;
+        this.mask = capacity - 1;
+        this.size = 0;
+        this.slots = MemorySegmentFactory.allocateOffHeapUnsafeMemory(capacity << 3);
+        // 堆外内存不保证清零
+        for (int i = 0; i < capacity; i++) {
+            slots.putLong(i << 3, 0L);
+        }
+    }
+
+    private static int capacityFor(int expectedSize) {
+        long capacity = MIN_CAPACITY;
+        while (capacity < MAX_CAPACITY && capacity >>> 1 < expectedSize) {
+            capacity <<= 1;
+        }
+        return (int) capacity;
+    }
+}
@@ -0,0 +1,399 @@
+import com.google.common.hash.Hashing;
+import com.zhisheng.project.deduplication.BloomFilterDeduplication;
+import com.zhisheng.project.deduplication.KeyedStateDeduplication;
+import com.zhisheng.project.deduplication.OffHeapStateDeduplication;
+import com.zhisheng.project.deduplication.TimeBucketedDeduplication;
+import com.zhisheng.project.deduplication.model.UserVisitWebEvent;
+import com.zhisheng.project.deduplication.utils.DeduplicationExampleUtil;
+import org.apache.flink.api.common.JobID;
+import org.apache.flink.api.common.functions.RuntimeContext;
+import org.apache.flink.api.common.typeinfo.TypeInformation;
+import org.apache.flink.api.java.functions.KeySelector;
+import org.apache.flink.api.java.utils.ParameterTool;
+import org.apache.flink.configuration.Configuration;
+import org.apache.flink.configuration.MemorySize;
+import org.apache.flink.configuration.TaskManagerOptions;
+import org.apache.flink.configuration.WebOptions;
+import org.apache.flink.contrib.streaming.state.EmbeddedRocksDBStateBackend;
+import org.apache.flink.runtime.checkpoint.AbstractCheckpointStats;
+import org.apache.flink.runtime.checkpoint.CompletedCheckpointStats;
+import org.apache.flink.runtime.execution.ExecutionState;
+import org.apache.flink.runtime.executiongraph.AccessExecutionGraph;
+import org.apache.flink.runtime.executiongraph.AccessExecutionVertex;
+import org.apache.flink.runtime.jobgraph.JobGraph;
+import org.apache.flink.runtime.jobgraph.SavepointRestoreSettings;
+import org.apache.flink.runtime.minicluster.MiniCluster;
+import org.apache.flink.runtime.minicluster.MiniClusterConfiguration;
+import org.apache.flink.runtime.state.hashmap.HashMapStateBackend;
+import org.apache.flink.streaming.api.datastream.DataStream;
+import org.apache.flink.streaming.api.environment.CheckpointConfig;
+import org.apache.flink.streaming.api.environment.StreamExecutionEnvironment;
+import org.apache.flink.streaming.api.functions.sink.RichSinkFunction;
+import org.apache.flink.streaming.api.functions.source.RichParallelSourceFunction;
+import org.apache.flink.util.FileUtils;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * @author fanrui
+ * @date 2019-11-15 14:08:52
+ * @desc 在本地 MiniCluster 上对比各种去重方式（keyed / tuning / bloom / offheap / bucketed）在 heap 和 rocksdb 状态后端下的表现，
+ * 数据由 DeduplicationExampleUtil.IdGenerator 生成，可以调整重复比例、重复 id 的集中程度和重复 id 的取值范围，输出：
+ * 吞吐、p99 延迟（source 到去重之后，1/16 采样）、最后一个 Checkpoint 的大小、Checkpoint 的平均耗时、从 Checkpoint 恢复到所有 task RUNNING 的耗时
+ * --rate 为 0 时 source 不限速，测出来的是最大吞吐，延迟主要是排队时间；测延迟时把 --rate 设成最大吞吐的 70% 左右
+ * keyed 和 tuning 是 sink，延迟包括重复数据，其他方式只统计去重后输出的数据
+ * 参数：--total 5000000 --rate 0 --parallelism 4 --duplicateRatio 0.3 --skew 1 --cardinality 1000000
+ * --strategies keyed,tuning,bloom,offheap,bucketed --backends heap,rocksdb --checkpointInterval 2000
+ */
+public class DeduplicationBenchmark {
+
+    private static final int NUM_BUCKETS = 16384;
+
+    public static void main(String[] args) throws Exception {
+        ParameterTool params = ParameterTool.fromArgs(args);
+        Options options = new Options();
+        options.total = params.getLong("total", 5_000_000L);
+        options.rate = params.getLong("rate", 0);
+        options.parallelism = params.getInt("parallelism", 4);
+        options.duplicateRatio = params.getDouble("duplicateRatio", 0.3);
+        options.skew = params.getDouble("skew", 1);
+        options.cardinality = params.getInt("cardinality", 1_000_000);
+        options.checkpointInterval = params.getLong("checkpointInterval", 2000);
+
+        Configuration configuration = new Configuration();
+        configuration.set(TaskManagerOptions.MANAGED_MEMORY_SIZE, MemorySize.parse("512m"));
+        configuration.set(WebOptions.CHECKPOINTS_HISTORY_SIZE, 1000);
+        MiniCluster cluster = new MiniCluster(new MiniClusterConfiguration.Builder()
+                .setConfiguration(configuration)
+                .setNumTaskManagers(1)
+                .setNumSlotsPerTaskManager(options.parallelism)
+                .build());
+        cluster.start();
+        try {
+            List<String> results = new ArrayList<>();
+            for (String backend : params.get("backends", "heap,rocksdb").split(",")) {
+                for (String strategy : params.get("strategies", "keyed,tuning,bloom,offheap,bucketed").split(",")) {
+                    results.add(run(cluster, strategy.trim(), backend.trim(), options));
+                    System.out.println(results.get(results.size() - 1));
+                }
+            }
+            System.out.println("===== total " + options.total + ", rate " + options.rate + ", parallelism " + options.parallelism
+                    + ", duplicateRatio " + options.duplicateRatio + ", skew " + options.skew + ", cardinality " + options.cardinality);
+            results.forEach(System.out::println);
+        } finally {
+            cluster.close();
+        }
+    }
+
+    private static String run(MiniCluster cluster, String strategy, String backend, Options options) throws Exception {
+        File checkpointDir = Files.createTempDirectory("deduplication-benchmark").toFile();
+        try {
+            SyntheticSource.reset();
+            LatencySink.reset();
+
+            // 写数据，所有数据处理完之后的第一个 Checkpoint 完成时，所有数据都已经经过去重算子
+            JobGraph jobGraph = buildJob(strategy, backend, checkpointDir, options, options.total);
+            JobID jobId = jobGraph.getJobID();
+            cluster.submitJob(jobGraph).get();
+            while (SyntheticSource.FINISHED.get() < options.parallelism) {
+                checkRunning(cluster, jobId);
+                Thread.sleep(50);
+            }
+            long sourceFinished = System.currentTimeMillis();
+            while (latestCompleted(cluster.getExecutionGraph(jobId).get(), sourceFinished) == null) {
+                checkRunning(cluster, jobId);
+                Thread.sleep(50);
+            }
+            long nanos = Math.max(1, LatencySink.LAST.get() - SyntheticSource.START.get());
+            long p99 = LatencySink.percentile(0.99);
+
+            cluster.cancelJob(jobId).get();
+            waitTerminated(cluster, jobId);
+            AccessExecutionGraph graph = cluster.getExecutionGraph(jobId).get();
+            CompletedCheckpointStats latest = latestCompleted(graph, 0);
+            long checkpoints = 0;
+            long checkpointDuration = 0;
+            for (AbstractCheckpointStats stats : graph.getCheckpointStatsSnapshot().getHistory().getCheckpoints()) {
+                if (stats instanceof CompletedCheckpointStats) {
+                    checkpoints++;
+                    checkpointDuration += stats.getEndToEndDuration();
+                }
+            }
+
+            // 从保留下来的 Checkpoint 恢复一个不发数据的作业，所有 task 进入 RUNNING 说明状态已经恢复完
+            JobGraph restoreGraph = buildJob(strategy, backend, checkpointDir, options, 0);
+            restoreGraph.setSavepointRestoreSettings(SavepointRestoreSettings.forPath(latest.getExternalPath(), false));
+            long restoreStart = System.nanoTime();
+            cluster.submitJob(restoreGraph).get();
+            while (!allRunning(cluster.getExecutionGraph(restoreGraph.getJobID()).get())) {
+                checkRunning(cluster, restoreGraph.getJobID());
+                Thread.sleep(10);
+            }
+            long restoreMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - restoreStart);
+            cluster.cancelJob(restoreGraph.getJobID()).get();
+            waitTerminated(cluster, restoreGraph.getJobID());
+
+            return String.format("%-9s %-8s %,12d records/s  p99 %,9.2f ms  checkpoint %,14d bytes  avg %,7d ms (%d)  restore %,7d ms  output ~%,d",
+                    strategy, backend, options.total * 1_000_000_000L / nanos, p99 / 1000.0,
+                    latest.getStateSize(), checkpointDuration / Math.max(1, checkpoints), checkpoints, restoreMillis, LatencySink.RECEIVED.get());
+        } finally {
+            FileUtils.deleteDirectory(checkpointDir);
+        }
+    }
+
+    private static JobGraph buildJob(String strategy, String backend, File checkpointDir, Options options, long total) {
+        StreamExecutionEnvironment env = StreamExecutionEnvironment.getExecutionEnvironment();
+        env.setParallelism(options.parallelism);
+        if ("rocksdb".equals(backend)) {
+            env.setStateBackend(new EmbeddedRocksDBStateBackend(true));
+        } else if ("heap".equals(backend)) {
+            env.setStateBackend(new HashMapStateBackend());
+        } else {
+            throw new IllegalArgumentException("unknown backend " + backend);
+        }
+        env.enableCheckpointing(options.checkpointInterval);
+        CheckpointConfig checkpointConf = env.getCheckpointConfig();
+        checkpointConf.setCheckpointStorage(checkpointDir.toURI().toString());
+        checkpointConf.enableExternalizedCheckpoints(CheckpointConfig.ExternalizedCheckpointCleanup.RETAIN_ON_CANCELLATION);
+
+        DataStream<UserVisitWebEvent> events = env.addSource(new SyntheticSource(total / options.parallelism,
+                options.rate / options.parallelism, options.duplicateRatio, options.skew, options.cardinality / options.parallelism))
+                .uid("source");
+
+        long expectedIds = (long) (options.total * (1 - options.duplicateRatio));
+        switch (strategy) {
+            case "keyed":
+                events.keyBy((KeySelector<UserVisitWebEvent, String>) UserVisitWebEvent::getId)
+                        .addSink(new LatencySink(new KeyedStateDeduplication.KeyedStateSink())).uid("deduplicate");
+                break;
+            case "tuning":
+                events.keyBy((KeySelector<UserVisitWebEvent, Long>) log ->
+                        Hashing.murmur3_128(5).hashUnencodedChars(log.getId()).asLong())
+                        .addSink(new LatencySink(new KeyedStateDeduplication.KeyedStateSink())).uid("deduplicate");
+                break;
+            case "bloom":
+                events.keyBy((KeySelector<UserVisitWebEvent, Integer>) log -> BloomFilterDeduplication.bucket(log.getId(), NUM_BUCKETS))
+                        .process(new BloomFilterDeduplication.BloomFilterDeduplicateFunction(TimeUnit.HOURS.toMillis(36),
+                                TimeUnit.HOURS.toMillis(1), Math.max(256, expectedIds / NUM_BUCKETS), 0.001)).uid("deduplicate")
+                        .addSink(new LatencySink(null)).uid("sink");
+                break;
+            case "offheap":
+                events.keyBy((KeySelector<UserVisitWebEvent, Long>) log ->
+                        Hashing.murmur3_128(5).hashUnencodedChars(log.getId()).asLong())
+                        .transform("OffHeapDeduplicate", TypeInformation.of(UserVisitWebEvent.class),
+                                new OffHeapStateDeduplication.OffHeapDeduplicateOperator(TimeUnit.HOURS.toMillis(36), TimeUnit.HOURS.toMillis(6), 1024))
+                        .uid("deduplicate")
+                        .addSink(new LatencySink(null)).uid("sink");
+                break;
+            case "bucketed":
+                events.keyBy((KeySelector<UserVisitWebEvent, Integer>) log -> BloomFilterDeduplication.bucket(log.getId(), NUM_BUCKETS))
+                        .transform("TimeBucketedDeduplicate", TypeInformation.of(UserVisitWebEvent.class),
+                                new TimeBucketedDeduplication.TimeBucketedDeduplicateOperator(TimeUnit.HOURS.toMillis(36), TimeUnit.HOURS.toMillis(1)))
+                        .uid("deduplicate")
+                        .addSink(new LatencySink(null)).uid("sink");
+                break;
+            default:
+                throw new IllegalArgumentException("unknown strategy " + strategy);
+        }
+        return env.getStreamGraph().getJobGraph();
+    }
+
+    private static CompletedCheckpointStats latestCompleted(AccessExecutionGraph graph, long triggeredAfter) {
+        if (graph.getCheckpointStatsSnapshot() == null) {
+            return null;
+        }
+        CompletedCheckpointStats latest = null;
+        for (AbstractCheckpointStats stats : graph.getCheckpointStatsSnapshot().getHistory().getCheckpoints()) {
+            if (stats instanceof CompletedCheckpointStats && stats.getTriggerTimestamp() >= triggeredAfter
+                    && (latest == null || stats.getCheckpointId() > latest.getCheckpointId())) {
+                latest = (CompletedCheckpointStats) stats;
+            }
+        }
+        return latest;
+    }
+
+    private static boolean allRunning(AccessExecutionGraph graph) {
+        for (AccessExecutionVertex vertex : graph.getAllExecutionVertices()) {
+            if (vertex.getExecutionState() != ExecutionState.RUNNING) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void checkRunning(MiniCluster cluster, JobID jobId) throws Exception {
+        AccessExecutionGraph graph = cluster.getExecutionGraph(jobId).get();
+        if (graph.getState().isGloballyTerminalState()) {
+            throw new IllegalStateException("job " + jobId + " is " + graph.getState()
+                    + (graph.getFailureInfo() == null ? "" : ": " + graph.getFailureInfo().getExceptionAsString()));
+        }
+    }
+
+    private static void waitTerminated(MiniCluster cluster, JobID jobId) throws Exception {
+        while (!cluster.getJobStatus(jobId).get().isGloballyTerminalState()) {
+            Thread.sleep(10);
+        }
+    }
+
+    private static class Options {
+        long total;
+        long rate;
+        int parallelism;
+        double duplicateRatio;
+        double skew;
+        int cardinality;
+        long checkpointInterval;
+    }
+
+    /**
+     * 按目标速率发送 IdGenerator 生成的数据，数据的时间戳是发送时的 System.nanoTime()，用来计算延迟；
+     * 发完之后不退出，作业保持运行，方便之后的 Checkpoint 和 cancel
+     */
+    private static class SyntheticSource extends RichParallelSourceFunction<UserVisitWebEvent> {
+        static final AtomicLong START = new AtomicLong();
+        static final AtomicInteger FINISHED = new AtomicInteger();
+
+        private final long count;
+        private final long ratePerSecond;
+        private final double duplicateRatio;
+        private final double skew;
+        private final int cardinality;
+        private volatile boolean running = true;
+
+        private SyntheticSource(long count, long ratePerSecond, double duplicateRatio, double skew, int cardinality) {
+            this.count = count;
+            this.ratePerSecond = ratePerSecond;
+            this.duplicateRatio = duplicateRatio;
+            this.skew = skew;
+            this.cardinality = Math.max(1, cardinality);
+        }
+
+        static void reset() {
+            START.set(0);
+            FINISHED.set(0);
+        }
+
+        @Override
+        public void run(SourceContext<UserVisitWebEvent> ctx) throws Exception {
+            DeduplicationExampleUtil.IdGenerator generator = new DeduplicationExampleUtil.IdGenerator(
+                    getRuntimeContext().getIndexOfThisSubtask(), duplicateRatio, skew, cardinality);
+            long start = System.nanoTime();
+            START.compareAndSet(0, start);
+            for (long i = 0; i < count && running; i++) {
+                UserVisitWebEvent event = DeduplicationExampleUtil.buildUserVisitWebEvent(generator.next(), generator.random());
+                synchronized (ctx.getCheckpointLock()) {
+                    ctx.collectWithTimestamp(event, System.nanoTime());
+                }
+                if (ratePerSecond > 0 && (i & 1023) == 0) {
+                    long sleepNanos = i * 1_000_000_000L / ratePerSecond - (System.nanoTime() - start);
+                    if (sleepNanos > 1_000_000) {
+                        Thread.sleep(sleepNanos / 1_000_000);
+                    }
+                }
+            }
+            FINISHED.incrementAndGet();
+            while (running) {
+                Thread.sleep(10);
+            }
+        }
+
+        @Override
+        public void cancel() {
+            running = false;
+        }
+    }
+
+    /**
+     * 记录去重之后的延迟，deduplication 不为空时先交给它处理（KeyedStateSink 本身就是 sink）
+     * 延迟按 2 的幂分段、每段再分 8 份统计，误差在 12.5% 以内
+     */
+    private static class LatencySink extends RichSinkFunction<UserVisitWebEvent> {
+        static final AtomicLongArray BUCKETS = new AtomicLongArray(512);
+        static final AtomicLong LAST = new AtomicLong();
+        static final AtomicLong RECEIVED = new AtomicLong();
+
+        private final RichSinkFunction<UserVisitWebEvent> deduplication;
+        private transient long received;
+
+        private LatencySink(RichSinkFunction<UserVisitWebEvent> deduplication) {
+            this.deduplication = deduplication;
+        }
+
+        static void reset() {
+            for (int i = 0; i < BUCKETS.length(); i++) {
+                BUCKETS.set(i, 0);
+            }
+            LAST.set(0);
+            RECEIVED.set(0);
+        }
+
+        @Override
+        public void setRuntimeContext(RuntimeContext t) {
+            super.setRuntimeContext(t);
+            if (deduplication != null) {
+                deduplication.setRuntimeContext(t);
+            }
+        }
+
+        @Override
+        public void open(Configuration parameters) throws Exception {
+            if (deduplication != null) {
+                deduplication.open(parameters);
+            }
+        }
+
+        @Override
+        public void invoke(UserVisitWebEvent value, Context context) throws Exception {
+            if (deduplication != null) {
+                deduplication.invoke(value, context);
+            }
+            if ((received++ & 15) == 0 && context.timestamp() != null) {
+                long now = System.nanoTime();
+                BUCKETS.incrementAndGet(bucket(Math.max(1, (now - context.timestamp()) / 1000)));
+                LAST.accumulateAndGet(now, Math::max);
+                RECEIVED.addAndGet(16);
+            }
+        }
+
+        @Override
+        public void close() throws Exception {
+            if (deduplication != null) {
+                deduplication.close();
+            }
+        }
+
+        private static int bucket(long micros) {
+            if (micros < 8) {
+                return (int) micros;
+            }
+            int exp = 63 - Long.numberOfLeadingZeros(micros);
+            return (exp - 2) * 8 + (int) ((micros >>> (exp - 3)) & 7);
+        }
+
+        /**
+         * @return 微秒
+         */
+        static long percentile(double p) {
+            long total = 0;
+            for (int i = 0; i < BUCKETS.length(); i++) {
+                total += BUCKETS.get(i);
+            }
+            long target = (long) Math.ceil(total * p);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS.length(); i++) {
+                seen += BUCKETS.get(i);
+                if (seen >= target && seen > 0) {
+                    return i < 8 ? i : (8L + (i & 7)) << (i / 8 - 1);
+                }
+            }
+            return 0;
+        }
+    }
+}